@@ -0,0 +1,66 @@
+package com.lememo.sentinel.benchmark;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基准测试的启动类
+ * 依次以 1~64 个线程运行 benchmark，每一轮同时输出：
+ * ops/s（Throughput 模式）、p99 延迟（SampleTime 模式）以及每次调用分配的内存（gc profiler 的 gc.alloc.rate.norm）
+ *
+ * 启动参数：
+ * args[0] 需要运行的 benchmark 的正则，默认为 GuardedCallBenchmark
+ * args[1] 线程数列表，以逗号分隔，默认为 1,2,4,8,16,32,64
+ * @author houyi
+ * @date 2019-02-20
+ **/
+public class BenchmarkRunner {
+
+    private static final String DEFAULT_INCLUDE = GuardedCallBenchmark.class.getSimpleName();
+
+    private static final String DEFAULT_THREADS = "1,2,4,8,16,32,64";
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : DEFAULT_INCLUDE;
+        String threads = args.length > 1 ? args[1] : DEFAULT_THREADS;
+        for (String thread : threads.split(",")) {
+            int threadNum = Integer.parseInt(thread.trim());
+            // 吞吐量以 ops/s 输出，同时通过 gc profiler 统计每次调用分配的内存
+            run(baseOptions(include, threadNum)
+                    .mode(Mode.Throughput)
+                    .timeUnit(TimeUnit.SECONDS)
+                    .addProfiler(GCProfiler.class)
+                    .result("target/jmh-" + include + "-" + threadNum + "-threads-throughput.json"));
+            // 延迟以 us 输出，SampleTime 模式会给出 p99 等分位值
+            run(baseOptions(include, threadNum)
+                    .mode(Mode.SampleTime)
+                    .timeUnit(TimeUnit.MICROSECONDS)
+                    .result("target/jmh-" + include + "-" + threadNum + "-threads-latency.json"));
+        }
+    }
+
+    private static ChainedOptionsBuilder baseOptions(String include, int threadNum) {
+        return new OptionsBuilder()
+                .include(include)
+                .threads(threadNum)
+                .warmupIterations(3)
+                .warmupTime(TimeValue.seconds(2))
+                .measurementIterations(5)
+                .measurementTime(TimeValue.seconds(2))
+                .forks(1)
+                .resultFormat(ResultFormatType.JSON);
+    }
+
+    private static void run(ChainedOptionsBuilder builder) throws RunnerException {
+        new Runner(builder.build()).run();
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.lememo.sentinel.benchmark;
+
+import com.alibaba.csp.sentinel.Entry;
+import com.alibaba.csp.sentinel.EntryType;
+import com.alibaba.csp.sentinel.SphU;
+import com.alibaba.csp.sentinel.slots.block.BlockException;
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRuleManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * 受保护调用的基准测试
+ * 每个 benchmark 方法都和 sentinel-practice 中对应方法的 entry/exit 写法保持一致：
+ * <ul>
+ *     <li>userServiceGetUser：UserService.getUser</li>
+ *     <li>testSentinel：dashboard 模块的 FlowController.testSentinel</li>
+ *     <li>freqParamFlow：FreqParamFlowController.freqParamFlow，带热点参数</li>
+ *     <li>freqParamFlowWithoutParam：FreqParamFlowController.freqParamFlowWithoutParam，不带热点参数</li>
+ *     <li>clusterFlow：ClusterFlowClientController.clusterFlow</li>
+ * </ul>
+ * 通过 outcome 参数控制规则的阈值，pass 时所有请求都通过，block 时所有请求都被限流
+ * @author houyi
+ * @date 2019-02-20
+ **/
+@State(Scope.Benchmark)
+public class GuardedCallBenchmark {
+
+    static final String USER_RES = "userResource";
+    static final String DASHBOARD_RES = "testSentinel";
+    static final String FREQ_PARAM_RES = "freqParam";
+    static final String CLUSTER_RES = "cluster-resource";
+
+    /**
+     * 请求的结果，pass：全部通过，block：全部被限流
+     */
+    @Param({"pass", "block"})
+    public String outcome;
+
+    @Setup
+    public void loadRules() {
+        // 通过阈值的大小来控制请求是通过还是被限流
+        double count = "pass".equals(outcome) ? Integer.MAX_VALUE : 0;
+        FlowRuleManager.loadRules(Arrays.asList(
+                qpsRule(USER_RES, count),
+                qpsRule(DASHBOARD_RES, count),
+                // 集群规则在没有 token server 的时候会退化为本地限流，这里直接用本地规则来衡量 entry/exit 的开销
+                qpsRule(CLUSTER_RES, count)));
+        ParamFlowRule paramRule = new ParamFlowRule(FREQ_PARAM_RES)
+                .setParamIdx(0)
+                .setGrade(RuleConstant.FLOW_GRADE_QPS)
+                .setCount(count);
+        ParamFlowRuleManager.loadRules(Collections.singletonList(paramRule));
+    }
+
+    private static FlowRule qpsRule(String resource, double count) {
+        FlowRule rule = new FlowRule();
+        rule.setResource(resource);
+        rule.setGrade(RuleConstant.FLOW_GRADE_QPS);
+        rule.setCount(count);
+        rule.setLimitApp(RuleConstant.LIMIT_APP_DEFAULT);
+        rule.setStrategy(RuleConstant.STRATEGY_DIRECT);
+        rule.setControlBehavior(RuleConstant.CONTROL_BEHAVIOR_DEFAULT);
+        return rule;
+    }
+
+    /**
+     * 每个线程持有自己的 uid 序列
+     * uid 事先装箱好，和 Spring MVC 传给 controller 的 Long 参数一致
+     */
+    @State(Scope.Thread)
+    public static class UidSequence {
+        private static final int UID_COUNT = 1024;
+        private final Long[] uids = new Long[UID_COUNT];
+        private int index;
+
+        @Setup
+        public void init() {
+            for (int i = 0; i < UID_COUNT; i++) {
+                uids[i] = (long) i;
+            }
+        }
+
+        Long next() {
+            index = (index + 1) & (UID_COUNT - 1);
+            return uids[index];
+        }
+    }
+
+    @Benchmark
+    public Object userServiceGetUser(UidSequence seq, Blackhole bh) {
+        Long uid = seq.next();
+        Entry entry = null;
+        try {
+            entry = SphU.entry(USER_RES);
+            // 和 UserService 一样构造返回值
+            return "user-" + uid;
+        } catch (BlockException e) {
+            // UserService 在这里会打印日志，为了不让 IO 干扰测试结果，只构造同样的字符串
+            bh.consume("[getUser] has been protected! Time=" + System.currentTimeMillis());
+        } finally {
+            if (entry != null) {
+                entry.exit();
+            }
+        }
+        return null;
+    }
+
+    @Benchmark
+    public String testSentinel() {
+        Entry entry = null;
+        String retVal;
+        try {
+            entry = SphU.entry(DASHBOARD_RES, EntryType.IN);
+            retVal = "passed";
+        } catch (BlockException e) {
+            retVal = "blocked";
+        } finally {
+            if (entry != null) {
+                entry.exit();
+            }
+        }
+        return retVal;
+    }
+
+    @Benchmark
+    public String freqParamFlow(UidSequence seq) {
+        Long uid = seq.next();
+        Entry entry = null;
+        String retVal;
+        try {
+            entry = SphU.entry(FREQ_PARAM_RES, EntryType.IN, 1, uid);
+            retVal = "passed";
+        } catch (BlockException e) {
+            retVal = "blocked";
+        } finally {
+            if (entry != null) {
+                entry.exit();
+            }
+        }
+        return retVal;
+    }
+
+    @Benchmark
+    public String freqParamFlowWithoutParam() {
+        Entry entry = null;
+        String retVal;
+        try {
+            entry = SphU.entry(FREQ_PARAM_RES, EntryType.IN, 1);
+            retVal = "passed";
+        } catch (BlockException e) {
+            retVal = "blocked";
+        } finally {
+            if (entry != null) {
+                entry.exit();
+            }
+        }
+        return retVal;
+    }
+
+    @Benchmark
+    public String clusterFlow() {
+        Entry entry = null;
+        String retVal;
+        try {
+            entry = SphU.entry(CLUSTER_RES, EntryType.IN, 1);
+            retVal = "passed";
+        } catch (BlockException e) {
+            retVal = "blocked";
+        } finally {
+            if (entry != null) {
+                entry.exit();
+            }
+        }
+        return retVal;
+    }
+
+}
@@ -0,0 +1,84 @@
+package com.lememo.sentinel.benchmark;
+
+import com.alibaba.csp.sentinel.datasource.Converter;
+import com.alibaba.csp.sentinel.slots.block.ClusterRuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowClusterConfig;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowItem;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
+import com.alibaba.fastjson.JSON;
+import com.lememo.sentinel.persistence.BinaryRuleCodec;
+import com.lememo.sentinel.persistence.RuleConverters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 热点参数规则的解析测试
+ * 50000 条集群热点参数规则，每条规则带有若干个参数例外项，模拟 token server 从 Nacos 收到一次规则推送
+ * json：fastjson 解析（原来的转换方式），base64Binary：RuleConverters 解析 Base64 编码的二进制规则，
+ * binary：直接从 ByteBuffer 解码二进制规则（本地文件数据源的情况）
+ *
+ * 运行方式：BenchmarkRunner RuleDecodeBenchmark 1
+ * @author houyi
+ * @date 2019-03-04
+ **/
+@State(Scope.Benchmark)
+public class RuleDecodeBenchmark {
+
+    private static final int RULE_COUNT = 50000;
+
+    @Param({"json", "base64Binary", "binary"})
+    public String format;
+
+    @Param({"4"})
+    public int itemsPerRule;
+
+    private final Converter<String, List<ParamFlowRule>> converter = RuleConverters.paramFlowRules();
+
+    private String source;
+
+    private ByteBuffer binary;
+
+    @Setup
+    public void init() {
+        List<ParamFlowRule> rules = new ArrayList<>(RULE_COUNT);
+        for (int i = 0; i < RULE_COUNT; i++) {
+            List<ParamFlowItem> items = new ArrayList<>(itemsPerRule);
+            for (int j = 0; j < itemsPerRule; j++) {
+                items.add(new ParamFlowItem()
+                        .setObject(String.valueOf(i * 1000L + j))
+                        .setCount(j + 1)
+                        .setClassType(long.class.getName()));
+            }
+            ParamFlowRule rule = new ParamFlowRule();
+            rule.setResource("resource-" + (i % 100));
+            rule.setParamIdx(0)
+                    .setCount(100)
+                    .setClusterMode(true)
+                    .setClusterConfig(new ParamFlowClusterConfig()
+                            .setFlowId((long) i)
+                            .setThresholdType(ClusterRuleConstant.FLOW_THRESHOLD_GLOBAL)
+                            .setFallbackToLocalWhenFail(true))
+                    .setParamFlowItemList(items);
+            rules.add(rule);
+        }
+        byte[] bytes = BinaryRuleCodec.encodeParamFlowRules(rules);
+        binary = ByteBuffer.wrap(bytes);
+        source = "json".equals(format) ? JSON.toJSONString(rules) : RuleConverters.toBase64(bytes);
+    }
+
+    @Benchmark
+    public List<ParamFlowRule> decode() throws Exception {
+        if ("binary".equals(format)) {
+            return BinaryRuleCodec.decodeParamFlowRules(binary);
+        }
+        return converter.convert(source);
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.lememo.sentinel.benchmark;
+
+import com.alibaba.csp.sentinel.Entry;
+import com.alibaba.csp.sentinel.SphU;
+import com.alibaba.csp.sentinel.slots.block.BlockException;
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+import com.lememo.sentinel.slotchain.SpecializedSlotChainBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+
+/**
+ * 默认的调用链和按规则生成的调用链的对比
+ * userResource 上只有一条 FlowRule，阈值为 Integer.MAX_VALUE，所有请求都能通过
+ * stock：classpath 中有 sentinel-parameter-flow-control，默认使用 HotParamSlotChainBuilder 创建的 9 个 slot
+ * specialized：SpecializedSlotChainBuilder，只经过 NodeSelectorSlot、ClusterBuilderSlot、StatisticSlot 和 FlowSlot
+ * SlotChainProvider 中的 builder 是全局的，每个参数在单独的 fork 中运行，互不影响
+ *
+ * 运行方式：BenchmarkRunner SlotChainBenchmark 1
+ * @author houyi
+ * @date 2019-03-12
+ **/
+@State(Scope.Benchmark)
+public class SlotChainBenchmark {
+
+    private static final String USER_RES = "userResource";
+
+    @Param({"stock", "specialized"})
+    public String chain;
+
+    @Setup
+    public void init() {
+        if ("specialized".equals(chain)) {
+            // 必须在第一次 SphU.entry 之前
+            SpecializedSlotChainBuilder.install();
+        }
+        FlowRule rule = new FlowRule();
+        rule.setResource(USER_RES);
+        rule.setGrade(RuleConstant.FLOW_GRADE_QPS);
+        rule.setCount(Integer.MAX_VALUE);
+        rule.setLimitApp(RuleConstant.LIMIT_APP_DEFAULT);
+        FlowRuleManager.loadRules(Collections.singletonList(rule));
+    }
+
+    @Benchmark
+    public boolean getUser() {
+        Entry entry = null;
+        try {
+            entry = SphU.entry(USER_RES);
+            return true;
+        } catch (BlockException e) {
+            return false;
+        } finally {
+            if (entry != null) {
+                entry.exit();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.lememo.sentinel.benchmark;
+
+import com.alibaba.csp.sentinel.node.IntervalProperty;
+import com.alibaba.csp.sentinel.node.SampleCountProperty;
+import com.alibaba.csp.sentinel.slots.statistic.metric.ArrayMetric;
+import com.alibaba.csp.sentinel.slots.statistic.metric.Metric;
+import com.lememo.sentinel.slidewindow.StripedArrayMetric;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * 热点资源上滑动窗口的竞争测试
+ * 所有线程共享同一个 Metric，模拟 userResource 这类热点资源的 clusterNode
+ * stock：原生的 ArrayMetric，striped：分片的 StripedArrayMetric
+ *
+ * 运行方式：BenchmarkRunner StripedWindowBenchmark 8,32,64
+ * @author houyi
+ * @date 2019-02-25
+ **/
+@State(Scope.Benchmark)
+public class StripedWindowBenchmark {
+
+    @Param({"stock", "striped"})
+    public String window;
+
+    private Metric metric;
+
+    @Setup
+    public void init() {
+        if ("striped".equals(window)) {
+            metric = new StripedArrayMetric(SampleCountProperty.SAMPLE_COUNT, IntervalProperty.INTERVAL);
+        } else {
+            metric = new ArrayMetric(SampleCountProperty.SAMPLE_COUNT, IntervalProperty.INTERVAL);
+        }
+    }
+
+    /**
+     * 只写入，对应 StatisticSlot 中的 addPassRequest
+     */
+    @Benchmark
+    public void addPass() {
+        metric.addPass(1);
+    }
+
+    /**
+     * 先读后写，对应一次通过的请求：FlowSlot 读取 qps，StatisticSlot 记录通过
+     */
+    @Benchmark
+    public long readThenAddPass() {
+        long pass = metric.pass();
+        metric.addPass(1);
+        return pass;
+    }
+
+}
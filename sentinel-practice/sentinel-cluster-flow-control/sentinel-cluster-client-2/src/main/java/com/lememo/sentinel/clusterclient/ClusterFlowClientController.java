@@ -2,21 +2,27 @@ package com.lememo.sentinel.clusterclient;
 
 import com.alibaba.csp.sentinel.Entry;
 import com.alibaba.csp.sentinel.EntryType;
-import com.alibaba.csp.sentinel.SphU;
 import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientAssignConfig;
 import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientConfig;
 import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientConfigManager;
+import com.alibaba.csp.sentinel.cluster.flow.rule.ClusterFlowRuleManager;
+import com.alibaba.csp.sentinel.config.SentinelConfig;
 import com.alibaba.csp.sentinel.datasource.ReadableDataSource;
 import com.alibaba.csp.sentinel.datasource.nacos.NacosDataSource;
-import com.alibaba.csp.sentinel.slots.block.BlockException;
 import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
 import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.TypeReference;
+import com.lememo.sentinel.clusterextension.client.FailoverTokenClient;
+import com.lememo.sentinel.clusterextension.client.LeasedTokenClient;
+import com.lememo.sentinel.clusterextension.embedded.EmbeddedTokenServerMode;
+import com.lememo.sentinel.guard.SphGuard;
+import com.lememo.sentinel.persistence.RuleConverters;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
 
+import java.net.SocketException;
 import java.util.List;
 
 /**
@@ -39,10 +45,18 @@ public class ClusterFlowClientController {
     private static final int CLUSTER_SERVER_PORT = 11111;
     private static final int REQUEST_TIME_OUT = 200;
 
-    public ClusterFlowClientController(){
+    /**
+     * 配置了 csp.sentinel.cluster.embedded.peers 时，不使用单独的 token server，由应用之间选出一个内嵌 token server
+     */
+    private static final String EMBEDDED_PEERS = SentinelConfig.getConfig(EmbeddedTokenServerMode.PEERS);
+
+    public ClusterFlowClientController() throws SocketException {
         loadClusterClientConfig();
         registerClusterClientProperty();
         registerClusterFlowRuleProperty();
+        installLeasedTokenClient();
+        installFailoverTokenClient();
+        startEmbeddedTokenServer();
     }
 
     /**
@@ -50,14 +64,33 @@ public class ClusterFlowClientController {
      * 主要是集群服务端的相关连接信息
      */
     private void loadClusterClientConfig(){
+        ClusterClientConfig clientConfig = new ClusterClientConfig();
+        clientConfig.setRequestTimeout(REQUEST_TIME_OUT);
+        ClusterClientConfigManager.applyNewConfig(clientConfig);
+        if (EMBEDDED_PEERS != null) {
+            // 连接哪个 token server 由选举决定
+            return;
+        }
         ClusterClientAssignConfig assignConfig = new ClusterClientAssignConfig();
         assignConfig.setServerHost(CLUSTER_SERVER_HOST);
         assignConfig.setServerPort(CLUSTER_SERVER_PORT);
         ClusterClientConfigManager.applyNewAssignConfig(assignConfig);
+    }
 
-        ClusterClientConfig clientConfig = new ClusterClientConfig();
-        clientConfig.setRequestTimeout(REQUEST_TIME_OUT);
-        ClusterClientConfigManager.applyNewConfig(clientConfig);
+    /**
+     * 启用批量租用 token 的模式
+     * 每次从 token server 租用一批 token 在本地扣减，不需要每个请求都访问一次 token server
+     */
+    private void installLeasedTokenClient(){
+        LeasedTokenClient.install();
+    }
+
+    /**
+     * 通过心跳检测 token server 是否可用，不可用时直接按本机在集群中的份额本地限流
+     * 需要放在最外层，所以最后安装
+     */
+    private void installFailoverTokenClient(){
+        FailoverTokenClient.install();
     }
 
     /**
@@ -70,6 +103,9 @@ public class ClusterFlowClientController {
         ReadableDataSource<String, ClusterClientConfig> clientConfigDS = new NacosDataSource<>(REMOTE_ADDRESS, GROUP_ID, clientConfigDataId,
                 source -> JSON.parseObject(source, new TypeReference<ClusterClientConfig>() {}));
         ClusterClientConfigManager.registerClientConfigProperty(clientConfigDS.getProperty());
+        if (EMBEDDED_PEERS != null) {
+            return;
+        }
 
         String clientAssignConfigDataId = "cluster-client-assign-config";
         // 初始化一个配置ClusterClientAssignConfig的 Nacos 数据源
@@ -85,12 +121,31 @@ public class ClusterFlowClientController {
      */
     private void registerClusterFlowRuleProperty(){
         // 使用 Nacos 数据源作为配置中心，需要在 REMOTE_ADDRESS 上启动一个 Nacos 的服务
+        // 规则可以是 JSON，也可以是 Base64 编码的二进制格式
         ReadableDataSource<String, List<FlowRule>> ds = new NacosDataSource<>(REMOTE_ADDRESS, GROUP_ID, APP_NAME+FLOW_POSTFIX,
-                source -> JSON.parseObject(source, new TypeReference<List<FlowRule>>() {}));
+                RuleConverters.flowRules());
         // 为集群客户端注册动态规则源
         FlowRuleManager.register2Property(ds.getProperty());
     }
 
+    /**
+     * 启用内嵌 token server 模式
+     * 被选为 leader 的应用在进程内启动 token server，自己的请求不经过网络；其它应用连接到 leader 上
+     * 每个应用都可能成为 leader，所以都要为内嵌的 token server 注册集群规则的数据源，和单独的 token server 使用同一份规则
+     */
+    private void startEmbeddedTokenServer() throws SocketException {
+        if (EMBEDDED_PEERS == null) {
+            return;
+        }
+        ClusterFlowRuleManager.setPropertySupplier(namespace -> {
+            ReadableDataSource<String, List<FlowRule>> ds = new NacosDataSource<>(REMOTE_ADDRESS, GROUP_ID,
+                    namespace + FLOW_POSTFIX,
+                    RuleConverters.flowRules());
+            return ds.getProperty();
+        });
+        EmbeddedTokenServerMode.start(EMBEDDED_PEERS, EmbeddedTokenServerMode.configuredSelfId());
+    }
+
 
     /**
      * 模拟流量请求该方法
@@ -98,19 +153,15 @@ public class ClusterFlowClientController {
     @GetMapping("/clusterFlow")
     public @ResponseBody
     String clusterFlow() {
-        Entry entry = null;
-        String retVal;
+        Entry entry = SphGuard.tryEntry(RESOURCE_NAME, EntryType.IN,1);
+        if(entry==null){
+            return "blocked";
+        }
         try{
-            entry = SphU.entry(RESOURCE_NAME, EntryType.IN,1);
-            retVal = "passed";
-        }catch(BlockException e){
-            retVal = "blocked";
+            return "passed";
         }finally {
-            if(entry!=null){
-                entry.exit();
-            }
+            entry.exit();
         }
-        return retVal;
     }
 
 
@@ -0,0 +1,114 @@
+package com.lememo.sentinel.clusterextension;
+
+import com.alibaba.csp.sentinel.cluster.TokenResult;
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.client.ClusterTokenClient;
+import com.lememo.sentinel.clusterextension.client.CoalescingTokenClient;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在同一个进程中启动 token server 和 token client，通过本机回环地址对比：
+ * 每个调用方单独发送请求的默认方式，以及合并请求的方式
+ * 输出每秒的调用数、发送给 token server 的请求数以及每次调用的耗时
+ * @author houyi
+ * @date 2019-03-02
+ **/
+public class CoalescingLoopbackSimulate {
+
+    private static final int SERVER_PORT = 11113;
+    private static final long[] FLOW_IDS = {211L, 212L, 213L, 214L};
+    /**
+     * 阈值足够大，所有请求都能通过，只比较请求 token 的开销
+     */
+    private static final double THRESHOLD = 100000000;
+
+    private static final int THREADS = 32;
+    private static final int SECONDS = 5;
+    /**
+     * 每个线程最多记录的耗时样本数
+     */
+    private static final int SAMPLES_PER_THREAD = 200000;
+
+    public static void main(String[] args) throws Exception {
+        LoopbackCluster.startServer(SERVER_PORT, THRESHOLD, FLOW_IDS);
+        ClusterTokenClient client = LoopbackCluster.startClient(SERVER_PORT, FLOW_IDS[0]);
+
+        // 预热
+        run(null, client, null);
+        run("default", client, null);
+        final CoalescingTokenClient coalescing = CoalescingTokenClient.install();
+        run(null, coalescing, coalescing);
+        run("coalescing", coalescing, coalescing);
+        System.exit(0);
+    }
+
+    private static void run(String name, final ClusterTokenClient client, CoalescingTokenClient coalescing)
+            throws Exception {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong passed = new AtomicLong();
+        final long[][] samples = new long[THREADS][SAMPLES_PER_THREAD];
+        final int[] sampleCounts = new int[THREADS];
+        long framesBefore = coalescing == null ? 0 : coalescing.getFrames();
+        final long end = System.currentTimeMillis() + SECONDS * 1000;
+        final CountDownLatch latch = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            final int index = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long flowId = FLOW_IDS[index % FLOW_IDS.length];
+                    long[] mine = samples[index];
+                    int n = 0;
+                    while (System.currentTimeMillis() < end) {
+                        long start = System.nanoTime();
+                        TokenResult result = client.requestToken(flowId, 1, false);
+                        long cost = System.nanoTime() - start;
+                        if (n < mine.length) {
+                            mine[n++] = cost;
+                        }
+                        calls.incrementAndGet();
+                        if (result.getStatus() == TokenResultStatus.OK) {
+                            passed.incrementAndGet();
+                        }
+                    }
+                    sampleCounts[index] = n;
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        if (name == null) {
+            return;
+        }
+        long rpc = coalescing == null ? calls.get() : coalescing.getFrames() - framesBefore;
+        int total = 0;
+        for (int count : sampleCounts) {
+            total += count;
+        }
+        long[] merged = new long[total];
+        int offset = 0;
+        for (int i = 0; i < THREADS; i++) {
+            System.arraycopy(samples[i], 0, merged, offset, sampleCounts[i]);
+            offset += sampleCounts[i];
+        }
+        Arrays.sort(merged);
+        System.out.println("[" + name + "] threads=" + THREADS
+                + ", calls/s=" + calls.get() / SECONDS
+                + ", passed/s=" + passed.get() / SECONDS
+                + ", rpc/s=" + rpc / SECONDS
+                + ", calls per rpc=" + (rpc == 0 ? 0 : calls.get() / rpc)
+                + ", p50=" + percentile(merged, 0.5) + "us"
+                + ", p99=" + percentile(merged, 0.99) + "us");
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1000;
+    }
+
+}
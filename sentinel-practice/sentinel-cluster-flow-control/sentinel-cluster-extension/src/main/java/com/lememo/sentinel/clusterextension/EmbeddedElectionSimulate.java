@@ -0,0 +1,342 @@
+package com.lememo.sentinel.clusterextension;
+
+import com.alibaba.csp.sentinel.Entry;
+import com.alibaba.csp.sentinel.SphU;
+import com.alibaba.csp.sentinel.cluster.ClusterStateManager;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientConfig;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientConfigManager;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.limit.GlobalRequestLimiter;
+import com.alibaba.csp.sentinel.cluster.server.config.ClusterServerConfigManager;
+import com.alibaba.csp.sentinel.slots.block.BlockException;
+import com.alibaba.csp.sentinel.slots.block.ClusterRuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.ClusterFlowConfig;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+import com.lememo.sentinel.clusterextension.embedded.ElectionPeer;
+import com.lememo.sentinel.clusterextension.embedded.EmbeddedTokenServerMode;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 3 个内嵌 token server 的应用组成的集群，杀掉 leader 之后观察重新选主的耗时以及集群通过数的变化
+ *
+ * ClusterStateManager、ClusterMetricStatistics 等都是静态的，每个应用运行在一个子进程中，当前进程只负责调度和统计：
+ *
+ * - 每个应用以大约 LOAD_QPS 的速率访问同一个集群限流的资源，3 个应用加起来超过集群阈值
+ * - 3 个应用选出 leader 并且切换好模式之后稳定运行一段时间，对比 leader 本地取 token 和 follower 远程取 token 的耗时
+ * - 强制杀掉 leader 进程，统计剩下的应用选出新 leader 并且切换好模式的耗时
+ * - 重新启动被杀掉的应用，它应该作为 follower 加入新的 leader，不会抢占
+ *
+ * 子进程每秒输出一行 STAT，leader 或者模式变化时输出一行 LEADER，当前进程按秒汇总所有应用的通过数。
+ *
+ * 启动参数：无。子进程的启动参数为 node id
+ * @author houyi
+ * @date 2019-03-19
+ **/
+public class EmbeddedElectionSimulate {
+
+    private static final String PEERS = "localhost:12001:11141,localhost:12002:11142,localhost:12003:11143";
+    private static final int NODES = 3;
+    private static final long FLOW_ID = 3200L;
+    private static final double THRESHOLD = 300;
+
+    /**
+     * 每个应用发起请求的速率
+     */
+    private static final int LOAD_QPS = 200;
+
+    private static final int STABLE_MS = 4000;
+    private static final int AFTER_KILL_MS = 4000;
+    private static final int AFTER_REJOIN_MS = 3000;
+    private static final int WAIT_MS = 15000;
+
+    private static final Node[] NODE_STATES = new Node[NODES];
+
+    /**
+     * 每秒的统计，key 为秒，value 为各个应用的 {通过数, 拒绝数, 平均耗时 us, 模式}
+     */
+    private static final Map<Long, long[][]> SECONDS = new TreeMap<>();
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && "node".equals(args[0])) {
+            runNode(Integer.parseInt(args[1]));
+            return;
+        }
+        System.out.println("threshold=" + THRESHOLD + ", nodes=" + NODES + ", load per node=" + LOAD_QPS + "qps");
+        for (int i = 0; i < NODES; i++) {
+            NODE_STATES[i] = startNode(i);
+        }
+        int leader = awaitAgreement(-1, System.currentTimeMillis());
+        System.out.println("elected leader " + leader);
+        Thread.sleep(STABLE_MS);
+        long stableEnd = System.currentTimeMillis() / 1000;
+
+        long killAt = System.currentTimeMillis();
+        NODE_STATES[leader].process.destroyForcibly();
+        NODE_STATES[leader].alive = false;
+        int newLeader = awaitAgreement(leader, killAt);
+        System.out.printf("killed node %d, node %d took over after %dms%n", leader, newLeader,
+                System.currentTimeMillis() - killAt);
+        Thread.sleep(AFTER_KILL_MS);
+
+        long restartAt = System.currentTimeMillis();
+        NODE_STATES[leader] = startNode(leader);
+        int rejoined = awaitAgreement(-1, restartAt);
+        System.out.printf("restarted node %d, agreed on leader %d after %dms%s%n", leader, rejoined,
+                System.currentTimeMillis() - restartAt, rejoined == newLeader ? "" : " (leader PREEMPTED)");
+        Thread.sleep(AFTER_REJOIN_MS);
+
+        for (Node node : NODE_STATES) {
+            node.process.destroyForcibly();
+        }
+        print(killAt / 1000, restartAt / 1000, stableEnd);
+        System.exit(0);
+    }
+
+    /**
+     * 子进程：作为一个内嵌 token server 的应用运行，标准输入关闭（父进程退出）时退出
+     */
+    private static void runNode(int id) throws Exception {
+        ElectionPeer self = ElectionPeer.parse(PEERS).get(id);
+        // 每个应用都加载集群规则，成为 leader 时内嵌的 token server 使用
+        LoopbackCluster.initServer(self.getTokenPort(), THRESHOLD, FLOW_ID);
+        ClusterServerConfigManager.setMaxAllowedQps(100000000);
+        GlobalRequestLimiter.applyMaxQpsChange(100000000);
+        ClusterClientConfig clientConfig = new ClusterClientConfig();
+        clientConfig.setRequestTimeout(200);
+        ClusterClientConfigManager.applyNewConfig(clientConfig);
+        // 还没有选出 leader 或者 leader 不可用时，按平分的阈值退化为单机限流
+        FlowRuleManager.loadRules(Collections.singletonList(new FlowRule("cluster-resource-" + FLOW_ID)
+                .setCount(THRESHOLD / NODES)
+                .setClusterMode(true)
+                .setClusterConfig(new ClusterFlowConfig()
+                        .setFlowId(FLOW_ID)
+                        .setFallbackToLocalWhenFail(true)
+                        .setThresholdType(ClusterRuleConstant.FLOW_THRESHOLD_GLOBAL))));
+        final EmbeddedTokenServerMode mode = EmbeddedTokenServerMode.start(PEERS, id);
+
+        final AtomicLong pass = new AtomicLong();
+        final AtomicLong block = new AtomicLong();
+        final AtomicLong costUs = new AtomicLong();
+        Thread load = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long intervalNs = 1000000000L / LOAD_QPS;
+                long next = System.nanoTime();
+                while (true) {
+                    long begin = System.nanoTime();
+                    Entry entry = null;
+                    try {
+                        entry = SphU.entry("cluster-resource-" + FLOW_ID);
+                        pass.incrementAndGet();
+                    } catch (BlockException e) {
+                        block.incrementAndGet();
+                    } finally {
+                        if (entry != null) {
+                            entry.exit();
+                        }
+                    }
+                    costUs.addAndGet((System.nanoTime() - begin) / 1000);
+                    next += intervalNs;
+                    long sleepNs = next - System.nanoTime();
+                    if (sleepNs > 0) {
+                        try {
+                            Thread.sleep(sleepNs / 1000000, (int) (sleepNs % 1000000));
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            }
+        });
+        load.setDaemon(true);
+        load.start();
+
+        Thread reporter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                String lastLeader = "";
+                long second = System.currentTimeMillis() / 1000;
+                while (true) {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    ElectionPeer leader = mode.getLeader();
+                    String current = (leader == null ? -1 : leader.getId()) + " " + ClusterStateManager.getMode();
+                    if (!current.equals(lastLeader)) {
+                        lastLeader = current;
+                        System.out.println("LEADER " + current);
+                    }
+                    long now = System.currentTimeMillis() / 1000;
+                    if (now != second) {
+                        long p = pass.getAndSet(0);
+                        long b = block.getAndSet(0);
+                        long c = costUs.getAndSet(0);
+                        System.out.println("STAT " + second + " " + p + " " + b + " " + (p + b == 0 ? 0 : c / (p + b))
+                                + " " + ClusterStateManager.getMode());
+                        second = now;
+                    }
+                }
+            }
+        });
+        reporter.setDaemon(true);
+        reporter.start();
+
+        while (System.in.read() >= 0) {
+            // 等待父进程退出
+        }
+        System.exit(0);
+    }
+
+    private static Node startNode(final int id) throws Exception {
+        // netty 和 sentinel 的日志写到临时目录下的文件中，标准输出只有 STAT 和 LEADER
+        File log = new File(System.getProperty("java.io.tmpdir"), "sentinel-election-node-" + id + ".log");
+        Process process = new ProcessBuilder(
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-cp", System.getProperty("java.class.path"),
+                EmbeddedElectionSimulate.class.getName(), "node", String.valueOf(id))
+                .redirectError(ProcessBuilder.Redirect.to(log))
+                .start();
+        final Node node = new Node(process);
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] parts = line.split(" ");
+                        if (line.startsWith("LEADER ")) {
+                            node.update(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+                        } else if (line.startsWith("STAT ")) {
+                            record(id, Long.parseLong(parts[1]), Long.parseLong(parts[2]), Long.parseLong(parts[3]),
+                                    Long.parseLong(parts[4]), Long.parseLong(parts[5]));
+                        }
+                    }
+                } catch (Exception e) {
+                    // 子进程被杀掉
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return node;
+    }
+
+    private static synchronized void record(int id, long second, long pass, long block, long avgUs, long mode) {
+        long[][] stat = SECONDS.get(second);
+        if (stat == null) {
+            stat = new long[NODES][];
+            SECONDS.put(second, stat);
+        }
+        stat[id] = new long[]{pass, block, avgUs, mode};
+    }
+
+    /**
+     * 等待所有存活的应用认同同一个 leader，并且 leader 已经切换为 server 模式，其它应用已经切换为 client 模式
+     * @param oldLeader 已经被杀掉的 leader，新的 leader 不能是它
+     * @return leader 的 id
+     */
+    private static int awaitAgreement(int oldLeader, long since) throws InterruptedException {
+        while (System.currentTimeMillis() - since < WAIT_MS) {
+            int agreed = -2;
+            for (int i = 0; i < NODES; i++) {
+                Node node = NODE_STATES[i];
+                if (!node.alive) {
+                    continue;
+                }
+                int leader = node.leader;
+                int expectedMode = leader == i ? ClusterStateManager.CLUSTER_SERVER : ClusterStateManager.CLUSTER_CLIENT;
+                if (leader < 0 || leader == oldLeader || node.mode != expectedMode || (agreed != -2 && agreed != leader)) {
+                    agreed = -1;
+                    break;
+                }
+                agreed = leader;
+            }
+            if (agreed >= 0) {
+                return agreed;
+            }
+            Thread.sleep(10);
+        }
+        throw new IllegalStateException("nodes did not agree on a leader in " + WAIT_MS + "ms");
+    }
+
+    /**
+     * 打印每秒各个应用的通过数、拒绝数、平均耗时和模式（S 为 leader，C 为 follower，- 为单机限流），
+     * 以及稳定运行期间 leader 和 follower 调用 SphU.entry 的平均耗时
+     */
+    private static synchronized void print(long killSecond, long restartSecond, long stableEnd) {
+        long serverUs = 0;
+        long serverCount = 0;
+        long clientUs = 0;
+        long clientCount = 0;
+        long maxAfterKill = 0;
+        long minAfterKill = Long.MAX_VALUE;
+        for (Map.Entry<Long, long[][]> entry : SECONDS.entrySet()) {
+            long second = entry.getKey();
+            long total = 0;
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < NODES; i++) {
+                long[] stat = entry.getValue()[i];
+                if (stat == null) {
+                    line.append(String.format("  node%d: %-24s", i, "down"));
+                    continue;
+                }
+                total += stat[0];
+                String mode = stat[3] == ClusterStateManager.CLUSTER_SERVER ? "S"
+                        : stat[3] == ClusterStateManager.CLUSTER_CLIENT ? "C" : "-";
+                line.append(String.format("  node%d: %s pass=%-4d block=%-4d %5dus", i, mode, stat[0], stat[1], stat[2]));
+                // 跳过启动后的第一秒，只统计选主完成之后到杀掉 leader 之前的稳定阶段
+                if (second > SECONDS.keySet().iterator().next() + 1 && second < stableEnd) {
+                    if (stat[3] == ClusterStateManager.CLUSTER_SERVER) {
+                        serverUs += stat[2];
+                        serverCount++;
+                    } else if (stat[3] == ClusterStateManager.CLUSTER_CLIENT) {
+                        clientUs += stat[2];
+                        clientCount++;
+                    }
+                }
+            }
+            if (second >= killSecond && second < restartSecond) {
+                maxAfterKill = Math.max(maxAfterKill, total);
+                minAfterKill = Math.min(minAfterKill, total);
+            }
+            String marker = second == killSecond ? " <- kill leader" : second == restartSecond ? " <- restart" : "";
+            System.out.printf("%d total=%-4d%s%s%n", second % 100, total, line, marker);
+        }
+        System.out.printf("entry cost in stable phase: leader (local token) avg=%dus, follower (remote token) avg=%dus%n",
+                serverCount == 0 ? 0 : serverUs / serverCount, clientCount == 0 ? 0 : clientUs / clientCount);
+        System.out.printf("cluster passes per second between kill and restart: max=%d (over %.1f%%), min=%d (under %.1f%%)%n",
+                maxAfterKill, Math.max(0, maxAfterKill - THRESHOLD) / THRESHOLD * 100,
+                minAfterKill, Math.max(0, THRESHOLD - minAfterKill) / THRESHOLD * 100);
+    }
+
+    private static class Node {
+
+        private final Process process;
+
+        private volatile boolean alive = true;
+
+        private volatile int leader = -1;
+
+        private volatile int mode = ClusterStateManager.CLUSTER_NOT_STARTED;
+
+        private Node(Process process) {
+            this.process = process;
+        }
+
+        private void update(int leader, int mode) {
+            this.leader = leader;
+            this.mode = mode;
+        }
+    }
+
+}
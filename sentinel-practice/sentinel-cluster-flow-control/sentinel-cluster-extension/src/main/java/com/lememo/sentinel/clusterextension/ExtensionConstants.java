@@ -0,0 +1,35 @@
+package com.lememo.sentinel.clusterextension;
+
+/**
+ * 扩展协议中使用的常量
+ * Sentinel 默认的消息类型为 0（ping）、1（flow）、2（param flow），扩展的消息类型从 10 开始，避免和默认的冲突
+ * @author houyi
+ * @date 2019-03-01
+ **/
+public final class ExtensionConstants {
+
+    /**
+     * 批量租用 token
+     */
+    public static final int MSG_TYPE_LEASE = 10;
+
+    /**
+     * 一次请求中合并了多个调用方的 token 请求
+     */
+    public static final int MSG_TYPE_MULTI_ACQUIRE = 11;
+
+    /**
+     * 心跳，携带 namespace，返回该 namespace 当前的连接数
+     * 默认的 ping 响应不会交给请求的 promise，所以单独定义一个类型
+     */
+    public static final int MSG_TYPE_HEARTBEAT = 12;
+
+    /**
+     * 主 token server 向备 token server 复制各个 flowId 的通过数，返回备 server 应用的 flowId 个数
+     */
+    public static final int MSG_TYPE_REPLICATE = 13;
+
+    private ExtensionConstants() {
+    }
+
+}
@@ -0,0 +1,212 @@
+package com.lememo.sentinel.clusterextension;
+
+import com.alibaba.csp.sentinel.cluster.TokenResult;
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.client.ClusterTokenClient;
+import com.alibaba.csp.sentinel.slots.block.ClusterRuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.ClusterFlowConfig;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+import com.lememo.sentinel.clusterextension.client.FailoverTokenClient;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 模拟 token server 卡住（例如长时间的 GC 或者网络中断，连接没有断开但是收不到响应）时 client 的表现
+ *
+ * client 通过一个本地的转发代理连接 token server，运行期间代理暂停转发 2s，
+ * 对比默认的 client 和 FailoverTokenClient 在这段时间内的耗时以及放行的请求数
+ * @author houyi
+ * @date 2019-03-03
+ **/
+public class FailoverSimulate {
+
+    private static final int SERVER_PORT = 11116;
+    private static final int PROXY_PORT = 11117;
+    private static final long FLOW_ID = 311L;
+    private static final double THRESHOLD = 1000;
+
+    private static final int THREADS = 8;
+    private static final int SECONDS = 6;
+    private static final int PAUSE_AT_MS = 2000;
+    private static final int PAUSE_MS = 2000;
+    /**
+     * 耗时超过该值的调用算作慢调用
+     */
+    private static final long SLOW_CALL_US = 50 * 1000;
+
+    private static final int SAMPLES_PER_THREAD = 2000000;
+
+    public static void main(String[] args) throws Exception {
+        LoopbackCluster.startServer(SERVER_PORT, THRESHOLD, FLOW_ID);
+        // 本地的规则，FailoverTokenClient 根据它计算按连接数平分的阈值
+        FlowRuleManager.loadRules(Collections.singletonList(new FlowRule("cluster-resource-" + FLOW_ID)
+                .setCount(THRESHOLD)
+                .setClusterMode(true)
+                .setClusterConfig(new ClusterFlowConfig()
+                        .setFlowId(FLOW_ID)
+                        .setFallbackToLocalWhenFail(true)
+                        .setThresholdType(ClusterRuleConstant.FLOW_THRESHOLD_GLOBAL))));
+        PausableProxy proxy = new PausableProxy(PROXY_PORT, SERVER_PORT);
+        proxy.start();
+        ClusterTokenClient client = LoopbackCluster.startClient(PROXY_PORT, FLOW_ID);
+
+        run("default", client, proxy);
+        // 等待转发恢复之后积压的请求处理完
+        Thread.sleep(2000);
+        FailoverTokenClient failover = FailoverTokenClient.install();
+        run("failover", failover, proxy);
+        System.exit(0);
+    }
+
+    private static void run(String name, final ClusterTokenClient client, PausableProxy proxy) throws Exception {
+        final long[][] samples = new long[THREADS][SAMPLES_PER_THREAD];
+        final int[] sampleCounts = new int[THREADS];
+        final AtomicLong pausedOk = new AtomicLong();
+        final AtomicLong pausedBlocked = new AtomicLong();
+        final AtomicLong pausedFail = new AtomicLong();
+        final AtomicLong calls = new AtomicLong();
+        final long start = System.currentTimeMillis();
+        final long pauseStart = start + PAUSE_AT_MS;
+        final long pauseEnd = pauseStart + PAUSE_MS;
+        final long end = start + SECONDS * 1000;
+        final CountDownLatch latch = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            final int index = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long[] mine = samples[index];
+                    int n = 0;
+                    long now;
+                    while ((now = System.currentTimeMillis()) < end) {
+                        long begin = System.nanoTime();
+                        TokenResult result = client.requestToken(FLOW_ID, 1, false);
+                        if (n < mine.length) {
+                            mine[n++] = System.nanoTime() - begin;
+                        }
+                        calls.incrementAndGet();
+                        if (now >= pauseStart && now < pauseEnd) {
+                            if (result.getStatus() == TokenResultStatus.OK) {
+                                pausedOk.incrementAndGet();
+                            } else if (result.getStatus() == TokenResultStatus.BLOCKED) {
+                                pausedBlocked.incrementAndGet();
+                            } else {
+                                pausedFail.incrementAndGet();
+                            }
+                        }
+                    }
+                    sampleCounts[index] = n;
+                    latch.countDown();
+                }
+            }).start();
+        }
+        Thread.sleep(PAUSE_AT_MS);
+        proxy.setPaused(true);
+        Thread.sleep(PAUSE_MS);
+        proxy.setPaused(false);
+        latch.await();
+
+        int total = 0;
+        for (int count : sampleCounts) {
+            total += count;
+        }
+        long[] merged = new long[total];
+        int offset = 0;
+        for (int i = 0; i < THREADS; i++) {
+            System.arraycopy(samples[i], 0, merged, offset, sampleCounts[i]);
+            offset += sampleCounts[i];
+        }
+        Arrays.sort(merged);
+        int slow = 0;
+        for (long cost : merged) {
+            if (cost >= SLOW_CALL_US * 1000) {
+                slow++;
+            }
+        }
+        System.out.println("[" + name + "] calls=" + calls.get()
+                + ", slow calls(>=" + SLOW_CALL_US / 1000 + "ms)=" + slow
+                + ", p99=" + merged[(int) (merged.length * 0.99)] / 1000 + "us"
+                + ", max=" + merged[merged.length - 1] / 1000 + "us"
+                + ", during pause: ok/s=" + pausedOk.get() * 1000 / PAUSE_MS
+                + ", blocked/s=" + pausedBlocked.get() * 1000 / PAUSE_MS
+                + ", fail/s=" + pausedFail.get() * 1000 / PAUSE_MS);
+    }
+
+    /**
+     * 转发 tcp 连接的代理，暂停时不再转发数据，但是也不断开连接
+     */
+    private static class PausableProxy {
+
+        private final int port;
+        private final int targetPort;
+        private volatile boolean paused;
+
+        PausableProxy(int port, int targetPort) {
+            this.port = port;
+            this.targetPort = targetPort;
+        }
+
+        void setPaused(boolean paused) {
+            this.paused = paused;
+        }
+
+        void start() throws IOException {
+            final ServerSocket serverSocket = new ServerSocket(port);
+            daemon(new Runnable() {
+                @Override
+                public void run() {
+                    while (true) {
+                        try {
+                            Socket downstream = serverSocket.accept();
+                            Socket upstream = new Socket("localhost", targetPort);
+                            downstream.setTcpNoDelay(true);
+                            upstream.setTcpNoDelay(true);
+                            pipe(downstream, upstream);
+                            pipe(upstream, downstream);
+                        } catch (IOException e) {
+                            return;
+                        }
+                    }
+                }
+            });
+        }
+
+        private void pipe(final Socket from, final Socket to) {
+            daemon(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] buffer = new byte[8192];
+                    try {
+                        InputStream in = from.getInputStream();
+                        OutputStream out = to.getOutputStream();
+                        int n;
+                        while ((n = in.read(buffer)) >= 0) {
+                            while (paused) {
+                                Thread.sleep(1);
+                            }
+                            out.write(buffer, 0, n);
+                        }
+                    } catch (Exception e) {
+                        // 连接断开
+                    }
+                }
+            });
+        }
+
+        private static void daemon(Runnable task) {
+            Thread thread = new Thread(task);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.lememo.sentinel.clusterextension;
+
+import com.alibaba.csp.sentinel.cluster.TokenResult;
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.client.ClusterTokenClient;
+import com.lememo.sentinel.clusterextension.client.LeasedTokenClient;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在同一个进程中启动 token server 和 token client，通过本机回环地址对比：
+ * 每次请求都访问 token server 的默认方式，以及批量租用 token 的方式
+ * 输出每秒通过的请求数以及发送给 token server 的请求数
+ * @author houyi
+ * @date 2019-03-01
+ **/
+public class LeaseLoopbackSimulate {
+
+    private static final int SERVER_PORT = 11112;
+    private static final long FLOW_ID = 111L;
+    private static final double THRESHOLD = 1000;
+
+    private static final int THREADS = 8;
+    private static final int SECONDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        LoopbackCluster.startServer(SERVER_PORT, THRESHOLD, FLOW_ID);
+        ClusterTokenClient client = LoopbackCluster.startClient(SERVER_PORT, FLOW_ID);
+
+        run("default", client, new RpcCounter() {
+            @Override
+            public long rpc(long calls) {
+                return calls;
+            }
+        });
+        // 等当前的统计窗口过去，避免两次模拟互相影响
+        Thread.sleep(2000);
+        final LeasedTokenClient leased = LeasedTokenClient.install();
+        run("leased", leased, new RpcCounter() {
+            @Override
+            public long rpc(long calls) {
+                return leased.getLeaseRequests();
+            }
+        });
+        System.exit(0);
+    }
+
+    private static void run(String name, final ClusterTokenClient client, RpcCounter counter) throws Exception {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong passed = new AtomicLong();
+        final long end = System.currentTimeMillis() + SECONDS * 1000;
+        final CountDownLatch latch = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (System.currentTimeMillis() < end) {
+                        TokenResult result = client.requestToken(FLOW_ID, 1, false);
+                        calls.incrementAndGet();
+                        if (result.getStatus() == TokenResultStatus.OK) {
+                            passed.incrementAndGet();
+                        }
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        long rpc = counter.rpc(calls.get());
+        System.out.println("[" + name + "] threshold=" + (long) THRESHOLD + "/s"
+                + ", calls/s=" + calls.get() / SECONDS
+                + ", passed/s=" + passed.get() / SECONDS
+                + ", rpc/s=" + rpc / SECONDS
+                + ", calls per rpc=" + (rpc == 0 ? 0 : calls.get() / rpc));
+    }
+
+    private interface RpcCounter {
+        long rpc(long calls);
+    }
+
+}
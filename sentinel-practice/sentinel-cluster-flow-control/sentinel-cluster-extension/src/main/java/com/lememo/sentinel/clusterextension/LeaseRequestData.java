@@ -0,0 +1,42 @@
+package com.lememo.sentinel.clusterextension;
+
+/**
+ * 租用 token 的请求
+ * @author houyi
+ * @date 2019-03-01
+ **/
+public class LeaseRequestData {
+
+    private long flowId;
+
+    /**
+     * 希望租用的 token 数
+     */
+    private int count;
+
+    public long getFlowId() {
+        return flowId;
+    }
+
+    public LeaseRequestData setFlowId(long flowId) {
+        this.flowId = flowId;
+        return this;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public LeaseRequestData setCount(int count) {
+        this.count = count;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "LeaseRequestData{" +
+                "flowId=" + flowId +
+                ", count=" + count +
+                '}';
+    }
+}
@@ -0,0 +1,46 @@
+package com.lememo.sentinel.clusterextension;
+
+/**
+ * 租用 token 的响应
+ * @author houyi
+ * @date 2019-03-01
+ **/
+public class LeaseResponseData {
+
+    /**
+     * 实际租给客户端的 token 数，可能小于请求的数量
+     */
+    private int granted;
+
+    /**
+     * 租约的有效时间，单位：ms
+     * 过期之后没有用完的 token 作废
+     */
+    private int validInMs;
+
+    public int getGranted() {
+        return granted;
+    }
+
+    public LeaseResponseData setGranted(int granted) {
+        this.granted = granted;
+        return this;
+    }
+
+    public int getValidInMs() {
+        return validInMs;
+    }
+
+    public LeaseResponseData setValidInMs(int validInMs) {
+        this.validInMs = validInMs;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "LeaseResponseData{" +
+                "granted=" + granted +
+                ", validInMs=" + validInMs +
+                '}';
+    }
+}
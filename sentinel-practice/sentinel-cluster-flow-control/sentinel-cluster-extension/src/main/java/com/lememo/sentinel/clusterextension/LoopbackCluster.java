@@ -0,0 +1,88 @@
+package com.lememo.sentinel.clusterextension;
+
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.client.ClusterTokenClient;
+import com.alibaba.csp.sentinel.cluster.client.TokenClientProvider;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientAssignConfig;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientConfig;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientConfigManager;
+import com.alibaba.csp.sentinel.cluster.flow.rule.ClusterFlowRuleManager;
+import com.alibaba.csp.sentinel.cluster.server.SentinelDefaultTokenServer;
+import com.alibaba.csp.sentinel.cluster.server.config.ClusterServerConfigManager;
+import com.alibaba.csp.sentinel.cluster.server.config.ServerTransportConfig;
+import com.alibaba.csp.sentinel.init.InitExecutor;
+import com.alibaba.csp.sentinel.slots.block.ClusterRuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.ClusterFlowConfig;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 在同一个进程中启动 token server 和 token client，供各个 Simulate 使用，其他模块的 Simulate 也可以使用
+ * @author houyi
+ * @date 2019-03-02
+ **/
+public final class LoopbackCluster {
+
+    public static final String APP_NAME = "appA";
+
+    private LoopbackCluster() {
+    }
+
+    /**
+     * 启动 token server，并为每个 flowId 加载一条全局阈值的规则
+     * @param port 端口
+     * @param threshold 每条规则的集群阈值
+     * @param flowIds 规则的 flowId
+     */
+    public static void startServer(int port, double threshold, long... flowIds) throws Exception {
+        initServer(port, threshold, flowIds);
+        new SentinelDefaultTokenServer().start();
+    }
+
+    /**
+     * 加载 token server 的配置以及规则，但是不启动
+     */
+    public static void initServer(int port, double threshold, long... flowIds) {
+        System.setProperty("project.name", APP_NAME);
+        InitExecutor.doInit();
+        ClusterServerConfigManager.loadServerNamespaceSet(Collections.singleton(APP_NAME));
+        ClusterServerConfigManager.loadGlobalTransportConfig(new ServerTransportConfig()
+                .setIdleSeconds(600)
+                .setPort(port));
+        List<FlowRule> rules = new ArrayList<>();
+        for (long flowId : flowIds) {
+            rules.add(new FlowRule("cluster-resource-" + flowId)
+                    .setCount(threshold)
+                    .setClusterMode(true)
+                    .setClusterConfig(new ClusterFlowConfig()
+                            .setFlowId(flowId)
+                            .setThresholdType(ClusterRuleConstant.FLOW_THRESHOLD_GLOBAL)));
+        }
+        ClusterFlowRuleManager.loadRules(APP_NAME, rules);
+    }
+
+    /**
+     * 启动连接到本机 token server 的 client，等到连接建立后返回
+     * @param port token server 的端口
+     * @param probeFlowId 用来探测连接是否建立的 flowId
+     */
+    public static ClusterTokenClient startClient(int port, long probeFlowId) throws Exception {
+        // token server 运行在其它进程中时，当前进程也需要初始化 client 的编解码器
+        System.setProperty("project.name", APP_NAME);
+        InitExecutor.doInit();
+        ClusterClientConfig clientConfig = new ClusterClientConfig();
+        clientConfig.setRequestTimeout(200);
+        ClusterClientConfigManager.applyNewConfig(clientConfig);
+        ClusterClientConfigManager.applyNewAssignConfig(new ClusterClientAssignConfig("localhost", port));
+        ClusterTokenClient client = TokenClientProvider.getClient();
+        client.start();
+        for (int i = 0; i < 50 && client.requestToken(probeFlowId, 1, false).getStatus() != TokenResultStatus.OK; i++) {
+            Thread.sleep(100);
+        }
+        return client;
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.lememo.sentinel.clusterextension;
+
+import java.util.Arrays;
+
+/**
+ * 合并后的 token 请求
+ * 每个 flowId 对应一组调用方需要的 token 数，顺序就是调用方到达的顺序
+ * @author houyi
+ * @date 2019-03-02
+ **/
+public class MultiAcquireRequestData {
+
+    private long[] flowIds;
+
+    /**
+     * counts[i] 是 flowIds[i] 上每个调用方需要的 token 数
+     */
+    private int[][] counts;
+
+    public long[] getFlowIds() {
+        return flowIds;
+    }
+
+    public MultiAcquireRequestData setFlowIds(long[] flowIds) {
+        this.flowIds = flowIds;
+        return this;
+    }
+
+    public int[][] getCounts() {
+        return counts;
+    }
+
+    public MultiAcquireRequestData setCounts(int[][] counts) {
+        this.counts = counts;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "MultiAcquireRequestData{" +
+                "flowIds=" + Arrays.toString(flowIds) +
+                ", counts=" + Arrays.deepToString(counts) +
+                '}';
+    }
+}
@@ -0,0 +1,56 @@
+package com.lememo.sentinel.clusterextension;
+
+import java.util.Arrays;
+
+/**
+ * 合并后的 token 响应
+ * 对于每个 flowId，按到达的顺序放行前 admitted[i] 个调用方，其余的被拒绝
+ * @author houyi
+ * @date 2019-03-02
+ **/
+public class MultiAcquireResponseData {
+
+    /**
+     * 每个 flowId 的处理状态，为 TokenResultStatus 中的状态
+     */
+    private int[] statuses;
+
+    /**
+     * 每个 flowId 放行的调用方个数
+     */
+    private int[] admitted;
+
+    public MultiAcquireResponseData() {
+    }
+
+    public MultiAcquireResponseData(int size) {
+        this.statuses = new int[size];
+        this.admitted = new int[size];
+    }
+
+    public int[] getStatuses() {
+        return statuses;
+    }
+
+    public MultiAcquireResponseData setStatuses(int[] statuses) {
+        this.statuses = statuses;
+        return this;
+    }
+
+    public int[] getAdmitted() {
+        return admitted;
+    }
+
+    public MultiAcquireResponseData setAdmitted(int[] admitted) {
+        this.admitted = admitted;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "MultiAcquireResponseData{" +
+                "statuses=" + Arrays.toString(statuses) +
+                ", admitted=" + Arrays.toString(admitted) +
+                '}';
+    }
+}
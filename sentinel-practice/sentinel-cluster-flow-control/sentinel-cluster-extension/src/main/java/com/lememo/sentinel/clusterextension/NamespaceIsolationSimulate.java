@@ -0,0 +1,256 @@
+package com.lememo.sentinel.clusterextension;
+
+import com.alibaba.csp.sentinel.cluster.ClusterConstants;
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.client.NettyTransportClient;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientConfig;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientConfigManager;
+import com.alibaba.csp.sentinel.cluster.client.handler.TokenClientPromiseHolder;
+import com.alibaba.csp.sentinel.cluster.flow.rule.ClusterFlowRuleManager;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.limit.GlobalRequestLimiter;
+import com.alibaba.csp.sentinel.cluster.request.ClusterRequest;
+import com.alibaba.csp.sentinel.cluster.request.data.FlowRequestData;
+import com.alibaba.csp.sentinel.cluster.response.ClusterResponse;
+import com.alibaba.csp.sentinel.cluster.server.ClusterTokenServer;
+import com.alibaba.csp.sentinel.cluster.server.SentinelDefaultTokenServer;
+import com.alibaba.csp.sentinel.cluster.server.config.ClusterServerConfigManager;
+import com.alibaba.csp.sentinel.cluster.server.config.ServerTransportConfig;
+import com.alibaba.csp.sentinel.init.InitExecutor;
+import com.alibaba.csp.sentinel.slots.block.ClusterRuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.ClusterFlowConfig;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.lememo.sentinel.clusterextension.client.TokenClients;
+import com.lememo.sentinel.clusterextension.server.FairServerTransportConfig;
+import com.lememo.sentinel.clusterextension.server.FairTokenServer;
+import com.lememo.sentinel.clusterextension.server.LatencyHistogram;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPromise;
+
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 两个应用共用一台 token server，其中一个应用的流量突增时，对比默认的 token server 和 FairTokenServer 上另一个应用取 token 的耗时
+ *
+ * - 安静的应用 appA：一个连接，每秒匀速请求 QUIET_QPS 次
+ * - 吵闹的应用 appB：NOISY_CONNECTIONS 个连接上的 NOISY_THREADS 个线程，每个线程每 NOISY_BATCH_INTERVAL_MS 一次发出 NOISY_BATCH 个请求，
+ *   全部返回后等到下一个间隔再发。按固定的速率发送，被拒绝的请求返回得更快也不会让它发得更多
+ *
+ * 每轮先只运行 appA，再加上 appB，统计两个阶段 appA 在 client 端看到的耗时，以及 appB 每秒通过和被拒绝的请求数。
+ * 规则的阈值足够大，appA 的请求都能通过，耗时的变化只来自 token server 上的排队。
+ * FairTokenServer 中 appB 进入队列的 QPS 限制为 NOISY_MAX_QPS，两个应用的权重相同。
+ * @author houyi
+ * @date 2019-03-20
+ **/
+public class NamespaceIsolationSimulate {
+
+    private static final int DEFAULT_SERVER_PORT = 11151;
+    private static final int FAIR_SERVER_PORT = 11152;
+
+    private static final String QUIET = "appA";
+    private static final String NOISY = "appB";
+    private static final long QUIET_FLOW_ID = 3300L;
+    private static final long NOISY_FLOW_ID = 3301L;
+    private static final double THRESHOLD = 100000000;
+
+    private static final int QUIET_QPS = 500;
+    private static final int NOISY_CONNECTIONS = 4;
+    private static final int NOISY_THREADS = 8;
+    private static final int NOISY_BATCH = 32;
+    private static final int NOISY_BATCH_INTERVAL_MS = 10;
+    private static final double NOISY_MAX_QPS = 5000;
+
+    private static final int ALONE_MS = 2000;
+    private static final int NOISY_MS = 4000;
+    private static final int REQUEST_TIMEOUT_MS = 1000;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("project.name", QUIET);
+        InitExecutor.doInit();
+        ClusterServerConfigManager.loadServerNamespaceSet(new HashSet<>(Arrays.asList(QUIET, NOISY)));
+        ClusterServerConfigManager.loadGlobalTransportConfig(new ServerTransportConfig()
+                .setIdleSeconds(600)
+                .setPort(DEFAULT_SERVER_PORT));
+        ClusterFlowRuleManager.loadRules(QUIET, Collections.singletonList(rule(QUIET_FLOW_ID)));
+        ClusterFlowRuleManager.loadRules(NOISY, Collections.singletonList(rule(NOISY_FLOW_ID)));
+        // 放开默认的 namespace 级别的请求数限制，默认的 token server 上不做限制，FairTokenServer 上只对 appB 单独限制
+        ClusterServerConfigManager.setMaxAllowedQps(THRESHOLD);
+        GlobalRequestLimiter.applyMaxQpsChange(THRESHOLD);
+        ClusterClientConfig clientConfig = new ClusterClientConfig();
+        clientConfig.setRequestTimeout(REQUEST_TIMEOUT_MS);
+        ClusterClientConfigManager.applyNewConfig(clientConfig);
+        System.out.println("quiet " + QUIET + "=" + QUIET_QPS + "qps, noisy " + NOISY + ": connections="
+                + NOISY_CONNECTIONS + ", threads=" + NOISY_THREADS + ", batch=" + NOISY_BATCH + " every "
+                + NOISY_BATCH_INTERVAL_MS + "ms (" + NOISY_THREADS * NOISY_BATCH * 1000 / NOISY_BATCH_INTERVAL_MS
+                + "qps)");
+
+        ClusterTokenServer defaultServer = new SentinelDefaultTokenServer();
+        defaultServer.start();
+        // 预热
+        run(null, DEFAULT_SERVER_PORT);
+        run("default", DEFAULT_SERVER_PORT);
+        defaultServer.stop();
+
+        FairTokenServer fairServer = new FairTokenServer(new FairServerTransportConfig()
+                .setMaxQps(NOISY, NOISY_MAX_QPS)
+                .setIdleSeconds(600)
+                .setPort(FAIR_SERVER_PORT));
+        fairServer.start();
+        run(null, FAIR_SERVER_PORT);
+        fairServer.latencyOf(QUIET).reset();
+        fairServer.latencyOf(NOISY).reset();
+        run("fair", FAIR_SERVER_PORT);
+        System.out.println("[fair] server side " + QUIET + ": " + fairServer.latencyOf(QUIET));
+        System.out.println("[fair] server side " + NOISY + ": " + fairServer.latencyOf(NOISY) + ", rejected at intake="
+                + fairServer.rejectedOf(NOISY));
+        fairServer.stop();
+        System.exit(0);
+    }
+
+    private static FlowRule rule(long flowId) {
+        return new FlowRule("cluster-resource-" + flowId)
+                .setCount(THRESHOLD)
+                .setClusterMode(true)
+                .setClusterConfig(new ClusterFlowConfig()
+                        .setFlowId(flowId)
+                        .setThresholdType(ClusterRuleConstant.FLOW_THRESHOLD_GLOBAL));
+    }
+
+    private static void run(String name, int port) throws Exception {
+        NettyTransportClient quietClient = connect(port);
+        NettyTransportClient[] noisyClients = new NettyTransportClient[NOISY_CONNECTIONS];
+        for (int i = 0; i < NOISY_CONNECTIONS; i++) {
+            noisyClients[i] = connect(port);
+        }
+        LatencyHistogram alone = new LatencyHistogram();
+        LatencyHistogram withNoise = new LatencyHistogram();
+        long start = System.currentTimeMillis();
+        final long noiseAt = start + ALONE_MS;
+        final long end = noiseAt + NOISY_MS;
+
+        final AtomicLong noisyPassed = new AtomicLong();
+        final AtomicLong noisyRejected = new AtomicLong();
+        final AtomicLong noisyFailed = new AtomicLong();
+        final CountDownLatch latch = new CountDownLatch(NOISY_THREADS);
+        for (int i = 0; i < NOISY_THREADS; i++) {
+            final Channel channel = TokenClients.channelOf(noisyClients[i % NOISY_CONNECTIONS]);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    sleepUntil(noiseAt);
+                    int[] ids = new int[NOISY_BATCH];
+                    ChannelPromise[] promises = new ChannelPromise[NOISY_BATCH];
+                    long batchAt = noiseAt;
+                    while (System.currentTimeMillis() < end) {
+                        sleepUntil(batchAt);
+                        batchAt += NOISY_BATCH_INTERVAL_MS;
+                        for (int j = 0; j < NOISY_BATCH; j++) {
+                            ids[j] = TokenClients.nextRequestId();
+                            promises[j] = send(channel, ids[j], NOISY_FLOW_ID);
+                        }
+                        for (int j = 0; j < NOISY_BATCH; j++) {
+                            int status = await(ids[j], promises[j]);
+                            if (status == TokenResultStatus.OK) {
+                                noisyPassed.incrementAndGet();
+                            } else if (status == TokenResultStatus.TOO_MANY_REQUEST) {
+                                noisyRejected.incrementAndGet();
+                            } else {
+                                noisyFailed.incrementAndGet();
+                            }
+                        }
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+
+        Channel quietChannel = TokenClients.channelOf(quietClient);
+        long intervalNs = 1000000000L / QUIET_QPS;
+        long next = System.nanoTime();
+        long quietFailed = 0;
+        while (System.currentTimeMillis() < end) {
+            int id = TokenClients.nextRequestId();
+            long begin = System.nanoTime();
+            int status = await(id, send(quietChannel, id, QUIET_FLOW_ID));
+            long costUs = (System.nanoTime() - begin) / 1000;
+            if (status != TokenResultStatus.OK) {
+                quietFailed++;
+            }
+            (System.currentTimeMillis() < noiseAt ? alone : withNoise).record(costUs);
+            next += intervalNs;
+            long sleepNs = next - System.nanoTime();
+            if (sleepNs > 0) {
+                Thread.sleep(sleepNs / 1000000, (int) (sleepNs % 1000000));
+            }
+        }
+        latch.await();
+        quietClient.stop();
+        for (NettyTransportClient client : noisyClients) {
+            client.stop();
+        }
+        if (name == null) {
+            return;
+        }
+        System.out.println("[" + name + "] " + QUIET + " alone: " + alone);
+        System.out.println("[" + name + "] " + QUIET + " with noise: " + withNoise + ", not passed=" + quietFailed);
+        System.out.println("[" + name + "] " + NOISY + ": passed/s=" + noisyPassed.get() * 1000 / NOISY_MS
+                + ", rejected/s=" + noisyRejected.get() * 1000 / NOISY_MS
+                + ", failed/s=" + noisyFailed.get() * 1000 / NOISY_MS);
+    }
+
+    private static NettyTransportClient connect(int port) throws Exception {
+        NettyTransportClient client = new NettyTransportClient("localhost", port);
+        client.start();
+        for (int i = 0; i < 50 && !client.isReady(); i++) {
+            Thread.sleep(100);
+        }
+        return client;
+    }
+
+    /**
+     * 先登记 promise 再发送，响应由 NettyTransportClient 的 handler 按请求 id 放进 TokenClientPromiseHolder
+     */
+    private static ChannelPromise send(Channel channel, int id, long flowId) {
+        ChannelPromise promise = channel.newPromise();
+        TokenClientPromiseHolder.putPromise(id, promise);
+        channel.writeAndFlush(new ClusterRequest<>(id, ClusterConstants.MSG_TYPE_FLOW,
+                new FlowRequestData().setFlowId(flowId).setCount(1).setPriority(false)));
+        return promise;
+    }
+
+    /**
+     * @return 响应的状态，超时时返回 FAIL
+     */
+    private static int await(int id, ChannelPromise promise) {
+        try {
+            if (!promise.await(REQUEST_TIMEOUT_MS)) {
+                return TokenResultStatus.FAIL;
+            }
+            AbstractMap.SimpleEntry<ChannelPromise, ClusterResponse> entry = TokenClientPromiseHolder.getEntry(id);
+            ClusterResponse response = entry == null ? null : entry.getValue();
+            return response == null ? TokenResultStatus.FAIL : response.getStatus();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return TokenResultStatus.FAIL;
+        } finally {
+            TokenClientPromiseHolder.remove(id);
+        }
+    }
+
+    private static void sleepUntil(long time) {
+        long wait = time - System.currentTimeMillis();
+        if (wait <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.lememo.sentinel.clusterextension;
+
+import com.alibaba.csp.sentinel.cluster.TokenResult;
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.client.TokenClientProvider;
+import com.alibaba.csp.sentinel.cluster.flow.rule.ClusterParamFlowRuleManager;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.limit.GlobalRequestLimiter;
+import com.alibaba.csp.sentinel.cluster.server.config.ClusterServerConfigManager;
+import com.alibaba.csp.sentinel.cluster.server.config.ServerTransportConfig;
+import com.alibaba.csp.sentinel.slots.block.ClusterRuleConstant;
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowClusterConfig;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
+import com.lememo.sentinel.clusterextension.client.ConsistentHashRing;
+import com.lememo.sentinel.clusterextension.client.ShardedParamTokenClient;
+import com.lememo.sentinel.clusterextension.server.ParamShardTokenServer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 在本机启动多台 ParamShardTokenServer，验证热点参数按参数值分片之后的限流效果和内存
+ *
+ * 多个线程按 uid 请求热点参数 token，其中 HOT_RATIO 的请求落在 HOT_UIDS 个热 uid 上，其余每个请求都是一个新的 uid，
+ * 每台 server 最多保存 MAX_PARAM_VALUES 个参数值，冷 uid 的个数远远超过这个容量。打印：
+ *
+ * - 每台 server 收到的请求数、计数表中的参数值个数以及累计淘汰的参数值个数
+ * - 每个热 uid 每秒通过的请求数，应该等于全局阈值，不会因为冷 uid 的淘汰而多放行
+ * - 被拒绝的冷 uid 请求数，应该为 0
+ *
+ * 之后停掉其中一台 server，只有落在这台 server 上的参数值返回 FAIL，由 Sentinel 退化为本地限流，其它参数值不受影响。
+ * 最后统计增加一台 server 时有多少参数值换了负责的 server。
+ *
+ * 启动参数：
+ * args[0] server 的台数，默认为 3
+ * args[1] 每个阶段运行的秒数，默认为 5
+ * @author houyi
+ * @date 2019-03-17
+ **/
+public class ParamShardSimulate {
+
+    private static final int FIRST_PORT = 11121;
+    private static final long FLOW_ID = 3000L;
+    private static final double THRESHOLD = 10;
+    private static final int MAX_PARAM_VALUES = 4000;
+
+    private static final int HOT_UIDS = 10;
+    private static final double HOT_RATIO = 0.1;
+    private static final long COLD_UID_BASE = 1000000;
+
+    private static final int THREADS = 4;
+    private static final int RING_SAMPLES = 100000;
+
+    private static final AtomicLong COLD_UIDS = new AtomicLong(COLD_UID_BASE);
+
+    public static void main(String[] args) throws Exception {
+        int serverCount = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        LoopbackCluster.initServer(FIRST_PORT, THRESHOLD);
+        // 放开 namespace 级别的请求数限制，只看热点参数的限流效果
+        ClusterServerConfigManager.setMaxAllowedQps(100000000);
+        GlobalRequestLimiter.applyMaxQpsChange(100000000);
+        ClusterParamFlowRuleManager.loadRules(LoopbackCluster.APP_NAME, Collections.singletonList(
+                new ParamFlowRule("cluster-param-resource")
+                        .setParamIdx(0)
+                        .setGrade(RuleConstant.FLOW_GRADE_QPS)
+                        .setCount(THRESHOLD)
+                        .setClusterMode(true)
+                        .setClusterConfig(new ParamFlowClusterConfig()
+                                .setFlowId(FLOW_ID)
+                                .setThresholdType(ClusterRuleConstant.FLOW_THRESHOLD_GLOBAL))));
+
+        List<String> addresses = new ArrayList<>();
+        ParamShardTokenServer[] servers = new ParamShardTokenServer[serverCount];
+        for (int i = 0; i < serverCount; i++) {
+            servers[i] = new ParamShardTokenServer(new ServerTransportConfig()
+                    .setIdleSeconds(600)
+                    .setPort(FIRST_PORT + i), MAX_PARAM_VALUES);
+            servers[i].start();
+            addresses.add("localhost:" + (FIRST_PORT + i));
+        }
+        ShardedParamTokenClient client = new ShardedParamTokenClient(TokenClientProvider.getClient(), addresses);
+        client.startShards();
+        for (int i = 0; i < 50 && !client.isReady(); i++) {
+            Thread.sleep(100);
+        }
+
+        System.out.println("servers=" + serverCount + ", threshold=" + THRESHOLD + ", hot uids=" + HOT_UIDS
+                + ", hot ratio=" + HOT_RATIO + ", max param values per server=" + MAX_PARAM_VALUES);
+        run("all up", client, addresses, servers, seconds);
+
+        servers[serverCount - 1].stop();
+        run("server " + addresses.get(serverCount - 1) + " down", client, addresses, servers, seconds);
+
+        client.stop();
+        for (ParamShardTokenServer server : servers) {
+            server.stop();
+        }
+        printRemapped(addresses);
+        System.exit(0);
+    }
+
+    private static void run(String name, final ShardedParamTokenClient client, List<String> addresses,
+                            ParamShardTokenServer[] servers, int seconds) throws Exception {
+        final Map<String, Integer> indexes = new HashMap<>();
+        for (int i = 0; i < addresses.size(); i++) {
+            indexes.put(addresses.get(i), i);
+        }
+        final AtomicLongArray routed = new AtomicLongArray(addresses.size());
+        final AtomicLongArray failed = new AtomicLongArray(addresses.size());
+        final AtomicLongArray hotPassed = new AtomicLongArray(HOT_UIDS);
+        final AtomicLong coldBlocked = new AtomicLong();
+        final AtomicLong calls = new AtomicLong();
+        final long end = System.currentTimeMillis() + seconds * 1000L;
+        final CountDownLatch latch = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (System.currentTimeMillis() < end) {
+                        boolean hot = ThreadLocalRandom.current().nextDouble() < HOT_RATIO;
+                        long uid = hot ? ThreadLocalRandom.current().nextInt(HOT_UIDS) : COLD_UIDS.incrementAndGet();
+                        int server = indexes.get(client.serverOf(uid));
+                        routed.incrementAndGet(server);
+                        TokenResult result = client.requestParamToken(FLOW_ID, 1,
+                                Collections.<Object>singletonList(uid));
+                        if (result.getStatus() == TokenResultStatus.FAIL) {
+                            failed.incrementAndGet(server);
+                        } else if (hot && result.getStatus() == TokenResultStatus.OK) {
+                            hotPassed.incrementAndGet((int) uid);
+                        } else if (!hot && result.getStatus() == TokenResultStatus.BLOCKED) {
+                            coldBlocked.incrementAndGet();
+                        }
+                        calls.incrementAndGet();
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+
+        System.out.println("[" + name + "] requests/s=" + calls.get() / seconds
+                + ", coldBlocked=" + coldBlocked.get());
+        System.out.printf("%-16s %10s %10s %10s %10s%n", "server", "requests", "failed", "tableSize", "evictions");
+        for (int i = 0; i < addresses.size(); i++) {
+            System.out.printf("%-16s %10d %10d %10d %10d%n", addresses.get(i), routed.get(i), failed.get(i),
+                    servers[i].getTable().size(), servers[i].getTable().evictions());
+        }
+        long[] passQps = new long[HOT_UIDS];
+        for (int i = 0; i < HOT_UIDS; i++) {
+            passQps[i] = hotPassed.get(i) / seconds;
+        }
+        System.out.println("hot uid pass/s: " + Arrays.toString(passQps));
+    }
+
+    /**
+     * 增加一台 server 之后换了负责 server 的参数值比例，理想情况是 1 / (n + 1)
+     */
+    private static void printRemapped(List<String> addresses) {
+        List<String> grown = new ArrayList<>(addresses);
+        grown.add("localhost:" + (FIRST_PORT + addresses.size()));
+        ConsistentHashRing<String> before = new ConsistentHashRing<>(addresses, ShardedParamTokenClient.VIRTUAL_NODES);
+        ConsistentHashRing<String> after = new ConsistentHashRing<>(grown, ShardedParamTokenClient.VIRTUAL_NODES);
+        int moved = 0;
+        for (long uid = COLD_UID_BASE; uid < COLD_UID_BASE + RING_SAMPLES; uid++) {
+            if (!before.nodeOf(uid).equals(after.nodeOf(uid))) {
+                moved++;
+            }
+        }
+        System.out.printf("add one server: %.1f%% of %d uids moved, ideal %.1f%%%n",
+                100.0 * moved / RING_SAMPLES, RING_SAMPLES, 100.0 / grown.size());
+    }
+
+}
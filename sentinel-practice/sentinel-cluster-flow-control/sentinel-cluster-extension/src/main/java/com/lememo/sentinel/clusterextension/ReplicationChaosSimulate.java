@@ -0,0 +1,199 @@
+package com.lememo.sentinel.clusterextension;
+
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.client.ClusterTokenClient;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.limit.GlobalRequestLimiter;
+import com.alibaba.csp.sentinel.cluster.server.SentinelDefaultTokenServer;
+import com.alibaba.csp.sentinel.cluster.server.config.ClusterServerConfigManager;
+import com.lememo.sentinel.clusterextension.client.StandbyTokenClient;
+import com.lememo.sentinel.clusterextension.server.ReplicationRequestProcessor;
+import com.lememo.sentinel.clusterextension.server.StandbyReplicator;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 在压力下杀掉主 token server，统计切换到备 token server 前后集群通过数偏离阈值的程度
+ *
+ * ClusterMetricStatistics 是静态的，同一个进程中的多台 token server 共用同一份计数，
+ * 所以主、备 server 分别运行在两个子进程中，当前进程只作为 client：
+ *
+ * - 多个线程不停地请求 token，按 100ms 统计通过的请求数，每个 1s 的滑动窗口内通过的请求数应该等于阈值
+ * - 运行 KILL_AT_MS 之后强制杀掉主 server 进程，StandbyTokenClient 发现连接断开后切换到备 server
+ * - 分别运行不复制、每 100ms 复制一次（默认）和每 20ms 复制一次三轮，对比杀掉主 server 之后窗口内通过数超过、低于阈值的最大比例，
+ *   失败的请求数，以及从杀掉主 server 到第一次得到备 server 响应（通过或者被拒绝）的耗时
+ *
+ * 不接收复制时，备 server 的窗口是空的，切换之后会再放行一整个窗口的请求，杀掉之前的 1s 内主 server 已经放行的请求加上这些请求，
+ * 窗口内的通过数最多接近阈值的两倍。复制时，主 server 在最后一次复制之后放行的请求没有复制过去，超出的部分不会超过一个复制间隔内的通过数。
+ *
+ * 启动参数：无。子进程的启动参数为 server port [standbyHost:standbyPort]
+ * @author houyi
+ * @date 2019-03-18
+ **/
+public class ReplicationChaosSimulate {
+
+    private static final int FIRST_PORT = 11131;
+    private static final long FLOW_ID = 3100L;
+    private static final double THRESHOLD = 200;
+
+    private static final int THREADS = 4;
+    private static final int RUN_MS = 6000;
+    private static final int KILL_AT_MS = 3250;
+    private static final int SLOT_MS = 100;
+    private static final int WINDOW_SLOTS = 10;
+
+    /**
+     * 等待子进程的 jvm 启动
+     */
+    private static final int PROCESS_START_MS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && "server".equals(args[0])) {
+            runServer(args);
+            return;
+        }
+        System.out.println("threshold=" + THRESHOLD + ", threads=" + THREADS + ", kill primary at " + KILL_AT_MS
+                + "ms of " + RUN_MS + "ms");
+        run("no replication", FIRST_PORT, FIRST_PORT + 1, 0);
+        run("replication 100ms", FIRST_PORT + 2, FIRST_PORT + 3, 100);
+        run("replication 20ms", FIRST_PORT + 4, FIRST_PORT + 5, 20);
+        System.exit(0);
+    }
+
+    /**
+     * 子进程：启动 token server，指定了备 server 时把计数复制过去，标准输入关闭（父进程退出）时退出
+     */
+    private static void runServer(String[] args) throws Exception {
+        LoopbackCluster.initServer(Integer.parseInt(args[1]), THRESHOLD, FLOW_ID);
+        // 放开 namespace 级别的请求数限制，只看规则的限流效果
+        ClusterServerConfigManager.setMaxAllowedQps(100000000);
+        GlobalRequestLimiter.applyMaxQpsChange(100000000);
+        if (args.length > 2) {
+            new SentinelDefaultTokenServer().start();
+            int idx = args[2].lastIndexOf(':');
+            new StandbyReplicator(args[2].substring(0, idx), Integer.parseInt(args[2].substring(idx + 1))).start();
+        } else {
+            ReplicationRequestProcessor.register();
+            new SentinelDefaultTokenServer().start();
+        }
+        while (System.in.read() >= 0) {
+            // 等待父进程退出
+        }
+        System.exit(0);
+    }
+
+    /**
+     * @param replicateIntervalMs 复制的间隔，为 0 时不复制
+     */
+    private static Process startServer(int port, String standby, int replicateIntervalMs) throws Exception {
+        List<String> command = new ArrayList<>(Arrays.asList(
+                System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+                "-D" + StandbyReplicator.REPLICATE_INTERVAL_MS + "=" + replicateIntervalMs,
+                "-cp", System.getProperty("java.class.path"),
+                ReplicationChaosSimulate.class.getName(), "server", String.valueOf(port)));
+        if (standby != null && replicateIntervalMs > 0) {
+            command.add(standby);
+        }
+        // token server 的 netty 日志很多，写到临时目录下的文件中
+        File log = new File(System.getProperty("java.io.tmpdir"), "sentinel-chaos-server-" + port + ".log");
+        return new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.to(log))
+                .start();
+    }
+
+    private static void run(String name, int primaryPort, int standbyPort, int replicateIntervalMs) throws Exception {
+        Process standby = startServer(standbyPort, null, 0);
+        Process primary = startServer(primaryPort, "localhost:" + standbyPort, replicateIntervalMs);
+        Thread.sleep(PROCESS_START_MS);
+        ClusterTokenClient delegate = LoopbackCluster.startClient(primaryPort, FLOW_ID);
+        final StandbyTokenClient client = new StandbyTokenClient(delegate,
+                Arrays.asList("localhost:" + primaryPort, "localhost:" + standbyPort));
+        // 等待探测连接时使用的 token 过期，并且让复制建立连接
+        Thread.sleep(1500);
+
+        final int slots = RUN_MS / SLOT_MS;
+        final AtomicLongArray passed = new AtomicLongArray(slots);
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong firstAnswerAfterKill = new AtomicLong(-1);
+        final AtomicLong firstPassAfterKill = new AtomicLong(-1);
+        // 和 server 的 bucket 对齐，按响应到达的时间统计，一个 bucket 内放行的请求不会被分到两个 slot 中
+        final long start = (System.currentTimeMillis() / SLOT_MS + 1) * SLOT_MS;
+        Thread.sleep(start - System.currentTimeMillis());
+        final long killAt = start + KILL_AT_MS;
+        final CountDownLatch latch = new CountDownLatch(THREADS);
+        for (int t = 0; t < THREADS; t++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (System.currentTimeMillis() < start + RUN_MS) {
+                        int status = client.requestToken(FLOW_ID, 1, false).getStatus();
+                        long now = System.currentTimeMillis();
+                        if (now >= start + RUN_MS) {
+                            break;
+                        }
+                        if (status != TokenResultStatus.FAIL && client.switches() > 0) {
+                            firstAnswerAfterKill.compareAndSet(-1, now - killAt);
+                        }
+                        if (status == TokenResultStatus.OK) {
+                            passed.incrementAndGet((int) ((now - start) / SLOT_MS));
+                            if (now >= killAt) {
+                                firstPassAfterKill.compareAndSet(-1, now - killAt);
+                            }
+                        } else if (status == TokenResultStatus.FAIL) {
+                            failed.incrementAndGet();
+                        }
+                    }
+                    latch.countDown();
+                }
+            }).start();
+        }
+        Thread.sleep(killAt - System.currentTimeMillis());
+        primary.destroyForcibly();
+        latch.await();
+
+        print(name, passed, failed.get(), firstAnswerAfterKill.get(), firstPassAfterKill.get(), client.switches());
+        client.stop();
+        standby.destroyForcibly();
+        primary.waitFor();
+        standby.waitFor();
+    }
+
+    /**
+     * 打印每个 1s 滑动窗口内的通过数，以及杀掉主 server 之后窗口内通过数超过、低于阈值的最大比例。
+     * 第一个窗口包含 jvm 预热和探测连接时的请求，不参与统计
+     */
+    private static void print(String name, AtomicLongArray passed, long failed, long failoverMs, long firstPassMs,
+                              int switches) {
+        int killSlot = KILL_AT_MS / SLOT_MS;
+        long maxBefore = 0;
+        long maxAfter = 0;
+        long minAfter = Long.MAX_VALUE;
+        StringBuilder windows = new StringBuilder();
+        for (int end = WINDOW_SLOTS * 2; end <= passed.length(); end++) {
+            long sum = 0;
+            for (int i = end - WINDOW_SLOTS; i < end; i++) {
+                sum += passed.get(i);
+            }
+            if (end <= killSlot) {
+                maxBefore = Math.max(maxBefore, Math.abs(sum - (long) THRESHOLD));
+            } else {
+                maxAfter = Math.max(maxAfter, sum);
+                minAfter = Math.min(minAfter, sum);
+            }
+            windows.append(end * SLOT_MS / 100 / 10.0).append("s=").append(sum).append(' ');
+        }
+        System.out.println("[" + name + "] 1s window passes ending at: " + windows.toString().trim());
+        System.out.printf("[%s] before kill max deviation=%.1f%%; after kill: window passes max=%d (over %.1f%%), "
+                        + "min=%d (under %.1f%%), failed=%d, failover=%dms, first pass=%dms, switches=%d%n",
+                name, maxBefore / THRESHOLD * 100, maxAfter, Math.max(0, maxAfter - THRESHOLD) / THRESHOLD * 100,
+                minAfter, Math.max(0, THRESHOLD - minAfter) / THRESHOLD * 100, failed, failoverMs, firstPassMs,
+                switches);
+    }
+
+}
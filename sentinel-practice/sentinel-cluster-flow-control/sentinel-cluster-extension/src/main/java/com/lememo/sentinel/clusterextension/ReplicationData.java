@@ -0,0 +1,55 @@
+package com.lememo.sentinel.clusterextension;
+
+import java.util.Arrays;
+
+/**
+ * 主 token server 复制给备 server 的通过数
+ * passCounts[i]、passRequestCounts[i] 是 flowIds[i] 自上次复制以来新增的通过的 token 数和请求数，
+ * 备 server 把它们加到自己当前的 bucket 上。默认的 token server 按通过的请求数（PASS_REQUEST）判断是否超过阈值，两者都需要复制
+ * @author houyi
+ * @date 2019-03-18
+ **/
+public class ReplicationData {
+
+    private long[] flowIds;
+
+    private int[] passCounts;
+
+    private int[] passRequestCounts;
+
+    public long[] getFlowIds() {
+        return flowIds;
+    }
+
+    public ReplicationData setFlowIds(long[] flowIds) {
+        this.flowIds = flowIds;
+        return this;
+    }
+
+    public int[] getPassCounts() {
+        return passCounts;
+    }
+
+    public ReplicationData setPassCounts(int[] passCounts) {
+        this.passCounts = passCounts;
+        return this;
+    }
+
+    public int[] getPassRequestCounts() {
+        return passRequestCounts;
+    }
+
+    public ReplicationData setPassRequestCounts(int[] passRequestCounts) {
+        this.passRequestCounts = passRequestCounts;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplicationData{" +
+                "flowIds=" + Arrays.toString(flowIds) +
+                ", passCounts=" + Arrays.toString(passCounts) +
+                ", passRequestCounts=" + Arrays.toString(passRequestCounts) +
+                '}';
+    }
+}
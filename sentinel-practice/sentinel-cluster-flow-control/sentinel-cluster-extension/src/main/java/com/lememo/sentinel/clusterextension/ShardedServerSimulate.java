@@ -0,0 +1,155 @@
+package com.lememo.sentinel.clusterextension;
+
+import com.alibaba.csp.sentinel.cluster.ClusterConstants;
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.client.NettyTransportClient;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientConfig;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientConfigManager;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.limit.GlobalRequestLimiter;
+import com.alibaba.csp.sentinel.cluster.request.ClusterRequest;
+import com.alibaba.csp.sentinel.cluster.request.data.FlowRequestData;
+import com.alibaba.csp.sentinel.cluster.response.ClusterResponse;
+import com.alibaba.csp.sentinel.cluster.server.ClusterTokenServer;
+import com.alibaba.csp.sentinel.cluster.server.SentinelDefaultTokenServer;
+import com.alibaba.csp.sentinel.cluster.server.config.ClusterServerConfigManager;
+import com.lememo.sentinel.clusterextension.server.ShardedServerTransportConfig;
+import com.lememo.sentinel.clusterextension.server.ShardedTokenServer;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对比默认的 token server 和分片的 token server 的吞吐量
+ * 规则有很多个 flowId，多个连接上的多个线程随机请求其中的 flowId，阈值足够大，所有请求都能通过
+ * @author houyi
+ * @date 2019-03-03
+ **/
+public class ShardedServerSimulate {
+
+    private static final int DEFAULT_SERVER_PORT = 11114;
+    private static final int SHARDED_SERVER_PORT = 11115;
+
+    private static final int FLOW_COUNT = 1000;
+    private static final long FIRST_FLOW_ID = 1000L;
+    private static final double THRESHOLD = 100000000;
+
+    private static final int CONNECTIONS = 4;
+    private static final int THREADS = 32;
+    private static final int SECONDS = 5;
+    private static final int SAMPLES_PER_THREAD = 200000;
+
+    public static void main(String[] args) throws Exception {
+        int shardCount = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        long[] flowIds = new long[FLOW_COUNT];
+        for (int i = 0; i < FLOW_COUNT; i++) {
+            flowIds[i] = FIRST_FLOW_ID + i;
+        }
+        LoopbackCluster.initServer(DEFAULT_SERVER_PORT, THRESHOLD, flowIds);
+        // 放开 namespace 级别的请求数限制，只比较 token server 本身的处理能力
+        ClusterServerConfigManager.setMaxAllowedQps(THRESHOLD);
+        GlobalRequestLimiter.applyMaxQpsChange(THRESHOLD);
+        ClusterClientConfig clientConfig = new ClusterClientConfig();
+        clientConfig.setRequestTimeout(200);
+        ClusterClientConfigManager.applyNewConfig(clientConfig);
+
+        ClusterTokenServer defaultServer = new SentinelDefaultTokenServer();
+        defaultServer.start();
+        // 预热
+        run(null, DEFAULT_SERVER_PORT);
+        run("default", DEFAULT_SERVER_PORT);
+        defaultServer.stop();
+
+        ClusterTokenServer shardedServer = new ShardedTokenServer(new ShardedServerTransportConfig()
+                .setShardCount(shardCount)
+                .setPort(SHARDED_SERVER_PORT));
+        shardedServer.start();
+        run(null, SHARDED_SERVER_PORT);
+        run("sharded, shards=" + shardCount, SHARDED_SERVER_PORT);
+        shardedServer.stop();
+        System.exit(0);
+    }
+
+    private static void run(String name, int port) throws Exception {
+        final NettyTransportClient[] clients = new NettyTransportClient[CONNECTIONS];
+        for (int i = 0; i < CONNECTIONS; i++) {
+            clients[i] = new NettyTransportClient("localhost", port);
+            clients[i].start();
+        }
+        for (NettyTransportClient client : clients) {
+            for (int i = 0; i < 50 && !client.isReady(); i++) {
+                Thread.sleep(100);
+            }
+        }
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong passed = new AtomicLong();
+        final long[][] samples = new long[THREADS][SAMPLES_PER_THREAD];
+        final int[] sampleCounts = new int[THREADS];
+        final long end = System.currentTimeMillis() + SECONDS * 1000;
+        final CountDownLatch latch = new CountDownLatch(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            final int index = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    NettyTransportClient client = clients[index % CONNECTIONS];
+                    long[] mine = samples[index];
+                    int n = 0;
+                    while (System.currentTimeMillis() < end) {
+                        long flowId = FIRST_FLOW_ID + ThreadLocalRandom.current().nextInt(FLOW_COUNT);
+                        ClusterRequest<FlowRequestData> request = new ClusterRequest<>(ClusterConstants.MSG_TYPE_FLOW,
+                                new FlowRequestData().setFlowId(flowId).setCount(1).setPriority(false));
+                        long start = System.nanoTime();
+                        try {
+                            ClusterResponse response = client.sendRequest(request);
+                            if (response != null && response.getStatus() == TokenResultStatus.OK) {
+                                passed.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            // 超时，记为没有通过
+                        }
+                        if (n < mine.length) {
+                            mine[n++] = System.nanoTime() - start;
+                        }
+                        calls.incrementAndGet();
+                    }
+                    sampleCounts[index] = n;
+                    latch.countDown();
+                }
+            }).start();
+        }
+        latch.await();
+        for (NettyTransportClient client : clients) {
+            client.stop();
+        }
+        if (name == null) {
+            return;
+        }
+        int total = 0;
+        for (int count : sampleCounts) {
+            total += count;
+        }
+        long[] merged = new long[total];
+        int offset = 0;
+        for (int i = 0; i < THREADS; i++) {
+            System.arraycopy(samples[i], 0, merged, offset, sampleCounts[i]);
+            offset += sampleCounts[i];
+        }
+        Arrays.sort(merged);
+        System.out.println("[" + name + "] flowIds=" + FLOW_COUNT + ", connections=" + CONNECTIONS
+                + ", threads=" + THREADS
+                + ", requests/s=" + calls.get() / SECONDS
+                + ", passed/s=" + passed.get() / SECONDS
+                + ", p50=" + percentile(merged, 0.5) + "us"
+                + ", p99=" + percentile(merged, 0.99) + "us");
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))] / 1000;
+    }
+
+}
@@ -0,0 +1,113 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import com.alibaba.csp.sentinel.cluster.TokenResult;
+import com.alibaba.csp.sentinel.cluster.client.ClusterTokenClient;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * 支持先异步请求 token、再进入 slot chain 的集群客户端
+ *
+ * FlowRuleChecker 在 slot chain 中同步调用 requestToken，集群模式下调用线程要一直等到 token server 响应，
+ * 在 event loop 上调用 SphU.entry 时整个 event loop 都会被阻塞。
+ * AsyncTokenClient 把这个过程拆成两步：
+ * <ul>
+ *     <li>调用方先通过 requestTokensAsync 异步请求资源上所有集群规则的 token，不阻塞当前线程</li>
+ *     <li>结果到达之后通过 callWithTokens 进入 slot chain，FlowRuleChecker 调用 requestToken 时直接返回已经拿到的结果</li>
+ * </ul>
+ * 没有提前拿到结果的 flowId 依然交给被包装的 client 同步请求。
+ * 需要放在最外层，在 FailoverTokenClient 之后安装。
+ * @author houyi
+ * @date 2019-03-11
+ **/
+public class AsyncTokenClient extends ForwardingTokenClient {
+
+    /**
+     * 当前线程上已经拿到的 token 请求结果，只在 callWithTokens 执行期间存在
+     */
+    private static final ThreadLocal<Prefetched> PREFETCHED = new ThreadLocal<>();
+
+    public AsyncTokenClient(ClusterTokenClient delegate) {
+        super(delegate);
+    }
+
+    /**
+     * 用 AsyncTokenClient 包装 TokenClientProvider 中当前的 client
+     * @return 包装后的 client，当前没有可用的 client 时返回 null
+     */
+    public static AsyncTokenClient install() {
+        return TokenClients.install(AsyncTokenClient.class, AsyncTokenClient::new);
+    }
+
+    @Override
+    public TokenResult requestToken(Long flowId, int acquireCount, boolean prioritized) {
+        Prefetched prefetched = PREFETCHED.get();
+        if (prefetched != null && flowId != null) {
+            TokenResult result = prefetched.take(flowId);
+            if (result != null) {
+                return result;
+            }
+        }
+        return delegate.requestToken(flowId, acquireCount, prioritized);
+    }
+
+    @Override
+    public CompletableFuture<TokenResult> requestTokenAsync(Long flowId, int acquireCount) {
+        return delegateAsync(flowId, acquireCount);
+    }
+
+    /**
+     * 同时请求多个 flowId 的 token
+     * @return 所有结果都到达时完成，结果的顺序和 flowIds 一致
+     */
+    public CompletableFuture<TokenResult[]> requestTokensAsync(final long[] flowIds, int acquireCount) {
+        if (flowIds.length == 1) {
+            return requestTokenAsync(flowIds[0], acquireCount).thenApply(result -> new TokenResult[] {result});
+        }
+        final TokenResult[] results = new TokenResult[flowIds.length];
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[flowIds.length];
+        for (int i = 0; i < flowIds.length; i++) {
+            final int index = i;
+            futures[i] = requestTokenAsync(flowIds[i], acquireCount).thenAccept(result -> results[index] = result);
+        }
+        return CompletableFuture.allOf(futures).thenApply(v -> results);
+    }
+
+    /**
+     * 带着已经拿到的 token 请求结果执行 action，action 中的 FlowRuleChecker 对这些 flowId 不会再请求 token server
+     * 每个结果只会被使用一次
+     */
+    public static <T> T callWithTokens(long[] flowIds, TokenResult[] results, Supplier<T> action) {
+        Prefetched previous = PREFETCHED.get();
+        PREFETCHED.set(new Prefetched(flowIds, results));
+        try {
+            return action.get();
+        } finally {
+            PREFETCHED.set(previous);
+        }
+    }
+
+    private static final class Prefetched {
+
+        private final long[] flowIds;
+        private final TokenResult[] results;
+
+        Prefetched(long[] flowIds, TokenResult[] results) {
+            this.flowIds = flowIds;
+            this.results = results;
+        }
+
+        TokenResult take(long flowId) {
+            for (int i = 0; i < flowIds.length; i++) {
+                if (flowIds[i] == flowId && results[i] != null) {
+                    TokenResult result = results[i];
+                    results[i] = null;
+                    return result;
+                }
+            }
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,339 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import com.alibaba.csp.sentinel.cluster.TokenResult;
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.client.ClusterTokenClient;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientConfigManager;
+import com.alibaba.csp.sentinel.cluster.client.handler.TokenClientPromiseHolder;
+import com.alibaba.csp.sentinel.cluster.request.ClusterRequest;
+import com.alibaba.csp.sentinel.cluster.response.ClusterResponse;
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.config.SentinelConfig;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.lememo.sentinel.clusterextension.ExtensionConstants;
+import com.lememo.sentinel.clusterextension.MultiAcquireRequestData;
+import com.lememo.sentinel.clusterextension.MultiAcquireResponseData;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelPromise;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 合并 token 请求的集群客户端
+ *
+ * 默认的 DefaultClusterTokenClient 中，每个调用方都会单独发送一个请求，并阻塞等待这个请求的响应。
+ * CoalescingTokenClient 把调用方的请求放进队列，由一个后台线程每隔一个很短的窗口（默认 100us）取出队列中所有的请求，
+ * 按 flowId 分组后合并成一个请求发送出去：
+ * <ul>
+ *     <li>发送是异步的，后台线程不等待响应，同一个连接上可以同时有多个请求在等待响应</li>
+ *     <li>响应由 netty 的 IO 线程处理，按调用方到达的顺序放行前面的若干个，其余的拒绝</li>
+ *     <li>连接不可用或者超时，返回 FAIL，由 FlowRuleChecker 决定是否退化为本地限流</li>
+ *     <li>requestTokenAsync 不等待响应，响应到达时在 netty 的 IO 线程上完成返回的 future</li>
+ * </ul>
+ * @author houyi
+ * @date 2019-03-02
+ **/
+public class CoalescingTokenClient extends ForwardingTokenClient {
+
+    /**
+     * 合并请求的窗口，单位：us
+     */
+    public static final String COALESCE_WINDOW_US = "csp.sentinel.cluster.coalesce.window.us";
+
+    private static final int DEFAULT_COALESCE_WINDOW_US = 100;
+
+    /**
+     * 一次最多合并的调用方个数，超过一个帧的长度上限时会拆成多个请求发送
+     */
+    private static final int MAX_BATCH_SIZE = 4096;
+
+    /**
+     * token server 默认的最大帧长度，包括 2 个字节的长度字段
+     */
+    private static final int MAX_FRAME_LENGTH = 1024;
+
+    /**
+     * 长度(2) + 请求 id(4) + 类型(1) + flowId 个数(2)
+     */
+    private static final int FRAME_HEADER_BYTES = 9;
+
+    /**
+     * flowId(8) + 调用方个数(2)
+     */
+    private static final int FLOW_HEADER_BYTES = 10;
+
+    private static final int COUNT_BYTES = 4;
+
+    private static final TokenResult OK_RESULT = new TokenResult(TokenResultStatus.OK);
+    private static final TokenResult BLOCKED_RESULT = new TokenResult(TokenResultStatus.BLOCKED);
+    private static final TokenResult FAIL_RESULT = new TokenResult(TokenResultStatus.FAIL);
+
+    private static final TimeoutException REQUEST_TIMEOUT = new TimeoutException("request time out");
+
+    private final long windowNanos;
+
+    private final BlockingQueue<PendingAcquire> queue = new LinkedBlockingQueue<>();
+
+    private final AtomicLong frames = new AtomicLong();
+
+    public CoalescingTokenClient(ClusterTokenClient delegate) {
+        super(delegate);
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowInUs());
+        Thread flusher = new NamedThreadFactory("sentinel-cluster-coalescer", true).newThread(new Runnable() {
+            @Override
+            public void run() {
+                flushLoop();
+            }
+        });
+        flusher.start();
+    }
+
+    private static int windowInUs() {
+        String value = SentinelConfig.getConfig(COALESCE_WINDOW_US);
+        try {
+            return value == null ? DEFAULT_COALESCE_WINDOW_US : Math.max(0, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            RecordLog.warn("[CoalescingTokenClient] Invalid " + COALESCE_WINDOW_US + ": " + value);
+            return DEFAULT_COALESCE_WINDOW_US;
+        }
+    }
+
+    /**
+     * 用 CoalescingTokenClient 包装 TokenClientProvider 中当前的 client
+     * @return 包装后的 client，当前没有可用的 client 时返回 null
+     */
+    public static CoalescingTokenClient install() {
+        return TokenClients.install(CoalescingTokenClient.class, CoalescingTokenClient::new);
+    }
+
+    @Override
+    public TokenResult requestToken(Long flowId, int acquireCount, boolean prioritized) {
+        if (flowId == null || acquireCount <= 0 || prioritized) {
+            return delegate.requestToken(flowId, acquireCount, prioritized);
+        }
+        PendingAcquire pending = new PendingAcquire(flowId, acquireCount, Thread.currentThread(), null);
+        queue.offer(pending);
+        long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(ClusterClientConfigManager.getRequestTimeout()) + windowNanos;
+        TokenResult result = pending.await(timeoutNanos);
+        return result == null ? FAIL_RESULT : result;
+    }
+
+    /**
+     * 和同步的请求一起合并发送，超时由发送时注册的定时任务处理
+     */
+    @Override
+    public CompletableFuture<TokenResult> requestTokenAsync(Long flowId, int acquireCount) {
+        if (flowId == null || acquireCount <= 0) {
+            return delegateAsync(flowId, acquireCount);
+        }
+        CompletableFuture<TokenResult> future = new CompletableFuture<>();
+        queue.offer(new PendingAcquire(flowId, acquireCount, null, future));
+        return future;
+    }
+
+    /**
+     * 发送的请求数
+     */
+    public long getFrames() {
+        return frames.get();
+    }
+
+    private void flushLoop() {
+        List<PendingAcquire> batch = new ArrayList<>();
+        while (true) {
+            try {
+                PendingAcquire first = queue.take();
+                // 等一个窗口，让同时到达的调用方都进入队列
+                if (windowNanos > 0) {
+                    LockSupport.parkNanos(windowNanos);
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                send(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (Throwable e) {
+                RecordLog.warn("[CoalescingTokenClient] Failed to send coalesced request", e);
+                completeAll(batch, FAIL_RESULT);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void send(List<PendingAcquire> batch) {
+        Channel channel = TokenClients.channelOf(delegate);
+        if (channel == null) {
+            completeAll(batch, FAIL_RESULT);
+            return;
+        }
+        Map<Long, List<PendingAcquire>> groups = new LinkedHashMap<>();
+        for (PendingAcquire pending : batch) {
+            List<PendingAcquire> group = groups.get(pending.flowId);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(pending.flowId, group);
+            }
+            group.add(pending);
+        }
+        // 按帧的长度上限拆分，同一个 flowId 的调用方太多时也会被拆到多个帧中
+        List<Long> frameFlowIds = new ArrayList<>();
+        List<List<PendingAcquire>> frameWaiters = new ArrayList<>();
+        int frameBytes = FRAME_HEADER_BYTES;
+        for (Map.Entry<Long, List<PendingAcquire>> entry : groups.entrySet()) {
+            List<PendingAcquire> group = entry.getValue();
+            int offset = 0;
+            while (offset < group.size()) {
+                if (frameBytes + FLOW_HEADER_BYTES + COUNT_BYTES > MAX_FRAME_LENGTH) {
+                    sendFrame(channel, frameFlowIds, frameWaiters);
+                    frameFlowIds.clear();
+                    frameWaiters.clear();
+                    frameBytes = FRAME_HEADER_BYTES;
+                }
+                int n = Math.min(group.size() - offset,
+                        (MAX_FRAME_LENGTH - frameBytes - FLOW_HEADER_BYTES) / COUNT_BYTES);
+                frameFlowIds.add(entry.getKey());
+                frameWaiters.add(group.subList(offset, offset + n));
+                frameBytes += FLOW_HEADER_BYTES + n * COUNT_BYTES;
+                offset += n;
+            }
+        }
+        if (!frameFlowIds.isEmpty()) {
+            sendFrame(channel, frameFlowIds, frameWaiters);
+        }
+    }
+
+    private void sendFrame(Channel channel, List<Long> frameFlowIds, List<List<PendingAcquire>> frameWaiters) {
+        long[] flowIds = new long[frameFlowIds.size()];
+        int[][] counts = new int[frameFlowIds.size()][];
+        final PendingAcquire[][] waiters = new PendingAcquire[frameFlowIds.size()][];
+        for (int i = 0; i < flowIds.length; i++) {
+            flowIds[i] = frameFlowIds.get(i);
+            waiters[i] = frameWaiters.get(i).toArray(new PendingAcquire[0]);
+            counts[i] = new int[waiters[i].length];
+            for (int j = 0; j < waiters[i].length; j++) {
+                counts[i][j] = waiters[i][j].count;
+            }
+        }
+        final int id = TokenClients.nextRequestId();
+        final ChannelPromise promise = channel.newPromise();
+        TokenClientPromiseHolder.putPromise(id, promise);
+        // 响应、超时和写失败都在 channel 的 IO 线程上处理，不会同时发生
+        promise.addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                onResponse(id, future.isSuccess(), waiters);
+            }
+        });
+        ClusterRequest<MultiAcquireRequestData> request = new ClusterRequest<>(id,
+                ExtensionConstants.MSG_TYPE_MULTI_ACQUIRE,
+                new MultiAcquireRequestData().setFlowIds(flowIds).setCounts(counts));
+        channel.writeAndFlush(request).addListener(new ChannelFutureListener() {
+            @Override
+            public void operationComplete(ChannelFuture future) {
+                if (!future.isSuccess()) {
+                    promise.tryFailure(future.cause());
+                }
+            }
+        });
+        channel.eventLoop().schedule(new Runnable() {
+            @Override
+            public void run() {
+                promise.tryFailure(REQUEST_TIMEOUT);
+            }
+        }, ClusterClientConfigManager.getRequestTimeout(), TimeUnit.MILLISECONDS);
+        frames.incrementAndGet();
+    }
+
+    private void onResponse(int id, boolean success, PendingAcquire[][] waiters) {
+        AbstractMap.SimpleEntry<ChannelPromise, ClusterResponse> entry = TokenClientPromiseHolder.getEntry(id);
+        TokenClientPromiseHolder.remove(id);
+        ClusterResponse response = entry == null ? null : entry.getValue();
+        if (!success || response == null || !(response.getData() instanceof MultiAcquireResponseData)) {
+            for (PendingAcquire[] group : waiters) {
+                for (PendingAcquire pending : group) {
+                    pending.complete(FAIL_RESULT);
+                }
+            }
+            return;
+        }
+        MultiAcquireResponseData data = (MultiAcquireResponseData) response.getData();
+        for (int i = 0; i < waiters.length; i++) {
+            int status = data.getStatuses()[i];
+            int admitted = data.getAdmitted()[i];
+            for (int j = 0; j < waiters[i].length; j++) {
+                TokenResult result;
+                if (status == TokenResultStatus.OK || status == TokenResultStatus.BLOCKED) {
+                    result = j < admitted ? OK_RESULT : BLOCKED_RESULT;
+                } else {
+                    result = new TokenResult(status);
+                }
+                waiters[i][j].complete(result);
+            }
+        }
+    }
+
+    private void completeAll(List<PendingAcquire> batch, TokenResult result) {
+        for (PendingAcquire pending : batch) {
+            pending.complete(result);
+        }
+    }
+
+    /**
+     * 一个等待响应的调用方，同步的调用方通过 waiter 唤醒，异步的调用方通过 future 通知
+     */
+    static final class PendingAcquire {
+
+        final long flowId;
+        final int count;
+        final Thread waiter;
+        final CompletableFuture<TokenResult> future;
+
+        volatile TokenResult result;
+
+        PendingAcquire(long flowId, int count, Thread waiter, CompletableFuture<TokenResult> future) {
+            this.flowId = flowId;
+            this.count = count;
+            this.waiter = waiter;
+            this.future = future;
+        }
+
+        void complete(TokenResult result) {
+            if (future != null) {
+                future.complete(result);
+                return;
+            }
+            this.result = result;
+            LockSupport.unpark(waiter);
+        }
+
+        /**
+         * @return 超时返回 null
+         */
+        TokenResult await(long timeoutNanos) {
+            long deadline = System.nanoTime() + timeoutNanos;
+            while (result == null) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    return null;
+                }
+                LockSupport.parkNanos(this, left);
+            }
+            return result;
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 带虚拟节点的一致性哈希环，决定每个参数值由哪台 token server 负责
+ *
+ * 每个节点在环上放 virtualNodes 个虚拟节点，参数值顺时针找到的第一个虚拟节点就是它的负责节点。
+ * 增加或者减少一个节点时只有相邻区间的参数值会换节点，其它参数值的计数不受影响。
+ * 参数值按 String.valueOf 之后的内容哈希，同一个参数值不管是 Integer 还是 Long 都会落在同一个节点上，
+ * 所有 client 使用相同的节点列表时，同一个参数值总是发往同一台 server。
+ * 创建之后不可修改，节点变化时创建新的实例。
+ * @author houyi
+ * @date 2019-03-17
+ **/
+public class ConsistentHashRing<T> {
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long[] points;
+    private final List<T> owners;
+    private final List<T> nodes;
+
+    /**
+     * @param nodes 节点，节点的 toString 决定它在环上的位置，需要在所有 client 上保持一致
+     * @param virtualNodes 每个节点的虚拟节点数
+     */
+    public ConsistentHashRing(List<T> nodes, int virtualNodes) {
+        if (nodes.isEmpty() || virtualNodes <= 0) {
+            throw new IllegalArgumentException("nodes should not be empty and virtualNodes should be positive");
+        }
+        TreeMap<Long, T> ring = new TreeMap<>();
+        for (T node : nodes) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(node + "#" + i), node);
+            }
+        }
+        this.points = new long[ring.size()];
+        this.owners = new ArrayList<>(ring.size());
+        int i = 0;
+        for (Map.Entry<Long, T> entry : ring.entrySet()) {
+            points[i++] = entry.getKey();
+            owners.add(entry.getValue());
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+    }
+
+    /**
+     * @return 负责这个参数值的节点
+     */
+    public T nodeOf(Object value) {
+        long h = hash(String.valueOf(value));
+        int low = 0;
+        int high = points.length - 1;
+        // 找到第一个不小于 h 的虚拟节点，没有时回到环的起点
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (points[mid] < h) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return owners.get(low == points.length ? 0 : low);
+    }
+
+    public List<T> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * FNV-1a 之后再混合一次，让相邻的字符串（例如连续的 uid）在环上分散开
+     */
+    private static long hash(String key) {
+        long h = FNV_OFFSET;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= FNV_PRIME;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+}
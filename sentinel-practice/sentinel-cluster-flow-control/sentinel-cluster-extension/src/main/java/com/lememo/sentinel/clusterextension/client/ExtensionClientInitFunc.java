@@ -0,0 +1,32 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import com.alibaba.csp.sentinel.cluster.client.codec.registry.RequestDataWriterRegistry;
+import com.alibaba.csp.sentinel.cluster.client.codec.registry.ResponseDataDecodeRegistry;
+import com.alibaba.csp.sentinel.init.InitFunc;
+import com.lememo.sentinel.clusterextension.ExtensionConstants;
+
+/**
+ * 为 token client 注册扩展消息的编解码器
+ * @author houyi
+ * @date 2019-03-01
+ **/
+public class ExtensionClientInitFunc implements InitFunc {
+
+    @Override
+    public void init() throws Exception {
+        RequestDataWriterRegistry.addWriter(ExtensionConstants.MSG_TYPE_LEASE, new LeaseRequestDataWriter());
+        ResponseDataDecodeRegistry.addDecoder(ExtensionConstants.MSG_TYPE_LEASE, new LeaseResponseDataDecoder());
+        RequestDataWriterRegistry.addWriter(ExtensionConstants.MSG_TYPE_MULTI_ACQUIRE,
+                new MultiAcquireRequestDataWriter());
+        ResponseDataDecodeRegistry.addDecoder(ExtensionConstants.MSG_TYPE_MULTI_ACQUIRE,
+                new MultiAcquireResponseDataDecoder());
+        RequestDataWriterRegistry.addWriter(ExtensionConstants.MSG_TYPE_HEARTBEAT, new HeartbeatRequestDataWriter());
+        ResponseDataDecodeRegistry.addDecoder(ExtensionConstants.MSG_TYPE_HEARTBEAT,
+                new HeartbeatResponseDataDecoder());
+        // 主 token server 通过 client 的连接向备 server 发送复制请求
+        RequestDataWriterRegistry.addWriter(ExtensionConstants.MSG_TYPE_REPLICATE, new ReplicationDataWriter());
+        ResponseDataDecodeRegistry.addDecoder(ExtensionConstants.MSG_TYPE_REPLICATE,
+                new HeartbeatResponseDataDecoder());
+    }
+
+}
@@ -0,0 +1,302 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import com.alibaba.csp.sentinel.cluster.ClusterTransportClient;
+import com.alibaba.csp.sentinel.cluster.TokenResult;
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.client.ClusterTokenClient;
+import com.alibaba.csp.sentinel.cluster.registry.ConfigSupplierRegistry;
+import com.alibaba.csp.sentinel.cluster.request.ClusterRequest;
+import com.alibaba.csp.sentinel.cluster.response.ClusterResponse;
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.config.SentinelConfig;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.slots.block.ClusterRuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.ClusterFlowConfig;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+import com.lememo.sentinel.clusterextension.ExtensionConstants;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * token server 不可用时快速切换到本地限流的 token client
+ *
+ * 默认情况下 token server 挂掉之后，每个请求都要等到超时才返回 FAIL，再由 FlowRuleChecker 退化为本地限流，
+ * 而本地限流使用的是规则中配置的阈值，对于全局阈值的规则，每台机器都会按整个集群的阈值放行。
+ *
+ * FailoverTokenClient 在原来的 client 外面增加了一个熔断状态：
+ * <ul>
+ *     <li>后台线程定时向 token server 发送心跳，连接断开、心跳失败或者连续多次请求失败时打开熔断</li>
+ *     <li>熔断打开后不再访问 token server，直接按本机最近一次在集群中的份额在本地判断，不会阻塞在已经断开的连接上</li>
+ *     <li>连接正常时按 flowId 记录 token server 放行的请求数，份额为按连接数平分的阈值，
+ *     本地限流使用同一个窗口，切换时窗口中已经有最近的通过数，不是从零开始</li>
+ *     <li>心跳恢复后关闭熔断，重新访问 token server</li>
+ * </ul>
+ * 热点参数请求在熔断打开时直接返回 FAIL，由 Sentinel 退化为本地限流。
+ * 心跳线程在 stop 时关闭，重新 start 时再启动。
+ * @author houyi
+ * @date 2019-03-03
+ **/
+public class FailoverTokenClient extends ForwardingTokenClient {
+
+    /**
+     * 心跳的间隔，单位：ms
+     */
+    public static final String HEARTBEAT_INTERVAL_MS = "csp.sentinel.cluster.heartbeat.interval.ms";
+
+    private static final int DEFAULT_HEARTBEAT_INTERVAL_MS = 100;
+
+    /**
+     * 连续失败多少次之后打开熔断
+     */
+    private static final int MAX_FAILURES = 3;
+
+    private static final TokenResult OK_RESULT = new TokenResult(TokenResultStatus.OK);
+    private static final TokenResult BLOCKED_RESULT = new TokenResult(TokenResultStatus.BLOCKED);
+    private static final TokenResult FAIL_RESULT = new TokenResult(TokenResultStatus.FAIL);
+
+    private final ConcurrentMap<Long, ShareWindow> windows = new ConcurrentHashMap<>();
+
+    private final AtomicInteger failures = new AtomicInteger();
+
+    private volatile boolean open;
+
+    /**
+     * 最近一次心跳返回的 namespace 连接数
+     */
+    private volatile int connectedCount = 1;
+
+    private ScheduledExecutorService heartbeat;
+
+    public FailoverTokenClient(ClusterTokenClient delegate) {
+        super(delegate);
+        startHeartbeat();
+    }
+
+    private synchronized void startHeartbeat() {
+        if (heartbeat != null) {
+            return;
+        }
+        int interval = heartbeatIntervalInMs();
+        heartbeat = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory("sentinel-cluster-heartbeat", true));
+        heartbeat.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkHeartbeat();
+                } catch (Throwable e) {
+                    RecordLog.warn("[FailoverTokenClient] Heartbeat error", e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized void stopHeartbeat() {
+        if (heartbeat != null) {
+            heartbeat.shutdownNow();
+            heartbeat = null;
+        }
+    }
+
+    private static int heartbeatIntervalInMs() {
+        String value = SentinelConfig.getConfig(HEARTBEAT_INTERVAL_MS);
+        try {
+            return value == null ? DEFAULT_HEARTBEAT_INTERVAL_MS : Math.max(10, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            RecordLog.warn("[FailoverTokenClient] Invalid " + HEARTBEAT_INTERVAL_MS + ": " + value);
+            return DEFAULT_HEARTBEAT_INTERVAL_MS;
+        }
+    }
+
+    /**
+     * 用 FailoverTokenClient 包装 TokenClientProvider 中当前的 client
+     * 和其它包装一起使用时应该最后安装，放在最外层
+     * @return 包装后的 client，当前没有可用的 client 时返回 null
+     */
+    public static FailoverTokenClient install() {
+        return TokenClients.install(FailoverTokenClient.class, FailoverTokenClient::new);
+    }
+
+    @Override
+    public TokenResult requestToken(Long flowId, int acquireCount, boolean prioritized) {
+        if (flowId == null || acquireCount <= 0) {
+            return delegate.requestToken(flowId, acquireCount, prioritized);
+        }
+        if (open) {
+            return localDecision(flowId, acquireCount);
+        }
+        return onDelegateResult(flowId, acquireCount, delegate.requestToken(flowId, acquireCount, prioritized));
+    }
+
+    /**
+     * 熔断打开时直接在本地决定，否则把异步请求交给被包装的 client，结果的处理和同步请求一致
+     */
+    @Override
+    public CompletableFuture<TokenResult> requestTokenAsync(Long flowId, int acquireCount) {
+        if (flowId == null || acquireCount <= 0) {
+            return delegateAsync(flowId, acquireCount);
+        }
+        if (open) {
+            return CompletableFuture.completedFuture(localDecision(flowId, acquireCount));
+        }
+        return delegateAsync(flowId, acquireCount).thenApply(result -> onDelegateResult(flowId, acquireCount, result));
+    }
+
+    private TokenResult onDelegateResult(long flowId, int acquireCount, TokenResult result) {
+        if (result.getStatus() == TokenResultStatus.OK) {
+            windowOf(flowId).add(acquireCount);
+            if (failures.get() != 0) {
+                failures.set(0);
+            }
+            return result;
+        }
+        if (result.getStatus() == TokenResultStatus.FAIL) {
+            if (failures.incrementAndGet() >= MAX_FAILURES) {
+                openCircuit("request failed " + MAX_FAILURES + " times");
+            }
+            return localDecision(flowId, acquireCount);
+        }
+        return result;
+    }
+
+    @Override
+    public TokenResult requestParamToken(Long flowId, int acquireCount, Collection<Object> params) {
+        if (open) {
+            return FAIL_RESULT;
+        }
+        return delegate.requestParamToken(flowId, acquireCount, params);
+    }
+
+    @Override
+    public void start() throws Exception {
+        super.start();
+        startHeartbeat();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        stopHeartbeat();
+        windows.clear();
+        super.stop();
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * flowId 当前在本地使用的份额
+     */
+    public double getShare(long flowId) {
+        ShareWindow window = windows.get(flowId);
+        return window == null ? 0 : window.getShare();
+    }
+
+    private ShareWindow windowOf(long flowId) {
+        ShareWindow window = windows.get(flowId);
+        if (window == null) {
+            window = new ShareWindow();
+            Double fairShare = fairShares().get(flowId);
+            window.setShare(fairShare == null ? 0 : fairShare);
+            ShareWindow old = windows.putIfAbsent(flowId, window);
+            if (old != null) {
+                window = old;
+            }
+        }
+        return window;
+    }
+
+    /**
+     * 还没有记录过的 flowId 不知道份额，返回 FAIL 交给 FlowRuleChecker 处理
+     */
+    private TokenResult localDecision(long flowId, int acquireCount) {
+        ShareWindow window = windows.get(flowId);
+        if (window == null) {
+            return FAIL_RESULT;
+        }
+        return window.tryAcquire(acquireCount) ? OK_RESULT : BLOCKED_RESULT;
+    }
+
+    private void checkHeartbeat() {
+        ClusterTransportClient transport = TokenClients.transportOf(delegate);
+        if (transport == null || !sendHeartbeat(transport)) {
+            openCircuit(transport == null ? "connection lost" : "heartbeat failed");
+            return;
+        }
+        if (open) {
+            open = false;
+            failures.set(0);
+            RecordLog.info("[FailoverTokenClient] Token server is back, circuit closed");
+        }
+        refreshShares();
+    }
+
+    private boolean sendHeartbeat(ClusterTransportClient transport) {
+        String namespace = ConfigSupplierRegistry.getNamespaceSupplier().get();
+        try {
+            ClusterResponse response = transport.sendRequest(
+                    new ClusterRequest<>(ExtensionConstants.MSG_TYPE_HEARTBEAT, namespace));
+            if (response == null || response.getStatus() != TokenResultStatus.OK
+                    || !(response.getData() instanceof Integer)) {
+                return false;
+            }
+            connectedCount = Math.max(1, (Integer) response.getData());
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private void openCircuit(String reason) {
+        if (!open) {
+            open = true;
+            RecordLog.warn("[FailoverTokenClient] Circuit opened, fallback to local share: " + reason);
+        }
+    }
+
+    /**
+     * 连接正常时更新份额：按连接数平分的阈值
+     * 不能取本机最近的通过数，流量不均匀时每台机器都按自己的通过数放行，合起来会超过集群的阈值
+     */
+    private void refreshShares() {
+        if (windows.isEmpty()) {
+            return;
+        }
+        Map<Long, Double> fairShares = fairShares();
+        for (Map.Entry<Long, ShareWindow> entry : windows.entrySet()) {
+            Double fairShare = fairShares.get(entry.getKey());
+            if (fairShare != null) {
+                entry.getValue().setShare(fairShare);
+            }
+        }
+    }
+
+    /**
+     * 根据本地的集群规则计算每个 flowId 平分到本机的阈值
+     */
+    private Map<Long, Double> fairShares() {
+        Map<Long, Double> shares = new HashMap<>();
+        for (FlowRule rule : FlowRuleManager.getRules()) {
+            ClusterFlowConfig config = rule.getClusterConfig();
+            if (!rule.isClusterMode() || config == null || config.getFlowId() == null) {
+                continue;
+            }
+            double share = config.getThresholdType() == ClusterRuleConstant.FLOW_THRESHOLD_GLOBAL
+                    ? rule.getCount() / connectedCount
+                    : rule.getCount();
+            shares.put(config.getFlowId(), share);
+        }
+        return shares;
+    }
+
+}
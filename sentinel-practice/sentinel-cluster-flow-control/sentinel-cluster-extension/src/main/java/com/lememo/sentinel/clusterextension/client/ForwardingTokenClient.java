@@ -0,0 +1,120 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import com.alibaba.csp.sentinel.cluster.TokenResult;
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.TokenServerDescriptor;
+import com.alibaba.csp.sentinel.cluster.client.ClusterTokenClient;
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+
+import java.util.Collection;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把所有调用转发给被包装的 client，子类只需要覆盖需要改变的方法
+ *
+ * requestTokenAsync 默认在一个单独的线程池中调用 requestToken，调用线程不会被阻塞，但是线程池中的线程依然会等待响应；
+ * 能够在本地直接做出决定或者异步发送请求的子类覆盖这个方法。线程池满了之后直接返回 FAIL，由 FlowRuleChecker 决定是否退化为本地限流。
+ * @author houyi
+ * @date 2019-03-02
+ **/
+public abstract class ForwardingTokenClient implements ClusterTokenClient {
+
+    private static final TokenResult FAIL_RESULT = new TokenResult(TokenResultStatus.FAIL);
+
+    private static final int ASYNC_QUEUE_SIZE = 10000;
+
+    protected final ClusterTokenClient delegate;
+
+    protected ForwardingTokenClient(ClusterTokenClient delegate) {
+        this.delegate = delegate;
+    }
+
+    public ClusterTokenClient getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public TokenResult requestToken(Long flowId, int acquireCount, boolean prioritized) {
+        return delegate.requestToken(flowId, acquireCount, prioritized);
+    }
+
+    /**
+     * 异步请求 token
+     * @return 在 token server 的响应或者本地的决定到达时完成，不会异常完成
+     */
+    public CompletableFuture<TokenResult> requestTokenAsync(Long flowId, int acquireCount) {
+        return supplyAsync(this, flowId, acquireCount);
+    }
+
+    /**
+     * 把异步请求交给被包装的 client
+     */
+    protected CompletableFuture<TokenResult> delegateAsync(Long flowId, int acquireCount) {
+        if (delegate instanceof ForwardingTokenClient) {
+            return ((ForwardingTokenClient) delegate).requestTokenAsync(flowId, acquireCount);
+        }
+        return supplyAsync(delegate, flowId, acquireCount);
+    }
+
+    private static CompletableFuture<TokenResult> supplyAsync(final ClusterTokenClient client, final Long flowId,
+                                                              final int acquireCount) {
+        final CompletableFuture<TokenResult> future = new CompletableFuture<>();
+        try {
+            AsyncExecutorHolder.EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.complete(client.requestToken(flowId, acquireCount, false));
+                    } catch (Throwable e) {
+                        future.complete(FAIL_RESULT);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.complete(FAIL_RESULT);
+        }
+        return future;
+    }
+
+    @Override
+    public TokenResult requestParamToken(Long flowId, int acquireCount, Collection<Object> params) {
+        return delegate.requestParamToken(flowId, acquireCount, params);
+    }
+
+    @Override
+    public TokenServerDescriptor currentServer() {
+        return delegate.currentServer();
+    }
+
+    @Override
+    public void start() throws Exception {
+        delegate.start();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        delegate.stop();
+    }
+
+    @Override
+    public int getState() {
+        return delegate.getState();
+    }
+
+    /**
+     * 只有用到异步请求时才创建线程池
+     */
+    private static final class AsyncExecutorHolder {
+
+        static final ExecutorService EXECUTOR = new ThreadPoolExecutor(
+                Runtime.getRuntime().availableProcessors() * 2, Runtime.getRuntime().availableProcessors() * 2,
+                0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(ASYNC_QUEUE_SIZE),
+                new NamedThreadFactory("sentinel-cluster-async", true));
+    }
+
+}
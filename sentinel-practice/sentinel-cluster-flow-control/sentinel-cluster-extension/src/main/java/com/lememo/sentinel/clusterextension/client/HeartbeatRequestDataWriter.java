@@ -0,0 +1,22 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import com.alibaba.csp.sentinel.cluster.codec.EntityWriter;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 格式：namespace 的长度(2) | namespace
+ * @author houyi
+ * @date 2019-03-03
+ **/
+public class HeartbeatRequestDataWriter implements EntityWriter<String, ByteBuf> {
+
+    @Override
+    public void writeTo(String entity, ByteBuf target) {
+        byte[] bytes = entity.getBytes(StandardCharsets.UTF_8);
+        target.writeShort(bytes.length);
+        target.writeBytes(bytes);
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import com.alibaba.csp.sentinel.cluster.codec.EntityDecoder;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 格式：connectedCount(4)
+ * 复制请求的响应同样是一个 int，为备 server 应用的 flowId 个数
+ * @author houyi
+ * @date 2019-03-03
+ **/
+public class HeartbeatResponseDataDecoder implements EntityDecoder<ByteBuf, Integer> {
+
+    @Override
+    public Integer decode(ByteBuf source) {
+        if (source.readableBytes() >= 4) {
+            return source.readInt();
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,20 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import com.alibaba.csp.sentinel.cluster.codec.EntityWriter;
+import com.lememo.sentinel.clusterextension.LeaseRequestData;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 格式：flowId(8) | count(4)
+ * @author houyi
+ * @date 2019-03-01
+ **/
+public class LeaseRequestDataWriter implements EntityWriter<LeaseRequestData, ByteBuf> {
+
+    @Override
+    public void writeTo(LeaseRequestData entity, ByteBuf target) {
+        target.writeLong(entity.getFlowId());
+        target.writeInt(entity.getCount());
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import com.alibaba.csp.sentinel.cluster.codec.EntityDecoder;
+import com.lememo.sentinel.clusterextension.LeaseResponseData;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 格式：granted(4) | validInMs(4)
+ * @author houyi
+ * @date 2019-03-01
+ **/
+public class LeaseResponseDataDecoder implements EntityDecoder<ByteBuf, LeaseResponseData> {
+
+    @Override
+    public LeaseResponseData decode(ByteBuf source) {
+        if (source.readableBytes() >= 8) {
+            return new LeaseResponseData()
+                    .setGranted(source.readInt())
+                    .setValidInMs(source.readInt());
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,264 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import com.alibaba.csp.sentinel.cluster.ClusterTransportClient;
+import com.alibaba.csp.sentinel.cluster.TokenResult;
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.client.ClusterTokenClient;
+import com.alibaba.csp.sentinel.cluster.request.ClusterRequest;
+import com.alibaba.csp.sentinel.cluster.response.ClusterResponse;
+import com.alibaba.csp.sentinel.config.SentinelConfig;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+import com.lememo.sentinel.clusterextension.ExtensionConstants;
+import com.lememo.sentinel.clusterextension.LeaseRequestData;
+import com.lememo.sentinel.clusterextension.LeaseResponseData;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批量租用 token 的集群客户端
+ *
+ * 默认的 DefaultClusterTokenClient 每次 entry 都要请求一次 token server。
+ * LeasedTokenClient 按 flowId 一次从 token server 租用一批 token，在本地扣减，用完或者过期之后再去租下一批。
+ * <ul>
+ *     <li>每次租用的数量根据上一批的使用情况调整：上一批提前用完则翻倍，过期时还有剩余则缩小到实际用掉的数量</li>
+ *     <li>token server 在租出 token 时就把它们记为通过，租约在 token server 当前的 bucket 结束时过期，
+ *     所以集群的通过数不会超过阈值，误差只是过期作废的 token（每个客户端每个 bucket 最多 {@link #MAX_LEASE_COUNT} 个）</li>
+ *     <li>token server 返回 BLOCKED 之后，直到租约的有效期结束之前，请求直接在本地拒绝，不再发送请求</li>
+ *     <li>prioritized 请求、热点参数请求以及租用失败时，都交给原来的 client 处理，包括退化为本地限流的逻辑</li>
+ *     <li>异步请求能在本地做出决定时直接返回完成的 future，需要租用下一批时才交给线程池</li>
+ * </ul>
+ * @author houyi
+ * @date 2019-03-01
+ **/
+public class LeasedTokenClient extends ForwardingTokenClient {
+
+    /**
+     * 每次最多租用的 token 数，决定了集群阈值的最大误差
+     */
+    public static final String MAX_LEASE_COUNT = "csp.sentinel.cluster.lease.max.count";
+
+    private static final int DEFAULT_MAX_LEASE_COUNT = 200;
+
+    private static final int MIN_LEASE_COUNT = 1;
+
+    /**
+     * FlowRuleChecker 只读取 TokenResult 的状态，所以本地决定的结果可以共用同一个实例
+     */
+    private static final TokenResult OK_RESULT = new TokenResult(TokenResultStatus.OK);
+    private static final TokenResult BLOCKED_RESULT = new TokenResult(TokenResultStatus.BLOCKED);
+
+    private final int maxLeaseCount;
+
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+
+    private final AtomicLong leaseRequests = new AtomicLong();
+    private final AtomicLong localDecisions = new AtomicLong();
+
+    public LeasedTokenClient(ClusterTokenClient delegate) {
+        super(delegate);
+        this.maxLeaseCount = maxLeaseCount();
+    }
+
+    private static int maxLeaseCount() {
+        String value = SentinelConfig.getConfig(MAX_LEASE_COUNT);
+        try {
+            return value == null ? DEFAULT_MAX_LEASE_COUNT : Math.max(MIN_LEASE_COUNT, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            RecordLog.warn("[LeasedTokenClient] Invalid " + MAX_LEASE_COUNT + ": " + value);
+            return DEFAULT_MAX_LEASE_COUNT;
+        }
+    }
+
+    /**
+     * 用 LeasedTokenClient 包装 TokenClientProvider 中当前的 client
+     * @return 包装后的 client，当前没有可用的 client 时返回 null
+     */
+    public static LeasedTokenClient install() {
+        return TokenClients.install(LeasedTokenClient.class, LeasedTokenClient::new);
+    }
+
+    @Override
+    public TokenResult requestToken(Long flowId, int acquireCount, boolean prioritized) {
+        if (flowId == null || acquireCount <= 0 || prioritized) {
+            return delegate.requestToken(flowId, acquireCount, prioritized);
+        }
+        Lease lease = leases.get(flowId);
+        if (lease == null) {
+            lease = leases.computeIfAbsent(flowId, k -> new Lease());
+        }
+        long now = TimeUtil.currentTimeMillis();
+        if (lease.tryTake(acquireCount, now)) {
+            localDecisions.incrementAndGet();
+            return OK_RESULT;
+        }
+        if (lease.isBlocked(now)) {
+            localDecisions.incrementAndGet();
+            return BLOCKED_RESULT;
+        }
+        synchronized (lease) {
+            // 等锁的时候其他线程可能已经租到了新的一批
+            now = TimeUtil.currentTimeMillis();
+            if (lease.tryTake(acquireCount, now)) {
+                localDecisions.incrementAndGet();
+                return OK_RESULT;
+            }
+            if (lease.isBlocked(now)) {
+                localDecisions.incrementAndGet();
+                return BLOCKED_RESULT;
+            }
+            return renew(flowId, lease, acquireCount, prioritized, now);
+        }
+    }
+
+    @Override
+    public CompletableFuture<TokenResult> requestTokenAsync(Long flowId, int acquireCount) {
+        if (flowId == null || acquireCount <= 0) {
+            return delegateAsync(flowId, acquireCount);
+        }
+        Lease lease = leases.get(flowId);
+        if (lease != null) {
+            long now = TimeUtil.currentTimeMillis();
+            if (lease.tryTake(acquireCount, now)) {
+                localDecisions.incrementAndGet();
+                return CompletableFuture.completedFuture(OK_RESULT);
+            }
+            if (lease.isBlocked(now)) {
+                localDecisions.incrementAndGet();
+                return CompletableFuture.completedFuture(BLOCKED_RESULT);
+            }
+        }
+        return super.requestTokenAsync(flowId, acquireCount);
+    }
+
+    /**
+     * 向 token server 租用下一批 token，调用时需要持有 lease 的锁
+     */
+    private TokenResult renew(Long flowId, Lease lease, int acquireCount, boolean prioritized, long now) {
+        int count = Math.max(acquireCount, lease.nextLeaseCount(now, maxLeaseCount));
+        ClusterResponse response = sendLeaseRequest(flowId, count);
+        if (response == null || !(response.getData() instanceof LeaseResponseData)) {
+            return delegate.requestToken(flowId, acquireCount, prioritized);
+        }
+        LeaseResponseData data = (LeaseResponseData) response.getData();
+        int status = response.getStatus();
+        if (status == TokenResultStatus.OK && data.getGranted() >= acquireCount) {
+            lease.renew(data.getGranted() - acquireCount, data.getGranted(), now + data.getValidInMs());
+            return OK_RESULT;
+        }
+        if (status == TokenResultStatus.OK || status == TokenResultStatus.BLOCKED) {
+            // 租到的数量不够本次请求，留给后面更小的请求使用
+            lease.renew(data.getGranted(), data.getGranted(), now + data.getValidInMs());
+            return BLOCKED_RESULT;
+        }
+        return delegate.requestToken(flowId, acquireCount, prioritized);
+    }
+
+    @SuppressWarnings("unchecked")
+    private ClusterResponse sendLeaseRequest(Long flowId, int count) {
+        ClusterTransportClient transportClient = TokenClients.transportOf(delegate);
+        if (transportClient == null) {
+            return null;
+        }
+        try {
+            leaseRequests.incrementAndGet();
+            LeaseRequestData data = new LeaseRequestData().setFlowId(flowId).setCount(count);
+            return transportClient.sendRequest(new ClusterRequest<>(ExtensionConstants.MSG_TYPE_LEASE, data));
+        } catch (Exception e) {
+            RecordLog.info("[LeasedTokenClient] Failed to lease tokens for flowId " + flowId + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public void stop() throws Exception {
+        leases.clear();
+        super.stop();
+    }
+
+    /**
+     * 发送给 token server 的租用请求数
+     */
+    public long getLeaseRequests() {
+        return leaseRequests.get();
+    }
+
+    /**
+     * 在本地做出决定、没有发送请求的次数
+     */
+    public long getLocalDecisions() {
+        return localDecisions.get();
+    }
+
+    /**
+     * 一个 flowId 当前持有的租约
+     */
+    static final class Lease {
+
+        private final AtomicInteger remaining = new AtomicInteger();
+
+        /**
+         * 租约过期的时间，过期后剩余的 token 作废
+         */
+        private volatile long expireAt;
+
+        /**
+         * token server 拒绝之后，在该时间之前直接拒绝
+         */
+        private volatile long blockedUntil;
+
+        /**
+         * 以下字段只在持有锁时访问
+         */
+        private int granted;
+        private int nextCount = MIN_LEASE_COUNT;
+
+        boolean tryTake(int count, long now) {
+            if (now >= expireAt) {
+                return false;
+            }
+            while (true) {
+                int current = remaining.get();
+                if (current < count) {
+                    return false;
+                }
+                if (remaining.compareAndSet(current, current - count)) {
+                    return true;
+                }
+            }
+        }
+
+        boolean isBlocked(long now) {
+            return now < blockedUntil;
+        }
+
+        /**
+         * 根据上一批的使用情况决定这一批租用的数量
+         */
+        int nextLeaseCount(long now, int maxCount) {
+            int left = remaining.get();
+            if (granted > 0) {
+                if (now < expireAt) {
+                    // 没有过期就用完了，说明需求比租到的多
+                    // 租到的可能因为 token server 剩余不足而比请求的少，这种情况下不降低请求的数量
+                    nextCount = Math.min(maxCount, Math.max(nextCount, granted * 2));
+                } else {
+                    nextCount = Math.max(MIN_LEASE_COUNT, Math.min(maxCount, granted - left));
+                }
+            }
+            return nextCount;
+        }
+
+        void renew(int remainingCount, int grantedCount, long expireTime) {
+            this.granted = grantedCount;
+            remaining.set(remainingCount);
+            this.expireAt = expireTime;
+            this.blockedUntil = grantedCount > 0 ? 0 : expireTime;
+        }
+    }
+
+}
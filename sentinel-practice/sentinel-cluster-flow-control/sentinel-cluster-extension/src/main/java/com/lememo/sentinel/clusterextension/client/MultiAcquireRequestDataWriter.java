@@ -0,0 +1,28 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import com.alibaba.csp.sentinel.cluster.codec.EntityWriter;
+import com.lememo.sentinel.clusterextension.MultiAcquireRequestData;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 格式：size(2) | [flowId(8) | n(2) | count(4) * n] * size
+ * @author houyi
+ * @date 2019-03-02
+ **/
+public class MultiAcquireRequestDataWriter implements EntityWriter<MultiAcquireRequestData, ByteBuf> {
+
+    @Override
+    public void writeTo(MultiAcquireRequestData entity, ByteBuf target) {
+        long[] flowIds = entity.getFlowIds();
+        int[][] counts = entity.getCounts();
+        target.writeShort(flowIds.length);
+        for (int i = 0; i < flowIds.length; i++) {
+            target.writeLong(flowIds[i]);
+            target.writeShort(counts[i].length);
+            for (int count : counts[i]) {
+                target.writeInt(count);
+            }
+        }
+    }
+
+}
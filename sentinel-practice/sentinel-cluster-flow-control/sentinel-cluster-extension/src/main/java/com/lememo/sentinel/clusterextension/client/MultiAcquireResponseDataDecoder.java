@@ -0,0 +1,31 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import com.alibaba.csp.sentinel.cluster.codec.EntityDecoder;
+import com.lememo.sentinel.clusterextension.MultiAcquireResponseData;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 格式：size(2) | [status(1) | admitted(2)] * size
+ * @author houyi
+ * @date 2019-03-02
+ **/
+public class MultiAcquireResponseDataDecoder implements EntityDecoder<ByteBuf, MultiAcquireResponseData> {
+
+    @Override
+    public MultiAcquireResponseData decode(ByteBuf source) {
+        if (source.readableBytes() < 2) {
+            return null;
+        }
+        int size = source.readUnsignedShort();
+        if (source.readableBytes() < size * 3) {
+            return null;
+        }
+        MultiAcquireResponseData data = new MultiAcquireResponseData(size);
+        for (int i = 0; i < size; i++) {
+            data.getStatuses()[i] = source.readByte();
+            data.getAdmitted()[i] = source.readUnsignedShort();
+        }
+        return data;
+    }
+
+}
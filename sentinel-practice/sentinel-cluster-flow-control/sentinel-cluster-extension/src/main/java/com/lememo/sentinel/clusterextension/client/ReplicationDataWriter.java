@@ -0,0 +1,27 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import com.alibaba.csp.sentinel.cluster.codec.EntityWriter;
+import com.lememo.sentinel.clusterextension.ReplicationData;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 格式：size(2) | [flowId(8) | passCount(4) | passRequestCount(4)] * size
+ * @author houyi
+ * @date 2019-03-18
+ **/
+public class ReplicationDataWriter implements EntityWriter<ReplicationData, ByteBuf> {
+
+    @Override
+    public void writeTo(ReplicationData entity, ByteBuf target) {
+        long[] flowIds = entity.getFlowIds();
+        int[] passCounts = entity.getPassCounts();
+        int[] passRequestCounts = entity.getPassRequestCounts();
+        target.writeShort(flowIds.length);
+        for (int i = 0; i < flowIds.length; i++) {
+            target.writeLong(flowIds[i]);
+            target.writeInt(passCounts[i]);
+            target.writeInt(passRequestCounts[i]);
+        }
+    }
+
+}
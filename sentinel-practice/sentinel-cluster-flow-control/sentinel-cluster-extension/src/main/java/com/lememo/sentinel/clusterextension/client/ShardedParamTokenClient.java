@@ -0,0 +1,218 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import com.alibaba.csp.sentinel.cluster.ClusterConstants;
+import com.alibaba.csp.sentinel.cluster.TokenResult;
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.client.ClusterTokenClient;
+import com.alibaba.csp.sentinel.cluster.client.NettyTransportClient;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientConfigManager;
+import com.alibaba.csp.sentinel.cluster.client.handler.TokenClientPromiseHolder;
+import com.alibaba.csp.sentinel.cluster.request.ClusterRequest;
+import com.alibaba.csp.sentinel.cluster.request.data.ParamFlowRequestData;
+import com.alibaba.csp.sentinel.cluster.response.ClusterResponse;
+import com.alibaba.csp.sentinel.cluster.response.data.FlowTokenResponseData;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelPromise;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 把热点参数请求按参数值路由到多台 token server 的 client
+ *
+ * 配合 ParamShardTokenServer 使用，所有 client 使用相同的 server 列表，按 ConsistentHashRing 计算每个参数值的负责 server：
+ * <ul>
+ *     <li>一个请求中的参数值按负责的 server 分组，每组发送一个 ParamFlowRequestData，一个参数值只会出现在一台 server 上</li>
+ *     <li>所有分组都通过才通过，有一组被拒绝就返回 BLOCKED，后面的分组不再发送</li>
+ *     <li>负责的 server 没有连接或者请求失败时返回 FAIL，由 Sentinel 退化为本地限流</li>
+ *     <li>流控请求依然交给原来的 client，发往原来分配的 token server</li>
+ * </ul>
+ * 多个分组时，被后面的分组拒绝的请求已经在前面的 server 上记了数，和默认实现相比对应的参数值可能少放行一些。
+ * 请求不经过 NettyTransportClient#sendRequest，而是和 CoalescingTokenClient 一样直接写到连接的 channel 上：
+ * 每个 NettyTransportClient 的请求 id 都从 0 开始，而等待响应的 promise 保存在静态的 TokenClientPromiseHolder 中，
+ * 一个进程中有多个连接时不同连接上相同 id 的请求会互相完成对方的 promise；
+ * 并且 sendRequest 先发送请求再登记 promise，响应先到达时会被丢掉，调用方一直等到超时。
+ * 这里使用 TokenClients#nextRequestId 分配的请求 id，并且先登记 promise 再发送。
+ * @author houyi
+ * @date 2019-03-17
+ **/
+public class ShardedParamTokenClient extends ForwardingTokenClient {
+
+    /**
+     * 每台 server 在一致性哈希环上的虚拟节点数
+     */
+    public static final int VIRTUAL_NODES = 160;
+
+    private static final TokenResult FAIL_RESULT = new TokenResult(TokenResultStatus.FAIL);
+
+    private final ConsistentHashRing<String> ring;
+
+    private final Map<String, NettyTransportClient> transports = new LinkedHashMap<>();
+
+    private final AtomicBoolean shardsStarted = new AtomicBoolean(false);
+
+    /**
+     * @param delegate 原来的 client
+     * @param servers 负责热点参数的 token server，格式为 host:port
+     */
+    public ShardedParamTokenClient(ClusterTokenClient delegate, List<String> servers) {
+        super(delegate);
+        this.ring = new ConsistentHashRing<>(servers, VIRTUAL_NODES);
+        for (String server : servers) {
+            int idx = server.lastIndexOf(':');
+            if (idx <= 0) {
+                throw new IllegalArgumentException("server should be host:port, but got: " + server);
+            }
+            transports.put(server, new NettyTransportClient(server.substring(0, idx),
+                    Integer.parseInt(server.substring(idx + 1))));
+        }
+    }
+
+    /**
+     * 用 ShardedParamTokenClient 包装 TokenClientProvider 中当前的 client，并连接所有的分片
+     * @param servers 负责热点参数的 token server，格式为 host:port
+     * @return 包装后的 client，当前没有可用的 client 时返回 null
+     */
+    public static ShardedParamTokenClient install(String... servers) throws Exception {
+        final List<String> list = Arrays.asList(servers);
+        ShardedParamTokenClient client = TokenClients.install(ShardedParamTokenClient.class,
+                delegate -> new ShardedParamTokenClient(delegate, list));
+        if (client != null) {
+            client.startShards();
+        }
+        return client;
+    }
+
+    @Override
+    public TokenResult requestParamToken(Long flowId, int acquireCount, Collection<Object> params) {
+        if (flowId == null || acquireCount <= 0 || params == null || params.isEmpty()) {
+            return delegate.requestParamToken(flowId, acquireCount, params);
+        }
+        Map<String, Collection<Object>> groups = group(params);
+        TokenResult result = null;
+        for (Map.Entry<String, Collection<Object>> group : groups.entrySet()) {
+            result = send(group.getKey(), flowId, acquireCount, group.getValue());
+            if (result.getStatus() != TokenResultStatus.OK) {
+                return result;
+            }
+        }
+        if (groups.size() > 1) {
+            result.setRemaining(-1);
+        }
+        return result;
+    }
+
+    /**
+     * 按负责的 server 给参数值分组，只有一个参数值时不创建额外的集合
+     */
+    private Map<String, Collection<Object>> group(Collection<Object> params) {
+        if (params.size() == 1) {
+            return Collections.singletonMap(ring.nodeOf(params.iterator().next()), params);
+        }
+        Map<String, Collection<Object>> groups = new LinkedHashMap<>();
+        for (Object param : params) {
+            String server = ring.nodeOf(param);
+            Collection<Object> group = groups.get(server);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(server, group);
+            }
+            group.add(param);
+        }
+        return groups;
+    }
+
+    private TokenResult send(String server, long flowId, int acquireCount, Collection<Object> params) {
+        Channel channel = TokenClients.channelOf(transports.get(server));
+        if (channel == null) {
+            return FAIL_RESULT;
+        }
+        int id = TokenClients.nextRequestId();
+        ChannelPromise promise = channel.newPromise();
+        TokenClientPromiseHolder.putPromise(id, promise);
+        try {
+            channel.writeAndFlush(new ClusterRequest<>(id, ClusterConstants.MSG_TYPE_PARAM_FLOW,
+                    new ParamFlowRequestData().setFlowId(flowId).setCount(acquireCount).setParams(params)));
+            if (!promise.await(ClusterClientConfigManager.getRequestTimeout())) {
+                return FAIL_RESULT;
+            }
+            AbstractMap.SimpleEntry<ChannelPromise, ClusterResponse> entry = TokenClientPromiseHolder.getEntry(id);
+            ClusterResponse response = entry == null ? null : entry.getValue();
+            if (response == null) {
+                return FAIL_RESULT;
+            }
+            TokenResult result = new TokenResult(response.getStatus());
+            if (response.getData() instanceof FlowTokenResponseData) {
+                FlowTokenResponseData data = (FlowTokenResponseData) response.getData();
+                result.setRemaining(data.getRemainingCount()).setWaitInMs(data.getWaitInMs());
+            }
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return FAIL_RESULT;
+        } finally {
+            TokenClientPromiseHolder.remove(id);
+        }
+    }
+
+    /**
+     * 负责这个参数值的 server
+     */
+    public String serverOf(Object param) {
+        return ring.nodeOf(param);
+    }
+
+    /**
+     * @return 是否所有分片的连接都已经建立
+     */
+    public boolean isReady() {
+        for (NettyTransportClient transport : transports.values()) {
+            if (!transport.isReady()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<String> getServers() {
+        return ring.getNodes();
+    }
+
+    /**
+     * 连接所有的分片，连接断开后 NettyTransportClient 会自动重连
+     */
+    public void startShards() throws Exception {
+        if (!shardsStarted.compareAndSet(false, true)) {
+            return;
+        }
+        for (NettyTransportClient transport : transports.values()) {
+            transport.start();
+        }
+        RecordLog.info("[ShardedParamTokenClient] Param shards started: " + transports.keySet());
+    }
+
+    @Override
+    public void start() throws Exception {
+        super.start();
+        startShards();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (shardsStarted.compareAndSet(true, false)) {
+            for (NettyTransportClient transport : transports.values()) {
+                transport.stop();
+            }
+        }
+        super.stop();
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+/**
+ * 一个 flowId 在本地的滑动窗口，1s 拆成 10 个 100ms 的 bucket
+ *
+ * 连接正常时记录 token server 放行的请求数；
+ * 连接断开后用同一个窗口在本地限流，窗口中已经有最近 1s 的通过数，切换的瞬间不会突然放行整个份额。
+ * @author houyi
+ * @date 2019-03-03
+ **/
+class ShareWindow {
+
+    private static final int BUCKET_COUNT = 10;
+    private static final int BUCKET_LENGTH_MS = 100;
+
+    private final long[] starts = new long[BUCKET_COUNT];
+    private final int[] counts = new int[BUCKET_COUNT];
+
+    /**
+     * 本机最近一次在集群中的份额，单位：qps
+     */
+    private volatile double share;
+
+    synchronized void add(int count) {
+        int idx = roll(TimeUtil.currentTimeMillis());
+        counts[idx] += count;
+    }
+
+    /**
+     * 按份额在本地判断是否可以通过
+     */
+    synchronized boolean tryAcquire(int count) {
+        int idx = roll(TimeUtil.currentTimeMillis());
+        if (sum() + count > share) {
+            return false;
+        }
+        counts[idx] += count;
+        return true;
+    }
+
+    double getShare() {
+        return share;
+    }
+
+    void setShare(double share) {
+        this.share = share;
+    }
+
+    private long sum() {
+        long sum = 0;
+        for (int count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    /**
+     * 把过期的 bucket 清零，返回当前时间所在的 bucket
+     */
+    private int roll(long now) {
+        long bucketStart = now - now % BUCKET_LENGTH_MS;
+        int idx = (int) ((bucketStart / BUCKET_LENGTH_MS) % BUCKET_COUNT);
+        if (starts[idx] != bucketStart) {
+            starts[idx] = bucketStart;
+            counts[idx] = 0;
+        }
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (now - starts[i] >= BUCKET_COUNT * BUCKET_LENGTH_MS) {
+                counts[i] = 0;
+            }
+        }
+        return idx;
+    }
+
+}
@@ -0,0 +1,154 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import com.alibaba.csp.sentinel.cluster.TokenServerDescriptor;
+import com.alibaba.csp.sentinel.cluster.client.ClusterTokenClient;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientAssignConfig;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientConfigManager;
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.log.RecordLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 主 token server 不可用时切换到备 token server 的 client
+ *
+ * 配合主 server 上的 StandbyReplicator 使用，备 server 的窗口中已经有主 server 复制过来的通过数，
+ * 切换之后集群的通过数依然不会超过阈值。
+ * 只在连接断开时切换：后台线程每隔 CHECK_INTERVAL_MS 检查一次连接，连续 MAX_NOT_READY_CHECKS 次没有可用的连接（进程挂掉、连接断开）时切换。
+ * 连接正常、请求超时或者返回 FAIL 时不切换：这时主 server 还活着，其他 client 仍然在用它，切过去之后主备两台 server 都在发放 token，
+ * 集群的通过数会翻倍（脑裂）。这期间的请求由 FailoverTokenClient 按份额在本地限流。
+ * 这里没有对主 server 做隔离（fencing），只有部分 client 和主 server 之间的网络断开时依然会脑裂，
+ * 切换之后应该停掉原来的主 server。
+ * 切换时通过 ClusterClientConfigManager 修改分配的 token server，DefaultClusterTokenClient 会关闭原来的连接并连接新的 server。
+ * 从当前分配的 server 开始按列表的顺序轮流切换，备 server 也不可用时会切回主 server。切换后不会自动切回，原来的主 server 恢复后应该作为新的备 server 启动。
+ * 和 FailoverTokenClient 一起使用时，FailoverTokenClient 要放在最外层，切换期间由它按份额在本地限流。
+ * @author houyi
+ * @date 2019-03-18
+ **/
+public class StandbyTokenClient extends ForwardingTokenClient {
+
+    private static final int CHECK_INTERVAL_MS = 50;
+
+    private static final int MAX_NOT_READY_CHECKS = 3;
+
+    private final List<ClusterClientAssignConfig> servers;
+
+    private volatile int current;
+
+    private int notReadyChecks;
+
+    private final AtomicInteger switches = new AtomicInteger();
+
+    private final ScheduledExecutorService checker = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("sentinel-cluster-standby-check", true));
+
+    /**
+     * @param delegate 原来的 client
+     * @param servers 主 server 和备 server，格式为 host:port，第一个是当前分配的 server
+     */
+    public StandbyTokenClient(ClusterTokenClient delegate, List<String> servers) {
+        super(delegate);
+        if (servers.size() < 2) {
+            throw new IllegalArgumentException("at least one standby server is required");
+        }
+        this.servers = new ArrayList<>();
+        for (String server : servers) {
+            int idx = server.lastIndexOf(':');
+            if (idx <= 0) {
+                throw new IllegalArgumentException("server should be host:port, but got: " + server);
+            }
+            this.servers.add(new ClusterClientAssignConfig(server.substring(0, idx),
+                    Integer.parseInt(server.substring(idx + 1))));
+        }
+        checker.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checkConnection();
+                } catch (Throwable e) {
+                    RecordLog.warn("[StandbyTokenClient] Check connection error", e);
+                }
+            }
+        }, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 用 StandbyTokenClient 包装 TokenClientProvider 中当前的 client
+     * 和 FailoverTokenClient 一起使用时应该先安装
+     * @param servers 主 server 和备 server，格式为 host:port，第一个是当前分配的 server
+     * @return 包装后的 client，当前没有可用的 client 时返回 null
+     */
+    public static StandbyTokenClient install(String... servers) {
+        final List<String> list = Arrays.asList(servers);
+        return TokenClients.install(StandbyTokenClient.class, delegate -> new StandbyTokenClient(delegate, list));
+    }
+
+    /**
+     * 只在后台线程上执行，刚切换、新的连接还没有建立时要再等 MAX_NOT_READY_CHECKS 次才会再次切换
+     */
+    private void checkConnection() {
+        if (TokenClients.transportOf(delegate) != null) {
+            notReadyChecks = 0;
+            return;
+        }
+        if (++notReadyChecks >= MAX_NOT_READY_CHECKS) {
+            switchServer("connection not ready");
+        }
+    }
+
+    private void switchServer(String reason) {
+        int next = (indexOfCurrentServer() + 1) % servers.size();
+        ClusterClientAssignConfig server = servers.get(next);
+        RecordLog.warn("[StandbyTokenClient] Switch token server to " + server.getServerHost() + ":"
+                + server.getServerPort() + ", reason: " + reason);
+        current = next;
+        notReadyChecks = 0;
+        switches.incrementAndGet();
+        ClusterClientConfigManager.applyNewAssignConfig(server);
+    }
+
+    /**
+     * 当前分配的 server 在列表中的位置，分配的 server 被其它地方修改过、不在列表中时使用上次切换到的位置
+     */
+    private int indexOfCurrentServer() {
+        TokenServerDescriptor descriptor = delegate.currentServer();
+        if (descriptor != null) {
+            for (int i = 0; i < servers.size(); i++) {
+                ClusterClientAssignConfig server = servers.get(i);
+                if (server.getServerHost().equals(descriptor.getHost())
+                        && server.getServerPort() == descriptor.getPort()) {
+                    return i;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 当前使用的 server，格式为 host:port
+     */
+    public String currentServerAddress() {
+        ClusterClientAssignConfig server = servers.get(current);
+        return server.getServerHost() + ":" + server.getServerPort();
+    }
+
+    /**
+     * 累计切换的次数
+     */
+    public int switches() {
+        return switches.get();
+    }
+
+    @Override
+    public void stop() throws Exception {
+        checker.shutdownNow();
+        super.stop();
+    }
+
+}
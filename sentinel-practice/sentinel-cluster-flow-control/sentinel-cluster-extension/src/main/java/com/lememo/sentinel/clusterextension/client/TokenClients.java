@@ -0,0 +1,140 @@
+package com.lememo.sentinel.clusterextension.client;
+
+import com.alibaba.csp.sentinel.cluster.ClusterTransportClient;
+import com.alibaba.csp.sentinel.cluster.client.ClusterTokenClient;
+import com.alibaba.csp.sentinel.cluster.client.DefaultClusterTokenClient;
+import com.alibaba.csp.sentinel.cluster.client.NettyTransportClient;
+import com.alibaba.csp.sentinel.cluster.client.TokenClientProvider;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.util.function.Function;
+import io.netty.channel.Channel;
+
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 访问 Sentinel 默认 token client 内部状态的工具
+ *
+ * TokenClientProvider 没有提供替换 client 的入口，DefaultClusterTokenClient 也没有暴露它使用的连接，
+ * 这里都通过反射获取。切换 token server 时 DefaultClusterTokenClient 会创建新的 transportClient，
+ * 所以每次使用时都重新获取，不做缓存。
+ * @author houyi
+ * @date 2019-03-02
+ **/
+public final class TokenClients {
+
+    private static final Field PROVIDER_CLIENT = field(TokenClientProvider.class, "client");
+    private static final Field TRANSPORT_CLIENT = field(DefaultClusterTokenClient.class, "transportClient");
+    private static final Field CHANNEL = field(NettyTransportClient.class, "channel");
+
+    private static final int MIN_ID = 1000000000;
+
+    private static final AtomicInteger ID_GENERATOR = new AtomicInteger(MIN_ID);
+
+    private TokenClients() {
+    }
+
+    private static Field field(Class<?> type, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("Unsupported sentinel version, field not found: " + name, e);
+        }
+    }
+
+    /**
+     * 用 wrapper 包装 TokenClientProvider 中当前的 client
+     * 如果当前的 client 中已经包含了该类型的包装，直接返回已有的
+     * @param type 包装的类型
+     * @param wrapper 创建包装
+     * @return 包装后的 client，当前没有可用的 client 时返回 null
+     */
+    public static synchronized <T extends ClusterTokenClient> T install(Class<T> type,
+                                                                        Function<ClusterTokenClient, T> wrapper) {
+        ClusterTokenClient current = TokenClientProvider.getClient();
+        if (current == null) {
+            RecordLog.warn("[TokenClients] No cluster token client available, " + type.getSimpleName()
+                    + " is not installed");
+            return null;
+        }
+        for (ClusterTokenClient client = current; client != null; client = unwrap(client)) {
+            if (type.isInstance(client)) {
+                return type.cast(client);
+            }
+        }
+        T wrapped = wrapper.apply(current);
+        try {
+            PROVIDER_CLIENT.set(null, wrapped);
+        } catch (IllegalAccessException e) {
+            RecordLog.warn("[TokenClients] Failed to install " + type.getSimpleName(), e);
+            return null;
+        }
+        return wrapped;
+    }
+
+    private static ClusterTokenClient unwrap(ClusterTokenClient client) {
+        return client instanceof ForwardingTokenClient ? ((ForwardingTokenClient) client).getDelegate() : null;
+    }
+
+    /**
+     * 找到被包装的 DefaultClusterTokenClient 当前使用的连接
+     * @return 没有找到或者连接还没有建立时返回 null
+     */
+    public static ClusterTransportClient transportOf(ClusterTokenClient client) {
+        while (client instanceof ForwardingTokenClient) {
+            client = ((ForwardingTokenClient) client).getDelegate();
+        }
+        if (!(client instanceof DefaultClusterTokenClient)) {
+            return null;
+        }
+        try {
+            ClusterTransportClient transportClient = (ClusterTransportClient) TRANSPORT_CLIENT.get(client);
+            return transportClient != null && transportClient.isReady() ? transportClient : null;
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 连接底层的 netty channel，用于异步发送请求
+     * @return 没有可用的 channel 时返回 null
+     */
+    public static Channel channelOf(ClusterTokenClient client) {
+        return channelOf(transportOf(client));
+    }
+
+    /**
+     * 连接底层的 netty channel
+     * @return 没有可用的 channel 时返回 null
+     */
+    public static Channel channelOf(ClusterTransportClient transportClient) {
+        if (!(transportClient instanceof NettyTransportClient)) {
+            return null;
+        }
+        try {
+            Channel channel = (Channel) CHANNEL.get(transportClient);
+            return channel != null && channel.isActive() ? channel : null;
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 扩展的 client 直接在 channel 上发送请求时使用的请求 id
+     *
+     * 等待响应的 promise 保存在静态的 TokenClientPromiseHolder 中，按请求 id 匹配响应。
+     * NettyTransportClient 使用的请求 id 为 0 ~ 999999999，这里使用后面的区间，各个扩展的 client 共用同一个序列，避免冲突
+     */
+    public static int nextRequestId() {
+        int id = ID_GENERATOR.incrementAndGet();
+        if (id < MIN_ID) {
+            // 超过 Integer.MAX_VALUE 之后重新开始
+            ID_GENERATOR.compareAndSet(id, MIN_ID);
+            return nextRequestId();
+        }
+        return id;
+    }
+
+}
@@ -0,0 +1,76 @@
+package com.lememo.sentinel.clusterextension.embedded;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 参与选举的一个节点
+ * 所有节点使用相同的节点列表，节点在列表中的位置就是它的 id，id 越小优先级越高
+ * @author houyi
+ * @date 2019-03-19
+ **/
+public class ElectionPeer {
+
+    private final int id;
+
+    private final String host;
+
+    /**
+     * 选举心跳使用的 udp 端口
+     */
+    private final int electionPort;
+
+    /**
+     * 成为 leader 时内嵌的 token server 监听的端口
+     */
+    private final int tokenPort;
+
+    public ElectionPeer(int id, String host, int electionPort, int tokenPort) {
+        this.id = id;
+        this.host = host;
+        this.electionPort = electionPort;
+        this.tokenPort = tokenPort;
+    }
+
+    /**
+     * 解析节点列表
+     * @param peers 格式为 host:electionPort:tokenPort，多个节点用逗号分隔
+     */
+    public static List<ElectionPeer> parse(String peers) {
+        List<ElectionPeer> list = new ArrayList<>();
+        for (String peer : peers.split(",")) {
+            String[] parts = peer.trim().split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("peer should be host:electionPort:tokenPort, but got: " + peer);
+            }
+            list.add(new ElectionPeer(list.size(), parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2])));
+        }
+        return list;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getElectionPort() {
+        return electionPort;
+    }
+
+    public int getTokenPort() {
+        return tokenPort;
+    }
+
+    @Override
+    public String toString() {
+        return "ElectionPeer{" +
+                "id=" + id +
+                ", host='" + host + '\'' +
+                ", electionPort=" + electionPort +
+                ", tokenPort=" + tokenPort +
+                '}';
+    }
+}
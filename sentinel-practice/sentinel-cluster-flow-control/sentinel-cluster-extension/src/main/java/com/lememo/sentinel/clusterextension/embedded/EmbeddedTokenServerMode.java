@@ -0,0 +1,145 @@
+package com.lememo.sentinel.clusterextension.embedded;
+
+import com.alibaba.csp.sentinel.cluster.ClusterStateManager;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientAssignConfig;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientConfigManager;
+import com.alibaba.csp.sentinel.cluster.server.config.ClusterServerConfigManager;
+import com.alibaba.csp.sentinel.cluster.server.config.ServerTransportConfig;
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.config.SentinelConfig;
+import com.alibaba.csp.sentinel.log.RecordLog;
+
+import java.lang.reflect.Field;
+import java.net.SocketException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 在应用中内嵌 token server，由 LeaderElector 决定哪个应用作为 token server
+ *
+ * 不需要单独部署 sentinel-cluster-server-alone，每个应用都依赖 token server 的实现：
+ * <ul>
+ *     <li>选为 leader 的应用通过 ClusterStateManager 切换为 server 模式，启动内嵌的 token server。
+ *     FlowRuleChecker 在 server 模式下直接调用 EmbeddedClusterTokenServer，自己的请求不经过网络</li>
+ *     <li>其它应用把分配的 token server 改为 leader 的地址，切换为 client 模式</li>
+ *     <li>leader 挂掉之后剩下的应用重新选举，新的 leader 在一个选举超时之后开始提供服务</li>
+ * </ul>
+ * ClusterStateManager 限制两次切换模式的间隔不能小于 5s，不到 5s 时会阻塞等待。选举本身已经有超时，
+ * 所以这里切换之前清掉上次切换的时间。切换在单独的线程中按顺序执行，不会阻塞选举。
+ * 内嵌的 token server 的规则来自 ClusterFlowRuleManager，每个应用都需要配置，和 client 模式下本地的规则保持一致。
+ * @author houyi
+ * @date 2019-03-19
+ **/
+public class EmbeddedTokenServerMode implements LeaderElector.Listener {
+
+    /**
+     * 参与选举的所有应用，格式为 host:electionPort:tokenPort，多个应用用逗号分隔，不配置时不启用内嵌模式
+     */
+    public static final String PEERS = "csp.sentinel.cluster.embedded.peers";
+
+    /**
+     * 当前应用在 PEERS 中的位置，从 0 开始
+     */
+    public static final String SELF = "csp.sentinel.cluster.embedded.self";
+
+    private static final Field LAST_MODIFIED;
+
+    static {
+        try {
+            LAST_MODIFIED = ClusterStateManager.class.getDeclaredField("lastModified");
+            LAST_MODIFIED.setAccessible(true);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("Unsupported sentinel version, field not found: lastModified", e);
+        }
+    }
+
+    private final LeaderElector elector;
+
+    private final ExecutorService switcher = Executors.newSingleThreadExecutor(
+            new NamedThreadFactory("sentinel-cluster-mode-switcher", true));
+
+    /**
+     * @param peers 所有应用，包括自己
+     * @param selfId 自己在列表中的位置
+     */
+    public EmbeddedTokenServerMode(List<ElectionPeer> peers, int selfId) {
+        this.elector = new LeaderElector(peers, selfId, this);
+    }
+
+    /**
+     * 按节点列表启动内嵌模式
+     * @param peers 格式为 host:electionPort:tokenPort，多个节点用逗号分隔，所有应用的配置相同
+     * @param selfId 自己在列表中的位置
+     */
+    public static EmbeddedTokenServerMode start(String peers, int selfId) throws SocketException {
+        EmbeddedTokenServerMode mode = new EmbeddedTokenServerMode(ElectionPeer.parse(peers), selfId);
+        mode.start();
+        return mode;
+    }
+
+    /**
+     * 从 SentinelConfig 中读取 SELF 配置的位置
+     * @throws IllegalStateException 没有配置或者不是整数
+     */
+    public static int configuredSelfId() {
+        String self = SentinelConfig.getConfig(SELF);
+        if (self == null || self.trim().isEmpty()) {
+            throw new IllegalStateException(SELF + " is required when " + PEERS + " is set");
+        }
+        try {
+            return Integer.parseInt(self.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalStateException(SELF + " should be an integer, but was: " + self, e);
+        }
+    }
+
+    public void start() throws SocketException {
+        // 成为 leader 时内嵌的 token server 监听自己的 tokenPort
+        ClusterServerConfigManager.loadGlobalTransportConfig(new ServerTransportConfig()
+                .setIdleSeconds(ClusterServerConfigManager.getIdleSeconds())
+                .setPort(elector.getSelf().getTokenPort()));
+        elector.start();
+    }
+
+    public void stop() {
+        elector.stop();
+        switcher.shutdownNow();
+    }
+
+    @Override
+    public void onLeaderChange(final ElectionPeer leader, final boolean self) {
+        switcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    apply(leader, self);
+                } catch (Throwable e) {
+                    RecordLog.warn("[EmbeddedTokenServerMode] Failed to apply leader " + leader, e);
+                }
+            }
+        });
+    }
+
+    private void apply(ElectionPeer leader, boolean self) throws IllegalAccessException {
+        LAST_MODIFIED.setLong(null, -1L);
+        if (self) {
+            boolean ok = ClusterStateManager.setToServer();
+            RecordLog.info("[EmbeddedTokenServerMode] Running as embedded token server, success: " + ok);
+            return;
+        }
+        ClusterClientConfigManager.applyNewAssignConfig(
+                new ClusterClientAssignConfig(leader.getHost(), leader.getTokenPort()));
+        boolean ok = ClusterStateManager.setToClient();
+        RecordLog.info("[EmbeddedTokenServerMode] Running as token client of " + leader + ", success: " + ok);
+    }
+
+    public ElectionPeer getLeader() {
+        return elector.getLeader();
+    }
+
+    public boolean isLeader() {
+        return elector.isLeader();
+    }
+
+}
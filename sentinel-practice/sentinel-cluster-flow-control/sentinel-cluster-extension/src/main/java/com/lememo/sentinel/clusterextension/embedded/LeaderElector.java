@@ -0,0 +1,260 @@
+package com.lememo.sentinel.clusterextension.embedded;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.config.SentinelConfig;
+import com.alibaba.csp.sentinel.log.RecordLog;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 不依赖外部服务的 leader 选举
+ *
+ * 所有节点使用相同的节点列表，每个节点每隔 csp.sentinel.cluster.election.heartbeat.ms（默认 100ms）
+ * 通过 udp 向其它节点发送一次心跳，心跳中带着自己认为的 leader。
+ * 超过 csp.sentinel.cluster.election.timeout.ms（默认 500ms）没有收到心跳的节点认为已经挂掉。每次发送心跳时重新决定 leader：
+ * <ul>
+ *     <li>存活的节点中有人声明自己是 leader 时，选其中 id 最小的一个。新启动或者恢复的节点会加入已有的 leader，不会抢占；
+ *     网络分区恢复后出现两个 leader 时，id 大的让位</li>
+ *     <li>当前的 leader 还存活时保持不变</li>
+ *     <li>否则选存活的节点中 id 最小的一个，所有节点看到的存活节点相同时会选出同一个</li>
+ * </ul>
+ * 节点启动后先等待一个超时时间，收到其它节点的心跳之后再决定。
+ * 没有任期和多数派，网络分区时两边会各自选出 leader，各自按整个集群的阈值放行，分区恢复后合并为一个。
+ * @author houyi
+ * @date 2019-03-19
+ **/
+public class LeaderElector {
+
+    /**
+     * 心跳的间隔，单位：ms
+     */
+    public static final String HEARTBEAT_MS = "csp.sentinel.cluster.election.heartbeat.ms";
+
+    /**
+     * 多长时间没有收到心跳认为节点已经挂掉，单位：ms
+     */
+    public static final String TIMEOUT_MS = "csp.sentinel.cluster.election.timeout.ms";
+
+    private static final int DEFAULT_HEARTBEAT_MS = 100;
+
+    private static final int DEFAULT_TIMEOUT_MS = 500;
+
+    private static final int NO_LEADER = -1;
+
+    private static final int MAGIC = 0x53454c45;
+
+    private static final int MESSAGE_LENGTH = 12;
+
+    /**
+     * leader 发生变化时的回调，在选举线程中执行，不能阻塞
+     */
+    public interface Listener {
+
+        /**
+         * @param leader 新的 leader
+         * @param self 自己是否是 leader
+         */
+        void onLeaderChange(ElectionPeer leader, boolean self);
+    }
+
+    private final List<ElectionPeer> peers;
+
+    private final ElectionPeer self;
+
+    private final Listener listener;
+
+    private final int heartbeatMs;
+
+    private final int timeoutMs;
+
+    /**
+     * 每个节点最近一次心跳的时间和它声明的 leader，按节点 id 索引，自己的位置不使用
+     */
+    private final long[] lastSeen;
+
+    private final int[] claimed;
+
+    private volatile int leaderId = NO_LEADER;
+
+    private long startedAt;
+
+    private DatagramSocket socket;
+
+    private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("sentinel-cluster-election", true));
+
+    /**
+     * @param peers 所有节点，包括自己
+     * @param selfId 自己的 id
+     * @param listener leader 发生变化时的回调
+     */
+    public LeaderElector(List<ElectionPeer> peers, int selfId, Listener listener) {
+        if (selfId < 0 || selfId >= peers.size()) {
+            throw new IllegalArgumentException("selfId out of range: " + selfId);
+        }
+        this.peers = peers;
+        this.self = peers.get(selfId);
+        this.listener = listener;
+        this.heartbeatMs = configInMs(HEARTBEAT_MS, DEFAULT_HEARTBEAT_MS);
+        this.timeoutMs = Math.max(configInMs(TIMEOUT_MS, DEFAULT_TIMEOUT_MS), heartbeatMs * 2);
+        this.lastSeen = new long[peers.size()];
+        this.claimed = new int[peers.size()];
+    }
+
+    private static int configInMs(String key, int defaultValue) {
+        String value = SentinelConfig.getConfig(key);
+        try {
+            return value == null ? defaultValue : Math.max(10, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            RecordLog.warn("[LeaderElector] Invalid " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public void start() throws SocketException {
+        socket = new DatagramSocket(new InetSocketAddress(self.getElectionPort()));
+        startedAt = System.currentTimeMillis();
+        Thread receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive();
+            }
+        }, "sentinel-cluster-election-receiver");
+        receiver.setDaemon(true);
+        receiver.start();
+        ticker.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    tick();
+                } catch (Throwable e) {
+                    RecordLog.warn("[LeaderElector] Election tick error", e);
+                }
+            }
+        }, 0, heartbeatMs, TimeUnit.MILLISECONDS);
+        RecordLog.info("[LeaderElector] Started as " + self + ", heartbeat=" + heartbeatMs + "ms, timeout="
+                + timeoutMs + "ms");
+    }
+
+    public void stop() {
+        ticker.shutdownNow();
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    private void receive() {
+        byte[] buffer = new byte[MESSAGE_LENGTH];
+        while (!socket.isClosed()) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+            } catch (IOException e) {
+                // socket 已经关闭
+                continue;
+            }
+            if (packet.getLength() != MESSAGE_LENGTH) {
+                continue;
+            }
+            ByteBuffer message = ByteBuffer.wrap(buffer);
+            int magic = message.getInt();
+            int senderId = message.getInt();
+            int senderLeader = message.getInt();
+            if (magic != MAGIC || senderId < 0 || senderId >= peers.size() || senderId == self.getId()) {
+                continue;
+            }
+            synchronized (this) {
+                lastSeen[senderId] = System.currentTimeMillis();
+                claimed[senderId] = senderLeader;
+            }
+        }
+    }
+
+    private void tick() {
+        sendHeartbeats();
+        long now = System.currentTimeMillis();
+        if (now - startedAt < timeoutMs) {
+            return;
+        }
+        int next;
+        synchronized (this) {
+            next = decide(now);
+        }
+        if (next != leaderId) {
+            leaderId = next;
+            ElectionPeer leader = peers.get(next);
+            RecordLog.info("[LeaderElector] Leader changed to " + leader);
+            listener.onLeaderChange(leader, next == self.getId());
+        }
+    }
+
+    private int decide(long now) {
+        int claimant = NO_LEADER;
+        int current = NO_LEADER;
+        int lowest = self.getId();
+        for (ElectionPeer peer : peers) {
+            int id = peer.getId();
+            boolean isSelf = id == self.getId();
+            if (!isSelf && now - lastSeen[id] > timeoutMs) {
+                continue;
+            }
+            boolean claims = isSelf ? leaderId == id : claimed[id] == id;
+            if (claims && claimant == NO_LEADER) {
+                claimant = id;
+            }
+            if (id == leaderId) {
+                current = id;
+            }
+            lowest = Math.min(lowest, id);
+        }
+        if (claimant != NO_LEADER) {
+            return claimant;
+        }
+        return current != NO_LEADER ? current : lowest;
+    }
+
+    private void sendHeartbeats() {
+        byte[] message = ByteBuffer.allocate(MESSAGE_LENGTH)
+                .putInt(MAGIC)
+                .putInt(self.getId())
+                .putInt(leaderId)
+                .array();
+        for (ElectionPeer peer : peers) {
+            if (peer.getId() == self.getId()) {
+                continue;
+            }
+            try {
+                socket.send(new DatagramPacket(message, message.length,
+                        new InetSocketAddress(peer.getHost(), peer.getElectionPort())));
+            } catch (IOException e) {
+                // 对方不可达时忽略，超时之后会被认为已经挂掉
+            }
+        }
+    }
+
+    /**
+     * 当前的 leader，还没有选出时返回 null
+     */
+    public ElectionPeer getLeader() {
+        int id = leaderId;
+        return id == NO_LEADER ? null : peers.get(id);
+    }
+
+    public ElectionPeer getSelf() {
+        return self;
+    }
+
+    public boolean isLeader() {
+        return leaderId == self.getId();
+    }
+
+}
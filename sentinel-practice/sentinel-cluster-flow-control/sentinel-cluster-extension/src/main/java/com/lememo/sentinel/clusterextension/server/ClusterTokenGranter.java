@@ -0,0 +1,191 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.flow.rule.ClusterFlowRuleManager;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.ClusterMetricStatistics;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.data.ClusterFlowEvent;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.limit.GlobalRequestLimiter;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.metric.ClusterMetric;
+import com.alibaba.csp.sentinel.cluster.response.ClusterResponse;
+import com.alibaba.csp.sentinel.cluster.server.config.ClusterServerConfigManager;
+import com.alibaba.csp.sentinel.slots.block.ClusterRuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.ClusterFlowConfig;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+import com.lememo.sentinel.clusterextension.LeaseResponseData;
+import com.lememo.sentinel.clusterextension.MultiAcquireResponseData;
+
+/**
+ * 按照集群规则批量发放 token
+ *
+ * 默认的 ClusterFlowChecker 每次只判断一个请求需要的 token，要么全部给，要么一个都不给。
+ * 这里的发放方式是：在当前统计窗口剩余的 token 中，最多给出请求的数量，不够时给出剩余的部分。
+ * 发出去的 token 和默认的方式一样记在 ClusterMetric 的 PASS 上，所以集群的总通过数依然受规则的阈值约束。
+ * @author houyi
+ * @date 2019-03-01
+ **/
+public final class ClusterTokenGranter {
+
+    private ClusterTokenGranter() {
+    }
+
+    /**
+     * 租用 token
+     * 单个客户端一次最多租到窗口内 token 总数的 1/连接数，避免一个客户端把整个窗口的 token 都租走
+     * 租约在当前 bucket 结束时过期，这样租出去的 token 只会在它被统计的那个 bucket 内使用
+     * @param flowId 规则的 flowId
+     * @param requested 希望租用的 token 数
+     * @return 响应，status 为 TokenResultStatus 中的状态
+     */
+    public static ClusterResponse<LeaseResponseData> lease(long flowId, int requested) {
+        FlowQuota quota = resolve(flowId);
+        if (quota.status != TokenResultStatus.OK) {
+            return response(quota.status, null);
+        }
+        long share = Math.max(1, quota.windowQuota / Math.max(1, ClusterFlowRuleManager.getConnectedCount(flowId)));
+        int wanted = (int) Math.min(requested, share);
+        int granted;
+        // 不同的 IO 线程可能同时租用同一个 flowId 的 token，读取剩余数量和记录通过数需要放在一起
+        synchronized (quota.metric) {
+            long available = quota.available();
+            granted = (int) Math.max(0, Math.min(wanted, available));
+            if (granted > 0) {
+                quota.metric.add(ClusterFlowEvent.PASS, granted);
+                quota.metric.add(ClusterFlowEvent.PASS_REQUEST, 1);
+            } else {
+                quota.metric.add(ClusterFlowEvent.BLOCK_REQUEST, 1);
+            }
+            // 租用的数量是客户端预估的用量，只把因为窗口剩余不够而少给的部分记为 block，
+            // 受单个客户端份额限制少给的部分不是被拒绝的请求
+            if (wanted > granted) {
+                quota.metric.add(ClusterFlowEvent.BLOCK, wanted - granted);
+            }
+        }
+        LeaseResponseData data = new LeaseResponseData()
+                .setGranted(granted)
+                .setValidInMs(validInMs(quota.config));
+        return response(granted > 0 ? TokenResultStatus.OK : TokenResultStatus.BLOCKED, data);
+    }
+
+    /**
+     * 按到达的顺序放行一组调用方，直到剩余的 token 不够为止
+     * @param flowId 规则的 flowId
+     * @param counts 每个调用方需要的 token 数
+     * @param out 保存结果的响应
+     * @param index 结果在响应中的位置
+     */
+    public static void acquirePrefix(long flowId, int[] counts, MultiAcquireResponseData out, int index) {
+        FlowQuota quota = resolve(flowId);
+        if (quota.status != TokenResultStatus.OK) {
+            out.getStatuses()[index] = quota.status;
+            out.getAdmitted()[index] = 0;
+            return;
+        }
+        int admitted = 0;
+        long passed = 0;
+        long blocked = 0;
+        synchronized (quota.metric) {
+            long available = quota.available();
+            boolean exhausted = false;
+            for (int count : counts) {
+                // 一旦有调用方被拒绝，后面的都拒绝，这样响应中只需要返回放行的个数
+                if (!exhausted && passed + count <= available) {
+                    passed += count;
+                    admitted++;
+                } else {
+                    exhausted = true;
+                    blocked += count;
+                }
+            }
+            if (passed > 0) {
+                quota.metric.add(ClusterFlowEvent.PASS, passed);
+                quota.metric.add(ClusterFlowEvent.PASS_REQUEST, admitted);
+            }
+            if (blocked > 0) {
+                quota.metric.add(ClusterFlowEvent.BLOCK, blocked);
+                quota.metric.add(ClusterFlowEvent.BLOCK_REQUEST, counts.length - admitted);
+            }
+        }
+        out.getStatuses()[index] = admitted > 0 ? TokenResultStatus.OK : TokenResultStatus.BLOCKED;
+        out.getAdmitted()[index] = admitted;
+    }
+
+    /**
+     * 和 ClusterFlowChecker 中的计算方式一致：全局阈值直接使用 count，单机均摊阈值需要乘以连接数
+     */
+    static double globalThreshold(FlowRule rule) {
+        double count = rule.getCount();
+        if (rule.getClusterConfig().getThresholdType() == ClusterRuleConstant.FLOW_THRESHOLD_GLOBAL) {
+            return count;
+        }
+        return count * ClusterFlowRuleManager.getConnectedCount(rule.getClusterConfig().getFlowId());
+    }
+
+    /**
+     * 找到 flowId 对应的规则和统计，计算一个窗口内的 token 总数
+     */
+    private static FlowQuota resolve(long flowId) {
+        FlowRule rule = ClusterFlowRuleManager.getFlowRuleById(flowId);
+        if (rule == null) {
+            return new FlowQuota(TokenResultStatus.NO_RULE_EXISTS);
+        }
+        if (!GlobalRequestLimiter.tryPass(ClusterFlowRuleManager.getNamespace(flowId))) {
+            return new FlowQuota(TokenResultStatus.TOO_MANY_REQUEST);
+        }
+        ClusterMetric metric = ClusterMetricStatistics.getMetric(flowId);
+        if (metric == null) {
+            return new FlowQuota(TokenResultStatus.FAIL);
+        }
+        ClusterFlowConfig config = rule.getClusterConfig();
+        long windowQuota = (long) (globalThreshold(rule) * ClusterServerConfigManager.getExceedCount()
+                * config.getWindowIntervalMs() / 1000);
+        return new FlowQuota(config, metric, windowQuota);
+    }
+
+    /**
+     * 当前 bucket 剩余的时间
+     */
+    private static int validInMs(ClusterFlowConfig config) {
+        int bucketLength = Math.max(1, config.getWindowIntervalMs() / Math.max(1, config.getSampleCount()));
+        long now = TimeUtil.currentTimeMillis();
+        return (int) (bucketLength - now % bucketLength);
+    }
+
+    private static ClusterResponse<LeaseResponseData> response(int status, LeaseResponseData data) {
+        return new ClusterResponse<LeaseResponseData>().setStatus(status).setData(data);
+    }
+
+    private static final class FlowQuota {
+
+        final int status;
+        final ClusterFlowConfig config;
+        final ClusterMetric metric;
+
+        /**
+         * 一个统计窗口内最多可以发放的 token 数
+         */
+        final long windowQuota;
+
+        FlowQuota(int status) {
+            this.status = status;
+            this.config = null;
+            this.metric = null;
+            this.windowQuota = 0;
+        }
+
+        FlowQuota(ClusterFlowConfig config, ClusterMetric metric, long windowQuota) {
+            this.status = TokenResultStatus.OK;
+            this.config = config;
+            this.metric = metric;
+            this.windowQuota = windowQuota;
+        }
+
+        /**
+         * 当前窗口剩余的 token 数，调用时需要持有 metric 的锁
+         */
+        long available() {
+            return windowQuota - metric.getSum(ClusterFlowEvent.PASS);
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.server.codec.registry.RequestDataDecodeRegistry;
+import com.alibaba.csp.sentinel.cluster.server.codec.registry.ResponseDataWriterRegistry;
+import com.alibaba.csp.sentinel.init.InitFunc;
+import com.lememo.sentinel.clusterextension.ExtensionConstants;
+
+/**
+ * 为 token server 注册扩展消息的编解码器
+ * 处理器通过 META-INF/services 中的 RequestProcessor 注册
+ * 复制消息只有备 server 才处理，由 ReplicationRequestProcessor.register 在以备 server 启动时注册
+ * @author houyi
+ * @date 2019-03-01
+ **/
+public class ExtensionServerInitFunc implements InitFunc {
+
+    @Override
+    public void init() throws Exception {
+        RequestDataDecodeRegistry.addDecoder(ExtensionConstants.MSG_TYPE_LEASE, new LeaseRequestDataDecoder());
+        ResponseDataWriterRegistry.addWriter(ExtensionConstants.MSG_TYPE_LEASE, new LeaseResponseDataWriter());
+        RequestDataDecodeRegistry.addDecoder(ExtensionConstants.MSG_TYPE_MULTI_ACQUIRE,
+                new MultiAcquireRequestDataDecoder());
+        ResponseDataWriterRegistry.addWriter(ExtensionConstants.MSG_TYPE_MULTI_ACQUIRE,
+                new MultiAcquireResponseDataWriter());
+        RequestDataDecodeRegistry.addDecoder(ExtensionConstants.MSG_TYPE_HEARTBEAT,
+                new HeartbeatRequestDataDecoder());
+        ResponseDataWriterRegistry.addWriter(ExtensionConstants.MSG_TYPE_HEARTBEAT, new HeartbeatResponseDataWriter());
+    }
+
+}
@@ -0,0 +1,99 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.server.config.ServerTransportConfig;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 在 ServerTransportConfig 的基础上增加按 namespace 隔离的配置，供 FairTokenServer 使用
+ * @author houyi
+ * @date 2019-03-20
+ **/
+public class FairServerTransportConfig extends ServerTransportConfig {
+
+    /**
+     * 处理请求的工作线程数，默认为 cpu 核数
+     */
+    private int workerCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * 每个 namespace 最多排队的请求数，超过后直接拒绝
+     */
+    private int queueCapacity = 1024;
+
+    /**
+     * 各个 namespace 的权重，没有配置的为 1
+     */
+    private final Map<String, Integer> weights = new HashMap<>();
+
+    /**
+     * 各个 namespace 的最大 QPS，会覆盖 GlobalRequestLimiter 中该 namespace 的限制，没有配置的使用 ClusterServerConfigManager 中该 namespace 的 maxAllowedQps
+     */
+    private final Map<String, Double> maxQps = new HashMap<>();
+
+    public int getWorkerCount() {
+        return workerCount;
+    }
+
+    public FairServerTransportConfig setWorkerCount(int workerCount) {
+        this.workerCount = workerCount;
+        return this;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public FairServerTransportConfig setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    public int getWeight(String namespace) {
+        Integer weight = weights.get(namespace);
+        return weight == null ? 1 : weight;
+    }
+
+    public FairServerTransportConfig setWeight(String namespace, int weight) {
+        weights.put(namespace, Math.max(1, weight));
+        return this;
+    }
+
+    /**
+     * @return 没有单独配置时返回 null
+     */
+    public Double getMaxQps(String namespace) {
+        return maxQps.get(namespace);
+    }
+
+    public FairServerTransportConfig setMaxQps(String namespace, double qps) {
+        maxQps.put(namespace, qps);
+        return this;
+    }
+
+    @Override
+    public FairServerTransportConfig setPort(int port) {
+        super.setPort(port);
+        return this;
+    }
+
+    @Override
+    public FairServerTransportConfig setIdleSeconds(int idleSeconds) {
+        super.setIdleSeconds(idleSeconds);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "FairServerTransportConfig{" +
+                "port=" + getPort() +
+                ", idleSeconds=" + getIdleSeconds() +
+                ", workerCount=" + workerCount +
+                ", queueCapacity=" + queueCapacity +
+                ", weights=" + weights +
+                ", maxQps=" + maxQps +
+                '}';
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.server.ClusterTokenServer;
+import com.alibaba.csp.sentinel.cluster.server.codec.netty.NettyRequestDecoder;
+import com.alibaba.csp.sentinel.cluster.server.codec.netty.NettyResponseEncoder;
+import com.alibaba.csp.sentinel.cluster.server.connection.ConnectionPool;
+import com.alibaba.csp.sentinel.cluster.server.handler.TokenServerHandler;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 按 namespace 隔离的 token server
+ *
+ * 多个应用共用一台 token server 时，默认的 NettyTransportServer 在 IO 线程上按到达的顺序处理所有请求，
+ * namespace 的 maxAllowedQps 也是在处理请求的过程中才检查的。一个 namespace 的流量突增时，
+ * 它的请求会占满 IO 线程，其它 namespace 的请求只能排在后面，取 token 的耗时跟着上涨。
+ *
+ * FairTokenServer 把流控请求交给 NamespaceScheduler：
+ * <ul>
+ *     <li>IO 线程只负责编解码，按 flowId 所属的 namespace 查看 GlobalRequestLimiter 中该 namespace 的 QPS 是否已经用完，
+ *     没有用完时放进它自己的有界队列，用完或者队列已满时直接拒绝。计数仍然在处理请求时由 ClusterFlowChecker 完成</li>
+ *     <li>工作线程按权重轮流处理各个 namespace 的队列，一个 namespace 的积压不会让其它 namespace 的请求排在它后面</li>
+ *     <li>每个 namespace 记录从收到请求到写出响应的耗时分布</li>
+ * </ul>
+ * ping 以及扩展的请求仍然由 TokenServerHandler 在 IO 线程上处理。
+ * 端口、工作线程数以及各个 namespace 的权重在启动时从 FairServerTransportConfig 中读取，运行时修改需要重启。
+ * 和 ShardedTokenServer 一样，启动后开启 ConnectionPool 的空闲连接扫描。
+ * @author houyi
+ * @date 2019-03-20
+ **/
+public class FairTokenServer implements ClusterTokenServer {
+
+    private final FairServerTransportConfig config;
+
+    private final NamespaceScheduler scheduler;
+
+    private final ConnectionPool connectionPool = new ConnectionPool();
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    private NioEventLoopGroup bossGroup;
+    private NioEventLoopGroup workerGroup;
+
+    public FairTokenServer(FairServerTransportConfig config) {
+        this.config = config;
+        this.scheduler = new NamespaceScheduler(config);
+    }
+
+    @Override
+    public void start() throws Exception {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        scheduler.start();
+        bossGroup = new NioEventLoopGroup(1);
+        // IO 线程数和默认的 NettyTransportServer 相同
+        workerGroup = new NioEventLoopGroup(Runtime.getRuntime().availableProcessors() * 2);
+        new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, 128)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ChannelPipeline p = ch.pipeline();
+                        p.addLast(new LengthFieldBasedFrameDecoder(1024, 0, 2, 0, 2));
+                        p.addLast(new NettyRequestDecoder());
+                        p.addLast(new LengthFieldPrepender(2));
+                        p.addLast(new NettyResponseEncoder());
+                        p.addLast(new NamespaceFairRequestHandler(scheduler, connectionPool));
+                        p.addLast(new TokenServerHandler(connectionPool));
+                    }
+                })
+                .bind(config.getPort())
+                .sync();
+        connectionPool.refreshIdleTask();
+        RecordLog.info("[FairTokenServer] Token server started: " + config);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (!started.compareAndSet(true, false)) {
+            return;
+        }
+        connectionPool.shutdownAll();
+        workerGroup.shutdownGracefully();
+        bossGroup.shutdownGracefully();
+        scheduler.stop();
+        RecordLog.info("[FairTokenServer] Token server stopped");
+    }
+
+    /**
+     * namespace 的请求从到达 IO 线程到写出响应的耗时分布，还没有收到过该 namespace 的请求时返回 null
+     */
+    public LatencyHistogram latencyOf(String namespace) {
+        NamespaceScheduler.NamespaceQueue queue = scheduler.existingQueueOf(namespace);
+        return queue == null ? null : queue.getLatency();
+    }
+
+    /**
+     * namespace 因为 QPS 已经用完或者队列已满被直接拒绝的请求数
+     */
+    public long rejectedOf(String namespace) {
+        NamespaceScheduler.NamespaceQueue queue = scheduler.existingQueueOf(namespace);
+        return queue == null ? 0 : queue.getRejected();
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.codec.EntityDecoder;
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 格式：namespace 的长度(2) | namespace
+ * @author houyi
+ * @date 2019-03-03
+ **/
+public class HeartbeatRequestDataDecoder implements EntityDecoder<ByteBuf, String> {
+
+    @Override
+    public String decode(ByteBuf source) {
+        if (source.readableBytes() < 2) {
+            return null;
+        }
+        int length = source.readUnsignedShort();
+        if (source.readableBytes() < length) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        source.readBytes(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
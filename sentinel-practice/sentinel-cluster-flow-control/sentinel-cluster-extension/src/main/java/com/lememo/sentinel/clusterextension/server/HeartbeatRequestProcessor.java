@@ -0,0 +1,30 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.annotation.RequestType;
+import com.alibaba.csp.sentinel.cluster.request.ClusterRequest;
+import com.alibaba.csp.sentinel.cluster.response.ClusterResponse;
+import com.alibaba.csp.sentinel.cluster.server.connection.ConnectionManager;
+import com.alibaba.csp.sentinel.cluster.server.processor.RequestProcessor;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import com.lememo.sentinel.clusterextension.ExtensionConstants;
+
+/**
+ * 处理心跳请求，返回 namespace 当前的连接数
+ * @author houyi
+ * @date 2019-03-03
+ **/
+@RequestType(ExtensionConstants.MSG_TYPE_HEARTBEAT)
+public class HeartbeatRequestProcessor implements RequestProcessor<String, Integer> {
+
+    @Override
+    public ClusterResponse<Integer> processRequest(ClusterRequest<String> request) {
+        String namespace = request.getData();
+        if (StringUtil.isBlank(namespace)) {
+            return new ClusterResponse<>(request.getId(), request.getType(), TokenResultStatus.BAD_REQUEST, null);
+        }
+        return new ClusterResponse<>(request.getId(), request.getType(), TokenResultStatus.OK,
+                ConnectionManager.getConnectedCount(namespace));
+    }
+
+}
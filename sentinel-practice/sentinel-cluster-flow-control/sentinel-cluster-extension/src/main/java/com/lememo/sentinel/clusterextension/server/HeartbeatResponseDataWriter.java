@@ -0,0 +1,19 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.codec.EntityWriter;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 格式：connectedCount(4)
+ * 复制请求的响应同样是一个 int，为备 server 应用的 flowId 个数
+ * @author houyi
+ * @date 2019-03-03
+ **/
+public class HeartbeatResponseDataWriter implements EntityWriter<Integer, ByteBuf> {
+
+    @Override
+    public void writeTo(Integer entity, ByteBuf target) {
+        target.writeInt(entity);
+    }
+
+}
@@ -0,0 +1,24 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.codec.EntityDecoder;
+import com.lememo.sentinel.clusterextension.LeaseRequestData;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 格式：flowId(8) | count(4)
+ * @author houyi
+ * @date 2019-03-01
+ **/
+public class LeaseRequestDataDecoder implements EntityDecoder<ByteBuf, LeaseRequestData> {
+
+    @Override
+    public LeaseRequestData decode(ByteBuf source) {
+        if (source.readableBytes() >= 12) {
+            return new LeaseRequestData()
+                    .setFlowId(source.readLong())
+                    .setCount(source.readInt());
+        }
+        return null;
+    }
+
+}
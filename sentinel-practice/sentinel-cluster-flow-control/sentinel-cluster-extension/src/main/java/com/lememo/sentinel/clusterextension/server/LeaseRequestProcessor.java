@@ -0,0 +1,31 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.annotation.RequestType;
+import com.alibaba.csp.sentinel.cluster.request.ClusterRequest;
+import com.alibaba.csp.sentinel.cluster.response.ClusterResponse;
+import com.alibaba.csp.sentinel.cluster.server.processor.RequestProcessor;
+import com.lememo.sentinel.clusterextension.ExtensionConstants;
+import com.lememo.sentinel.clusterextension.LeaseRequestData;
+import com.lememo.sentinel.clusterextension.LeaseResponseData;
+
+/**
+ * 处理租用 token 的请求
+ * 通过 SPI 注册到 RequestProcessorProvider 中，TokenServerHandler 根据消息类型找到该处理器
+ * @author houyi
+ * @date 2019-03-01
+ **/
+@RequestType(ExtensionConstants.MSG_TYPE_LEASE)
+public class LeaseRequestProcessor implements RequestProcessor<LeaseRequestData, LeaseResponseData> {
+
+    @Override
+    public ClusterResponse<LeaseResponseData> processRequest(ClusterRequest<LeaseRequestData> request) {
+        LeaseRequestData data = request.getData();
+        if (data == null || data.getCount() <= 0) {
+            return new ClusterResponse<>(request.getId(), request.getType(), TokenResultStatus.BAD_REQUEST, null);
+        }
+        ClusterResponse<LeaseResponseData> response = ClusterTokenGranter.lease(data.getFlowId(), data.getCount());
+        return response.setId(request.getId()).setType(request.getType());
+    }
+
+}
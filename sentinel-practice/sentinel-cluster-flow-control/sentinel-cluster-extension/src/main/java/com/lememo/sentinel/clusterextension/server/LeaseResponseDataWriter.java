@@ -0,0 +1,25 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.codec.EntityWriter;
+import com.lememo.sentinel.clusterextension.LeaseResponseData;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 格式：granted(4) | validInMs(4)
+ * @author houyi
+ * @date 2019-03-01
+ **/
+public class LeaseResponseDataWriter implements EntityWriter<LeaseResponseData, ByteBuf> {
+
+    @Override
+    public void writeTo(LeaseResponseData entity, ByteBuf target) {
+        if (entity == null) {
+            target.writeInt(0);
+            target.writeInt(0);
+            return;
+        }
+        target.writeInt(entity.getGranted());
+        target.writeInt(entity.getValidInMs());
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.codec.EntityDecoder;
+import com.lememo.sentinel.clusterextension.MultiAcquireRequestData;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 格式：size(2) | [flowId(8) | n(2) | count(4) * n] * size
+ * @author houyi
+ * @date 2019-03-02
+ **/
+public class MultiAcquireRequestDataDecoder implements EntityDecoder<ByteBuf, MultiAcquireRequestData> {
+
+    @Override
+    public MultiAcquireRequestData decode(ByteBuf source) {
+        if (source.readableBytes() < 2) {
+            return null;
+        }
+        int size = source.readUnsignedShort();
+        long[] flowIds = new long[size];
+        int[][] counts = new int[size][];
+        for (int i = 0; i < size; i++) {
+            if (source.readableBytes() < 10) {
+                return null;
+            }
+            flowIds[i] = source.readLong();
+            int n = source.readUnsignedShort();
+            if (source.readableBytes() < n * 4) {
+                return null;
+            }
+            counts[i] = new int[n];
+            for (int j = 0; j < n; j++) {
+                counts[i][j] = source.readInt();
+            }
+        }
+        return new MultiAcquireRequestData().setFlowIds(flowIds).setCounts(counts);
+    }
+
+}
@@ -0,0 +1,34 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.annotation.RequestType;
+import com.alibaba.csp.sentinel.cluster.request.ClusterRequest;
+import com.alibaba.csp.sentinel.cluster.response.ClusterResponse;
+import com.alibaba.csp.sentinel.cluster.server.processor.RequestProcessor;
+import com.lememo.sentinel.clusterextension.ExtensionConstants;
+import com.lememo.sentinel.clusterextension.MultiAcquireRequestData;
+import com.lememo.sentinel.clusterextension.MultiAcquireResponseData;
+
+/**
+ * 处理合并后的 token 请求
+ * @author houyi
+ * @date 2019-03-02
+ **/
+@RequestType(ExtensionConstants.MSG_TYPE_MULTI_ACQUIRE)
+public class MultiAcquireRequestProcessor implements RequestProcessor<MultiAcquireRequestData, MultiAcquireResponseData> {
+
+    @Override
+    public ClusterResponse<MultiAcquireResponseData> processRequest(ClusterRequest<MultiAcquireRequestData> request) {
+        MultiAcquireRequestData data = request.getData();
+        if (data == null) {
+            return new ClusterResponse<>(request.getId(), request.getType(), TokenResultStatus.BAD_REQUEST, null);
+        }
+        long[] flowIds = data.getFlowIds();
+        MultiAcquireResponseData response = new MultiAcquireResponseData(flowIds.length);
+        for (int i = 0; i < flowIds.length; i++) {
+            ClusterTokenGranter.acquirePrefix(flowIds[i], data.getCounts()[i], response, i);
+        }
+        return new ClusterResponse<>(request.getId(), request.getType(), TokenResultStatus.OK, response);
+    }
+
+}
@@ -0,0 +1,29 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.codec.EntityWriter;
+import com.lememo.sentinel.clusterextension.MultiAcquireResponseData;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 格式：size(2) | [status(1) | admitted(2)] * size
+ * @author houyi
+ * @date 2019-03-02
+ **/
+public class MultiAcquireResponseDataWriter implements EntityWriter<MultiAcquireResponseData, ByteBuf> {
+
+    @Override
+    public void writeTo(MultiAcquireResponseData entity, ByteBuf target) {
+        if (entity == null) {
+            target.writeShort(0);
+            return;
+        }
+        int[] statuses = entity.getStatuses();
+        int[] admitted = entity.getAdmitted();
+        target.writeShort(statuses.length);
+        for (int i = 0; i < statuses.length; i++) {
+            target.writeByte(statuses[i]);
+            target.writeShort(admitted[i]);
+        }
+    }
+
+}
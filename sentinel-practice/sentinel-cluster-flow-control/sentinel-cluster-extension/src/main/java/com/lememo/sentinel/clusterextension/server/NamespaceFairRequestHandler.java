@@ -0,0 +1,86 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.ClusterConstants;
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.flow.rule.ClusterFlowRuleManager;
+import com.alibaba.csp.sentinel.cluster.flow.rule.ClusterParamFlowRuleManager;
+import com.alibaba.csp.sentinel.cluster.request.ClusterRequest;
+import com.alibaba.csp.sentinel.cluster.request.data.FlowRequestData;
+import com.alibaba.csp.sentinel.cluster.request.data.ParamFlowRequestData;
+import com.alibaba.csp.sentinel.cluster.response.ClusterResponse;
+import com.alibaba.csp.sentinel.cluster.response.data.FlowTokenResponseData;
+import com.alibaba.csp.sentinel.cluster.server.connection.ConnectionPool;
+import com.alibaba.csp.sentinel.cluster.server.processor.RequestProcessor;
+import com.alibaba.csp.sentinel.cluster.server.processor.RequestProcessorProvider;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * 把流控和热点参数流控请求按 flowId 所属的 namespace 放进对应的队列，由 NamespaceScheduler 的工作线程处理
+ *
+ * 放在 TokenServerHandler 的前面，IO 线程只负责编解码和入队。namespace 的 QPS 已经用完或者队列已满的请求
+ * 在 IO 线程上直接返回 TOO_MANY_REQUEST，不占用工作线程，同一批读到的拒绝响应只刷新一次。
+ * 找不到规则的 flowId、ping 以及扩展的请求继续交给 TokenServerHandler 处理。
+ * @author houyi
+ * @date 2019-03-20
+ **/
+class NamespaceFairRequestHandler extends ChannelInboundHandlerAdapter {
+
+    private final NamespaceScheduler scheduler;
+
+    private final ConnectionPool connectionPool;
+
+    NamespaceFairRequestHandler(NamespaceScheduler scheduler, ConnectionPool connectionPool) {
+        this.scheduler = scheduler;
+        this.connectionPool = connectionPool;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void channelRead(final ChannelHandlerContext ctx, Object msg) {
+        String namespace = msg instanceof ClusterRequest ? namespaceOf((ClusterRequest) msg) : null;
+        if (namespace == null) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        final long arrival = System.nanoTime();
+        final ClusterRequest request = (ClusterRequest) msg;
+        final NamespaceScheduler.NamespaceQueue queue = scheduler.queueOf(namespace);
+        boolean accepted = scheduler.submit(queue, new Runnable() {
+            @Override
+            public void run() {
+                RequestProcessor processor = RequestProcessorProvider.getProcessor(request.getType());
+                ctx.writeAndFlush(processor.processRequest(request));
+                queue.getLatency().record((System.nanoTime() - arrival) / 1000);
+            }
+        });
+        if (!accepted) {
+            // 被拒绝的请求往往是成批到达的，先写入缓冲区，读完这一批之后在 channelReadComplete 中一起刷新
+            ctx.write(new ClusterResponse<>(request.getId(), request.getType(),
+                    TokenResultStatus.TOO_MANY_REQUEST, new FlowTokenResponseData()));
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        // 被拦截的请求不会经过 TokenServerHandler，需要在这里刷新连接的读取时间，避免被当作空闲连接关闭
+        connectionPool.refreshLastReadTime(ctx.channel());
+        ctx.flush();
+        ctx.fireChannelReadComplete();
+    }
+
+    /**
+     * @return 请求的 flowId 所属的 namespace，不是流控请求或者找不到规则时返回 null
+     */
+    private static String namespaceOf(ClusterRequest request) {
+        Object data = request.getData();
+        if (request.getType() == ClusterConstants.MSG_TYPE_FLOW && data instanceof FlowRequestData) {
+            return ClusterFlowRuleManager.getNamespace(((FlowRequestData) data).getFlowId());
+        }
+        if (request.getType() == ClusterConstants.MSG_TYPE_PARAM_FLOW && data instanceof ParamFlowRequestData) {
+            return ClusterParamFlowRuleManager.getNamespace(((ParamFlowRequestData) data).getFlowId());
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,227 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.flow.statistic.limit.GlobalRequestLimiter;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.limit.RequestLimiter;
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.log.RecordLog;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 按 namespace 排队，并按权重轮流调度各个 namespace 的请求
+ *
+ * 每个 namespace 一个有界的队列，进入队列之前先查看 GlobalRequestLimiter 中该 namespace 的 QPS 是否已经用完，
+ * 用完或者队列已满时直接拒绝，一个 namespace 的突发流量最多占满自己的队列，不会挤占其它 namespace 的位置。
+ * 这里只检查不计数，请求在工作线程上处理时由 ClusterFlowChecker 调用 GlobalRequestLimiter.tryPass 计数，同一个请求不会被计算两次。
+ * 工作线程按 deficit round robin 从有请求的队列中取请求：轮到一个 namespace 时最多连续处理 weight 个请求，然后换下一个，
+ * 每个请求的开销按 1 计算。所有 namespace 都有积压时，各自得到的处理能力和权重成正比；只有一个 namespace 有请求时它可以用满所有工作线程。
+ * @author houyi
+ * @date 2019-03-20
+ **/
+class NamespaceScheduler {
+
+    private final FairServerTransportConfig config;
+
+    private final Map<String, NamespaceQueue> queues = new ConcurrentHashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition notEmpty = lock.newCondition();
+
+    /**
+     * 有请求的 namespace，按轮转的顺序排列
+     */
+    private final ArrayDeque<NamespaceQueue> active = new ArrayDeque<>();
+
+    private Thread[] workers;
+
+    NamespaceScheduler(FairServerTransportConfig config) {
+        this.config = config;
+    }
+
+    void start() {
+        ThreadFactory factory = new NamedThreadFactory("sentinel-token-fair-worker", true);
+        workers = new Thread[Math.max(1, config.getWorkerCount())];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = factory.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            });
+            workers[i].start();
+        }
+    }
+
+    void stop() {
+        for (Thread worker : workers) {
+            worker.interrupt();
+        }
+        lock.lock();
+        try {
+            // 没有处理的请求直接丢弃，client 会等到超时
+            for (NamespaceQueue queue : active) {
+                queue.tasks.clear();
+                queue.deficit = 0;
+            }
+            active.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    NamespaceQueue queueOf(String namespace) {
+        NamespaceQueue queue = queues.get(namespace);
+        if (queue == null) {
+            queue = new NamespaceQueue(namespace, config.getWeight(namespace), config.getMaxQps(namespace));
+            NamespaceQueue old = queues.putIfAbsent(namespace, queue);
+            if (old != null) {
+                return old;
+            }
+        }
+        return queue;
+    }
+
+    NamespaceQueue existingQueueOf(String namespace) {
+        return queues.get(namespace);
+    }
+
+    /**
+     * @return namespace 的 QPS 已经用完或者队列已满时返回 false，请求没有进入队列
+     */
+    boolean submit(NamespaceQueue queue, Runnable task) {
+        if (!queue.canPass()) {
+            queue.rejected.incrementAndGet();
+            return false;
+        }
+        lock.lock();
+        try {
+            if (queue.tasks.size() >= config.getQueueCapacity()) {
+                queue.rejected.incrementAndGet();
+                return false;
+            }
+            queue.tasks.addLast(task);
+            if (queue.tasks.size() == 1) {
+                active.addLast(queue);
+                notEmpty.signal();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Runnable take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (active.isEmpty()) {
+                notEmpty.await();
+            }
+            NamespaceQueue queue = active.peekFirst();
+            if (queue.deficit == 0) {
+                queue.deficit = queue.weight;
+            }
+            Runnable task = queue.tasks.pollFirst();
+            queue.deficit--;
+            if (queue.tasks.isEmpty()) {
+                // 队列空了之后不保留剩余的份额
+                active.pollFirst();
+                queue.deficit = 0;
+            } else if (queue.deficit == 0) {
+                active.pollFirst();
+                active.addLast(queue);
+            }
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Runnable task;
+            try {
+                task = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Throwable e) {
+                RecordLog.warn("[NamespaceScheduler] Error when processing request", e);
+            }
+        }
+    }
+
+    /**
+     * 一个 namespace 的队列以及统计
+     */
+    static class NamespaceQueue {
+
+        private final String namespace;
+
+        private final int weight;
+
+        /**
+         * 单独配置的最大 QPS，为 null 时跟随 ClusterServerConfigManager 中的 maxAllowedQps
+         */
+        private final Double maxQps;
+
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        /**
+         * 本轮还可以处理的请求数，只在持有锁时访问
+         */
+        private int deficit;
+
+        private final AtomicLong rejected = new AtomicLong();
+
+        /**
+         * 从 IO 线程收到请求到写出响应的耗时
+         */
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private NamespaceQueue(String namespace, int weight, Double maxQps) {
+            this.namespace = namespace;
+            this.weight = weight;
+            this.maxQps = maxQps;
+            // 还没有出现在 ClusterServerConfigManager 的 namespace 列表中的 namespace 也需要限制
+            GlobalRequestLimiter.initIfAbsent(namespace);
+        }
+
+        /**
+         * 和 ClusterFlowChecker 共用 GlobalRequestLimiter 中的 limiter
+         * 修改 maxAllowedQps 时 GlobalRequestLimiter.applyMaxQpsChange 会覆盖所有 namespace 的限制，单独配置的最大 QPS 在这里重新设置回去
+         */
+        private boolean canPass() {
+            RequestLimiter limiter = GlobalRequestLimiter.getRequestLimiter(namespace);
+            if (limiter == null) {
+                return true;
+            }
+            if (maxQps != null && limiter.getQpsAllowed() != maxQps) {
+                limiter.setQpsAllowed(maxQps);
+            }
+            return limiter.canPass();
+        }
+
+        String getNamespace() {
+            return namespace;
+        }
+
+        LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        long getRejected() {
+            return rejected.get();
+        }
+
+    }
+
+}
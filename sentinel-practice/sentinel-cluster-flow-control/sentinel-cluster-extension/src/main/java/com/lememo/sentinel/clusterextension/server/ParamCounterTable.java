@@ -0,0 +1,222 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 集群热点参数的计数表，容量固定，满了之后淘汰最久没有访问的参数值
+ *
+ * Sentinel 默认的 ClusterParamMetric 每个 bucket 一张 CacheMap，每张最多 4000 个参数值，
+ * 参数值很多时热点参数值也会被新来的冷参数值挤出去，计数从零开始。这里每个参数值只保存一个计数器，
+ * 包含两个半窗口的 bucket，和 LeapArray 一样按滑动窗口计算：
+ * <ul>
+ *     <li>按 (flowId, 参数值) 哈希拆成多个 segment，每个 segment 是一个按访问顺序排列的 LinkedHashMap，单独加锁</li>
+ *     <li>每个 segment 的容量为 capacity / SEGMENT_COUNT，满了之后淘汰最久没有访问的参数值</li>
+ *     <li>热点参数值一直被访问，不会被淘汰；被淘汰的冷参数值再次出现时从零开始计数，只会多放行，不会误拒绝</li>
+ * </ul>
+ * @author houyi
+ * @date 2019-03-17
+ **/
+public class ParamCounterTable {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    private final Segment[] segments = new Segment[SEGMENT_COUNT];
+
+    private final int intervalMs;
+    private final int bucketLengthMs;
+
+    /**
+     * @param capacity 最多保存多少个参数值
+     * @param intervalMs 统计窗口的长度，拆成两个 bucket
+     */
+    public ParamCounterTable(int capacity, int intervalMs) {
+        if (capacity < SEGMENT_COUNT) {
+            throw new IllegalArgumentException("capacity should not be less than " + SEGMENT_COUNT);
+        }
+        if (intervalMs < 2 || intervalMs % 2 != 0) {
+            throw new IllegalArgumentException("intervalMs should be a positive even number");
+        }
+        int segmentCapacity = (capacity + SEGMENT_COUNT - 1) / SEGMENT_COUNT;
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+        this.intervalMs = intervalMs;
+        this.bucketLengthMs = intervalMs / 2;
+    }
+
+    /**
+     * @return 参数值在当前窗口内已经通过的数量
+     */
+    public long passCount(long flowId, Object value) {
+        return segmentOf(flowId, value).passCount(new Key(flowId, value), bucketStart(), bucketLengthMs);
+    }
+
+    /**
+     * 记录参数值通过的数量
+     */
+    public void addPass(long flowId, Object value, int count) {
+        segmentOf(flowId, value).addPass(new Key(flowId, value), count, bucketStart(), bucketLengthMs);
+    }
+
+    /**
+     * 检查参数值当前窗口的通过数加上 count 是否超过 windowQuota，没有超过时记录，检查和记录是原子的
+     * @return 通过后窗口内剩余的数量，没有通过时返回 -1
+     */
+    public long tryPass(long flowId, Object value, int count, long windowQuota) {
+        return segmentOf(flowId, value).tryPass(new Key(flowId, value), count, windowQuota, bucketStart(),
+                bucketLengthMs);
+    }
+
+    /**
+     * 当前保存的参数值个数
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * 累计淘汰的参数值个数
+     */
+    public long evictions() {
+        long evictions = 0;
+        for (Segment segment : segments) {
+            evictions += segment.evictions();
+        }
+        return evictions;
+    }
+
+    public int getIntervalMs() {
+        return intervalMs;
+    }
+
+    private long bucketStart() {
+        long now = TimeUtil.currentTimeMillis();
+        return now - now % bucketLengthMs;
+    }
+
+    private Segment segmentOf(long flowId, Object value) {
+        int h = value.hashCode() * 31 + (int) (flowId ^ (flowId >>> 32));
+        h ^= h >>> 16;
+        return segments[h & (SEGMENT_COUNT - 1)];
+    }
+
+    private static final class Key {
+
+        private final long flowId;
+        private final Object value;
+
+        Key(long flowId, Object value) {
+            this.flowId = flowId;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return flowId == key.flowId && value.equals(key.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return value.hashCode() * 31 + (int) (flowId ^ (flowId >>> 32));
+        }
+    }
+
+    /**
+     * 一个参数值的计数，当前 bucket 和上一个 bucket
+     */
+    private static final class Counter {
+
+        long bucketStart;
+        long current;
+        long previous;
+
+        void roll(long bucketStart, int bucketLengthMs) {
+            if (this.bucketStart == bucketStart) {
+                return;
+            }
+            previous = this.bucketStart == bucketStart - bucketLengthMs ? current : 0;
+            current = 0;
+            this.bucketStart = bucketStart;
+        }
+
+        long sum() {
+            return current + previous;
+        }
+    }
+
+    private static final class Segment {
+
+        private final LinkedHashMap<Key, Counter> counters;
+
+        private long evictions;
+
+        Segment(final int maxSize) {
+            this.counters = new LinkedHashMap<Key, Counter>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Counter> eldest) {
+                    if (size() > maxSize) {
+                        evictions++;
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        synchronized long passCount(Key key, long bucketStart, int bucketLengthMs) {
+            Counter counter = counters.get(key);
+            if (counter == null) {
+                return 0;
+            }
+            counter.roll(bucketStart, bucketLengthMs);
+            return counter.sum();
+        }
+
+        synchronized void addPass(Key key, int count, long bucketStart, int bucketLengthMs) {
+            counterOf(key, bucketStart, bucketLengthMs).current += count;
+        }
+
+        synchronized long tryPass(Key key, int count, long windowQuota, long bucketStart, int bucketLengthMs) {
+            Counter counter = counterOf(key, bucketStart, bucketLengthMs);
+            long remaining = windowQuota - counter.sum() - count;
+            if (remaining < 0) {
+                return -1;
+            }
+            counter.current += count;
+            return remaining;
+        }
+
+        synchronized int size() {
+            return counters.size();
+        }
+
+        synchronized long evictions() {
+            return evictions;
+        }
+
+        private Counter counterOf(Key key, long bucketStart, int bucketLengthMs) {
+            Counter counter = counters.get(key);
+            if (counter == null) {
+                counter = new Counter();
+                counters.put(key, counter);
+            }
+            counter.roll(bucketStart, bucketLengthMs);
+            return counter;
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.ClusterConstants;
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.flow.rule.ClusterParamFlowRuleManager;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.limit.GlobalRequestLimiter;
+import com.alibaba.csp.sentinel.cluster.request.ClusterRequest;
+import com.alibaba.csp.sentinel.cluster.request.data.ParamFlowRequestData;
+import com.alibaba.csp.sentinel.cluster.response.ClusterResponse;
+import com.alibaba.csp.sentinel.cluster.response.data.FlowTokenResponseData;
+import com.alibaba.csp.sentinel.cluster.server.connection.ConnectionPool;
+import com.alibaba.csp.sentinel.slots.block.ClusterRuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+import java.util.Collection;
+
+/**
+ * 用 token server 自己的 ParamCounterTable 处理热点参数请求
+ *
+ * 放在 TokenServerHandler 的前面，只拦截 MSG_TYPE_PARAM_FLOW 类型的请求，其它请求继续交给 TokenServerHandler 处理。
+ * 判断逻辑和 Sentinel 的 ClusterParamFlowChecker 一致：先检查 namespace 的请求数限制，
+ * 请求中的参数值全部没有超过阈值才通过，通过后给每个参数值都记上 count；阈值同样区分全局阈值和单机均摊阈值，并支持例外项。
+ * 不同的是计数保存在当前 server 的 ParamCounterTable 中，而不是全局的 ClusterParamMetricStatistics。
+ * @author houyi
+ * @date 2019-03-17
+ **/
+class ParamShardRequestHandler extends ChannelInboundHandlerAdapter {
+
+    private final ParamCounterTable table;
+
+    private final ConnectionPool connectionPool;
+
+    ParamShardRequestHandler(ParamCounterTable table, ConnectionPool connectionPool) {
+        this.table = table;
+        this.connectionPool = connectionPool;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof ClusterRequest)
+                || ((ClusterRequest) msg).getType() != ClusterConstants.MSG_TYPE_PARAM_FLOW
+                || ((ClusterRequest) msg).getData() == null) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        ClusterRequest<ParamFlowRequestData> request = (ClusterRequest<ParamFlowRequestData>) msg;
+        ParamFlowRequestData data = request.getData();
+        ctx.writeAndFlush(acquire(request.getId(), data.getFlowId(), data.getCount(), data.getParams()));
+    }
+
+    private ClusterResponse<FlowTokenResponseData> acquire(int id, long flowId, int count, Collection<Object> values) {
+        ParamFlowRule rule = ClusterParamFlowRuleManager.getParamRuleById(flowId);
+        if (rule == null) {
+            return response(id, TokenResultStatus.NO_RULE_EXISTS, 0);
+        }
+        if (!GlobalRequestLimiter.tryPass(ClusterParamFlowRuleManager.getNamespace(flowId))) {
+            return response(id, TokenResultStatus.TOO_MANY_REQUEST, 0);
+        }
+        if (values == null || values.isEmpty()) {
+            return response(id, TokenResultStatus.BAD_REQUEST, 0);
+        }
+        double ratio = table.getIntervalMs() / 1000.0;
+        if (values.size() == 1) {
+            Object value = values.iterator().next();
+            long remaining = table.tryPass(flowId, value, count, (long) (threshold(rule, value) * ratio));
+            return remaining < 0 ? response(id, TokenResultStatus.BLOCKED, 0)
+                    : response(id, TokenResultStatus.OK, (int) remaining);
+        }
+        // 先检查所有参数值，全部通过之后再记录，被拒绝的请求不占用其它参数值的配额
+        // 和默认实现一样，检查和记录之间不加锁，并发时可能略微超过阈值
+        for (Object value : values) {
+            long quota = (long) (threshold(rule, value) * ratio);
+            if (table.passCount(flowId, value) + count > quota) {
+                return response(id, TokenResultStatus.BLOCKED, 0);
+            }
+        }
+        for (Object value : values) {
+            table.addPass(flowId, value, count);
+        }
+        // 和默认实现一样，多个参数值时剩余数量返回 -1
+        return response(id, TokenResultStatus.OK, -1);
+    }
+
+    private static ClusterResponse<FlowTokenResponseData> response(int id, int status, int remaining) {
+        return new ClusterResponse<>(id, ClusterConstants.MSG_TYPE_PARAM_FLOW, status,
+                new FlowTokenResponseData().setRemainingCount(remaining).setWaitInMs(0));
+    }
+
+    private static double threshold(ParamFlowRule rule, Object value) {
+        Integer itemCount = rule.retrieveExclusiveItemCount(value);
+        double count = itemCount == null ? rule.getCount() : itemCount;
+        if (rule.getClusterConfig().getThresholdType() == ClusterRuleConstant.FLOW_THRESHOLD_GLOBAL) {
+            return count;
+        }
+        return count * ClusterParamFlowRuleManager.getConnectedCount(rule.getClusterConfig().getFlowId());
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        // 被拦截的请求不会经过 TokenServerHandler，需要在这里刷新连接的读取时间，避免被当作空闲连接关闭
+        connectionPool.refreshLastReadTime(ctx.channel());
+        ctx.fireChannelReadComplete();
+    }
+
+}
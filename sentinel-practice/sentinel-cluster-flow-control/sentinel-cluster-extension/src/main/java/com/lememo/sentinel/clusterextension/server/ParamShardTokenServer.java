@@ -0,0 +1,106 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.server.ClusterTokenServer;
+import com.alibaba.csp.sentinel.cluster.server.codec.netty.NettyRequestDecoder;
+import com.alibaba.csp.sentinel.cluster.server.codec.netty.NettyResponseEncoder;
+import com.alibaba.csp.sentinel.cluster.server.config.ClusterServerConfigManager;
+import com.alibaba.csp.sentinel.cluster.server.config.ServerTransportConfig;
+import com.alibaba.csp.sentinel.cluster.server.connection.ConnectionPool;
+import com.alibaba.csp.sentinel.cluster.server.handler.TokenServerHandler;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 热点参数分片中的一台 token server
+ *
+ * 参数值很多时，一台 token server 既要处理所有的热点参数请求，又要为所有的参数值保存计数。
+ * 这里把参数值按一致性哈希分给多台 token server，每台只负责其中一部分参数值，由 client 端的 ShardedParamTokenClient 路由：
+ * <ul>
+ *     <li>每台 server 有自己的 ParamCounterTable，容量固定，内存不会随着参数值的个数增长</li>
+ *     <li>一个参数值只会被路由到一台 server，它的计数是完整的，全局阈值不需要在多台 server 之间拆分</li>
+ *     <li>流控请求以及其它请求依然由 TokenServerHandler 处理</li>
+ * </ul>
+ * 统计窗口的长度在启动时从 ClusterServerConfigManager 的 intervalMs 中读取。
+ * @author houyi
+ * @date 2019-03-17
+ **/
+public class ParamShardTokenServer implements ClusterTokenServer {
+
+    private final ServerTransportConfig config;
+
+    private final ParamCounterTable table;
+
+    private final ConnectionPool connectionPool = new ConnectionPool();
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    private NioEventLoopGroup bossGroup;
+    private NioEventLoopGroup workerGroup;
+
+    /**
+     * @param config 端口
+     * @param maxParamValues 这台 server 最多保存多少个参数值的计数
+     */
+    public ParamShardTokenServer(ServerTransportConfig config, int maxParamValues) {
+        this.config = config;
+        this.table = new ParamCounterTable(maxParamValues, ClusterServerConfigManager.getIntervalMs());
+    }
+
+    @Override
+    public void start() throws Exception {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup(Runtime.getRuntime().availableProcessors() * 2);
+        new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, 128)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ChannelPipeline p = ch.pipeline();
+                        p.addLast(new LengthFieldBasedFrameDecoder(1024, 0, 2, 0, 2));
+                        p.addLast(new NettyRequestDecoder());
+                        p.addLast(new LengthFieldPrepender(2));
+                        p.addLast(new NettyResponseEncoder());
+                        p.addLast(new ParamShardRequestHandler(table, connectionPool));
+                        p.addLast(new TokenServerHandler(connectionPool));
+                    }
+                })
+                .bind(config.getPort())
+                .sync();
+        connectionPool.refreshIdleTask();
+        RecordLog.info("[ParamShardTokenServer] Token server started: " + config);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (!started.compareAndSet(true, false)) {
+            return;
+        }
+        connectionPool.shutdownAll();
+        workerGroup.shutdownGracefully();
+        bossGroup.shutdownGracefully();
+        RecordLog.info("[ParamShardTokenServer] Token server stopped");
+    }
+
+    public ParamCounterTable getTable() {
+        return table;
+    }
+
+}
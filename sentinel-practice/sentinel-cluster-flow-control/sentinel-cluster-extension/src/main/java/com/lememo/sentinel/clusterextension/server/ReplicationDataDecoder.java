@@ -0,0 +1,35 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.codec.EntityDecoder;
+import com.lememo.sentinel.clusterextension.ReplicationData;
+import io.netty.buffer.ByteBuf;
+
+/**
+ * 格式：size(2) | [flowId(8) | passCount(4) | passRequestCount(4)] * size
+ * @author houyi
+ * @date 2019-03-18
+ **/
+public class ReplicationDataDecoder implements EntityDecoder<ByteBuf, ReplicationData> {
+
+    @Override
+    public ReplicationData decode(ByteBuf source) {
+        if (source.readableBytes() < 2) {
+            return null;
+        }
+        int size = source.readUnsignedShort();
+        if (source.readableBytes() < size * 16) {
+            return null;
+        }
+        long[] flowIds = new long[size];
+        int[] passCounts = new int[size];
+        int[] passRequestCounts = new int[size];
+        for (int i = 0; i < size; i++) {
+            flowIds[i] = source.readLong();
+            passCounts[i] = source.readInt();
+            passRequestCounts[i] = source.readInt();
+        }
+        return new ReplicationData().setFlowIds(flowIds).setPassCounts(passCounts)
+                .setPassRequestCounts(passRequestCounts);
+    }
+
+}
@@ -0,0 +1,73 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.annotation.RequestType;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.ClusterMetricStatistics;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.data.ClusterFlowEvent;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.metric.ClusterMetric;
+import com.alibaba.csp.sentinel.cluster.request.ClusterRequest;
+import com.alibaba.csp.sentinel.cluster.response.ClusterResponse;
+import com.alibaba.csp.sentinel.cluster.server.codec.registry.RequestDataDecodeRegistry;
+import com.alibaba.csp.sentinel.cluster.server.codec.registry.ResponseDataWriterRegistry;
+import com.alibaba.csp.sentinel.cluster.server.processor.RequestProcessor;
+import com.alibaba.csp.sentinel.cluster.server.processor.RequestProcessorProvider;
+import com.lememo.sentinel.clusterextension.ExtensionConstants;
+import com.lememo.sentinel.clusterextension.ReplicationData;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * 备 token server 处理主 server 复制过来的通过数
+ *
+ * 把每个 flowId 新增的通过的 token 数和请求数加到本机 ClusterMetric 当前的 bucket 上，client 切换过来时窗口中已经有主 server 最近放行的请求，
+ * 不会从零开始再放行一整个窗口。本机没有规则的 flowId 直接忽略。
+ *
+ * 不通过 SPI 注册：每台 server 都处理复制消息的话，误把主 server 配成了复制的目标，或者旧的主 server 还在运行时，
+ * 两台 server 会互相叠加对方的计数。只在以备 server 启动时调用 register，主 server 收到复制消息时无法解码，直接丢弃。
+ * @author houyi
+ * @date 2019-03-18
+ **/
+@RequestType(ExtensionConstants.MSG_TYPE_REPLICATE)
+public class ReplicationRequestProcessor implements RequestProcessor<ReplicationData, Integer> {
+
+    /**
+     * 注册复制消息的编解码器和处理器，只在以备 server 启动时、启动 token server 之前调用
+     * RequestProcessorProvider 只提供了 SPI 的注册方式，这里通过反射调用它的 addProcessor
+     */
+    public static void register() {
+        RequestDataDecodeRegistry.addDecoder(ExtensionConstants.MSG_TYPE_REPLICATE, new ReplicationDataDecoder());
+        ResponseDataWriterRegistry.addWriter(ExtensionConstants.MSG_TYPE_REPLICATE, new HeartbeatResponseDataWriter());
+        try {
+            Method method = RequestProcessorProvider.class.getDeclaredMethod("addProcessor", int.class,
+                    RequestProcessor.class);
+            method.setAccessible(true);
+            method.invoke(null, ExtensionConstants.MSG_TYPE_REPLICATE, new ReplicationRequestProcessor());
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            throw new IllegalStateException("Unsupported sentinel version, method not found: addProcessor", e);
+        }
+    }
+
+    @Override
+    public ClusterResponse<Integer> processRequest(ClusterRequest<ReplicationData> request) {
+        ReplicationData data = request.getData();
+        if (data == null || data.getFlowIds() == null || data.getPassCounts() == null
+                || data.getPassRequestCounts() == null) {
+            return new ClusterResponse<>(request.getId(), request.getType(), TokenResultStatus.BAD_REQUEST, null);
+        }
+        int applied = 0;
+        long[] flowIds = data.getFlowIds();
+        int[] passCounts = data.getPassCounts();
+        int[] passRequestCounts = data.getPassRequestCounts();
+        for (int i = 0; i < flowIds.length; i++) {
+            ClusterMetric metric = ClusterMetricStatistics.getMetric(flowIds[i]);
+            if (metric != null) {
+                metric.add(ClusterFlowEvent.PASS, passCounts[i]);
+                metric.add(ClusterFlowEvent.PASS_REQUEST, passRequestCounts[i]);
+                applied++;
+            }
+        }
+        return new ClusterResponse<>(request.getId(), request.getType(), TokenResultStatus.OK, applied);
+    }
+
+}
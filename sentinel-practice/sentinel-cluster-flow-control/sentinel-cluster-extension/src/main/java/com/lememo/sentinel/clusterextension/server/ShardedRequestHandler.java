@@ -0,0 +1,89 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.ClusterConstants;
+import com.alibaba.csp.sentinel.cluster.request.ClusterRequest;
+import com.alibaba.csp.sentinel.cluster.request.data.FlowRequestData;
+import com.alibaba.csp.sentinel.cluster.request.data.ParamFlowRequestData;
+import com.alibaba.csp.sentinel.cluster.server.connection.ConnectionPool;
+import com.alibaba.csp.sentinel.cluster.server.processor.RequestProcessor;
+import com.alibaba.csp.sentinel.cluster.server.processor.RequestProcessorProvider;
+import com.lememo.sentinel.clusterextension.LeaseRequestData;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoop;
+
+/**
+ * 把请求分发到分片上处理
+ *
+ * 放在 TokenServerHandler 的前面，除了 ping 之外的所有请求都在分片上交给对应的 RequestProcessor 处理：
+ * <ul>
+ *     <li>流控、热点参数以及租用 token 的请求只涉及一个 flowId，交给 flowId 所在的分片</li>
+ *     <li>合并的 token 请求、复制以及心跳等请求涉及多个 flowId 或者不涉及 flowId，交给连接所在的分片，
+ *     其中修改 ClusterMetric 的地方都是线程安全的，只是这些 flowId 在这时会被两个分片修改</li>
+ * </ul>
+ * ping 会修改连接的 namespace，以及没有 RequestProcessor 的请求，继续交给 TokenServerHandler 处理。
+ * @author houyi
+ * @date 2019-03-03
+ **/
+class ShardedRequestHandler extends ChannelInboundHandlerAdapter {
+
+    private final EventLoop[] shards;
+
+    private final ConnectionPool connectionPool;
+
+    ShardedRequestHandler(EventLoop[] shards, ConnectionPool connectionPool) {
+        this.shards = shards;
+        this.connectionPool = connectionPool;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void channelRead(final ChannelHandlerContext ctx, Object msg) {
+        if (!(msg instanceof ClusterRequest) || ((ClusterRequest) msg).getType() == ClusterConstants.MSG_TYPE_PING
+                || ((ClusterRequest) msg).getData() == null) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        final ClusterRequest request = (ClusterRequest) msg;
+        final RequestProcessor processor = RequestProcessorProvider.getProcessor(request.getType());
+        if (processor == null) {
+            ctx.fireChannelRead(msg);
+            return;
+        }
+        shardOf(ctx, request.getData()).execute(new Runnable() {
+            @Override
+            public void run() {
+                ctx.writeAndFlush(processor.processRequest(request));
+            }
+        });
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        // 被拦截的请求不会经过 TokenServerHandler，需要在这里刷新连接的读取时间，避免被当作空闲连接关闭
+        connectionPool.refreshLastReadTime(ctx.channel());
+        ctx.fireChannelReadComplete();
+    }
+
+    /**
+     * 同一个 flowId 总是由同一个分片处理，不属于某个 flowId 的请求按连接分配
+     */
+    private EventLoop shardOf(ChannelHandlerContext ctx, Object data) {
+        if (data instanceof FlowRequestData) {
+            return shardOf(((FlowRequestData) data).getFlowId());
+        }
+        if (data instanceof ParamFlowRequestData) {
+            return shardOf(((ParamFlowRequestData) data).getFlowId());
+        }
+        if (data instanceof LeaseRequestData) {
+            return shardOf(((LeaseRequestData) data).getFlowId());
+        }
+        return shards[(ctx.channel().hashCode() & Integer.MAX_VALUE) % shards.length];
+    }
+
+    private EventLoop shardOf(long flowId) {
+        long h = flowId * 0x9E3779B97F4A7C15L;
+        return shards[(int) (((h ^ (h >>> 32)) & Long.MAX_VALUE) % shards.length)];
+    }
+
+}
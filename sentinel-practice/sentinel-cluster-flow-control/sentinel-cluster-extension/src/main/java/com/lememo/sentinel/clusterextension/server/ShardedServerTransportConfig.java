@@ -0,0 +1,52 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.server.config.ServerTransportConfig;
+
+/**
+ * 在 ServerTransportConfig 的基础上增加分片数，供 ShardedTokenServer 使用
+ * @author houyi
+ * @date 2019-03-03
+ **/
+public class ShardedServerTransportConfig extends ServerTransportConfig {
+
+    /**
+     * 独立模式的 token server 的分片数，大于 1 时才使用 ShardedTokenServer，没有配置时使用默认的 token server
+     */
+    public static final String SHARD_COUNT = "csp.sentinel.cluster.server.shard.count";
+
+    /**
+     * 分片数，默认为 cpu 核数
+     */
+    private int shardCount = Runtime.getRuntime().availableProcessors();
+
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    public ShardedServerTransportConfig setShardCount(int shardCount) {
+        this.shardCount = shardCount;
+        return this;
+    }
+
+    @Override
+    public ShardedServerTransportConfig setPort(int port) {
+        super.setPort(port);
+        return this;
+    }
+
+    @Override
+    public ShardedServerTransportConfig setIdleSeconds(int idleSeconds) {
+        super.setIdleSeconds(idleSeconds);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return "ShardedServerTransportConfig{" +
+                "port=" + getPort() +
+                ", idleSeconds=" + getIdleSeconds() +
+                ", shardCount=" + shardCount +
+                '}';
+    }
+
+}
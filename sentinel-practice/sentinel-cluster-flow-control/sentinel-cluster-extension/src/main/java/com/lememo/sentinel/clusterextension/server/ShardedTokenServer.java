@@ -0,0 +1,110 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.server.ClusterTokenServer;
+import com.alibaba.csp.sentinel.cluster.server.codec.netty.NettyRequestDecoder;
+import com.alibaba.csp.sentinel.cluster.server.codec.netty.NettyResponseEncoder;
+import com.alibaba.csp.sentinel.cluster.server.connection.ConnectionPool;
+import com.alibaba.csp.sentinel.cluster.server.handler.TokenServerHandler;
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.DefaultEventLoopGroup;
+import io.netty.channel.EventLoop;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.handler.codec.LengthFieldPrepender;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 分片的 token server
+ *
+ * 默认的 NettyTransportServer 中，请求在读取它的 IO 线程上处理，一个连接的所有请求都由同一个线程处理，
+ * client 的连接数少的时候只能用到一个核；而不同连接上同一个 flowId 的请求又会在多个线程上同时修改同一个 ClusterMetric。
+ *
+ * ShardedTokenServer 把 flowId 按哈希分配给固定的分片，每个分片是一个单独的线程：
+ * <ul>
+ *     <li>IO 线程只负责编解码，请求交给分片处理，分片处理完直接把响应写回连接</li>
+ *     <li>流控、热点参数以及租用 token 的请求交给 flowId 所在的分片，一个 flowId 的这些请求只会在一个分片上处理</li>
+ *     <li>一个连接上会有多个 flowId 的请求，所以分片是按 flowId 而不是按连接划分的，同一个连接的响应可能乱序返回，
+ *     client 是按请求 id 匹配响应的，不受影响</li>
+ * </ul>
+ * 涉及多个 flowId 的请求按连接分配分片，只有 ping 仍然由 TokenServerHandler 在 IO 线程上处理，详见 ShardedRequestHandler。
+ * 和默认的 NettyTransportServer 一样定时关闭空闲的连接，空闲时间为 ClusterServerConfigManager 中的 idleSeconds。
+ * 端口和分片数在启动时从 ShardedServerTransportConfig 中读取，运行时修改需要重启。
+ * @author houyi
+ * @date 2019-03-03
+ **/
+public class ShardedTokenServer implements ClusterTokenServer {
+
+    private final ShardedServerTransportConfig config;
+
+    private final ConnectionPool connectionPool = new ConnectionPool();
+
+    private final AtomicBoolean started = new AtomicBoolean(false);
+
+    private NioEventLoopGroup bossGroup;
+    private NioEventLoopGroup workerGroup;
+    private DefaultEventLoopGroup shardGroup;
+
+    public ShardedTokenServer(ShardedServerTransportConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public void start() throws Exception {
+        if (!started.compareAndSet(false, true)) {
+            return;
+        }
+        int shardCount = Math.max(1, config.getShardCount());
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup(shardCount);
+        shardGroup = new DefaultEventLoopGroup(shardCount, new NamedThreadFactory("sentinel-token-shard", true));
+        final EventLoop[] shards = new EventLoop[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            // DefaultEventLoopGroup 按顺序轮流返回其中的 EventLoop
+            shards[i] = shardGroup.next();
+        }
+        new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, 128)
+                .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ChannelPipeline p = ch.pipeline();
+                        p.addLast(new LengthFieldBasedFrameDecoder(1024, 0, 2, 0, 2));
+                        p.addLast(new NettyRequestDecoder());
+                        p.addLast(new LengthFieldPrepender(2));
+                        p.addLast(new NettyResponseEncoder());
+                        p.addLast(new ShardedRequestHandler(shards, connectionPool));
+                        p.addLast(new TokenServerHandler(connectionPool));
+                    }
+                })
+                .bind(config.getPort())
+                .sync();
+        connectionPool.refreshIdleTask();
+        RecordLog.info("[ShardedTokenServer] Token server started: " + config);
+    }
+
+    @Override
+    public void stop() throws Exception {
+        if (!started.compareAndSet(true, false)) {
+            return;
+        }
+        connectionPool.shutdownAll();
+        workerGroup.shutdownGracefully();
+        bossGroup.shutdownGracefully();
+        shardGroup.shutdownGracefully();
+        RecordLog.info("[ShardedTokenServer] Token server stopped");
+    }
+
+}
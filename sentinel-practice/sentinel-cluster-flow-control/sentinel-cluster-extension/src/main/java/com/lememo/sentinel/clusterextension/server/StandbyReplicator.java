@@ -0,0 +1,222 @@
+package com.lememo.sentinel.clusterextension.server;
+
+import com.alibaba.csp.sentinel.cluster.client.NettyTransportClient;
+import com.alibaba.csp.sentinel.cluster.flow.rule.ClusterFlowRuleManager;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.ClusterMetricStatistics;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.data.ClusterFlowEvent;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.data.ClusterMetricBucket;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.metric.ClusterMetric;
+import com.alibaba.csp.sentinel.cluster.flow.statistic.metric.ClusterMetricLeapArray;
+import com.alibaba.csp.sentinel.cluster.request.ClusterRequest;
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.config.SentinelConfig;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.statistic.base.WindowWrap;
+import com.lememo.sentinel.clusterextension.ExtensionConstants;
+import com.lememo.sentinel.clusterextension.ReplicationData;
+import com.lememo.sentinel.clusterextension.client.TokenClients;
+import io.netty.channel.Channel;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 主 token server 把各个 flowId 的通过数异步复制给备 token server
+ *
+ * 默认的 token server 挂掉之后，所有 client 都退化为本地限流；即使 client 切换到另一台 token server，
+ * 它的窗口是空的，切换的那个窗口内会再放行一整个窗口的请求。StandbyReplicator 和主 server 运行在同一个进程中：
+ * <ul>
+ *     <li>后台线程每隔 csp.sentinel.cluster.replicate.interval.ms（默认 100ms）读取每个 flowId 窗口内各个 bucket
+ *     通过的 token 数（PASS）和请求数（PASS_REQUEST），把自上次复制以来新增的部分发给备 server，备 server 的 ReplicationRequestProcessor 把它加到自己当前的 bucket 上</li>
+ *     <li>连接（重新）建立后的第一次复制发送整个窗口的通过数作为快照，之后只发送增量</li>
+ *     <li>读取的是 ClusterMetric 中的计数，所以不管请求是由默认的 token server、ShardedTokenServer
+ *     还是扩展的租用、合并请求放行的，都会被复制</li>
+ *     <li>只发送不等待响应，备 server 不可用时不影响主 server 处理请求，连接断开后 NettyTransportClient 会自动重连</li>
+ * </ul>
+ * 误差：主 server 挂掉时，最后一次复制之后的通过数（最多一个复制间隔）没有复制过去；
+ * 增量和快照都加在备 server 当前的 bucket 上，比在主 server 上晚过期，所以备 server 的窗口只会偏保守。
+ * 两台 server 的时钟需要同步，否则 bucket 对不齐。
+ * @author houyi
+ * @date 2019-03-18
+ **/
+public class StandbyReplicator {
+
+    /**
+     * 复制的间隔，单位：ms
+     */
+    public static final String REPLICATE_INTERVAL_MS = "csp.sentinel.cluster.replicate.interval.ms";
+
+    private static final int DEFAULT_REPLICATE_INTERVAL_MS = 100;
+
+    /**
+     * 备 server 默认的最大帧长度为 1024 字节，每个 flowId 占 16 字节，一个请求最多放 60 个 flowId
+     */
+    private static final int MAX_FLOWS_PER_FRAME = 60;
+
+    /**
+     * ClusterMetric 只提供当前 bucket 和整个窗口的通过数，通过反射读取每个 bucket 以及它的开始时间
+     */
+    private static final Field CLUSTER_METRIC_ARRAY;
+
+    static {
+        try {
+            CLUSTER_METRIC_ARRAY = ClusterMetric.class.getDeclaredField("metric");
+            CLUSTER_METRIC_ARRAY.setAccessible(true);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("Unsupported sentinel version, field not found: metric", e);
+        }
+    }
+
+    private final NettyTransportClient transport;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("sentinel-cluster-replicator", true));
+
+    /**
+     * 每个 flowId 窗口内各个 bucket 已经发送的 {PASS, PASS_REQUEST}，按 bucket 的开始时间索引，只在复制线程中访问
+     */
+    private final Map<Long, Map<Long, long[]>> cursors = new HashMap<>();
+
+    private boolean connected;
+
+    private final AtomicLong replicatedPasses = new AtomicLong();
+    private final AtomicLong snapshots = new AtomicLong();
+
+    /**
+     * @param standbyHost 备 server 的地址
+     * @param standbyPort 备 server 的端口
+     */
+    public StandbyReplicator(String standbyHost, int standbyPort) {
+        this.transport = new NettyTransportClient(standbyHost, standbyPort);
+    }
+
+    public void start() throws Exception {
+        transport.start();
+        int interval = replicateIntervalInMs();
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    replicate();
+                } catch (Throwable e) {
+                    RecordLog.warn("[StandbyReplicator] Replicate error", e);
+                }
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+        RecordLog.info("[StandbyReplicator] Replicating to standby every " + interval + "ms");
+    }
+
+    public void stop() throws Exception {
+        scheduler.shutdownNow();
+        transport.stop();
+    }
+
+    private static int replicateIntervalInMs() {
+        String value = SentinelConfig.getConfig(REPLICATE_INTERVAL_MS);
+        try {
+            return value == null ? DEFAULT_REPLICATE_INTERVAL_MS : Math.max(10, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            RecordLog.warn("[StandbyReplicator] Invalid " + REPLICATE_INTERVAL_MS + ": " + value);
+            return DEFAULT_REPLICATE_INTERVAL_MS;
+        }
+    }
+
+    private void replicate() {
+        Channel channel = TokenClients.channelOf(transport);
+        if (channel == null) {
+            connected = false;
+            return;
+        }
+        if (!connected) {
+            // 连接（重新）建立后清空已经发送的记录，这一次会把窗口内所有 bucket 的通过数都发出去，作为快照
+            connected = true;
+            cursors.clear();
+            snapshots.incrementAndGet();
+        }
+        List<Long> flowIds = new ArrayList<>();
+        List<long[]> deltas = new ArrayList<>();
+        for (FlowRule rule : ClusterFlowRuleManager.getAllFlowRules()) {
+            Long flowId = rule.getClusterConfig().getFlowId();
+            ClusterMetric metric = ClusterMetricStatistics.getMetric(flowId);
+            if (metric == null) {
+                continue;
+            }
+            long[] delta = delta(flowId, leapArrayOf(metric));
+            if (delta[0] > 0 || delta[1] > 0) {
+                flowIds.add(flowId);
+                deltas.add(delta);
+            }
+        }
+        for (int from = 0; from < flowIds.size(); from += MAX_FLOWS_PER_FRAME) {
+            send(channel, flowIds, deltas, from, Math.min(flowIds.size(), from + MAX_FLOWS_PER_FRAME));
+        }
+    }
+
+    /**
+     * 窗口内每个 bucket 的 {PASS, PASS_REQUEST} 减去上次复制时已经发送的部分，bucket 按开始时间区分，
+     * 所以上次复制之后切换的 bucket，前一个 bucket 后面的通过数也会被发送
+     */
+    private long[] delta(long flowId, ClusterMetricLeapArray leapArray) {
+        Map<Long, long[]> sent = cursors.get(flowId);
+        long[] delta = new long[2];
+        Map<Long, long[]> current = new HashMap<>();
+        for (WindowWrap<ClusterMetricBucket> wrap : leapArray.list()) {
+            long[] counts = {wrap.value().get(ClusterFlowEvent.PASS), wrap.value().get(ClusterFlowEvent.PASS_REQUEST)};
+            long[] before = sent == null ? null : sent.get(wrap.windowStart());
+            for (int i = 0; i < counts.length; i++) {
+                delta[i] += Math.max(0, counts[i] - (before == null ? 0 : before[i]));
+            }
+            current.put(wrap.windowStart(), counts);
+        }
+        // 只保留窗口内的 bucket，过期的 bucket 不会再有新的通过数
+        cursors.put(flowId, current);
+        return delta;
+    }
+
+    private static ClusterMetricLeapArray leapArrayOf(ClusterMetric metric) {
+        try {
+            return (ClusterMetricLeapArray) CLUSTER_METRIC_ARRAY.get(metric);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void send(Channel channel, List<Long> flowIds, List<long[]> deltas, int from, int to) {
+        long[] ids = new long[to - from];
+        int[] passCounts = new int[to - from];
+        int[] passRequestCounts = new int[to - from];
+        for (int i = from; i < to; i++) {
+            ids[i - from] = flowIds.get(i);
+            passCounts[i - from] = (int) Math.min(deltas.get(i)[0], Integer.MAX_VALUE);
+            passRequestCounts[i - from] = (int) Math.min(deltas.get(i)[1], Integer.MAX_VALUE);
+            replicatedPasses.addAndGet(passCounts[i - from]);
+        }
+        // 不登记 promise，备 server 的响应到达后找不到对应的 promise，直接被丢弃
+        channel.writeAndFlush(new ClusterRequest<>(TokenClients.nextRequestId(), ExtensionConstants.MSG_TYPE_REPLICATE,
+                new ReplicationData().setFlowIds(ids).setPassCounts(passCounts)
+                        .setPassRequestCounts(passRequestCounts)));
+    }
+
+    /**
+     * 累计复制给备 server 的通过数
+     */
+    public long replicatedPasses() {
+        return replicatedPasses.get();
+    }
+
+    /**
+     * 累计发送快照的次数，每次连接（重新）建立后发送一次
+     */
+    public long snapshots() {
+        return snapshots.get();
+    }
+
+}
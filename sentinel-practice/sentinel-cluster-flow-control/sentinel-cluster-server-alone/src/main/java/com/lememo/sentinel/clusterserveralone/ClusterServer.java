@@ -6,12 +6,22 @@ import com.alibaba.csp.sentinel.cluster.server.ClusterTokenServer;
 import com.alibaba.csp.sentinel.cluster.server.SentinelDefaultTokenServer;
 import com.alibaba.csp.sentinel.cluster.server.config.ClusterServerConfigManager;
 import com.alibaba.csp.sentinel.cluster.server.config.ServerTransportConfig;
+import com.alibaba.csp.sentinel.config.SentinelConfig;
 import com.alibaba.csp.sentinel.datasource.ReadableDataSource;
 import com.alibaba.csp.sentinel.datasource.nacos.NacosDataSource;
+import com.alibaba.csp.sentinel.log.RecordLog;
 import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
 import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.TypeReference;
+import com.lememo.sentinel.clusterextension.server.FairServerTransportConfig;
+import com.lememo.sentinel.clusterextension.server.FairTokenServer;
+import com.lememo.sentinel.clusterextension.server.ParamShardTokenServer;
+import com.lememo.sentinel.clusterextension.server.ReplicationRequestProcessor;
+import com.lememo.sentinel.clusterextension.server.ShardedServerTransportConfig;
+import com.lememo.sentinel.clusterextension.server.ShardedTokenServer;
+import com.lememo.sentinel.clusterextension.server.StandbyReplicator;
+import com.lememo.sentinel.persistence.RuleConverters;
 
 import java.util.Collections;
 import java.util.List;
@@ -30,10 +40,17 @@ public class ClusterServer {
 
     private static final int CLUSTER_SERVER_PORT = 11111;
 
+    /**
+     * 热点参数分片模式下，每台 token server 最多保存多少个参数值的计数
+     */
+    private static final int MAX_PARAM_VALUES = 100000;
+
 
     private static final String REMOTE_ADDRESS = "localhost";
     private static final String GROUP_ID = "SENTINEL_GROUP";
 
+    private ShardedServerTransportConfig transportConfig;
+
     /**
      * 初始化集群限流的Supplier
      * 这样如果后期集群限流的规则发生变更的话，系统可以自动感知到
@@ -42,9 +59,10 @@ public class ClusterServer {
         // 为集群流控注册一个Supplier，该Supplier会根据namespace动态创建数据源
         ClusterFlowRuleManager.setPropertySupplier(namespace -> {
             // 使用 Nacos 数据源作为配置中心，需要在 REMOTE_ADDRESS 上启动一个 Nacos 的服务
+            // 规则可以是 JSON，也可以是 Base64 编码的二进制格式
             ReadableDataSource<String, List<FlowRule>> ds = new NacosDataSource<>(REMOTE_ADDRESS, GROUP_ID,
                     namespace + FLOW_POSTFIX,
-                    source -> JSON.parseObject(source, new TypeReference<List<FlowRule>>() {}));
+                    RuleConverters.flowRules());
             return ds.getProperty();
         });
     }
@@ -57,9 +75,10 @@ public class ClusterServer {
         // 为集群热点参数流控注册一个Supplier，该Supplier会根据namespace动态创建数据源
         ClusterParamFlowRuleManager.setPropertySupplier(namespace -> {
             // 使用 Nacos 数据源作为配置中心，需要在 REMOTE_ADDRESS 上启动一个 Nacos 的服务
+            // 热点参数的例外项很多时，使用二进制格式的规则可以大大减少解析的时间
             ReadableDataSource<String, List<ParamFlowRule>> ds = new NacosDataSource<>(REMOTE_ADDRESS, GROUP_ID,
                     namespace + PARAM_FLOW_POSTFIX,
-                    source -> JSON.parseObject(source, new TypeReference<List<ParamFlowRule>>() {}));
+                    RuleConverters.paramFlowRules());
             return ds.getProperty();
         });
     }
@@ -96,10 +115,12 @@ public class ClusterServer {
     private void loadServerConfig(){
         // 加载namespace
         ClusterServerConfigManager.loadServerNamespaceSet(Collections.singleton(APP_NAME));
-        // 加载ServerTransportConfig
-        ClusterServerConfigManager.loadGlobalTransportConfig(new ServerTransportConfig()
+        // 加载ServerTransportConfig，ShardedServerTransportConfig 在其基础上增加了分片数
+        transportConfig = new ShardedServerTransportConfig()
+                .setShardCount(shardCount())
                 .setIdleSeconds(600)
-                .setPort(CLUSTER_SERVER_PORT));
+                .setPort(CLUSTER_SERVER_PORT);
+        ClusterServerConfigManager.loadGlobalTransportConfig(transportConfig);
     }
 
     /**
@@ -127,16 +148,99 @@ public class ClusterServer {
      */
     public void start() throws Exception {
         // 创建一个 ClusterTokenServer 的实例，独立模式
-        ClusterTokenServer tokenServer = new SentinelDefaultTokenServer();
+        // 通过 -Dcsp.sentinel.cluster.server.shard.count 指定了大于 1 的分片数时使用分片的 token server，
+        // flowId 按哈希分配到各个分片上处理，每个分片占用一个线程
+        ClusterTokenServer tokenServer = transportConfig.getShardCount() > 1
+                ? new ShardedTokenServer(transportConfig)
+                : new SentinelDefaultTokenServer();
         // 启动
         tokenServer.start();
     }
 
+    private void startOn(int port) throws Exception {
+        transportConfig.setPort(port);
+        ClusterServerConfigManager.loadGlobalTransportConfig(transportConfig);
+        start();
+    }
+
+    /**
+     * 作为热点参数分片中的一台 ClusterToken 服务端启动
+     * 多台使用不同的端口启动，client 通过 ShardedParamTokenClient 按参数值路由到负责的 server
+     */
+    public void startParamShard(int port) throws Exception {
+        // 初始化集群热点参数限流的规则
+        initClusterParamFlowSupplier();
+        transportConfig.setPort(port);
+        ClusterServerConfigManager.loadGlobalTransportConfig(transportConfig);
+        // 每台 server 只保存自己负责的参数值，最多 MAX_PARAM_VALUES 个
+        new ParamShardTokenServer(transportConfig, MAX_PARAM_VALUES).start();
+    }
+
+    /**
+     * 在指定的端口上作为备 ClusterToken 服务端启动
+     * 主服务端复制过来的通过数由 ReplicationRequestProcessor 处理，client 通过 StandbyTokenClient 在主服务端挂掉时切换过来
+     */
+    public void startStandby(int port) throws Exception {
+        // 只有备服务端处理复制消息
+        ReplicationRequestProcessor.register();
+        startOn(port);
+    }
+
+    /**
+     * 在指定的端口上作为主 ClusterToken 服务端启动，并把各个 flowId 的通过数异步复制给备服务端
+     * @param standbyAddress 备服务端的地址，格式为 host:port
+     */
+    public void startPrimary(int port, String standbyAddress) throws Exception {
+        startOn(port);
+        int idx = standbyAddress.lastIndexOf(':');
+        new StandbyReplicator(standbyAddress.substring(0, idx),
+                Integer.parseInt(standbyAddress.substring(idx + 1))).start();
+    }
+
+    /**
+     * 多个应用共用时，按 namespace 隔离启动 ClusterToken 服务端
+     * 每个 namespace 有自己的队列和 QPS 限制（默认为该 namespace 的 maxAllowedQps），工作线程按权重轮流处理各个 namespace 的请求，
+     * 一个应用的流量突增不会拖慢其它应用取 token
+     */
+    public void startFair() throws Exception {
+        new FairTokenServer(new FairServerTransportConfig()
+                .setIdleSeconds(transportConfig.getIdleSeconds())
+                .setPort(transportConfig.getPort())).start();
+    }
+
+    /**
+     * @return 启动参数中指定的分片数，没有指定或者格式不对时返回 1
+     */
+    private static int shardCount() {
+        String value = SentinelConfig.getConfig(ShardedServerTransportConfig.SHARD_COUNT);
+        if (value == null) {
+            return 1;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            RecordLog.warn("[ClusterServer] Invalid " + ShardedServerTransportConfig.SHARD_COUNT + ": " + value
+                    + ", using the default token server");
+            return 1;
+        }
+    }
 
     public static void main(String[] args) throws Exception {
         ClusterServer clusterServer = new ClusterServer();
         clusterServer.init();
-        clusterServer.start();
+        if (args.length > 2 && "primary".equals(args[0])) {
+            // 主备模式，例如：primary 11111 localhost:11112 和 standby 11112
+            clusterServer.startPrimary(Integer.parseInt(args[1]), args[2]);
+        } else if (args.length > 1 && "standby".equals(args[0])) {
+            clusterServer.startStandby(Integer.parseInt(args[1]));
+        } else if (args.length > 0 && "fair".equals(args[0])) {
+            clusterServer.startFair();
+        } else if (args.length > 0) {
+            // 指定端口时作为热点参数分片中的一台启动，例如在 11111、11112、11113 上各启动一台
+            clusterServer.startParamShard(Integer.parseInt(args[0]));
+        } else {
+            clusterServer.start();
+        }
     }
 
 }
@@ -0,0 +1,77 @@
+package com.lememo.sentinel.guard;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 限流日志
+ * 被限流的请求只做一次计数，由后台线程每秒把每个资源被限流的次数汇总打印一次
+ * 这样无论被限流的请求有多少，打印日志的代价都是固定的，也不会在请求线程上拼接字符串
+ * 引入了 sentinel-concept-of-entities 时，BoundedResourceRegistry 淘汰的资源的计数器也会被删除
+ * @author houyi
+ * @date 2019-02-22
+ **/
+public final class BlockLogger {
+
+    /**
+     * 汇总打印的间隔，单位：ms
+     */
+    private static final long FLUSH_INTERVAL_MS = 1000;
+
+    /**
+     * 每个资源在当前周期内被限流的次数
+     */
+    private static final Map<String, AtomicLong> BLOCK_COUNTS = new ConcurrentHashMap<>();
+
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("sentinel-block-logger", true));
+
+    static {
+        if (ResourceRegistrySupport.AVAILABLE) {
+            ResourceRegistrySupport.onEvicted(resources -> BLOCK_COUNTS.keySet().removeAll(resources));
+        }
+        FLUSHER.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, FLUSH_INTERVAL_MS, FLUSH_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private BlockLogger() {
+    }
+
+    /**
+     * 记录一次限流
+     * 只有资源第一次被限流时才会创建计数器，之后都是一次原子自增
+     * @param resource 资源名
+     */
+    public static void log(String resource) {
+        AtomicLong counter = BLOCK_COUNTS.get(resource);
+        if (counter == null) {
+            counter = BLOCK_COUNTS.computeIfAbsent(resource, k -> new AtomicLong());
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * 打印上一个周期内每个资源被限流的次数
+     */
+    static void flush() {
+        for (Map.Entry<String, AtomicLong> entry : BLOCK_COUNTS.entrySet()) {
+            long blocked = entry.getValue().getAndSet(0);
+            if (blocked > 0) {
+                System.out.println("[" + entry.getKey() + "] has been protected! blocked=" + blocked
+                        + " in last " + FLUSH_INTERVAL_MS + "ms, Time=" + TimeUtil.currentTimeMillis());
+            }
+        }
+    }
+
+}
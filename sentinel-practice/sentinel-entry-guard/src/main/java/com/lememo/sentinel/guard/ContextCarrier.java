@@ -0,0 +1,173 @@
+package com.lememo.sentinel.guard;
+
+import com.alibaba.csp.sentinel.Constants;
+import com.alibaba.csp.sentinel.context.Context;
+import com.alibaba.csp.sentinel.context.ContextUtil;
+import com.alibaba.csp.sentinel.context.NullContext;
+import com.alibaba.csp.sentinel.node.DefaultNode;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 把 context 带到新的线程中执行任务
+ *
+ * 每个新线程第一次调用 SphU.entry 时都要通过 ContextUtil.enter 创建 context：
+ * 查找 contextNameNodeMap、创建 Context、设置 origin，再保存到 ThreadLocal 中。
+ * 线程复用时这些开销只有一次，但是每个请求一个线程（例如虚拟线程）时，每个请求都要付出这些开销。
+ *
+ * ContextCarrier 在创建时只做一次 ContextUtil.enter，记住 context 的名字、origin 和入口节点，
+ * 之后每个任务从池中取出一个 Context，通过 ContextUtil.runOnContext 设置为当前线程的 context，
+ * 任务结束后再放回池中。任务中的 Entry 挂在同一个入口节点下，和在原来的线程中调用的效果一样。
+ *
+ * 任务结束时还有没 exit 的 Entry 的 Context 不会被放回池中；任务结束后也不能在其他线程中 exit 任务中的 Entry。
+ * @author houyi
+ * @date 2019-03-10
+ **/
+public final class ContextCarrier {
+
+    /**
+     * 取出或放回 Context 时最多尝试的位置数，都失败时直接创建或丢弃
+     */
+    private static final int PROBES = 4;
+
+    private final String name;
+    private final String origin;
+    private final DefaultNode entranceNode;
+
+    /**
+     * context 的数量超过上限时 ContextUtil.enter 返回的 NullContext，不需要池化
+     */
+    private final Context nullContext;
+
+    private final AtomicReferenceArray<Context> pool;
+    private final int mask;
+
+    private ContextCarrier(String name, String origin, Context context, int poolSize) {
+        this.name = name;
+        this.origin = origin;
+        this.entranceNode = context.getEntranceNode();
+        this.nullContext = context instanceof NullContext ? context : null;
+        int size = Integer.highestOneBit(Math.max(2, poolSize) - 1) << 1;
+        this.pool = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * @param contextName context 的名字，和 ContextUtil.enter 的参数一致
+     * @param origin 调用方
+     */
+    public static ContextCarrier of(String contextName, String origin) {
+        return of(contextName, origin, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @param contextName context 的名字，和 ContextUtil.enter 的参数一致
+     * @param origin 调用方
+     * @param poolSize 池中最多保留的 Context 数，会向上取整为 2 的幂
+     */
+    public static ContextCarrier of(String contextName, String origin, int poolSize) {
+        Context[] entered = new Context[1];
+        // 在一个空的 context 上 enter，不影响当前线程已有的 context
+        ContextUtil.runOnContext(null, () -> {
+            entered[0] = ContextUtil.enter(contextName, origin);
+            ContextUtil.exit();
+        });
+        return new ContextCarrier(contextName, origin, entered[0], poolSize);
+    }
+
+    /**
+     * 带上当前线程的 context，当前线程没有 context 时使用默认的 context
+     */
+    public static ContextCarrier capture() {
+        Context current = ContextUtil.getContext();
+        if (current == null) {
+            return of(Constants.CONTEXT_DEFAULT_NAME, "");
+        }
+        return of(current.getName(), current.getOrigin());
+    }
+
+    /**
+     * 在当前线程上以带过来的 context 执行任务
+     */
+    public void run(Runnable task) {
+        Context context = acquire();
+        try {
+            ContextUtil.runOnContext(context, task);
+        } finally {
+            release(context);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T call(Callable<T> task) throws Exception {
+        Object[] result = new Object[1];
+        Exception[] error = new Exception[1];
+        run(() -> {
+            try {
+                result[0] = task.call();
+            } catch (Exception e) {
+                error[0] = e;
+            }
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+        return (T) result[0];
+    }
+
+    public Runnable wrap(Runnable task) {
+        return () -> run(task);
+    }
+
+    public <T> Callable<T> wrap(Callable<T> task) {
+        return () -> call(task);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    private Context acquire() {
+        if (nullContext != null) {
+            return nullContext;
+        }
+        int start = startIndex();
+        for (int i = 0; i < PROBES; i++) {
+            int index = (start + i) & mask;
+            Context context = pool.get(index);
+            if (context != null && pool.compareAndSet(index, context, null)) {
+                return context;
+            }
+        }
+        Context context = new Context(entranceNode, name);
+        context.setOrigin(origin);
+        return context;
+    }
+
+    /**
+     * 不同的线程从不同的位置开始尝试。这里不用 ThreadLocalRandom，新线程第一次使用时还要初始化随机数的种子
+     */
+    private static int startIndex() {
+        return (int) Thread.currentThread().getId();
+    }
+
+    private void release(Context context) {
+        // 任务中还有没 exit 的 Entry，这个 Context 不能再给其他任务使用
+        if (context == nullContext || context.getCurEntry() != null) {
+            return;
+        }
+        int start = startIndex();
+        for (int i = 0; i < PROBES; i++) {
+            int index = (start + i) & mask;
+            if (pool.get(index) == null && pool.compareAndSet(index, null, context)) {
+                return;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+package com.lememo.sentinel.guard;
+
+import com.alibaba.csp.sentinel.Entry;
+import com.alibaba.csp.sentinel.EntryType;
+import com.alibaba.csp.sentinel.SphU;
+import com.alibaba.csp.sentinel.context.ContextUtil;
+import com.alibaba.csp.sentinel.slots.block.BlockException;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对比每个请求一个新线程时，不同的 context 传递方式的开销
+ *
+ * 每个任务在一个新的线程中调用一次 SphU.entry 和 exit，记录任务中 Sentinel 部分的耗时，
+ * 包括创建或设置 context、entry、exit 以及清理 context：
+ *
+ * - default：不设置 context，由 SphU.entry 创建默认的 context
+ * - enter：和 CommonFilter 一样先 ContextUtil.enter 再 entry
+ * - carrier：通过 ContextCarrier 设置池化的 context
+ *
+ * 线程复用的结果作为对照。当前的 JDK 支持虚拟线程时同时对比虚拟线程。
+ * @author houyi
+ * @date 2019-03-10
+ **/
+public class ContextCarrierSimulate {
+
+    private static final String RESOURCE = "userResource";
+    private static final String CONTEXT_NAME = "user-web-context";
+    private static final String ORIGIN = "user-app";
+
+    private static final int TASKS = 200000;
+    /**
+     * 同时执行的任务数不超过 cpu 核数，避免任务中途被切换出去，把等待 cpu 的时间也算到 Sentinel 的耗时中
+     */
+    private static final int CONCURRENCY = Runtime.getRuntime().availableProcessors();
+
+    public static void main(String[] args) throws Exception {
+        ContextCarrier carrier = ContextCarrier.of(CONTEXT_NAME, ORIGIN);
+        Runnable defaultBody = ContextCarrierSimulate::entryAndExit;
+        Runnable enterBody = () -> {
+            ContextUtil.enter(CONTEXT_NAME, ORIGIN);
+            try {
+                entryAndExit();
+            } finally {
+                ContextUtil.exit();
+            }
+        };
+        Runnable carrierBody = () -> carrier.run(ContextCarrierSimulate::entryAndExit);
+
+        System.out.println("java.version=" + System.getProperty("java.version") + ", tasks=" + TASKS
+                + ", concurrency=" + CONCURRENCY);
+        reused("reused thread + enter", enterBody);
+        reused("reused thread + carrier", carrierBody);
+
+        ExecutorService platform = ThreadPerTaskExecutors.newPlatformThreadPerTaskExecutor(Executors.defaultThreadFactory());
+        perTask("platform thread + default", platform, defaultBody);
+        perTask("platform thread + enter", platform, enterBody);
+        perTask("platform thread + carrier", platform, carrierBody);
+        platform.shutdown();
+
+        if (ThreadPerTaskExecutors.isVirtualThreadSupported()) {
+            ExecutorService virtual = ThreadPerTaskExecutors.newVirtualThreadPerTaskExecutor();
+            perTask("virtual thread + default", virtual, defaultBody);
+            perTask("virtual thread + enter", virtual, enterBody);
+            perTask("virtual thread + carrier", virtual, carrierBody);
+            virtual.shutdown();
+        } else {
+            System.out.println("virtual threads are not supported on this JDK, skipped");
+        }
+    }
+
+    private static void entryAndExit() {
+        Entry entry = null;
+        try {
+            entry = SphU.entry(RESOURCE, EntryType.IN);
+        } catch (BlockException e) {
+            // 没有配置规则，不会被限流
+        } finally {
+            if (entry != null) {
+                entry.exit();
+            }
+        }
+    }
+
+    private static void reused(String label, Runnable body) {
+        long sentinelNanos = 0;
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < TASKS; i++) {
+                body.run();
+            }
+            sentinelNanos = System.nanoTime() - start;
+        }
+        System.out.printf("%-28s sentinel %7.1f ns/task%n", label, sentinelNanos / (double) TASKS);
+    }
+
+    private static void perTask(String label, ExecutorService executor, Runnable body) throws InterruptedException {
+        // 第一轮预热
+        long[] result = null;
+        for (int round = 0; round < 2; round++) {
+            result = runTasks(executor, body);
+        }
+        System.out.printf("%-28s sentinel %7.1f ns/task, wall %7.2f us/task%n", label,
+                result[0] / (double) TASKS, result[1] / 1000.0 / TASKS);
+    }
+
+    private static long[] runTasks(ExecutorService executor, Runnable body) throws InterruptedException {
+        LongAdder sentinelNanos = new LongAdder();
+        Semaphore permits = new Semaphore(CONCURRENCY);
+        Runnable task = () -> {
+            try {
+                long start = System.nanoTime();
+                body.run();
+                sentinelNanos.add(System.nanoTime() - start);
+            } finally {
+                permits.release();
+            }
+        };
+        long start = System.nanoTime();
+        for (int i = 0; i < TASKS; i++) {
+            permits.acquire();
+            executor.execute(task);
+        }
+        permits.acquire(CONCURRENCY);
+        return new long[] {sentinelNanos.sum(), System.nanoTime() - start};
+    }
+
+}
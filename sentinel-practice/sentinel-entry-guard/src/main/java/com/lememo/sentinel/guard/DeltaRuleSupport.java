@@ -0,0 +1,39 @@
+package com.lememo.sentinel.guard;
+
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.lememo.sentinel.persistence.DeltaRuleManager;
+
+/**
+ * DeltaRuleManager 相关的类都放在这里，没有引入 sentinel-persistence-rules 时不会加载这个类
+ * @author houyi
+ * @date 2019-03-14
+ **/
+final class DeltaRuleSupport {
+
+    static final boolean AVAILABLE = isAvailable();
+
+    private DeltaRuleSupport() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("com.lememo.sentinel.persistence.DeltaRuleManager", false,
+                    DeltaRuleSupport.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 流控规则增量更新之后执行 callback
+     */
+    static void onFlowRuleDelta(Runnable callback) {
+        DeltaRuleManager.addChangeListener((ruleType, resources) -> {
+            if (ruleType == FlowRule.class) {
+                callback.run();
+            }
+        });
+    }
+
+}
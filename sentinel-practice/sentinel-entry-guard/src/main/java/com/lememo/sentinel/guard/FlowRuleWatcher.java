@@ -0,0 +1,177 @@
+package com.lememo.sentinel.guard;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.property.PropertyListener;
+import com.alibaba.csp.sentinel.property.SentinelProperty;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在 FlowRuleManager 的规则变化时回调
+ *
+ * FlowRuleManager 没有提供注册监听器的入口，这里通过反射在它当前的 property 上添加监听器。
+ * register2Property 之后 FlowRuleManager 换了新的 property，后台线程每秒检查一次，把监听器移过去，移过去时也会回调一次。
+ * 监听器的执行顺序不确定，FlowRuleManager 可能在这之后才更新规则，所以通知完之后在后台线程上再回调一次。
+ *
+ * 引入了 sentinel-persistence-rules 时，DeltaRuleManager 每次增量更新流控规则之后也会回调。
+ * 后台线程每秒还会比较 FlowRuleManager 中每个资源的规则列表，列表对象被替换过时也回调一次，
+ * 其他绕过 property 直接修改规则的代码最多 1s 之后也能被发现。
+ * @author houyi
+ * @date 2019-03-14
+ **/
+final class FlowRuleWatcher {
+
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    private static final Field PROPERTY_FIELD = field("currentProperty");
+    private static final Field RULES_FIELD = field("flowRules");
+
+    private static final List<Runnable> CALLBACKS = new CopyOnWriteArrayList<>();
+
+    private static final RuleListener LISTENER = new RuleListener();
+
+    private static ScheduledExecutorService scheduler;
+
+    /**
+     * 上次检查时每个资源的规则列表，只在后台线程上访问
+     */
+    private static Map<String, List<FlowRule>> lastRules = new HashMap<>();
+
+    private FlowRuleWatcher() {
+    }
+
+    /**
+     * 添加规则变化时的回调，回调可能在加载规则的线程或者后台线程上执行，同一次变化可能回调多次
+     */
+    static synchronized void addCallback(Runnable callback) {
+        CALLBACKS.add(callback);
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory("sentinel-flow-rule-watcher", true));
+        LISTENER.watch();
+        if (DeltaRuleSupport.AVAILABLE) {
+            DeltaRuleSupport.onFlowRuleDelta(FlowRuleWatcher::onDelta);
+        }
+        scheduler.scheduleAtFixedRate(FlowRuleWatcher::check, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private static void check() {
+        LISTENER.watch();
+        if (rulesReplaced()) {
+            notifyCallbacks();
+        }
+    }
+
+    /**
+     * 增量更新之后 FlowRuleManager 中的规则已经替换好了，只需要在后台线程上记下这次的规则列表
+     */
+    private static void onDelta() {
+        notifyCallbacks();
+        scheduler.execute(FlowRuleWatcher::rulesReplaced);
+    }
+
+    /**
+     * 按对象比较每个资源的规则列表：全量和增量更新都会为有变化的资源创建新的列表
+     */
+    @SuppressWarnings("unchecked")
+    private static boolean rulesReplaced() {
+        Map<String, List<FlowRule>> current;
+        try {
+            current = new HashMap<>((Map<String, List<FlowRule>>) RULES_FIELD.get(null));
+        } catch (IllegalAccessException e) {
+            RecordLog.warn("[FlowRuleWatcher] Failed to read rules of FlowRuleManager", e);
+            return false;
+        }
+        boolean replaced = current.size() != lastRules.size();
+        if (!replaced) {
+            for (Map.Entry<String, List<FlowRule>> entry : current.entrySet()) {
+                if (lastRules.get(entry.getKey()) != entry.getValue()) {
+                    replaced = true;
+                    break;
+                }
+            }
+        }
+        lastRules = current;
+        return replaced;
+    }
+
+    private static void notifyCallbacks() {
+        for (Runnable callback : CALLBACKS) {
+            try {
+                callback.run();
+            } catch (Throwable e) {
+                RecordLog.warn("[FlowRuleWatcher] Error when handling flow rule change", e);
+            }
+        }
+    }
+
+    private static Field field(String name) {
+        try {
+            Field field = FlowRuleManager.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("Unsupported sentinel version, field not found: "
+                    + "FlowRuleManager." + name, e);
+        }
+    }
+
+    private static final class RuleListener implements PropertyListener<List<FlowRule>> {
+
+        private SentinelProperty<List<FlowRule>> watched;
+
+        @SuppressWarnings("unchecked")
+        synchronized void watch() {
+            SentinelProperty<List<FlowRule>> current;
+            try {
+                current = (SentinelProperty<List<FlowRule>>) PROPERTY_FIELD.get(null);
+            } catch (IllegalAccessException e) {
+                RecordLog.warn("[FlowRuleWatcher] Failed to read property of FlowRuleManager", e);
+                return;
+            }
+            if (current == null || current == watched) {
+                return;
+            }
+            if (watched != null) {
+                watched.removeListener(this);
+            }
+            watched = current;
+            current.addListener(this);
+        }
+
+        @Override
+        public void configUpdate(List<FlowRule> rules) {
+            notifySoon();
+        }
+
+        @Override
+        public void configLoad(List<FlowRule> rules) {
+            notifySoon();
+        }
+
+        /**
+         * 后台线程上的回调同时记下这次的规则列表，下一次检查不会因为同一次变化再回调
+         */
+        private void notifySoon() {
+            notifyCallbacks();
+            scheduler.execute(() -> {
+                rulesReplaced();
+                notifyCallbacks();
+            });
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.lememo.sentinel.guard;
+
+import com.alibaba.csp.sentinel.node.Node;
+import com.alibaba.csp.sentinel.slots.block.flow.TrafficShapingController;
+
+/**
+ * 可以先预定通过时间、再决定怎么等待的流控器
+ * @author houyi
+ * @date 2019-03-14
+ **/
+interface PacedController extends TrafficShapingController {
+
+    /**
+     * 预定一个通过时间，不等待
+     *
+     * @param node 规则选中的节点，还没有创建时为 null
+     * @param acquireCount 请求的数量
+     * @return 需要等待的纳秒数，被拒绝时返回 PacingClock.REJECTED
+     */
+    long reserve(Node node, int acquireCount);
+
+    /**
+     * 退回 reserve 预定的通过时间，请求最终没有通过时调用
+     *
+     * @param node 预定时使用的节点
+     * @param acquireCount 预定时请求的数量
+     */
+    void cancel(Node node, int acquireCount);
+
+}
@@ -0,0 +1,217 @@
+package com.lememo.sentinel.guard;
+
+import com.alibaba.csp.sentinel.AsyncEntry;
+import com.alibaba.csp.sentinel.SphU;
+import com.alibaba.csp.sentinel.config.SentinelConfig;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.node.Node;
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+import com.alibaba.csp.sentinel.slots.clusterbuilder.ClusterBuilderSlot;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 把匀速排队的规则换成基于时间轮的流控器，并提供排队期间不占用线程的异步 entry
+ *
+ * RateLimiterController 和 WarmUpRateLimiterController 在请求线程上 Thread.sleep 到通过的时间，
+ * 排队的请求有多少，就有多少线程在 sleep；SphU.asyncEntry 也一样，会把调用它的线程（例如 event loop）sleep 住。
+ *
+ * install 之后，FlowRuleManager 中这两种规则的流控器被替换为 TimerWheelRateLimiterController 和
+ * TimerWheelWarmUpRateLimiterController：
+ * <ul>
+ *     <li>同步的 SphU.entry 依然在请求线程上等待，但是按纳秒预定通过时间，不会因为四舍五入到毫秒而偏离阈值</li>
+ *     <li>asyncEntry 先为资源上按 default 直接限流的匀速规则预定通过时间，然后把请求挂在 TimerWheel 上，
+ *     到期后在 executor 上执行 SphU.asyncEntry，这时流控器直接使用预定的结果，不再等待</li>
+ * </ul>
+ * 按调用方、调用关系配置的匀速规则依然在 executor 的线程上等待，集群模式的规则只替换了失败时退化为本地限流用的流控器。
+ *
+ * FlowRule 的流控器在 FlowRuleManager 加载规则时创建，没有扩展点，这里通过反射替换。
+ * 规则变化由 FlowRuleWatcher 通知，在加载规则的线程和后台线程上各替换一次，
+ * 绕过 property 修改的规则由后台线程每秒的检查发现，新的规则最多 1s 之后使用时间轮。
+ * @author houyi
+ * @date 2019-03-14
+ **/
+public final class PacedEntries {
+
+    private static final Field CONTROLLER_FIELD = field(FlowRule.class, "controller");
+
+    /**
+     * asyncEntry 在 executor 线程上执行 SphU.asyncEntry 期间，各个流控器已经预定好的结果
+     */
+    private static final ThreadLocal<Map<PacedController, Boolean>> DECIDED = new ThreadLocal<>();
+
+    /**
+     * 资源名 -> 按 default 直接限流的匀速规则的流控器，顺序和 FlowRuleManager 中规则的顺序相同
+     */
+    private static volatile Map<String, List<PacedController>> pacedControllers = Collections.emptyMap();
+
+    private static volatile boolean installed;
+
+    private PacedEntries() {
+    }
+
+    /**
+     * 替换当前的规则并注册监听器，只会执行一次
+     */
+    public static synchronized void install() {
+        if (installed) {
+            return;
+        }
+        installed = true;
+        replaceControllers();
+        FlowRuleWatcher.addCallback(PacedEntries::replaceControllers);
+        RecordLog.info("[PacedEntries] Installed timer wheel controllers for rate limiter rules");
+    }
+
+    public static boolean isInstalled() {
+        return installed;
+    }
+
+    /**
+     * 排队期间不占用线程的 entry
+     *
+     * 需要排队时请求挂在 TimerWheel 上，到期后在 executor 上执行 SphU.asyncEntry。
+     * 超过最大排队时间时在当前线程上执行 SphU.asyncEntry，由 FlowSlot 拒绝并记录 block。
+     * 被后面的流控器拒绝或者 executor 拒绝执行时，已经预定的通过时间会退回去。
+     *
+     * @param resource 资源名
+     * @param executor 执行 SphU.asyncEntry 的线程池，不需要排队时在当前线程执行
+     * @return 通过时完成为 AsyncEntry，由调用方 exit；被限流时以 BlockException 异常完成
+     */
+    public static CompletableFuture<AsyncEntry> asyncEntry(String resource, Executor executor) {
+        CompletableFuture<AsyncEntry> future = new CompletableFuture<>();
+        List<PacedController> controllers = pacedControllers.get(resource);
+        if (controllers == null) {
+            enter(resource, null, future);
+            return future;
+        }
+        final Node node = ClusterBuilderSlot.getClusterNode(resource);
+        final Map<PacedController, Boolean> decided = new IdentityHashMap<>(controllers.size());
+        long waitNanos = 0;
+        for (int i = 0; i < controllers.size(); i++) {
+            PacedController controller = controllers.get(i);
+            long reserved = controller.reserve(node, 1);
+            if (reserved == PacingClock.REJECTED) {
+                // 请求不会通过，前面的流控器预定的时间退回去
+                cancel(controllers, i, node);
+                decided.put(controller, Boolean.FALSE);
+                waitNanos = 0;
+                break;
+            }
+            decided.put(controller, Boolean.TRUE);
+            waitNanos = Math.max(waitNanos, reserved);
+        }
+        if (waitNanos == 0) {
+            enter(resource, decided, future);
+        } else {
+            TimerWheel.shared().schedule(System.nanoTime() + waitNanos, () -> {
+                try {
+                    executor.execute(() -> enter(resource, decided, future));
+                } catch (RejectedExecutionException e) {
+                    cancel(controllers, controllers.size(), node);
+                    future.completeExceptionally(e);
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * 退回前 n 个流控器预定的时间
+     */
+    private static void cancel(List<PacedController> controllers, int n, Node node) {
+        for (int i = 0; i < n; i++) {
+            controllers.get(i).cancel(node, 1);
+        }
+    }
+
+    private static void enter(String resource, Map<PacedController, Boolean> decided,
+                              CompletableFuture<AsyncEntry> future) {
+        DECIDED.set(decided);
+        try {
+            future.complete(SphU.asyncEntry(resource));
+        } catch (Throwable e) {
+            future.completeExceptionally(e);
+        } finally {
+            DECIDED.remove();
+        }
+    }
+
+    /**
+     * @return asyncEntry 已经为这个流控器预定的结果，没有预定时返回 null
+     */
+    static Boolean decided(PacedController controller) {
+        Map<PacedController, Boolean> decided = DECIDED.get();
+        return decided == null ? null : decided.get(controller);
+    }
+
+    /**
+     * 把 FlowRuleManager 中匀速排队规则的流控器换成时间轮的版本，已经替换过的规则保持不变
+     */
+    static synchronized void replaceControllers() {
+        Map<String, List<PacedController>> controllers = new HashMap<>();
+        try {
+            for (FlowRule rule : FlowRuleManager.getRules()) {
+                PacedController controller = pacedController(rule);
+                if (controller == null) {
+                    continue;
+                }
+                if (!rule.isClusterMode() && rule.getStrategy() == RuleConstant.STRATEGY_DIRECT
+                        && RuleConstant.LIMIT_APP_DEFAULT.equals(rule.getLimitApp())) {
+                    controllers.computeIfAbsent(rule.getResource(), k -> new ArrayList<>()).add(controller);
+                }
+            }
+        } catch (IllegalAccessException e) {
+            RecordLog.warn("[PacedEntries] Failed to replace flow rule controllers", e);
+            return;
+        }
+        pacedControllers = controllers;
+    }
+
+    private static PacedController pacedController(FlowRule rule) throws IllegalAccessException {
+        if (rule.getGrade() != RuleConstant.FLOW_GRADE_QPS) {
+            return null;
+        }
+        Object current = CONTROLLER_FIELD.get(rule);
+        if (current instanceof PacedController) {
+            return (PacedController) current;
+        }
+        PacedController controller;
+        switch (rule.getControlBehavior()) {
+            case RuleConstant.CONTROL_BEHAVIOR_RATE_LIMITER:
+                controller = new TimerWheelRateLimiterController(rule.getMaxQueueingTimeMs(), rule.getCount());
+                break;
+            case RuleConstant.CONTROL_BEHAVIOR_WARM_UP_RATE_LIMITER:
+                controller = new TimerWheelWarmUpRateLimiterController(rule.getCount(), rule.getWarmUpPeriodSec(),
+                        rule.getMaxQueueingTimeMs(), SentinelConfig.coldFactor());
+                break;
+            default:
+                return null;
+        }
+        CONTROLLER_FIELD.set(rule, controller);
+        return controller;
+    }
+
+    private static Field field(Class<?> type, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("Unsupported sentinel version, field not found: "
+                    + type.getSimpleName() + "." + name, e);
+        }
+    }
+
+}
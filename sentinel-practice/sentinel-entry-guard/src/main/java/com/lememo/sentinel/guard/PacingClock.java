@@ -0,0 +1,85 @@
+package com.lememo.sentinel.guard;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 匀速排队的时间表：记录最后一个请求预定的通过时间，新的请求排在它之后 costNanos
+ *
+ * 和 RateLimiterController 的计算方式相同，区别在于：
+ * <ul>
+ *     <li>用 System.nanoTime 计算，不再把每个请求的间隔四舍五入到毫秒。
+ *     阈值为 2000 时 RateLimiterController 的间隔是 round(0.5)=1ms，实际只能通过 1000 个，超过 2000 时间隔为 0，不再排队</li>
+ *     <li>用 CAS 预定通过时间，并发的请求不会拿到同一个时间，也不需要在超时之后把预定的时间退回去</li>
+ *     <li>只负责预定，怎么等待由调用方决定：同步的请求自己 park 到预定的时间，异步的请求交给时间轮</li>
+ * </ul>
+ * @author houyi
+ * @date 2019-03-14
+ **/
+final class PacingClock {
+
+    static final long REJECTED = -1;
+
+    private final long maxQueueingNanos;
+    private final AtomicLong latestPassedNanos;
+
+    PacingClock(int maxQueueingTimeMs) {
+        this.maxQueueingNanos = TimeUnit.MILLISECONDS.toNanos(maxQueueingTimeMs);
+        // 一个足够早的时间，第一个请求不需要等待
+        this.latestPassedNanos = new AtomicLong(System.nanoTime() - TimeUnit.DAYS.toNanos(1));
+    }
+
+    /**
+     * 预定一个通过时间
+     *
+     * @param costNanos 这个请求和上一个请求之间的间隔
+     * @return 需要等待的时间，0 表示可以直接通过，超过最大排队时间时返回 REJECTED
+     */
+    long reserve(long costNanos) {
+        for (; ; ) {
+            long now = System.nanoTime();
+            long latest = latestPassedNanos.get();
+            long expected = latest + costNanos;
+            if (expected - now <= 0) {
+                if (latestPassedNanos.compareAndSet(latest, now)) {
+                    return 0;
+                }
+                continue;
+            }
+            long waitNanos = expected - now;
+            if (waitNanos >= maxQueueingNanos) {
+                return REJECTED;
+            }
+            if (latestPassedNanos.compareAndSet(latest, expected)) {
+                return waitNanos;
+            }
+        }
+    }
+
+    /**
+     * 退回一次预定：最后预定的通过时间往前移 costNanos，之后的请求可以早一个间隔通过
+     * 退回的请求之后已经有其他请求预定时，它们的时间不变，只有再之后的请求受益
+     */
+    void cancel(long costNanos) {
+        latestPassedNanos.addAndGet(-costNanos);
+    }
+
+    /**
+     * 在当前线程上 park 到预定的时间，和 RateLimiterController 一样被中断时返回 false
+     */
+    static boolean await(long waitNanos) {
+        long deadline = System.nanoTime() + waitNanos;
+        long remaining = waitNanos;
+        while (remaining > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+            remaining = deadline - System.nanoTime();
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,211 @@
+package com.lememo.sentinel.guard;
+
+import com.alibaba.csp.sentinel.AsyncEntry;
+import com.alibaba.csp.sentinel.Entry;
+import com.alibaba.csp.sentinel.SphU;
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.slots.block.BlockException;
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 对比匀速排队时 Thread.sleep 和时间轮两种等待方式的节奏、吞吐量和线程数
+ *
+ * 同一时刻有 waiters 个请求排队，每个场景使用一个单独的资源，按阈值 count 配置匀速排队或者预热 + 匀速排队的规则：
+ *
+ * - stock/threads：Sentinel 原来的 RateLimiterController、WarmUpRateLimiterController，每个请求一个线程调用 SphU.entry
+ * - wheel/threads：PacedEntries.install 之后的流控器，每个请求一个线程调用 SphU.entry
+ * - wheel/async：PacedEntries.asyncEntry，由一个线程提交所有请求，排队期间不占用线程
+ *
+ * 记录每个请求通过的时间，排序之后计算：
+ *
+ * - rate：通过的请求数 / 第一个和最后一个请求之间的时间
+ * - interval：相邻两个请求的间隔，匀速排队时理想值为 1/count，p99 和标准差反映了节奏的抖动
+ * - burst10ms：任意 10ms 内通过的最多请求数，理想值为 count/100
+ * - threads：场景运行期间 jvm 中的线程数峰值
+ *
+ * 启动参数：
+ * args[0] 阈值，默认为 1000
+ * args[1] 排队的请求数，默认为 10000
+ * 每个请求一个线程的场景需要创建 waiters 个线程，线程数不够时可以调小 -Xss
+ * @author houyi
+ * @date 2019-03-14
+ **/
+public class PacingSimulate {
+
+    private static final int MAX_QUEUEING_TIME_MS = 120 * 1000;
+    private static final int WARM_UP_PERIOD_SEC = 10;
+    private static final long THREAD_STACK_SIZE = 256 * 1024;
+    private static final long BURST_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        double count = args.length > 0 ? Double.parseDouble(args[0]) : 1000;
+        int waiters = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+
+        List<FlowRule> rules = new ArrayList<>();
+        for (String resource : Arrays.asList("stock-rate-limiter", "wheel-rate-limiter", "wheel-rate-limiter-async")) {
+            rules.add(rule(resource, RuleConstant.CONTROL_BEHAVIOR_RATE_LIMITER, count));
+        }
+        for (String resource : Arrays.asList("stock-warm-up", "wheel-warm-up", "wheel-warm-up-async")) {
+            rules.add(rule(resource, RuleConstant.CONTROL_BEHAVIOR_WARM_UP_RATE_LIMITER, count));
+        }
+        FlowRuleManager.loadRules(rules);
+
+        System.out.println("count=" + count + ", waiters=" + waiters + ", ideal interval="
+                + String.format("%.1f", 1000000 / count) + "us, ideal burst10ms=" + String.format("%.1f", count / 100));
+        System.out.printf("%-24s %7s %7s %9s %9s %9s %9s %9s %9s %8s%n", "scenario", "passed", "blocked",
+                "seconds", "rate/s", "p50(us)", "p99(us)", "stdev(us)", "burst10ms", "threads");
+
+        // 原来的流控器，要在 install 之前运行
+        report("stock/threads", threads("stock-rate-limiter", waiters));
+        report("stock-warm-up/threads", threads("stock-warm-up", waiters));
+
+        PacedEntries.install();
+        report("wheel/threads", threads("wheel-rate-limiter", waiters));
+        report("wheel/async", async("wheel-rate-limiter-async", waiters));
+        report("wheel-warm-up/threads", threads("wheel-warm-up", waiters));
+        report("wheel-warm-up/async", async("wheel-warm-up-async", waiters));
+        System.exit(0);
+    }
+
+    private static FlowRule rule(String resource, int controlBehavior, double count) {
+        FlowRule rule = new FlowRule();
+        rule.setResource(resource);
+        rule.setGrade(RuleConstant.FLOW_GRADE_QPS);
+        rule.setCount(count);
+        rule.setLimitApp(RuleConstant.LIMIT_APP_DEFAULT);
+        rule.setStrategy(RuleConstant.STRATEGY_DIRECT);
+        rule.setControlBehavior(controlBehavior);
+        rule.setMaxQueueingTimeMs(MAX_QUEUEING_TIME_MS);
+        rule.setWarmUpPeriodSec(WARM_UP_PERIOD_SEC);
+        return rule;
+    }
+
+    /**
+     * 每个请求一个线程，同步等待
+     */
+    private static Result threads(String resource, int waiters) throws InterruptedException {
+        Result result = new Result(waiters);
+        THREADS.resetPeakThreadCount();
+        Runnable body = () -> {
+            Entry entry = null;
+            try {
+                entry = SphU.entry(resource);
+                result.pass(System.nanoTime());
+            } catch (BlockException e) {
+                result.block();
+            } finally {
+                if (entry != null) {
+                    entry.exit();
+                }
+            }
+        };
+        Thread[] threads = new Thread[waiters];
+        for (int i = 0; i < waiters; i++) {
+            threads[i] = new Thread(null, body, "waiter-" + i, THREAD_STACK_SIZE);
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        result.peakThreads = THREADS.getPeakThreadCount();
+        return result;
+    }
+
+    /**
+     * 一个线程提交所有请求，到期后在一个工作线程上 entry
+     */
+    private static Result async(String resource, int waiters) {
+        Result result = new Result(waiters);
+        THREADS.resetPeakThreadCount();
+        ExecutorService worker = Executors.newSingleThreadExecutor(new NamedThreadFactory("paced-worker", true));
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[waiters];
+        for (int i = 0; i < waiters; i++) {
+            CompletableFuture<AsyncEntry> future = PacedEntries.asyncEntry(resource, worker);
+            futures[i] = future.whenComplete((entry, e) -> {
+                if (entry != null) {
+                    result.pass(System.nanoTime());
+                    entry.exit();
+                } else {
+                    result.block();
+                }
+            });
+        }
+        CompletableFuture.allOf(futures).exceptionally(e -> null).join();
+        result.peakThreads = THREADS.getPeakThreadCount();
+        worker.shutdown();
+        return result;
+    }
+
+    private static void report(String scenario, Result result) {
+        long[] passed = Arrays.copyOf(result.passNanos, result.passed.get());
+        Arrays.sort(passed);
+        int n = passed.length;
+        double seconds = n > 1 ? (passed[n - 1] - passed[0]) / 1e9 : 0;
+        long[] intervals = new long[Math.max(0, n - 1)];
+        double sum = 0;
+        for (int i = 1; i < n; i++) {
+            intervals[i - 1] = passed[i] - passed[i - 1];
+            sum += intervals[i - 1];
+        }
+        double mean = intervals.length == 0 ? 0 : sum / intervals.length;
+        double variance = 0;
+        for (long interval : intervals) {
+            variance += (interval - mean) * (interval - mean);
+        }
+        double stdev = intervals.length == 0 ? 0 : Math.sqrt(variance / intervals.length);
+        Arrays.sort(intervals);
+        int burst = 0;
+        for (int i = 0, j = 0; i < n; i++) {
+            while (passed[i] - passed[j] >= BURST_WINDOW_NANOS) {
+                j++;
+            }
+            burst = Math.max(burst, i - j + 1);
+        }
+        System.out.printf("%-24s %7d %7d %9.2f %9.1f %9.1f %9.1f %9.1f %9d %8d%n", scenario, n, result.blocked.get(),
+                seconds, seconds > 0 ? (n - 1) / seconds : 0, percentile(intervals, 0.5) / 1000.0,
+                percentile(intervals, 0.99) / 1000.0, stdev / 1000, burst, result.peakThreads);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+
+    private static final class Result {
+
+        private final long[] passNanos;
+        private final AtomicInteger passed = new AtomicInteger();
+        private final AtomicInteger blocked = new AtomicInteger();
+        private int peakThreads;
+
+        private Result(int waiters) {
+            this.passNanos = new long[waiters];
+        }
+
+        private void pass(long nanos) {
+            passNanos[passed.getAndIncrement()] = nanos;
+        }
+
+        private void block() {
+            blocked.incrementAndGet();
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.lememo.sentinel.guard;
+
+import com.lememo.sentinel.entities.BoundedResourceRegistry;
+
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * BoundedResourceRegistry 相关的类都放在这里，没有引入 sentinel-concept-of-entities 时不会加载这个类
+ * @author houyi
+ * @date 2019-03-13
+ **/
+final class ResourceRegistrySupport {
+
+    static final boolean AVAILABLE = isAvailable();
+
+    private ResourceRegistrySupport() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("com.lememo.sentinel.entities.BoundedResourceRegistry", false,
+                    ResourceRegistrySupport.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 资源被淘汰之后以被淘汰的资源名回调 callback
+     */
+    static void onEvicted(Consumer<Set<String>> callback) {
+        BoundedResourceRegistry.addEvictionListener(callback::accept);
+    }
+
+}
@@ -0,0 +1,256 @@
+package com.lememo.sentinel.guard;
+
+import com.alibaba.csp.sentinel.AsyncEntry;
+import com.alibaba.csp.sentinel.Constants;
+import com.alibaba.csp.sentinel.Entry;
+import com.alibaba.csp.sentinel.EntryType;
+import com.alibaba.csp.sentinel.SphU;
+import com.alibaba.csp.sentinel.node.ClusterNode;
+import com.alibaba.csp.sentinel.node.IntervalProperty;
+import com.alibaba.csp.sentinel.node.SampleCountProperty;
+import com.alibaba.csp.sentinel.slots.block.BlockException;
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowException;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+import com.alibaba.csp.sentinel.slots.clusterbuilder.ClusterBuilderSlot;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 不抛出异常的埋点方式
+ * tryEntry 通过时返回 Entry，被限流时返回 null，调用方不需要 try/catch BlockException
+ *
+ * 对于只配置了 qps + 直接拒绝 + 直接调用关系 + default 调用方的规则，在同一个滑动窗口的 bucket 内，
+ * clusterNode 上通过的请求数只增不减，所以一旦需要 n 个 token 的请求被限流，直到这个 bucket 结束之前，
+ * 需要 n 个以及更多 token 的请求一定也会被限流。因此被限流后会把资源标记为拒绝状态，记下被限流的最小 token 数，
+ * bucket 结束之前不少于这个数的请求直接拒绝，不再进入 slot chain，也不会再创建 BlockException，只在 clusterNode 上记录一次 block。
+ * 需要的 token 更少的请求仍然进入 slot chain，由 FlowSlot 判断。
+ * 其他类型的规则（热点参数、集群、预热、匀速排队等）被限流时依然走原有的流程。
+ *
+ * 每个资源的规则是否满足上面的条件只在第一次被限流时检查一次，结果缓存起来。
+ * 规则变化时清空缓存以及所有的拒绝状态，避免调高阈值之后还在按旧的规则直接拒绝。
+ * 引入了 sentinel-concept-of-entities 时，BoundedResourceRegistry 淘汰的资源也会从这两个缓存中删除。
+ * @author houyi
+ * @date 2019-02-22
+ **/
+public final class SphGuard {
+
+    private static final Object[] OBJECTS0 = new Object[0];
+
+    /**
+     * 每个资源的拒绝状态
+     */
+    private static final Map<String, RejectWindow> REJECT_WINDOWS = new ConcurrentHashMap<>();
+
+    /**
+     * 资源名 -> 流控规则是否满足同一个 bucket 内被限流后一直被限流
+     */
+    private static final Map<String, Boolean> MONOTONIC_RESOURCES = new ConcurrentHashMap<>();
+
+    static {
+        FlowRuleWatcher.addCallback(SphGuard::onRulesChanged);
+        if (ResourceRegistrySupport.AVAILABLE) {
+            ResourceRegistrySupport.onEvicted(SphGuard::onEvicted);
+        }
+    }
+
+    private SphGuard() {
+    }
+
+    public static Entry tryEntry(String name) {
+        return tryEntry(name, EntryType.OUT, 1, OBJECTS0);
+    }
+
+    public static Entry tryEntry(String name, EntryType type) {
+        return tryEntry(name, type, 1, OBJECTS0);
+    }
+
+    public static Entry tryEntry(String name, EntryType type, int count) {
+        return tryEntry(name, type, count, OBJECTS0);
+    }
+
+    /**
+     * 尝试进入资源
+     * @param name 资源名
+     * @param type 流量类型
+     * @param count 需要的 token 数
+     * @param args 热点参数
+     * @return 通过时返回 Entry，使用完后需要调用 exit；被限流时返回 null
+     */
+    public static Entry tryEntry(String name, EntryType type, int count, Object... args) {
+        long now = TimeUtil.currentTimeMillis();
+        if (rejectedInWindow(name, now, type, count)) {
+            return null;
+        }
+        try {
+            return SphU.entry(name, type, count, args);
+        } catch (BlockException e) {
+            onBlocked(name, type, count, now, e);
+            return null;
+        }
+    }
+
+    /**
+     * 尝试以异步的方式进入资源，返回的 AsyncEntry 可以在任意线程中 exit
+     * @param name 资源名
+     * @param type 流量类型
+     * @param count 需要的 token 数
+     * @param args 热点参数
+     * @return 通过时返回 AsyncEntry，使用完后需要调用 exit；被限流时返回 null
+     */
+    public static AsyncEntry tryAsyncEntry(String name, EntryType type, int count, Object... args) {
+        long now = TimeUtil.currentTimeMillis();
+        if (rejectedInWindow(name, now, type, count)) {
+            return null;
+        }
+        try {
+            return SphU.asyncEntry(name, type, count, args);
+        } catch (BlockException e) {
+            onBlocked(name, type, count, now, e);
+            return null;
+        }
+    }
+
+    private static boolean rejectedInWindow(String name, long now, EntryType type, int count) {
+        RejectWindow window = REJECT_WINDOWS.get(name);
+        if (window != null && window.reject(now, type, count)) {
+            BlockLogger.log(name);
+            return true;
+        }
+        return false;
+    }
+
+    private static void onBlocked(String name, EntryType type, int count, long blockTime, BlockException e) {
+        if (e instanceof FlowException && isMonotonicInBucket(name)) {
+            rejectUntilBucketEnd(name, type, count, blockTime);
+        }
+        BlockLogger.log(name);
+    }
+
+    private static void onRulesChanged() {
+        MONOTONIC_RESOURCES.clear();
+        REJECT_WINDOWS.clear();
+    }
+
+    /**
+     * 被淘汰的资源之后会创建新的 ClusterNode，拒绝状态中还引用着旧的节点
+     */
+    private static void onEvicted(Set<String> resources) {
+        REJECT_WINDOWS.keySet().removeAll(resources);
+        MONOTONIC_RESOURCES.keySet().removeAll(resources);
+    }
+
+    private static boolean isMonotonicInBucket(String name) {
+        Boolean monotonic = MONOTONIC_RESOURCES.get(name);
+        if (monotonic == null) {
+            monotonic = checkMonotonicInBucket(name);
+            MONOTONIC_RESOURCES.put(name, monotonic);
+        }
+        return monotonic;
+    }
+
+    /**
+     * 判断资源的流控规则是否满足：同一个 bucket 内被限流后，后续请求一定也会被限流
+     */
+    private static boolean checkMonotonicInBucket(String name) {
+        boolean hasRule = false;
+        for (FlowRule rule : FlowRuleManager.getRules()) {
+            if (!name.equals(rule.getResource())) {
+                continue;
+            }
+            hasRule = true;
+            if (rule.getGrade() != RuleConstant.FLOW_GRADE_QPS
+                    || rule.getControlBehavior() != RuleConstant.CONTROL_BEHAVIOR_DEFAULT
+                    || rule.getStrategy() != RuleConstant.STRATEGY_DIRECT
+                    || !RuleConstant.LIMIT_APP_DEFAULT.equals(rule.getLimitApp())
+                    || rule.isClusterMode()) {
+                return false;
+            }
+        }
+        return hasRule;
+    }
+
+    private static void rejectUntilBucketEnd(String name, EntryType type, int count, long blockTime) {
+        int windowLength = IntervalProperty.INTERVAL / SampleCountProperty.SAMPLE_COUNT;
+        long bucketStart = blockTime - blockTime % windowLength;
+        // bucket 刚开始的那一毫秒，上上个 bucket 可能还被算在 qps 内，此时不做标记
+        if (blockTime == bucketStart) {
+            return;
+        }
+        ClusterNode clusterNode = ClusterBuilderSlot.getClusterNode(name, type);
+        if (clusterNode == null) {
+            return;
+        }
+        RejectWindow window = REJECT_WINDOWS.get(name);
+        if (window == null) {
+            window = REJECT_WINDOWS.computeIfAbsent(name, k -> new RejectWindow(clusterNode));
+        }
+        window.rejectUntil(bucketStart + windowLength, count);
+    }
+
+    /**
+     * 资源的拒绝状态
+     */
+    private static final class RejectWindow {
+
+        private final ClusterNode clusterNode;
+
+        /**
+         * 拒绝的截止时间和最小 token 数放在同一个对象中，读取时两者总是一致的
+         */
+        private volatile Mark mark = new Mark(0, Integer.MAX_VALUE);
+
+        RejectWindow(ClusterNode clusterNode) {
+            this.clusterNode = clusterNode;
+        }
+
+        /**
+         * @param time 截止时间
+         * @param count 被限流的请求需要的 token 数
+         */
+        synchronized void rejectUntil(long time, int count) {
+            Mark current = mark;
+            if (time > current.until) {
+                mark = new Mark(time, count);
+            } else if (time == current.until && count < current.minCount) {
+                mark = new Mark(time, count);
+            }
+        }
+
+        boolean reject(long now, EntryType type, int count) {
+            Mark current = mark;
+            if (now >= current.until || count < current.minCount) {
+                return false;
+            }
+            // 和 StatisticSlot 一样记录 block 的统计
+            clusterNode.increaseBlockQps(count);
+            if (type == EntryType.IN) {
+                Constants.ENTRY_NODE.increaseBlockQps(count);
+            }
+            return true;
+        }
+    }
+
+    private static final class Mark {
+
+        /**
+         * 在该时间之前的请求直接拒绝
+         */
+        private final long until;
+
+        /**
+         * 这段时间内被限流的请求中最小的 token 数，需要的 token 比它少的请求不直接拒绝
+         */
+        private final int minCount;
+
+        Mark(long until, int minCount) {
+            this.until = until;
+            this.minCount = minCount;
+        }
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.lememo.sentinel.guard;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 每个任务一个新线程的 ExecutorService
+ *
+ * 虚拟线程需要 JDK 21，这里通过反射调用 Executors.newVirtualThreadPerTaskExecutor，
+ * 这样模块依然可以在 JDK 8 上编译和运行。
+ * @author houyi
+ * @date 2019-03-10
+ **/
+public final class ThreadPerTaskExecutors {
+
+    private static final Method NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR = findVirtualThreadFactoryMethod();
+
+    private ThreadPerTaskExecutors() {
+    }
+
+    private static Method findVirtualThreadFactoryMethod() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public static boolean isVirtualThreadSupported() {
+        return NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR != null;
+    }
+
+    /**
+     * @throws UnsupportedOperationException 当前的 JDK 不支持虚拟线程
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor() {
+        if (NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR == null) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21+, current: "
+                    + System.getProperty("java.version"));
+        }
+        try {
+            return (ExecutorService) NEW_VIRTUAL_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (Exception e) {
+            throw new UnsupportedOperationException("Failed to create virtual thread executor", e);
+        }
+    }
+
+    /**
+     * 空闲的线程立即退出，每个任务都在一个新的平台线程中执行
+     */
+    public static ExecutorService newPlatformThreadPerTaskExecutor(ThreadFactory threadFactory) {
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<>(), threadFactory);
+    }
+
+}
@@ -0,0 +1,157 @@
+package com.lememo.sentinel.guard;
+
+import com.alibaba.csp.sentinel.log.RecordLog;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 单线程的时间轮，在到期时执行任务
+ *
+ * 时间轮有 wheelSize 个槽，每个槽对应一个 tick。新的任务先放进无锁队列，由工作线程在每个 tick 开始时按到期时间放进对应的槽，
+ * 超过一圈的任务记下剩余的圈数。工作线程每个 tick 只处理一个槽，所以等待中的任务再多，也只有这一个线程。
+ * 任务最多晚一个 tick 执行，不会提前执行。
+ *
+ * 没有任务时工作线程一直 park，直到有新的任务，空闲时不会每个 tick 醒来一次。
+ * 任务在工作线程上执行，不能阻塞，耗时的工作要交给其他的线程池。
+ * @author houyi
+ * @date 2019-03-14
+ **/
+final class TimerWheel {
+
+    private static final long DEFAULT_TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private static final TimerWheel SHARED = new TimerWheel("sentinel-timer-wheel", DEFAULT_TICK_NANOS, DEFAULT_WHEEL_SIZE);
+
+    private final long tickNanos;
+    private final int mask;
+    private final ArrayDeque<Timeout>[] buckets;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final long startNanos = System.nanoTime();
+    private final Thread worker;
+
+    /**
+     * 工作线程没有任务、一直 park 时为 true
+     */
+    private volatile boolean idle;
+
+    /**
+     * 只在工作线程中访问
+     */
+    private long tick;
+
+    @SuppressWarnings("unchecked")
+    TimerWheel(String name, long tickNanos, int wheelSize) {
+        if (Integer.bitCount(wheelSize) != 1) {
+            throw new IllegalArgumentException("wheelSize should be a power of 2");
+        }
+        this.tickNanos = tickNanos;
+        this.mask = wheelSize - 1;
+        this.buckets = new ArrayDeque[wheelSize];
+        for (int i = 0; i < wheelSize; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    static TimerWheel shared() {
+        return SHARED;
+    }
+
+    /**
+     * @param deadlineNanos 以 System.nanoTime 表示的到期时间
+     * @param task 到期时在工作线程上执行
+     */
+    void schedule(long deadlineNanos, Runnable task) {
+        pending.offer(new Timeout(deadlineNanos, task));
+        size.incrementAndGet();
+        if (idle) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    /**
+     * 还没有执行的任务数
+     */
+    int size() {
+        return size.get();
+    }
+
+    private void run() {
+        tick = currentTick(System.nanoTime());
+        for (; ; ) {
+            if (size.get() == 0) {
+                idle = true;
+                // 先设置 idle 再检查一次，避免错过 schedule 中的 unpark
+                while (size.get() == 0) {
+                    LockSupport.park(this);
+                }
+                idle = false;
+                // 空闲期间的 tick 都是空的，直接跳过
+                tick = currentTick(System.nanoTime());
+            }
+            long tickEnd = startNanos + (tick + 1) * tickNanos;
+            long now;
+            while ((now = System.nanoTime()) - tickEnd < 0) {
+                LockSupport.parkNanos(this, tickEnd - now);
+            }
+            transferPending();
+            expire(buckets[(int) (tick & mask)], now);
+            tick++;
+        }
+    }
+
+    private long currentTick(long nanos) {
+        return (nanos - startNanos) / tickNanos;
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            // 向上取整，保证任务不会在到期之前执行；已经到期的放进当前的槽
+            long target = Math.max(tick, (timeout.deadlineNanos - startNanos + tickNanos - 1) / tickNanos);
+            timeout.rounds = (target - tick) / buckets.length;
+            buckets[(int) (target & mask)].add(timeout);
+        }
+    }
+
+    private void expire(ArrayDeque<Timeout> bucket, long now) {
+        Iterator<Timeout> iterator = bucket.iterator();
+        while (iterator.hasNext()) {
+            Timeout timeout = iterator.next();
+            if (timeout.rounds > 0) {
+                timeout.rounds--;
+                continue;
+            }
+            iterator.remove();
+            size.decrementAndGet();
+            try {
+                timeout.task.run();
+            } catch (Throwable e) {
+                RecordLog.warn("[TimerWheel] Failed to run task at " + now, e);
+            }
+        }
+    }
+
+    private static final class Timeout {
+
+        private final long deadlineNanos;
+        private final Runnable task;
+        private long rounds;
+
+        private Timeout(long deadlineNanos, Runnable task) {
+            this.deadlineNanos = deadlineNanos;
+            this.task = task;
+        }
+    }
+
+}
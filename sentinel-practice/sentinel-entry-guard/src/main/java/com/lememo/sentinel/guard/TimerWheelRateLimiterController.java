@@ -0,0 +1,65 @@
+package com.lememo.sentinel.guard;
+
+import com.alibaba.csp.sentinel.node.Node;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 匀速排队（CONTROL_BEHAVIOR_RATE_LIMITER）的流控器，用来替换 RateLimiterController
+ *
+ * 同步调用 canPass 时，请求线程 park 到 PacingClock 预定的时间，不再 Thread.sleep 毫秒数；
+ * 通过 PacedEntries.asyncEntry 进入时，预定好时间之后由 TimerWheel 在到期时放行，排队期间不占用任何线程。
+ * @author houyi
+ * @date 2019-03-14
+ **/
+public class TimerWheelRateLimiterController implements PacedController {
+
+    private final double count;
+    private final PacingClock clock;
+
+    public TimerWheelRateLimiterController(int maxQueueingTimeMs, double count) {
+        this.count = count;
+        this.clock = new PacingClock(maxQueueingTimeMs);
+    }
+
+    @Override
+    public boolean canPass(Node node, int acquireCount) {
+        return canPass(node, acquireCount, false);
+    }
+
+    @Override
+    public boolean canPass(Node node, int acquireCount, boolean prioritized) {
+        Boolean decided = PacedEntries.decided(this);
+        if (decided != null) {
+            return decided;
+        }
+        long waitNanos = reserve(node, acquireCount);
+        if (waitNanos == PacingClock.REJECTED) {
+            return false;
+        }
+        return waitNanos == 0 || PacingClock.await(waitNanos);
+    }
+
+    @Override
+    public long reserve(Node node, int acquireCount) {
+        if (acquireCount <= 0) {
+            return 0;
+        }
+        if (count <= 0) {
+            return PacingClock.REJECTED;
+        }
+        return clock.reserve(costNanos(acquireCount));
+    }
+
+    @Override
+    public void cancel(Node node, int acquireCount) {
+        if (acquireCount > 0 && count > 0) {
+            clock.cancel(costNanos(acquireCount));
+        }
+    }
+
+    private long costNanos(int acquireCount) {
+        return (long) (acquireCount / count * TimeUnit.SECONDS.toNanos(1));
+    }
+
+}
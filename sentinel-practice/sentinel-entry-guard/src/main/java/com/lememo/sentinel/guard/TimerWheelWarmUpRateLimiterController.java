@@ -0,0 +1,77 @@
+package com.lememo.sentinel.guard;
+
+import com.alibaba.csp.sentinel.node.Node;
+import com.alibaba.csp.sentinel.slots.block.flow.controller.WarmUpController;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 预热 + 匀速排队（CONTROL_BEHAVIOR_WARM_UP_RATE_LIMITER）的流控器，用来替换 WarmUpRateLimiterController
+ *
+ * 每个请求的间隔和 WarmUpRateLimiterController 一样按令牌桶中剩余的令牌计算，预热期间间隔更长，
+ * 排队和等待的方式和 TimerWheelRateLimiterController 相同。
+ * @author houyi
+ * @date 2019-03-14
+ **/
+public class TimerWheelWarmUpRateLimiterController extends WarmUpController implements PacedController {
+
+    private final PacingClock clock;
+
+    public TimerWheelWarmUpRateLimiterController(double count, int warmUpPeriodSec, int maxQueueingTimeMs,
+                                                 int coldFactor) {
+        super(count, warmUpPeriodSec, coldFactor);
+        this.clock = new PacingClock(maxQueueingTimeMs);
+    }
+
+    @Override
+    public boolean canPass(Node node, int acquireCount) {
+        return canPass(node, acquireCount, false);
+    }
+
+    @Override
+    public boolean canPass(Node node, int acquireCount, boolean prioritized) {
+        Boolean decided = PacedEntries.decided(this);
+        if (decided != null) {
+            return decided;
+        }
+        long waitNanos = reserve(node, acquireCount);
+        if (waitNanos == PacingClock.REJECTED) {
+            return false;
+        }
+        return waitNanos == 0 || PacingClock.await(waitNanos);
+    }
+
+    @Override
+    public long reserve(Node node, int acquireCount) {
+        if (acquireCount <= 0) {
+            return 0;
+        }
+        if (count <= 0) {
+            return PacingClock.REJECTED;
+        }
+        syncToken(node == null ? 0 : node.previousPassQps());
+        return clock.reserve(costNanos(acquireCount));
+    }
+
+    /**
+     * 按当前剩余的令牌计算间隔，退回时令牌数和预定时基本相同
+     */
+    @Override
+    public void cancel(Node node, int acquireCount) {
+        if (acquireCount > 0 && count > 0) {
+            clock.cancel(costNanos(acquireCount));
+        }
+    }
+
+    private long costNanos(int acquireCount) {
+        long restToken = storedTokens.get();
+        double qps = count;
+        if (restToken >= warningToken) {
+            // 令牌越多系统越冷，通过的速度越慢
+            long aboveToken = restToken - warningToken;
+            qps = Math.nextUp(1.0 / (aboveToken * slope + 1.0 / count));
+        }
+        return (long) (acquireCount / qps * TimeUnit.SECONDS.toNanos(1));
+    }
+
+}
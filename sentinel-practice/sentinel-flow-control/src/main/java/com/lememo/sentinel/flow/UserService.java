@@ -1,11 +1,10 @@
 package com.lememo.sentinel.flow;
 
 import com.alibaba.csp.sentinel.Entry;
-import com.alibaba.csp.sentinel.SphU;
-import com.alibaba.csp.sentinel.slots.block.BlockException;
 import com.alibaba.csp.sentinel.slots.block.RuleConstant;
 import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
 import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+import com.lememo.sentinel.guard.SphGuard;
 import org.springframework.stereotype.Service;
 
 import java.util.Collections;
@@ -42,24 +41,21 @@ public class UserService {
      * @return 用户信息
      */
     public User getUser(Long uid){
-        Entry entry = null;
+        // 流控，被限流时返回 null，不会抛出 BlockException
+        Entry entry = SphGuard.tryEntry(USER_RES);
+        if(entry==null){
+            // 被限流了，由 BlockLogger 每秒汇总打印一次
+            return null;
+        }
         try {
-            // 流控
-            entry = SphU.entry(USER_RES);
             // 业务代码
             User user = new User();
             user.setUid(uid);
             user.setName("user-" + uid);
             return user;
-        }catch(BlockException e){
-            // 被限流了
-            System.out.println("[getUser] has been protected! Time="+System.currentTimeMillis());
         }finally {
-            if(entry!=null){
-                entry.exit();
-            }
+            entry.exit();
         }
-        return null;
     }
 
 
@@ -0,0 +1,189 @@
+package com.lememo.sentinel.freqparamflow;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 以 long 为键、带滑动窗口的 Count-Min sketch，估算每个参数值最近 1s 内的请求数
+ *
+ * 一共 depth 行，每行 width 个计数器，每个参数值在每一行中按不同的哈希落到一个计数器上，
+ * 估算值是各行计数器中最小的一个。不同的参数值可能共用一个计数器，所以估算值只会偏大不会偏小，
+ * 偏大的部分不超过 e / width * 总请求数的概率为 1 - e^(-depth)。
+ * 更新时使用 conservative update，只把各行的计数器加到最小值 + count，偏大的部分比每行都加 count 小很多，
+ * 每个计数器依然不小于落在它上面的任意一个参数值的真实请求数。
+ * 同一个参数值的并发请求读到同一个最小值时只会加一次，这时估算值可能比真实值略小，热点参数值会晚几个请求被发现。
+ *
+ * 和 LongParamCounterStore 一样把 1s 拆成两个 500ms 的 bucket，每个 bucket 一张计数表，
+ * 进入新的 bucket 时用一张新的表通过 CAS 替换掉两个 bucket 之前的那张表，不需要加锁清空旧表。
+ * 占用的内存只和 width、depth 有关，为 2 * depth * width * 4 字节，不管有多少个不同的参数值。
+ * @author houyi
+ * @date 2019-03-16
+ **/
+public class CountMinSketch {
+
+    private static final int INTERVAL_MS = 1000;
+    private static final int BUCKET_LENGTH_MS = INTERVAL_MS / 2;
+
+    private final int depth;
+    private final int width;
+    private final int mask;
+
+    private final AtomicReferenceArray<Bucket> buckets = new AtomicReferenceArray<>(2);
+
+    /**
+     * @param width 每行的计数器个数，会向上取整为 2 的幂
+     * @param depth 行数
+     */
+    public CountMinSketch(int width, int depth) {
+        if (width <= 0 || depth <= 0) {
+            throw new IllegalArgumentException("width and depth should be positive");
+        }
+        int tableWidth = 1;
+        while (tableWidth < width) {
+            tableWidth <<= 1;
+        }
+        this.depth = depth;
+        this.width = tableWidth;
+        this.mask = tableWidth - 1;
+        for (int i = 0; i < buckets.length(); i++) {
+            buckets.set(i, new Bucket(-1, new AtomicIntegerArray(depth * tableWidth)));
+        }
+    }
+
+    /**
+     * 记录参数值的请求数
+     * @param key 参数值
+     * @param count 请求数
+     * @param now 当前时间
+     * @return 加上这次请求之后参数值最近 1s 内的估算请求数
+     */
+    public int add(long key, int count, long now) {
+        long bucketStart = now - now % BUCKET_LENGTH_MS;
+        int idx = (int) ((now / BUCKET_LENGTH_MS) & 1);
+        AtomicIntegerArray current = current(idx, bucketStart);
+        AtomicIntegerArray previous = previous(idx, bucketStart);
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int currentMin = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            currentMin = Math.min(currentMin, current.get(cell(row, h1, h2)));
+        }
+        // conservative update：每个计数器只加到当前最小值 + count，已经更大的计数器不变
+        int target = currentMin + count;
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int cell = cell(row, h1, h2);
+            int value = raise(current, cell, target);
+            if (previous != null) {
+                value += previous.get(cell);
+            }
+            estimate = Math.min(estimate, value);
+        }
+        return estimate;
+    }
+
+    /**
+     * @return 参数值最近 1s 内的估算请求数，不会修改计数
+     */
+    public int estimate(long key, long now) {
+        long bucketStart = now - now % BUCKET_LENGTH_MS;
+        int idx = (int) ((now / BUCKET_LENGTH_MS) & 1);
+        Bucket bucket = buckets.get(idx);
+        AtomicIntegerArray current = bucket.start == bucketStart ? bucket.counts : null;
+        AtomicIntegerArray previous = previous(idx, bucketStart);
+        if (current == null && previous == null) {
+            return 0;
+        }
+        long hash = mix(key);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            int cell = cell(row, h1, h2);
+            int value = current == null ? 0 : current.get(cell);
+            if (previous != null) {
+                value += previous.get(cell);
+            }
+            estimate = Math.min(estimate, value);
+        }
+        return estimate;
+    }
+
+    /**
+     * 计数表占用的字节数
+     */
+    public long memoryBytes() {
+        return 2L * depth * width * 4;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * 当前 bucket 的计数表，bucket 过期时换成一张新表
+     * 替换期间还在往旧表中写入的少量计数会丢失，和 Sentinel 的 LeapArray 重置窗口时一样
+     */
+    private AtomicIntegerArray current(int idx, long bucketStart) {
+        for (; ; ) {
+            Bucket bucket = buckets.get(idx);
+            if (bucket.start >= bucketStart) {
+                return bucket.counts;
+            }
+            Bucket fresh = new Bucket(bucketStart, new AtomicIntegerArray(depth * width));
+            if (buckets.compareAndSet(idx, bucket, fresh)) {
+                return fresh.counts;
+            }
+        }
+    }
+
+    /**
+     * 把计数器提高到 target，已经不小于 target 时保持不变
+     * @return 计数器最终的值
+     */
+    private static int raise(AtomicIntegerArray bucket, int cell, int target) {
+        for (; ; ) {
+            int value = bucket.get(cell);
+            if (value >= target) {
+                return value;
+            }
+            if (bucket.compareAndSet(cell, value, target)) {
+                return target;
+            }
+        }
+    }
+
+    /**
+     * 参数值在第 row 行的计数器，用双重哈希代替 depth 个独立的哈希函数
+     */
+    private int cell(int row, int h1, int h2) {
+        return row * width + ((h1 + row * h2) & mask);
+    }
+
+    private AtomicIntegerArray previous(int idx, long bucketStart) {
+        Bucket other = buckets.get(idx ^ 1);
+        return other.start == bucketStart - BUCKET_LENGTH_MS ? other.counts : null;
+    }
+
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 29);
+    }
+
+    private static final class Bucket {
+
+        final long start;
+        final AtomicIntegerArray counts;
+
+        Bucket(long start, AtomicIntegerArray counts) {
+            this.start = start;
+            this.counts = counts;
+        }
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.lememo.sentinel.freqparamflow;
+
+import com.alibaba.csp.sentinel.command.CommandHandler;
+import com.alibaba.csp.sentinel.command.CommandRequest;
+import com.alibaba.csp.sentinel.command.CommandResponse;
+import com.alibaba.csp.sentinel.command.annotation.CommandMapping;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 查看 HotParamFlowChecker 中最热的参数值
+ *
+ * 通过 SPI 注册到 CommandCenter，例如：
+ * curl http://localhost:8719/hotParams?resource=freqParam&top=10
+ * resource 不传时返回所有资源，top 默认返回全部记录的参数值。
+ * 每个参数值返回 sketch 的估算 qps、精确计数器中的通过 qps 以及阈值
+ * @author houyi
+ * @date 2019-03-16
+ **/
+@CommandMapping(name = "hotParams")
+public class FetchHotParamsCommandHandler implements CommandHandler<String> {
+
+    @Override
+    public CommandResponse<String> handle(CommandRequest request) {
+        String resource = request.getParam("resource");
+        int top;
+        try {
+            top = Integer.parseInt(request.getParam("top", String.valueOf(Integer.MAX_VALUE)));
+        } catch (NumberFormatException e) {
+            return CommandResponse.ofFailure(new IllegalArgumentException("invalid top: " + request.getParam("top")));
+        }
+        List<String> resources;
+        if (StringUtil.isBlank(resource)) {
+            resources = new ArrayList<>(HotParamFlowChecker.resources());
+            Collections.sort(resources);
+        } else if (HotParamFlowChecker.get(resource) == null) {
+            return CommandResponse.ofFailure(new IllegalArgumentException("no hot param checker for " + resource));
+        } else {
+            resources = Collections.singletonList(resource);
+        }
+        JSONArray result = new JSONArray();
+        for (String name : resources) {
+            HotParamFlowChecker checker = HotParamFlowChecker.get(name);
+            if (checker != null) {
+                result.add(toJson(checker, top));
+            }
+        }
+        return CommandResponse.ofSuccess(JSON.toJSONString(result));
+    }
+
+    private static JSONObject toJson(HotParamFlowChecker checker, int top) {
+        LongParamFlowChecker exactChecker = checker.getExactChecker();
+        LongParamCounterStore store = exactChecker.getStore();
+        CountMinSketch sketch = checker.getSketch();
+
+        JSONObject json = new JSONObject(true);
+        json.put("resource", checker.getResource());
+        json.put("threshold", exactChecker.getThreshold());
+        json.put("hotThreshold", checker.getHotThreshold());
+        json.put("sketchWidth", sketch.width());
+        json.put("sketchDepth", sketch.depth());
+        json.put("sketchBytes", sketch.memoryBytes());
+        json.put("exactSize", store.size());
+        json.put("exactCapacity", store.capacity());
+        json.put("coldPassed", checker.coldPassed());
+        json.put("exactChecked", checker.exactChecked());
+
+        JSONArray values = new JSONArray();
+        for (long[] hot : checker.hotValues()) {
+            if (values.size() >= top) {
+                break;
+            }
+            long value = hot[0];
+            JSONObject item = new JSONObject(true);
+            item.put("value", value);
+            item.put("estimatedQps", checker.estimate(value));
+            item.put("passQps", store.passQps(value));
+            item.put("threshold", exactChecker.thresholdOf(value));
+            values.add(item);
+        }
+        json.put("hotValues", values);
+        return json;
+    }
+
+}
@@ -2,11 +2,11 @@ package com.lememo.sentinel.freqparamflow;
 
 import com.alibaba.csp.sentinel.Entry;
 import com.alibaba.csp.sentinel.EntryType;
-import com.alibaba.csp.sentinel.SphU;
-import com.alibaba.csp.sentinel.slots.block.BlockException;
 import com.alibaba.csp.sentinel.slots.block.RuleConstant;
 import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
 import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRuleManager;
+import com.lememo.sentinel.guard.BlockLogger;
+import com.lememo.sentinel.guard.SphGuard;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
@@ -26,6 +26,16 @@ public class FreqParamFlowController {
       */
     private String resourceName = "freqParam";
 
+    /**
+     * 精确统计的热点 uid 最多多少个，超过之后会淘汰最近没有访问过的 uid
+     */
+    private static final int HOT_UID_CAPACITY = 10000;
+
+    /**
+     * uid 的热点参数检查，冷的 uid 只经过 sketch，热的 uid 才精确计数，占用的内存是固定的
+     */
+    private final HotParamFlowChecker uidChecker;
+
     public FreqParamFlowController(){
         // 定义热点限流的规则，对第一个参数设置 qps 限流模式，阈值为5
         ParamFlowRule rule = new ParamFlowRule(resourceName)
@@ -33,6 +43,7 @@ public class FreqParamFlowController {
                 .setGrade(RuleConstant.FLOW_GRADE_QPS)
                 .setCount(5);
         ParamFlowRuleManager.loadRules(Collections.singletonList(rule));
+        uidChecker = new HotParamFlowChecker(rule, HOT_UID_CAPACITY);
     }
 
     /**
@@ -42,20 +53,21 @@ public class FreqParamFlowController {
     @GetMapping("/freqParamFlow")
     public @ResponseBody
     String freqParamFlow(@RequestParam("uid") Long uid,@RequestParam("ip") Long ip) {
-        Entry entry = null;
-        String retVal;
+        // 只对参数 uid 的值进行限流，参数 ip 的值不进行限制
+        if(!uidChecker.tryPass(uid.longValue())){
+            BlockLogger.log(resourceName);
+            return "blocked";
+        }
+        // uid 已经检查过了，这里不再传入热点参数
+        Entry entry = SphGuard.tryEntry(resourceName, EntryType.IN,1);
+        if(entry==null){
+            return "blocked";
+        }
         try{
-            // 只对参数 uid 的值进行限流，参数 ip 的值不进行限制
-            entry = SphU.entry(resourceName, EntryType.IN,1,uid);
-            retVal = "passed";
-        }catch(BlockException e){
-            retVal = "blocked";
+            return "passed";
         }finally {
-            if(entry!=null){
-                entry.exit();
-            }
+            entry.exit();
         }
-        return retVal;
     }
 
 
@@ -65,20 +77,16 @@ public class FreqParamFlowController {
     @GetMapping("/freqParamFlowWithoutParam")
     public @ResponseBody
     String freqParamFlowWithoutParam(@RequestParam("uid") Long uid,@RequestParam("ip") Long ip) {
-        Entry entry = null;
-        String retVal;
+        // 如果不传入任何参数，来查询热点参数限流的效果
+        Entry entry = SphGuard.tryEntry(resourceName, EntryType.IN,1);
+        if(entry==null){
+            return "blocked";
+        }
         try{
-            // 如果不传入任何参数，来查询热点参数限流的效果
-            entry = SphU.entry(resourceName, EntryType.IN,1);
-            retVal = "passed";
-        }catch(BlockException e){
-            retVal = "blocked";
+            return "passed";
         }finally {
-            if(entry!=null){
-                entry.exit();
-            }
+            entry.exit();
         }
-        return retVal;
     }
 
 
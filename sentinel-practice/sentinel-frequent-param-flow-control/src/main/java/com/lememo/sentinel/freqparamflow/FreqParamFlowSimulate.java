@@ -19,6 +19,9 @@ import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 模拟热点参数限流
+ *
+ * 每个用户一个线程、真的 sleep，统计的结果会有误差。在虚拟时钟上精确回放同样流量的版本见
+ * sentinel-traffic-replay 模块中的 FreqParamFlowReplay
  * @author houyi
  * @date 2019-01-19
  **/
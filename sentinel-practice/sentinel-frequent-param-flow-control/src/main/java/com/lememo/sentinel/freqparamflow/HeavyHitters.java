@@ -0,0 +1,83 @@
+package com.lememo.sentinel.freqparamflow;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 记录最近请求数最多的 k 个参数值
+ *
+ * 只有 CountMinSketch 估算值超过热点阈值的参数值才会被提交进来，所以这里的调用频率很低，
+ * k 个参数值放在数组中线性查找即可。满了之后新的参数值替换估算值最小的一个，
+ * 超过 2s 没有更新的参数值视为已经冷却，估算值按 0 处理，会被优先替换。
+ * @author houyi
+ * @date 2019-03-16
+ **/
+public class HeavyHitters {
+
+    private static final int EXPIRE_MS = 2000;
+
+    private final long[] keys;
+    private final int[] estimates;
+    private final long[] updateTimes;
+    private int size;
+
+    /**
+     * @param k 最多记录多少个参数值
+     */
+    public HeavyHitters(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k should be positive");
+        }
+        this.keys = new long[k];
+        this.estimates = new int[k];
+        this.updateTimes = new long[k];
+    }
+
+    /**
+     * 提交参数值当前的估算值
+     */
+    public synchronized void offer(long key, int estimate, long now) {
+        int min = -1;
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key) {
+                estimates[i] = estimate;
+                updateTimes[i] = now;
+                return;
+            }
+            if (min < 0 || effective(i, now) < effective(min, now)) {
+                min = i;
+            }
+        }
+        if (size < keys.length) {
+            min = size++;
+        } else if (effective(min, now) >= estimate) {
+            return;
+        }
+        keys[min] = key;
+        estimates[min] = estimate;
+        updateTimes[min] = now;
+    }
+
+    /**
+     * @return 最近 2s 内更新过的参数值以及提交时的估算值，按估算值从大到小排序
+     */
+    public synchronized List<long[]> snapshot(long now) {
+        List<long[]> result = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            if (now - updateTimes[i] < EXPIRE_MS) {
+                result.add(new long[]{keys[i], estimates[i]});
+            }
+        }
+        result.sort((a, b) -> Long.compare(b[1], a[1]));
+        return result;
+    }
+
+    public int capacity() {
+        return keys.length;
+    }
+
+    private int effective(int i, long now) {
+        return now - updateTimes[i] < EXPIRE_MS ? estimates[i] : 0;
+    }
+
+}
@@ -0,0 +1,167 @@
+package com.lememo.sentinel.freqparamflow;
+
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 在 LongParamFlowChecker 前面加一层 CountMinSketch，只为热点参数值维护精确的计数
+ *
+ * 按 uid 限流时，真正达到阈值的 uid 只有少数几个，绝大多数 uid 每秒只有一两个请求，
+ * 但是 LongParamFlowChecker 要为每个 uid 在哈希表中占一个位置、加一次锁。这里先用 sketch 估算参数值最近 1s 的请求数：
+ * <ul>
+ *     <li>估算值小于 hotThreshold 时直接通过，只需要对 sketch 做 depth 次原子加，内存是固定的</li>
+ *     <li>估算值达到 hotThreshold 之后交给 LongParamFlowChecker 精确检查，精确计数器只需要容纳热点参数值</li>
+ *     <li>配置了例外项的参数值始终精确检查</li>
+ * </ul>
+ * sketch 的估算值只会偏大（并发时的例外见 CountMinSketch），估算值小于 hotThreshold 时真实的请求数一定更少，hotThreshold 不超过阈值时冷的参数值不会超限。
+ * 参数值每次从冷的阶段进入精确计数器时（第一次变热，或者冷下来一段时间之后再次变热），
+ * 精确计数少于冷的阶段可能通过的请求数（最多 hotThreshold - 1 个）就先补上，所以一个窗口内通过的总数依然不会超过阈值；
+ * 代价是估算值偏大的冷参数值会被提前交给精确计数器，并且可能被多记几个请求。
+ * 一直在精确计数器中的参数值不会再补：被限流的请求也计入了估算值，每次都补会让热点参数值的通过数明显低于阈值。
+ *
+ * 估算值每跨过一个 hotThreshold 的整数倍就提交一次给 HeavyHitters，记录最热的 topK 个参数值，
+ * 可以通过 FetchHotParamsCommandHandler 提供的 hotParams 命令查看。
+ * 规则变化时精确计数器会读取新的阈值，热点阈值不会超过新的阈值。
+ * 创建时按资源名注册，同一个资源创建新的 checker 会替换掉旧的。
+ * @author houyi
+ * @date 2019-03-16
+ **/
+public class HotParamFlowChecker {
+
+    private static final int DEFAULT_SKETCH_WIDTH = 1 << 16;
+    private static final int DEFAULT_SKETCH_DEPTH = 4;
+    private static final int DEFAULT_TOP_K = 100;
+
+    private static final ConcurrentMap<String, HotParamFlowChecker> CHECKERS = new ConcurrentHashMap<>();
+
+    private final String resource;
+    private final int hotThreshold;
+    private final LongParamFlowChecker exactChecker;
+    private final CountMinSketch sketch;
+    private final HeavyHitters hotValues;
+
+    /**
+     * 直接通过的冷参数值请求数
+     */
+    private final LongAdder coldPassed = new LongAdder();
+    /**
+     * 交给精确计数器检查的请求数
+     */
+    private final LongAdder exactChecked = new LongAdder();
+
+    /**
+     * 热点阈值为规则阈值的一半，sketch 为 4 * 65536，占用 2MB 内存，记录最热的 100 个参数值
+     * @param rule 热点参数规则
+     * @param exactCapacity 精确计数器最多统计多少个参数值
+     */
+    public HotParamFlowChecker(ParamFlowRule rule, int exactCapacity) {
+        this(rule, Math.max(1, (int) Math.ceil(rule.getCount() / 2)), exactCapacity,
+                DEFAULT_SKETCH_WIDTH, DEFAULT_SKETCH_DEPTH, DEFAULT_TOP_K);
+    }
+
+    /**
+     * @param rule 热点参数规则
+     * @param hotThreshold 估算的 qps 达到多少之后精确检查，不能超过规则的阈值
+     * @param exactCapacity 精确计数器最多统计多少个参数值
+     * @param sketchWidth sketch 每行的计数器个数，总的 qps 越高需要越大
+     * @param sketchDepth sketch 的行数
+     * @param topK 记录最热的多少个参数值
+     */
+    public HotParamFlowChecker(ParamFlowRule rule, int hotThreshold, int exactCapacity,
+                               int sketchWidth, int sketchDepth, int topK) {
+        if (hotThreshold < 1 || hotThreshold > rule.getCount()) {
+            throw new IllegalArgumentException("hotThreshold should be between 1 and count of the rule");
+        }
+        this.resource = rule.getResource();
+        this.hotThreshold = hotThreshold;
+        this.exactChecker = new LongParamFlowChecker(rule, exactCapacity);
+        this.sketch = new CountMinSketch(sketchWidth, sketchDepth);
+        this.hotValues = new HeavyHitters(topK);
+        CHECKERS.put(resource, this);
+    }
+
+    /**
+     * 检查参数值是否可以通过
+     * @param value 参数值
+     * @return 是否通过
+     */
+    public boolean tryPass(long value) {
+        long now = TimeUtil.currentTimeMillis();
+        int hot = getHotThreshold();
+        int estimate = sketch.add(value, 1, now);
+        int before = estimate - 1;
+        if (before / hot != estimate / hot) {
+            hotValues.offer(value, estimate, now);
+        }
+        boolean item = exactChecker.isItem(value);
+        if (estimate < hot && !item) {
+            coldPassed.increment();
+            return true;
+        }
+        exactChecked.increment();
+        // 冷的阶段直接通过的请求不超过 min(before, hot - 1) 个；before < hot 说明上一个请求还在冷的阶段，
+        // 这次是从冷的阶段进入精确计数器，精确计数少于这个数时先补上
+        return exactChecker.tryPass(value, item ? 0 : Math.min(before, hot - 1), !item && before < hot);
+    }
+
+    public boolean tryPass(int value) {
+        return tryPass((long) value);
+    }
+
+    /**
+     * @return 参数值最近 1s 内的估算请求数
+     */
+    public int estimate(long value) {
+        return sketch.estimate(value, TimeUtil.currentTimeMillis());
+    }
+
+    /**
+     * @return 最近最热的参数值以及提交时的估算值，按估算值从大到小排序
+     */
+    public List<long[]> hotValues() {
+        return hotValues.snapshot(TimeUtil.currentTimeMillis());
+    }
+
+    public String getResource() {
+        return resource;
+    }
+
+    /**
+     * @return 当前生效的热点阈值，规则的阈值被调低到 hotThreshold 以下时跟随规则的阈值
+     */
+    public int getHotThreshold() {
+        return Math.max(1, Math.min(hotThreshold, exactChecker.getThreshold()));
+    }
+
+    public LongParamFlowChecker getExactChecker() {
+        return exactChecker;
+    }
+
+    public CountMinSketch getSketch() {
+        return sketch;
+    }
+
+    public long coldPassed() {
+        return coldPassed.sum();
+    }
+
+    public long exactChecked() {
+        return exactChecked.sum();
+    }
+
+    public static HotParamFlowChecker get(String resource) {
+        return CHECKERS.get(resource);
+    }
+
+    public static Set<String> resources() {
+        return Collections.unmodifiableSet(CHECKERS.keySet());
+    }
+
+}
@@ -0,0 +1,127 @@
+package com.lememo.sentinel.freqparamflow;
+
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
+
+import java.util.Random;
+
+/**
+ * 对比 LongParamFlowChecker 和 HotParamFlowChecker 在大量冷 uid、少量热 uid 时的开销和限流效果
+ *
+ * 按 qps 匀速发出 seconds 秒的请求，其中 HOT_RATIO 的请求落在 HOT_UIDS 个热 uid 上，其余每个请求都是一个新的 uid。
+ * sketch 的误差和总的 qps 有关，所以这里按真实的速度发请求，而不是尽可能快地调用。
+ * 两种 checker 使用相同的规则（阈值 5）和相同的请求序列，打印：
+ *
+ * - cost：每次 tryPass 的平均耗时
+ * - hotPass/s：每个热 uid 每秒通过的请求数，应该不超过阈值
+ * - coldBlock：被拒绝的冷 uid 请求数，应该为 0
+ * - exactSize、evictions：精确计数器中的参数值个数和累计淘汰次数
+ * - heap：checker 创建之后堆内存的增长
+ *
+ * 最后打印 HotParamFlowChecker 记录的热点 uid，和 hotParams 命令返回的内容相同
+ *
+ * 启动参数：
+ * args[0] qps，默认为 50000
+ * args[1] 每种 checker 运行的秒数，默认为 10
+ * @author houyi
+ * @date 2019-03-16
+ **/
+public class HotParamSketchSimulate {
+
+    private static final int HOT_UIDS = 10;
+    private static final double HOT_RATIO = 0.1;
+    private static final int THRESHOLD = 5;
+
+    /**
+     * 冷 uid 从这里开始编号，和热 uid 不重复
+     */
+    private static final long COLD_UID_BASE = 1000000;
+
+    private static final int EXACT_CAPACITY = 100000;
+    private static final int HOT_EXACT_CAPACITY = 10000;
+
+    public static void main(String[] args) {
+        int qps = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        long[] uids = traffic(qps * seconds);
+        ParamFlowRule rule = new ParamFlowRule("freqParam")
+                .setParamIdx(0)
+                .setGrade(RuleConstant.FLOW_GRADE_QPS)
+                .setCount(THRESHOLD);
+
+        System.out.println("qps=" + qps + ", seconds=" + seconds + ", hot uids=" + HOT_UIDS
+                + ", hot ratio=" + HOT_RATIO + ", threshold=" + THRESHOLD);
+        System.out.printf("%-10s %9s %10s %10s %10s %10s %8s%n", "checker", "cost(ns)", "hotPass/s",
+                "coldBlock", "exactSize", "evictions", "heap(MB)");
+        long baseHeap = usedHeap();
+        LongParamFlowChecker exact = new LongParamFlowChecker(rule, EXACT_CAPACITY);
+        long exactHeap = usedHeap() - baseHeap;
+        run("exact", uids, qps, exact::tryPass, exact.getStore(), exactHeap);
+
+        baseHeap = usedHeap();
+        HotParamFlowChecker sketch = new HotParamFlowChecker(rule, HOT_EXACT_CAPACITY);
+        long sketchHeap = usedHeap() - baseHeap;
+        run("sketch", uids, qps, sketch::tryPass, sketch.getExactChecker().getStore(), sketchHeap);
+        System.out.println("sketch: coldPassed=" + sketch.coldPassed() + ", exactChecked=" + sketch.exactChecked()
+                + ", hotThreshold=" + sketch.getHotThreshold() + ", sketchBytes=" + sketch.getSketch().memoryBytes());
+
+        System.out.printf("%-10s %12s %10s%n", "hot uid", "estimatedQps", "passQps");
+        for (long[] hot : sketch.hotValues()) {
+            System.out.printf("%-10d %12d %10d%n", hot[0], sketch.estimate(hot[0]),
+                    sketch.getExactChecker().getStore().passQps(hot[0]));
+        }
+    }
+
+    private static long[] traffic(int requests) {
+        Random random = new Random(20190316);
+        long[] uids = new long[requests];
+        for (int i = 0; i < requests; i++) {
+            uids[i] = random.nextDouble() < HOT_RATIO ? random.nextInt(HOT_UIDS) + 1 : COLD_UID_BASE + i;
+        }
+        return uids;
+    }
+
+    private static void run(String name, long[] uids, int qps, Checker checker, LongParamCounterStore store,
+                            long heap) {
+        long hotPass = 0;
+        long coldBlock = 0;
+        long costNanos = 0;
+        long intervalNanos = 1000000000L / qps;
+        long start = System.nanoTime();
+        for (int i = 0; i < uids.length; i++) {
+            long uid = uids[i];
+            long due = start + i * intervalNanos;
+            while (System.nanoTime() < due) {
+                // 忙等到请求的时间，sleep 的精度不够
+            }
+            long before = System.nanoTime();
+            boolean pass = checker.tryPass(uid);
+            costNanos += System.nanoTime() - before;
+            if (uid < COLD_UID_BASE) {
+                if (pass) {
+                    hotPass++;
+                }
+            } else if (!pass) {
+                coldBlock++;
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%-10s %9d %10.2f %10d %10d %10d %8d%n", name, costNanos / uids.length,
+                hotPass / seconds / HOT_UIDS, coldBlock, store.size(), store.evictions(), toMb(heap));
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long toMb(long bytes) {
+        return bytes / 1024 / 1024;
+    }
+
+    private interface Checker {
+        boolean tryPass(long uid);
+    }
+
+}
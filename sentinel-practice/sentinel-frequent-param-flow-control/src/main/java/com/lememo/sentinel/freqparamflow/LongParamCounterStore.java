@@ -0,0 +1,294 @@
+package com.lememo.sentinel.freqparamflow;
+
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+/**
+ * 以 long 为键的热点参数计数器
+ *
+ * Sentinel 原生的热点参数统计中，每个参数值都会被装箱后放进 map 里，
+ * 如果请求中的 uid 几乎不重复，map 中的 entry 会越来越多。
+ *
+ * 这里改为开放寻址的哈希表，键和计数都保存在基本类型的数组中，不会产生装箱：
+ * <ul>
+ *     <li>容量是固定的，满了之后按照 CLOCK（近似 LRU）淘汰最近没有被访问过的参数值</li>
+ *     <li>每个参数值保存两个 bucket 的计数，和 Sentinel 一样通过滑动窗口计算 qps</li>
+ *     <li>整张表被拆分成多个 segment，每个 segment 单独加锁</li>
+ * </ul>
+ * @author houyi
+ * @date 2019-02-27
+ **/
+public class LongParamCounterStore {
+
+    private static final int SEGMENT_COUNT = 16;
+
+    /**
+     * 统计的时间窗口为 1s，拆成两个 500ms 的 bucket
+     */
+    private static final int INTERVAL_MS = 1000;
+    private static final int BUCKET_LENGTH_MS = INTERVAL_MS / 2;
+
+    private final Segment[] segments;
+
+    private final int capacity;
+
+    /**
+     * @param capacity 最多保存多少个参数值
+     */
+    public LongParamCounterStore(int capacity) {
+        if (capacity < SEGMENT_COUNT) {
+            throw new IllegalArgumentException("capacity should not be less than " + SEGMENT_COUNT);
+        }
+        int segmentCapacity = (capacity + SEGMENT_COUNT - 1) / SEGMENT_COUNT;
+        this.segments = new Segment[SEGMENT_COUNT];
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            segments[i] = new Segment(segmentCapacity);
+        }
+        this.capacity = segmentCapacity * SEGMENT_COUNT;
+    }
+
+    /**
+     * 尝试为参数值获取 token
+     * @param key 参数值
+     * @param count 需要的 token 数
+     * @param threshold 该参数值的 qps 阈值
+     * @return 是否通过
+     */
+    public boolean tryAcquire(long key, int count, int threshold) {
+        long hash = mix(key);
+        return segments[(int) (hash >>> 60) & (SEGMENT_COUNT - 1)]
+                .tryAcquire(key, hash, count, threshold, 0, false, TimeUtil.currentTimeMillis());
+    }
+
+    public boolean tryAcquire(int key, int count, int threshold) {
+        return tryAcquire((long) key, count, threshold);
+    }
+
+    /**
+     * 尝试为参数值获取 token，参数值的部分请求可能没有经过这里就已经通过了
+     * 参数值还没有被统计，或者 fromCold 为 true 时，当前窗口内的计数少于 initialCount 就先补到 initialCount
+     * @param key 参数值
+     * @param count 需要的 token 数
+     * @param threshold 该参数值的 qps 阈值
+     * @param initialCount 当前窗口内没有经过这里、可能已经通过的请求数
+     * @param fromCold 上一个请求是否没有经过这里，参数值已经在表中时只有这种情况才需要补上 initialCount
+     * @return 是否通过
+     */
+    public boolean tryAcquire(long key, int count, int threshold, int initialCount, boolean fromCold) {
+        long hash = mix(key);
+        return segments[(int) (hash >>> 60) & (SEGMENT_COUNT - 1)]
+                .tryAcquire(key, hash, count, threshold, initialCount, fromCold, TimeUtil.currentTimeMillis());
+    }
+
+    /**
+     * 参数值最近 1s 内通过的请求数
+     */
+    public long passQps(long key) {
+        long hash = mix(key);
+        return segments[(int) (hash >>> 60) & (SEGMENT_COUNT - 1)]
+                .passQps(key, hash, TimeUtil.currentTimeMillis());
+    }
+
+    /**
+     * 当前保存的参数值个数
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * 累计淘汰的参数值个数
+     */
+    public long evictions() {
+        long evictions = 0;
+        for (Segment segment : segments) {
+            evictions += segment.evictions();
+        }
+        return evictions;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+
+    /**
+     * 开放寻址（线性探测）的哈希表
+     * 删除时把后面的元素往前移，不需要墓碑
+     */
+    private static final class Segment {
+
+        private final int maxSize;
+        private final int mask;
+
+        private final long[] keys;
+        private final boolean[] used;
+        /**
+         * CLOCK 淘汰算法的访问标记
+         */
+        private final boolean[] referenced;
+        private final long[] bucketStarts;
+        private final int[] currentCounts;
+        private final int[] previousCounts;
+
+        private int size;
+        private int hand;
+        private long evictions;
+
+        Segment(int maxSize) {
+            int tableSize = 1;
+            // 负载因子不超过 0.5，保证探测的长度足够短
+            while (tableSize < maxSize * 2) {
+                tableSize <<= 1;
+            }
+            this.maxSize = maxSize;
+            this.mask = tableSize - 1;
+            this.keys = new long[tableSize];
+            this.used = new boolean[tableSize];
+            this.referenced = new boolean[tableSize];
+            this.bucketStarts = new long[tableSize];
+            this.currentCounts = new int[tableSize];
+            this.previousCounts = new int[tableSize];
+        }
+
+        synchronized boolean tryAcquire(long key, long hash, int count, int threshold, int initialCount,
+                                        boolean fromCold, long now) {
+            int idx = find(key, hash);
+            boolean absent = idx < 0;
+            if (absent) {
+                idx = insert(key, hash);
+            }
+            referenced[idx] = true;
+            roll(idx, now);
+            int counted = currentCounts[idx] + previousCounts[idx];
+            if ((absent || fromCold) && counted < initialCount) {
+                currentCounts[idx] += initialCount - counted;
+            }
+            if (currentCounts[idx] + previousCounts[idx] + count > threshold) {
+                return false;
+            }
+            currentCounts[idx] += count;
+            return true;
+        }
+
+        synchronized long passQps(long key, long hash, long now) {
+            int idx = find(key, hash);
+            if (idx < 0) {
+                return 0;
+            }
+            roll(idx, now);
+            return currentCounts[idx] + previousCounts[idx];
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long evictions() {
+            return evictions;
+        }
+
+        /**
+         * 插入不存在的参数值，满了先淘汰一个
+         */
+        private int insert(long key, long hash) {
+            if (size >= maxSize) {
+                evictOne();
+            }
+            int idx = -find(key, hash) - 1;
+            used[idx] = true;
+            keys[idx] = key;
+            bucketStarts[idx] = 0;
+            currentCounts[idx] = 0;
+            previousCounts[idx] = 0;
+            size++;
+            return idx;
+        }
+
+        /**
+         * 查找参数值所在的位置
+         * @return 找到时返回位置，否则返回 -(插入位置 + 1)
+         */
+        private int find(long key, long hash) {
+            int idx = (int) hash & mask;
+            while (used[idx]) {
+                if (keys[idx] == key) {
+                    return idx;
+                }
+                idx = (idx + 1) & mask;
+            }
+            return -idx - 1;
+        }
+
+        /**
+         * 滑动窗口：根据当前时间把 bucket 往前滚动
+         */
+        private void roll(int idx, long now) {
+            long bucketStart = now - now % BUCKET_LENGTH_MS;
+            long start = bucketStarts[idx];
+            if (bucketStart == start) {
+                return;
+            }
+            if (bucketStart - BUCKET_LENGTH_MS == start) {
+                previousCounts[idx] = currentCounts[idx];
+            } else {
+                previousCounts[idx] = 0;
+            }
+            currentCounts[idx] = 0;
+            bucketStarts[idx] = bucketStart;
+        }
+
+        /**
+         * CLOCK 淘汰：跳过并清除最近被访问过的，淘汰第一个没有被访问过的
+         */
+        private void evictOne() {
+            while (true) {
+                if (used[hand]) {
+                    if (referenced[hand]) {
+                        referenced[hand] = false;
+                    } else {
+                        remove(hand);
+                        evictions++;
+                        return;
+                    }
+                }
+                hand = (hand + 1) & mask;
+            }
+        }
+
+        private void remove(int idx) {
+            used[idx] = false;
+            size--;
+            int hole = idx;
+            int next = idx;
+            while (true) {
+                next = (next + 1) & mask;
+                if (!used[next]) {
+                    return;
+                }
+                int home = (int) mix(keys[next]) & mask;
+                // home 在 (hole, next] 之间的元素不需要移动
+                boolean stay = hole <= next ? (hole < home && home <= next) : (hole < home || home <= next);
+                if (stay) {
+                    continue;
+                }
+                keys[hole] = keys[next];
+                used[hole] = true;
+                referenced[hole] = referenced[next];
+                bucketStarts[hole] = bucketStarts[next];
+                currentCounts[hole] = currentCounts[next];
+                previousCounts[hole] = previousCounts[next];
+                used[next] = false;
+                hole = next;
+            }
+        }
+    }
+
+}
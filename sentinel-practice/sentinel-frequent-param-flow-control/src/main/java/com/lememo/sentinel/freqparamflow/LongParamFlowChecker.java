@@ -0,0 +1,193 @@
+package com.lememo.sentinel.freqparamflow;
+
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.node.ClusterNode;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowItem;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRuleManager;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowSlot;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParameterMetric;
+import com.alibaba.csp.sentinel.slots.clusterbuilder.ClusterBuilderSlot;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 基于 LongParamCounterStore 的热点参数检查
+ * 参数值为 long 或 int 时使用，阈值以及例外项都来自 ParamFlowRule
+ *
+ * 规则可以在运行时修改：ParamFlowRuleManager 每次加载规则都会为每个资源创建新的规则列表，
+ * 检查时比较一次列表的引用，变化之后重新读取同一个资源、同一个参数位置的规则；新的规则中没有对应的规则时不再限流。
+ * 被拒绝的参数值和 ParamFlowSlot 一样记录到资源的 ParameterMetric 中，同时在 ClusterNode 上记录 block。
+ * @author houyi
+ * @date 2019-02-27
+ **/
+public class LongParamFlowChecker {
+
+    private final LongParamCounterStore store;
+
+    private final String resource;
+
+    private final int paramIdx;
+
+    /**
+     * 最近一次读取到的 ParamFlowRuleManager 中该资源的规则列表，用来判断规则是否变化
+     */
+    private volatile List<ParamFlowRule> loadedRules;
+
+    private volatile Limits limits;
+
+    /**
+     * @param rule 热点参数规则
+     * @param capacity 最多统计多少个参数值
+     */
+    public LongParamFlowChecker(ParamFlowRule rule, int capacity) {
+        this.store = new LongParamCounterStore(capacity);
+        this.resource = rule.getResource();
+        this.paramIdx = rule.getParamIdx();
+        this.loadedRules = ParamFlowRuleManager.getRulesOfResource(resource);
+        this.limits = new Limits(rule);
+    }
+
+    /**
+     * 检查参数值是否可以通过
+     * @param value 参数值
+     * @return 是否通过
+     */
+    public boolean tryPass(long value) {
+        return recordIfBlocked(store.tryAcquire(value, 1, thresholdOf(value)), value);
+    }
+
+    /**
+     * 检查参数值是否可以通过，参数值的部分请求可能没有经过这里就已经通过了
+     * 参数值还没有被统计，或者 fromCold 为 true 时，当前窗口内的计数少于 initialCount 就先补到 initialCount
+     * @param value 参数值
+     * @param initialCount 当前窗口内没有经过这里、可能已经通过的请求数
+     * @param fromCold 上一个请求是否没有经过这里
+     * @return 是否通过
+     */
+    public boolean tryPass(long value, int initialCount, boolean fromCold) {
+        return recordIfBlocked(store.tryAcquire(value, 1, thresholdOf(value), initialCount, fromCold), value);
+    }
+
+    public boolean tryPass(int value) {
+        return tryPass((long) value);
+    }
+
+    /**
+     * @return 参数值的 qps 阈值，是例外项时为例外项的阈值
+     */
+    public int thresholdOf(long value) {
+        Limits current = currentLimits();
+        if (current.itemValues.length > 0) {
+            int idx = Arrays.binarySearch(current.itemValues, value);
+            if (idx >= 0) {
+                return current.itemThresholds[idx];
+            }
+        }
+        return current.threshold;
+    }
+
+    /**
+     * @return 参数值是否配置了例外项
+     */
+    public boolean isItem(long value) {
+        Limits current = currentLimits();
+        return current.itemValues.length > 0 && Arrays.binarySearch(current.itemValues, value) >= 0;
+    }
+
+    /**
+     * @return 规则中的默认阈值
+     */
+    public int getThreshold() {
+        return currentLimits().threshold;
+    }
+
+    public LongParamCounterStore getStore() {
+        return store;
+    }
+
+    private Limits currentLimits() {
+        List<ParamFlowRule> rules = ParamFlowRuleManager.getRulesOfResource(resource);
+        if (rules != loadedRules) {
+            synchronized (this) {
+                if (rules != loadedRules) {
+                    limits = new Limits(ruleOf(rules));
+                    loadedRules = rules;
+                }
+            }
+        }
+        return limits;
+    }
+
+    private ParamFlowRule ruleOf(List<ParamFlowRule> rules) {
+        if (rules != null) {
+            for (ParamFlowRule rule : rules) {
+                if (rule.getParamIdx() == paramIdx) {
+                    return rule;
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean recordIfBlocked(boolean passed, long value) {
+        if (passed) {
+            return true;
+        }
+        // 资源经过一次 ParamFlowSlot 之后才会有 ParameterMetric
+        ParameterMetric metric = ParamFlowSlot.getHotParamMetricForName(resource);
+        if (metric != null) {
+            Object[] args = new Object[paramIdx + 1];
+            args[paramIdx] = value;
+            metric.addBlock(1, args);
+        }
+        ClusterNode clusterNode = ClusterBuilderSlot.getClusterNode(resource);
+        if (clusterNode != null) {
+            clusterNode.increaseBlockQps();
+        }
+        return false;
+    }
+
+    /**
+     * 从规则中读取的阈值以及例外项
+     */
+    private static final class Limits {
+
+        private final int threshold;
+
+        /**
+         * 例外项的参数值以及对应的阈值，按参数值排序后通过二分查找，避免装箱
+         */
+        private final long[] itemValues;
+        private final int[] itemThresholds;
+
+        /**
+         * @param rule 热点参数规则，为 null 时不限流
+         */
+        Limits(ParamFlowRule rule) {
+            Map<Long, Integer> items = new TreeMap<>();
+            if (rule != null && rule.getParamFlowItemList() != null) {
+                for (ParamFlowItem item : rule.getParamFlowItemList()) {
+                    try {
+                        items.put(Long.parseLong(item.getObject()), item.getCount());
+                    } catch (NumberFormatException e) {
+                        RecordLog.warn("[LongParamFlowChecker] Ignoring non-numeric param item: " + item);
+                    }
+                }
+            }
+            this.threshold = rule != null ? (int) rule.getCount() : Integer.MAX_VALUE;
+            this.itemValues = new long[items.size()];
+            this.itemThresholds = new int[items.size()];
+            int i = 0;
+            for (Map.Entry<Long, Integer> entry : items.entrySet()) {
+                itemValues[i] = entry.getKey();
+                itemThresholds[i] = entry.getValue();
+                i++;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,56 @@
+package com.lememo.sentinel.freqparamflow;
+
+/**
+ * 模拟大量不同的 uid 访问热点参数计数器
+ * 依次访问 1000 万个不重复的 uid，每 100 万次打印一次计数器的大小、淘汰次数以及堆内存的使用量，
+ * 可以看到计数器的大小始终不超过容量，堆内存也保持不变
+ * @author houyi
+ * @date 2019-02-27
+ **/
+public class ParamCounterStoreSimulate {
+
+    /**
+     * 一共模拟多少个不同的 uid
+     */
+    private static final int DISTINCT_UIDS = 10000000;
+
+    /**
+     * 计数器的容量
+     */
+    private static final int CAPACITY = 100000;
+
+    /**
+     * 每个 uid 的 qps 阈值
+     */
+    private static final int THRESHOLD = 5;
+
+    public static void main(String[] args) {
+        LongParamCounterStore store = new LongParamCounterStore(CAPACITY);
+        long baseHeap = usedHeap();
+        System.out.println("Begin to run! capacity=" + store.capacity() + ", usedHeap=" + toMb(baseHeap) + "MB");
+        long start = System.currentTimeMillis();
+        long pass = 0;
+        for (long uid = 1; uid <= DISTINCT_UIDS; uid++) {
+            if (store.tryAcquire(uid, 1, THRESHOLD)) {
+                pass++;
+            }
+            if (uid % 1000000 == 0) {
+                System.out.println(String.format("uids=%d, pass=%d, size=%d, evictions=%d, usedHeap=%dMB",
+                        uid, pass, store.size(), store.evictions(), toMb(usedHeap())));
+            }
+        }
+        long cost = System.currentTimeMillis() - start;
+        System.out.println("Time cost: " + cost + " ms, heap growth: " + toMb(usedHeap() - baseHeap) + "MB");
+    }
+
+    private static long usedHeap() {
+        System.gc();
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long toMb(long bytes) {
+        return bytes / 1024 / 1024;
+    }
+
+}
@@ -2,8 +2,7 @@ package com.lememo.sentinel.dashboard;
 
 import com.alibaba.csp.sentinel.Entry;
 import com.alibaba.csp.sentinel.EntryType;
-import com.alibaba.csp.sentinel.SphU;
-import com.alibaba.csp.sentinel.slots.block.BlockException;
+import com.lememo.sentinel.guard.SphGuard;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.ResponseBody;
@@ -20,19 +19,15 @@ public class FlowController {
     String testSentinel() {
         // 定义资源，具体的规则通过 dashboard 在页面中配置
         String resourceName = "testSentinel";
-        Entry entry = null;
-        String retVal;
+        Entry entry = SphGuard.tryEntry(resourceName, EntryType.IN);
+        if(entry==null){
+            return "blocked";
+        }
         try{
-            entry = SphU.entry(resourceName, EntryType.IN);
-            retVal = "passed";
-        }catch(BlockException e){
-            retVal = "blocked";
+            return "passed";
         }finally {
-            if(entry!=null){
-                entry.exit();
-            }
+            entry.exit();
         }
-        return retVal;
     }
 
 }
\ No newline at end of file
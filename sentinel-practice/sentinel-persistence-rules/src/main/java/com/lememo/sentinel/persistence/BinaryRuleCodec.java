@@ -0,0 +1,413 @@
+package com.lememo.sentinel.persistence;
+
+import com.alibaba.csp.sentinel.slots.block.flow.ClusterFlowConfig;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowClusterConfig;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowItem;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 规则的二进制编码
+ *
+ * 用 fastjson 解析规则时，要先把整个文档解析成 token，再通过反射创建对象、逐个字段赋值；
+ * 热点参数规则中有几万个参数例外项时，每次推送都要占满一个核很久。
+ *
+ * 二进制格式按字段的固定顺序排列，解码时直接从 ByteBuffer 中顺序读取并创建规则，不会产生中间的 JSONObject：
+ * <pre>
+ * magic("SRB") | version(1) | kind(1) | 字符串表 | 规则个数 | 规则...
+ * </pre>
+ * <ul>
+ *     <li>所有字符串（资源名、limitApp、参数值、参数类型）放在文件头部的字符串表中，规则中只保存下标，
+ *     重复的字符串只保存和解码一次，解码出来的规则共享同一个 String 对象</li>
+ *     <li>整数使用 zigzag + varint 编码，小的数字只占一个字节；double 和 flowId 使用定长的 8 个字节</li>
+ *     <li>可以为 null 的字段：字符串下标为 0 表示 null，Integer 在编码时加 1，0 表示 null</li>
+ * </ul>
+ * 解码的输入是 ByteBuffer，可以直接使用 heap buffer 或者 mmap 得到的 buffer，不需要先复制一份。
+ * @author houyi
+ * @date 2019-03-04
+ **/
+public final class BinaryRuleCodec {
+
+    static final byte[] MAGIC = {'S', 'R', 'B'};
+
+    private static final byte VERSION = 1;
+
+    private static final byte KIND_FLOW = 1;
+    private static final byte KIND_PARAM_FLOW = 2;
+
+    private static final int FLAG_CLUSTER_MODE = 1;
+    private static final int FLAG_CLUSTER_CONFIG = 1 << 1;
+
+    private static final int FLAG_FLOW_ID = 1;
+    private static final int FLAG_FALLBACK_TO_LOCAL = 1 << 1;
+
+    private BinaryRuleCodec() {
+    }
+
+    /**
+     * 判断数据是否是二进制格式的规则
+     */
+    public static boolean isBinary(ByteBuffer source) {
+        if (source.remaining() < MAGIC.length) {
+            return false;
+        }
+        int p = source.position();
+        return source.get(p) == MAGIC[0] && source.get(p + 1) == MAGIC[1] && source.get(p + 2) == MAGIC[2];
+    }
+
+    public static byte[] encodeFlowRules(List<FlowRule> rules) {
+        StringTable strings = new StringTable();
+        for (FlowRule rule : rules) {
+            strings.add(rule.getResource());
+            strings.add(rule.getLimitApp());
+            strings.add(rule.getRefResource());
+        }
+        Output out = header(KIND_FLOW, strings, rules.size());
+        for (FlowRule rule : rules) {
+            out.writeVarInt(strings.indexOf(rule.getResource()));
+            out.writeVarInt(strings.indexOf(rule.getLimitApp()));
+            out.writeSignedVarInt(rule.getGrade());
+            out.writeDouble(rule.getCount());
+            out.writeSignedVarInt(rule.getStrategy());
+            out.writeVarInt(strings.indexOf(rule.getRefResource()));
+            out.writeSignedVarInt(rule.getControlBehavior());
+            out.writeSignedVarInt(rule.getWarmUpPeriodSec());
+            out.writeSignedVarInt(rule.getMaxQueueingTimeMs());
+            ClusterFlowConfig config = rule.getClusterConfig();
+            out.writeByte((rule.isClusterMode() ? FLAG_CLUSTER_MODE : 0) | (config != null ? FLAG_CLUSTER_CONFIG : 0));
+            if (config != null) {
+                writeClusterConfig(out, config.getFlowId(), config.isFallbackToLocalWhenFail(),
+                        config.getThresholdType(), config.getSampleCount(), config.getWindowIntervalMs());
+                out.writeSignedVarInt(config.getStrategy());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public static byte[] encodeParamFlowRules(List<ParamFlowRule> rules) {
+        StringTable strings = new StringTable();
+        for (ParamFlowRule rule : rules) {
+            strings.add(rule.getResource());
+            strings.add(rule.getLimitApp());
+            if (rule.getParamFlowItemList() != null) {
+                for (ParamFlowItem item : rule.getParamFlowItemList()) {
+                    strings.add(item.getObject());
+                    strings.add(item.getClassType());
+                }
+            }
+        }
+        Output out = header(KIND_PARAM_FLOW, strings, rules.size());
+        for (ParamFlowRule rule : rules) {
+            out.writeVarInt(strings.indexOf(rule.getResource()));
+            out.writeVarInt(strings.indexOf(rule.getLimitApp()));
+            out.writeSignedVarInt(rule.getGrade());
+            out.writeNullableInt(rule.getParamIdx());
+            out.writeDouble(rule.getCount());
+            ParamFlowClusterConfig config = rule.getClusterConfig();
+            out.writeByte((rule.isClusterMode() ? FLAG_CLUSTER_MODE : 0) | (config != null ? FLAG_CLUSTER_CONFIG : 0));
+            if (config != null) {
+                writeClusterConfig(out, config.getFlowId(), config.isFallbackToLocalWhenFail(),
+                        config.getThresholdType(), config.getSampleCount(), config.getWindowIntervalMs());
+            }
+            List<ParamFlowItem> items = rule.getParamFlowItemList();
+            if (items == null) {
+                // 0 表示 null，否则为个数 + 1
+                out.writeVarInt(0);
+                continue;
+            }
+            out.writeVarInt(items.size() + 1);
+            for (ParamFlowItem item : items) {
+                out.writeVarInt(strings.indexOf(item.getObject()));
+                out.writeNullableInt(item.getCount());
+                out.writeVarInt(strings.indexOf(item.getClassType()));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    public static List<FlowRule> decodeFlowRules(ByteBuffer source) {
+        Input in = new Input(source);
+        String[] strings = in.readHeader(KIND_FLOW);
+        int size = in.readVarInt();
+        List<FlowRule> rules = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            FlowRule rule = new FlowRule();
+            rule.setResource(strings[in.readVarInt()]);
+            rule.setLimitApp(strings[in.readVarInt()]);
+            rule.setGrade(in.readSignedVarInt())
+                    .setCount(in.readDouble())
+                    .setStrategy(in.readSignedVarInt())
+                    .setRefResource(strings[in.readVarInt()])
+                    .setControlBehavior(in.readSignedVarInt())
+                    .setWarmUpPeriodSec(in.readSignedVarInt())
+                    .setMaxQueueingTimeMs(in.readSignedVarInt());
+            int flags = in.readByte();
+            rule.setClusterMode((flags & FLAG_CLUSTER_MODE) != 0);
+            if ((flags & FLAG_CLUSTER_CONFIG) != 0) {
+                ClusterFlowConfig config = new ClusterFlowConfig();
+                int configFlags = in.readByte();
+                if ((configFlags & FLAG_FLOW_ID) != 0) {
+                    config.setFlowId(in.readLong());
+                }
+                config.setFallbackToLocalWhenFail((configFlags & FLAG_FALLBACK_TO_LOCAL) != 0)
+                        .setThresholdType(in.readSignedVarInt())
+                        .setSampleCount(in.readSignedVarInt())
+                        .setWindowIntervalMs(in.readSignedVarInt())
+                        .setStrategy(in.readSignedVarInt());
+                rule.setClusterConfig(config);
+            }
+            rules.add(rule);
+        }
+        return rules;
+    }
+
+    public static List<ParamFlowRule> decodeParamFlowRules(ByteBuffer source) {
+        Input in = new Input(source);
+        String[] strings = in.readHeader(KIND_PARAM_FLOW);
+        int size = in.readVarInt();
+        List<ParamFlowRule> rules = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            ParamFlowRule rule = new ParamFlowRule();
+            rule.setResource(strings[in.readVarInt()]);
+            rule.setLimitApp(strings[in.readVarInt()]);
+            rule.setGrade(in.readSignedVarInt())
+                    .setParamIdx(in.readNullableInt())
+                    .setCount(in.readDouble());
+            int flags = in.readByte();
+            rule.setClusterMode((flags & FLAG_CLUSTER_MODE) != 0);
+            if ((flags & FLAG_CLUSTER_CONFIG) != 0) {
+                ParamFlowClusterConfig config = new ParamFlowClusterConfig();
+                int configFlags = in.readByte();
+                if ((configFlags & FLAG_FLOW_ID) != 0) {
+                    config.setFlowId(in.readLong());
+                }
+                config.setFallbackToLocalWhenFail((configFlags & FLAG_FALLBACK_TO_LOCAL) != 0)
+                        .setThresholdType(in.readSignedVarInt())
+                        .setSampleCount(in.readSignedVarInt())
+                        .setWindowIntervalMs(in.readSignedVarInt());
+                rule.setClusterConfig(config);
+            }
+            int itemCount = in.readVarInt();
+            if (itemCount > 0) {
+                List<ParamFlowItem> items = new ArrayList<>(itemCount - 1);
+                for (int j = 1; j < itemCount; j++) {
+                    items.add(new ParamFlowItem()
+                            .setObject(strings[in.readVarInt()])
+                            .setCount(in.readNullableInt())
+                            .setClassType(strings[in.readVarInt()]));
+                }
+                rule.setParamFlowItemList(items);
+            }
+            rules.add(rule);
+        }
+        return rules;
+    }
+
+    private static Output header(byte kind, StringTable strings, int ruleCount) {
+        Output out = new Output();
+        out.writeBytes(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(kind);
+        out.writeVarInt(strings.size());
+        for (String s : strings.values()) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeVarInt(bytes.length);
+            out.writeBytes(bytes);
+        }
+        out.writeVarInt(ruleCount);
+        return out;
+    }
+
+    private static void writeClusterConfig(Output out, Long flowId, boolean fallbackToLocalWhenFail,
+                                           int thresholdType, int sampleCount, int windowIntervalMs) {
+        out.writeByte((flowId != null ? FLAG_FLOW_ID : 0) | (fallbackToLocalWhenFail ? FLAG_FALLBACK_TO_LOCAL : 0));
+        if (flowId != null) {
+            out.writeLong(flowId);
+        }
+        out.writeSignedVarInt(thresholdType);
+        out.writeSignedVarInt(sampleCount);
+        out.writeSignedVarInt(windowIntervalMs);
+    }
+
+    /**
+     * 编码时收集的字符串表，下标从 1 开始，0 表示 null
+     */
+    private static final class StringTable {
+
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> values = new ArrayList<>();
+
+        void add(String s) {
+            if (s != null && !indexes.containsKey(s)) {
+                values.add(s);
+                indexes.put(s, values.size());
+            }
+        }
+
+        int indexOf(String s) {
+            return s == null ? 0 : indexes.get(s);
+        }
+
+        int size() {
+            return values.size();
+        }
+
+        List<String> values() {
+            return values;
+        }
+    }
+
+    private static final class Output {
+
+        private byte[] buf = new byte[1024];
+        private int size;
+
+        private void ensure(int n) {
+            if (size + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+            }
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[size++] = (byte) b;
+        }
+
+        void writeBytes(byte[] bytes) {
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void writeVarInt(int v) {
+            ensure(5);
+            while ((v & ~0x7F) != 0) {
+                buf[size++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[size++] = (byte) v;
+        }
+
+        void writeSignedVarInt(int v) {
+            writeVarInt((v << 1) ^ (v >> 31));
+        }
+
+        void writeNullableInt(Integer v) {
+            if (v == null) {
+                writeVarInt(0);
+            } else {
+                // zigzag 之后加 1，给 null 留出 0
+                writeVarInt(((v << 1) ^ (v >> 31)) + 1);
+            }
+        }
+
+        void writeLong(long v) {
+            ensure(8);
+            for (int i = 7; i >= 0; i--) {
+                buf[size++] = (byte) (v >>> (i * 8));
+            }
+        }
+
+        void writeDouble(double v) {
+            writeLong(Double.doubleToLongBits(v));
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, size);
+        }
+    }
+
+    private static final class Input {
+
+        private final ByteBuffer buf;
+
+        Input(ByteBuffer source) {
+            // 不修改调用方的 position
+            this.buf = source.duplicate();
+        }
+
+        String[] readHeader(byte kind) {
+            if (!isBinary(buf)) {
+                throw new IllegalArgumentException("Not a binary rule source");
+            }
+            buf.position(buf.position() + MAGIC.length);
+            byte version = buf.get();
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported binary rule version: " + version);
+            }
+            byte actualKind = buf.get();
+            if (actualKind != kind) {
+                throw new IllegalArgumentException("Unexpected rule kind: " + actualKind + ", expected: " + kind);
+            }
+            int count = readVarInt();
+            String[] strings = new String[count + 1];
+            for (int i = 1; i <= count; i++) {
+                strings[i] = readString(readVarInt());
+            }
+            return strings;
+        }
+
+        private String readString(int length) {
+            String s;
+            if (buf.hasArray()) {
+                // heap buffer 直接从底层数组解码，不需要先复制
+                s = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+                buf.position(buf.position() + length);
+            } else {
+                byte[] bytes = new byte[length];
+                buf.get(bytes);
+                s = new String(bytes, StandardCharsets.UTF_8);
+            }
+            return s;
+        }
+
+        int readByte() {
+            return buf.get() & 0xFF;
+        }
+
+        int readVarInt() {
+            int shift = 0;
+            int result = 0;
+            while (shift < 32) {
+                byte b = buf.get();
+                result |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+                shift += 7;
+            }
+            throw new IllegalArgumentException("Malformed varint");
+        }
+
+        int readSignedVarInt() {
+            int v = readVarInt();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        Integer readNullableInt() {
+            int v = readVarInt();
+            if (v == 0) {
+                return null;
+            }
+            v -= 1;
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        long readLong() {
+            return buf.getLong();
+        }
+
+        double readDouble() {
+            return buf.getDouble();
+        }
+    }
+
+}
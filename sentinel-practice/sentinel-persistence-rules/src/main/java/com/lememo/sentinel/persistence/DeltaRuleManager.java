@@ -0,0 +1,235 @@
+package com.lememo.sentinel.persistence;
+
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.property.PropertyListener;
+import com.alibaba.csp.sentinel.property.SentinelProperty;
+import com.alibaba.csp.sentinel.slots.block.AbstractRule;
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleUtil;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRuleManager;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRuleUtil;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowSlot;
+import com.alibaba.csp.sentinel.util.StringUtil;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 按资源增量更新 FlowRuleManager 和 ParamFlowRuleManager 中的规则
+ *
+ * 两个 RuleManager 只提供了全量更新的入口：每次都要清空规则的 map，为所有规则重新创建流控器，
+ * 热点参数规则还会清掉不再有规则的资源的参数统计。规则有十万条时，改一条规则也要付出全量的代价。
+ *
+ * 这里通过反射拿到 RuleManager 内部保存规则的 ConcurrentHashMap，只替换有变化的资源：
+ * <ul>
+ *     <li>没有变化的资源保留原来的规则对象、流控器（例如匀速排队的 RateLimiterController）以及热点参数的统计</li>
+ *     <li>有变化的资源和全量更新时一样校验规则、创建流控器，然后一次性替换该资源的规则列表，
+ *     FlowSlot 读到的要么是旧的列表，要么是新的列表</li>
+ *     <li>被删除的资源，热点参数的统计也一起清掉，和全量更新的效果一致</li>
+ * </ul>
+ * 增量更新和全量更新（loadRules、register2Property 注册的数据源）不要同时使用：
+ * 增量更新不会修改 RuleManager 中 property 的当前值，之后如果全量推送了和这个值相同的规则，会被 property 忽略。
+ *
+ * 监听 RuleManager 的 property 的代码收不到增量更新，可以通过 addChangeListener 注册监听器，每次增量更新之后都会回调。
+ * @author houyi
+ * @date 2019-03-05
+ **/
+public final class DeltaRuleManager {
+
+    private static final Map<String, List<FlowRule>> FLOW_RULES = staticField(FlowRuleManager.class, "flowRules");
+    private static final Map<String, List<ParamFlowRule>> PARAM_FLOW_RULES =
+            staticField(ParamFlowRuleManager.class, "paramFlowRules");
+    private static final Method CLEAR_HOT_PARAM_METRIC = clearHotParamMetricMethod();
+
+    private static final List<ChangeListener> CHANGE_LISTENERS = new CopyOnWriteArrayList<>();
+
+    private static final PropertyListener<RuleDelta<FlowRule>> FLOW_LISTENER = new DeltaListener<FlowRule>() {
+        @Override
+        public void configUpdate(RuleDelta<FlowRule> value) {
+            if (value != null) {
+                applyFlowRuleDelta(value);
+            }
+        }
+    };
+
+    private static final PropertyListener<RuleDelta<ParamFlowRule>> PARAM_FLOW_LISTENER =
+            new DeltaListener<ParamFlowRule>() {
+        @Override
+        public void configUpdate(RuleDelta<ParamFlowRule> value) {
+            if (value != null) {
+                applyParamFlowRuleDelta(value);
+            }
+        }
+    };
+
+    private static SentinelProperty<RuleDelta<FlowRule>> flowDeltaProperty;
+    private static SentinelProperty<RuleDelta<ParamFlowRule>> paramFlowDeltaProperty;
+
+    private DeltaRuleManager() {
+    }
+
+    /**
+     * 注册流控规则的增量数据源，和 FlowRuleManager.register2Property 对应
+     */
+    public static synchronized void registerFlowDeltaProperty(SentinelProperty<RuleDelta<FlowRule>> property) {
+        if (flowDeltaProperty != null) {
+            flowDeltaProperty.removeListener(FLOW_LISTENER);
+        }
+        property.addListener(FLOW_LISTENER);
+        flowDeltaProperty = property;
+    }
+
+    /**
+     * 注册热点参数规则的增量数据源，和 ParamFlowRuleManager.register2Property 对应
+     */
+    public static synchronized void registerParamFlowDeltaProperty(
+            SentinelProperty<RuleDelta<ParamFlowRule>> property) {
+        if (paramFlowDeltaProperty != null) {
+            paramFlowDeltaProperty.removeListener(PARAM_FLOW_LISTENER);
+        }
+        property.addListener(PARAM_FLOW_LISTENER);
+        paramFlowDeltaProperty = property;
+    }
+
+    /**
+     * 注册增量更新之后的回调
+     */
+    public static void addChangeListener(ChangeListener listener) {
+        CHANGE_LISTENERS.add(listener);
+    }
+
+    public static void removeChangeListener(ChangeListener listener) {
+        CHANGE_LISTENERS.remove(listener);
+    }
+
+    /**
+     * 应用流控规则的增量变更
+     */
+    public static synchronized void applyFlowRuleDelta(RuleDelta<FlowRule> delta) {
+        for (Map.Entry<String, List<FlowRule>> entry : delta.getChanges().entrySet()) {
+            String resource = entry.getKey();
+            // 和全量更新使用同一个方法校验规则、创建流控器以及排序，只是每次只处理一个资源的规则
+            List<FlowRule> rules = entry.getValue().isEmpty()
+                    ? null : FlowRuleUtil.buildFlowRuleMap(entry.getValue()).get(resource);
+            if (rules == null) {
+                FLOW_RULES.remove(resource);
+            } else {
+                FLOW_RULES.put(resource, rules);
+            }
+        }
+        RecordLog.info("[DeltaRuleManager] Flow rules changed: " + delta);
+        notifyListeners(FlowRule.class, delta);
+    }
+
+    /**
+     * 应用热点参数规则的增量变更
+     */
+    public static synchronized void applyParamFlowRuleDelta(RuleDelta<ParamFlowRule> delta) {
+        for (Map.Entry<String, List<ParamFlowRule>> entry : delta.getChanges().entrySet()) {
+            String resource = entry.getKey();
+            List<ParamFlowRule> rules = new ArrayList<>(entry.getValue().size());
+            // 和 ParamFlowRuleManager 全量更新时的处理一致
+            for (ParamFlowRule rule : entry.getValue()) {
+                if (!ParamFlowRuleUtil.isValidRule(rule)) {
+                    RecordLog.warn("[DeltaRuleManager] Ignoring invalid rule when loading new rules: " + rule);
+                    continue;
+                }
+                if (StringUtil.isBlank(rule.getLimitApp())) {
+                    rule.setLimitApp(RuleConstant.LIMIT_APP_DEFAULT);
+                }
+                ParamFlowRuleUtil.fillExceptionFlowItems(rule);
+                rules.add(rule);
+            }
+            if (rules.isEmpty()) {
+                PARAM_FLOW_RULES.remove(resource);
+                clearHotParamMetric(resource);
+            } else {
+                PARAM_FLOW_RULES.put(resource, rules);
+            }
+        }
+        RecordLog.info("[DeltaRuleManager] Param flow rules changed: " + delta);
+        notifyListeners(ParamFlowRule.class, delta);
+    }
+
+    /**
+     * FlowRuleManager 中某个资源当前的规则列表，用于检查规则对象有没有被替换
+     */
+    static List<FlowRule> currentFlowRules(String resource) {
+        return FLOW_RULES.get(resource);
+    }
+
+    private static void notifyListeners(Class<? extends AbstractRule> ruleType, RuleDelta<?> delta) {
+        if (delta.isEmpty()) {
+            return;
+        }
+        Set<String> resources = delta.getChanges().keySet();
+        for (ChangeListener listener : CHANGE_LISTENERS) {
+            try {
+                listener.onChange(ruleType, resources);
+            } catch (Throwable e) {
+                RecordLog.warn("[DeltaRuleManager] Error when notifying rule change listener", e);
+            }
+        }
+    }
+
+    private static void clearHotParamMetric(String resource) {
+        try {
+            CLEAR_HOT_PARAM_METRIC.invoke(null, resource);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            RecordLog.warn("[DeltaRuleManager] Failed to clear hot param metric of " + resource, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T staticField(Class<?> type, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return (T) field.get(null);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalStateException("Unsupported sentinel version, field not found: " + name, e);
+        }
+    }
+
+    private static Method clearHotParamMetricMethod() {
+        try {
+            Method method = ParamFlowSlot.class.getDeclaredMethod("clearHotParamMetricForName", String.class);
+            method.setAccessible(true);
+            return method;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Unsupported sentinel version, method not found: "
+                    + "clearHotParamMetricForName", e);
+        }
+    }
+
+    /**
+     * 增量更新的监听器，在应用变更的线程上回调，这时 RuleManager 中的规则已经更新
+     */
+    public interface ChangeListener {
+
+        /**
+         * @param ruleType FlowRule.class 或者 ParamFlowRule.class
+         * @param resources 规则有变化的资源，包括被删除规则的资源
+         */
+        void onChange(Class<? extends AbstractRule> ruleType, Set<String> resources);
+    }
+
+    private abstract static class DeltaListener<T extends AbstractRule>
+            implements PropertyListener<RuleDelta<T>> {
+
+        @Override
+        public void configLoad(RuleDelta<T> value) {
+            configUpdate(value);
+        }
+    }
+
+}
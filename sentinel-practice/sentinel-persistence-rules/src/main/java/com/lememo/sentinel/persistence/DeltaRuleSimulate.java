@@ -0,0 +1,171 @@
+package com.lememo.sentinel.persistence;
+
+import com.alibaba.csp.sentinel.Entry;
+import com.alibaba.csp.sentinel.EntryType;
+import com.alibaba.csp.sentinel.SphU;
+import com.alibaba.csp.sentinel.slots.block.BlockException;
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRuleManager;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowSlot;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParameterMetric;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 对比 100000 条规则中修改一条规则时，全量更新和增量更新的耗时
+ *
+ * 同时检查没有变化的资源是否保留了原来的规则对象以及热点参数的统计
+ * @author houyi
+ * @date 2019-03-05
+ **/
+public class DeltaRuleSimulate {
+
+    private static final int RULE_COUNT = 100000;
+
+    private static final int DELTA_ROUNDS = 10000;
+
+    private static final String UNCHANGED = resource(0);
+    private static final String CHANGED = resource(RULE_COUNT / 2);
+
+    public static void main(String[] args) throws Exception {
+        simulateFlowRules();
+        simulateParamFlowRules();
+        simulateDiffer();
+        System.exit(0);
+    }
+
+    private static void simulateFlowRules() {
+        List<FlowRule> rules = new ArrayList<>(RULE_COUNT);
+        for (int i = 0; i < RULE_COUNT; i++) {
+            rules.add(flowRule(resource(i), 100));
+        }
+        long start = System.nanoTime();
+        FlowRuleManager.loadRules(rules);
+        long fullLoad = System.nanoTime() - start;
+
+        List<FlowRule> before = DeltaRuleManager.currentFlowRules(UNCHANGED);
+        // 全量更新：只改了一条规则，也要替换全部资源的规则
+        List<FlowRule> changed = new ArrayList<>(rules);
+        changed.set(RULE_COUNT / 2, flowRule(CHANGED, 200));
+        start = System.nanoTime();
+        FlowRuleManager.loadRules(changed);
+        long fullUpdate = System.nanoTime() - start;
+        boolean keptByFull = before == DeltaRuleManager.currentFlowRules(UNCHANGED);
+
+        before = DeltaRuleManager.currentFlowRules(UNCHANGED);
+        long deltaTotal = 0;
+        for (int i = 0; i < DELTA_ROUNDS; i++) {
+            RuleDelta<FlowRule> delta = new RuleDelta<FlowRule>()
+                    .put(CHANGED, Collections.singletonList(flowRule(CHANGED, 300 + i)));
+            start = System.nanoTime();
+            DeltaRuleManager.applyFlowRuleDelta(delta);
+            deltaTotal += System.nanoTime() - start;
+        }
+        boolean keptByDelta = before == DeltaRuleManager.currentFlowRules(UNCHANGED);
+        double applied = DeltaRuleManager.currentFlowRules(CHANGED).get(0).getCount();
+
+        System.out.println(String.format("[flow] rules=%d, full load=%.1fms, full update of 1 rule=%.1fms, "
+                        + "delta update of 1 rule=%.1fus, unchanged rules kept: full=%s, delta=%s, changed count=%.0f",
+                RULE_COUNT, fullLoad / 1e6, fullUpdate / 1e6, deltaTotal / 1e3 / DELTA_ROUNDS,
+                keptByFull, keptByDelta, applied));
+    }
+
+    private static void simulateParamFlowRules() throws BlockException {
+        List<ParamFlowRule> rules = new ArrayList<>(RULE_COUNT);
+        for (int i = 0; i < RULE_COUNT; i++) {
+            rules.add(paramFlowRule(resource(i), 100));
+        }
+        long start = System.nanoTime();
+        ParamFlowRuleManager.loadRules(rules);
+        long fullLoad = System.nanoTime() - start;
+
+        // 访问一次，为没有变化的资源创建热点参数的统计
+        Entry entry = SphU.entry(UNCHANGED, EntryType.IN, 1, 42L);
+        entry.exit(1, 42L);
+        ParameterMetric metric = ParamFlowSlot.getHotParamMetricForName(UNCHANGED);
+
+        long deltaTotal = 0;
+        for (int i = 0; i < DELTA_ROUNDS; i++) {
+            RuleDelta<ParamFlowRule> delta = new RuleDelta<ParamFlowRule>()
+                    .put(CHANGED, Collections.singletonList(paramFlowRule(CHANGED, 300 + i)));
+            start = System.nanoTime();
+            DeltaRuleManager.applyParamFlowRuleDelta(delta);
+            deltaTotal += System.nanoTime() - start;
+        }
+        boolean metricKept = metric != null && metric == ParamFlowSlot.getHotParamMetricForName(UNCHANGED);
+
+        // 删除资源时统计一起被清掉
+        DeltaRuleManager.applyParamFlowRuleDelta(new RuleDelta<ParamFlowRule>().remove(UNCHANGED));
+        boolean metricCleared = ParamFlowSlot.getHotParamMetricForName(UNCHANGED) == null;
+
+        List<ParamFlowRule> changed = new ArrayList<>(rules);
+        changed.set(RULE_COUNT / 2, paramFlowRule(CHANGED, 200));
+        start = System.nanoTime();
+        ParamFlowRuleManager.loadRules(changed);
+        long fullUpdate = System.nanoTime() - start;
+
+        System.out.println(String.format("[param] rules=%d, full load=%.1fms, full update of 1 rule=%.1fms, "
+                        + "delta update of 1 rule=%.1fus, metric kept by delta=%s, metric cleared on remove=%s",
+                RULE_COUNT, fullLoad / 1e6, fullUpdate / 1e6, deltaTotal / 1e3 / DELTA_ROUNDS,
+                metricKept, metricCleared));
+    }
+
+    /**
+     * 数据源只能推送全量规则时，由 RuleDiffer 比较之后再增量更新
+     * 这里直接调用 RuleDiffer，不经过 DynamicSentinelProperty，因为它在更新时会把全量的规则打印到日志中，耗时比比较本身还长
+     */
+    private static void simulateDiffer() {
+        RuleDiffer<FlowRule> differ = new RuleDiffer<>();
+        DeltaRuleManager.registerFlowDeltaProperty(differ.getDeltaProperty());
+        List<FlowRule> rules = new ArrayList<>(RULE_COUNT);
+        for (int i = 0; i < RULE_COUNT; i++) {
+            rules.add(flowRule(resource(i), 100));
+        }
+        differ.configUpdate(rules);
+
+        List<FlowRule> before = DeltaRuleManager.currentFlowRules(UNCHANGED);
+        long total = 0;
+        int rounds = 20;
+        for (int i = 0; i < rounds; i++) {
+            List<FlowRule> changed = new ArrayList<>(rules);
+            changed.set(RULE_COUNT / 2, flowRule(CHANGED, 500 + i));
+            long start = System.nanoTime();
+            differ.configUpdate(changed);
+            total += System.nanoTime() - start;
+        }
+
+        System.out.println(String.format("[differ] rules=%d, diff and apply 1 changed rule=%.1fms, "
+                        + "unchanged rules kept=%s, changed count=%.0f",
+                RULE_COUNT, total / 1e6 / rounds, before == DeltaRuleManager.currentFlowRules(UNCHANGED),
+                DeltaRuleManager.currentFlowRules(CHANGED).get(0).getCount()));
+    }
+
+    private static String resource(int i) {
+        return "resource-" + i;
+    }
+
+    private static FlowRule flowRule(String resource, double count) {
+        FlowRule rule = new FlowRule();
+        rule.setResource(resource);
+        rule.setGrade(RuleConstant.FLOW_GRADE_QPS)
+                .setCount(count)
+                // 匀速排队的流控器带有状态，可以看出流控器有没有被重新创建
+                .setControlBehavior(RuleConstant.CONTROL_BEHAVIOR_RATE_LIMITER)
+                .setMaxQueueingTimeMs(500);
+        return rule;
+    }
+
+    private static ParamFlowRule paramFlowRule(String resource, double count) {
+        ParamFlowRule rule = new ParamFlowRule();
+        rule.setResource(resource);
+        rule.setParamIdx(0)
+                .setCount(count);
+        return rule;
+    }
+
+}
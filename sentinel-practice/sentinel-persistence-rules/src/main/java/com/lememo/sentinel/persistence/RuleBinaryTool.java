@@ -0,0 +1,72 @@
+package com.lememo.sentinel.persistence;
+
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.TypeReference;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * 把 JSON 格式的规则文件转换成二进制格式
+ *
+ * 使用方式：
+ * <pre>
+ * RuleBinaryTool flow|param &lt;input.json&gt; &lt;output&gt; [--base64]
+ * </pre>
+ * 加上 --base64 时输出 Base64 编码后的文本，可以直接发布到 Nacos 中；否则输出原始的二进制，可以用于本地文件数据源。
+ * 转换之后会重新解码一遍，和 JSON 解析的结果比较，保证转换前后的规则是一致的。
+ * @author houyi
+ * @date 2019-03-04
+ **/
+public class RuleBinaryTool {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: RuleBinaryTool flow|param <input.json> <output> [--base64]");
+            System.exit(1);
+        }
+        String kind = args[0];
+        Path input = Paths.get(args[1]);
+        Path output = Paths.get(args[2]);
+        boolean base64 = args.length > 3 && "--base64".equals(args[3]);
+
+        String json = new String(Files.readAllBytes(input), StandardCharsets.UTF_8);
+        byte[] binary;
+        int ruleCount;
+        if ("flow".equals(kind)) {
+            List<FlowRule> rules = JSON.parseObject(json, new TypeReference<List<FlowRule>>() {});
+            binary = BinaryRuleCodec.encodeFlowRules(rules);
+            verify(rules, BinaryRuleCodec.decodeFlowRules(ByteBuffer.wrap(binary)));
+            ruleCount = rules.size();
+        } else if ("param".equals(kind)) {
+            List<ParamFlowRule> rules = JSON.parseObject(json, new TypeReference<List<ParamFlowRule>>() {});
+            binary = BinaryRuleCodec.encodeParamFlowRules(rules);
+            verify(rules, BinaryRuleCodec.decodeParamFlowRules(ByteBuffer.wrap(binary)));
+            ruleCount = rules.size();
+        } else {
+            throw new IllegalArgumentException("Unknown rule kind: " + kind);
+        }
+
+        byte[] content = base64 ? RuleConverters.toBase64(binary).getBytes(StandardCharsets.ISO_8859_1) : binary;
+        Files.write(output, content);
+        System.out.println(String.format("rules=%d, json=%d bytes, binary=%d bytes, output=%d bytes",
+                ruleCount, json.getBytes(StandardCharsets.UTF_8).length, binary.length, content.length));
+    }
+
+    /**
+     * 规则都实现了 equals，直接比较
+     */
+    private static void verify(List<?> expected, List<?> actual) {
+        if (!expected.equals(actual)) {
+            throw new IllegalStateException("Decoded rules do not match the source");
+        }
+    }
+
+}
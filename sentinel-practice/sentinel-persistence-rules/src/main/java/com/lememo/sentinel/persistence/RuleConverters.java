@@ -0,0 +1,76 @@
+package com.lememo.sentinel.persistence;
+
+import com.alibaba.csp.sentinel.datasource.Converter;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.TypeReference;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * 同时支持二进制和 JSON 格式的规则转换器
+ *
+ * Nacos 等配置中心保存的是文本，所以二进制的规则需要经过 Base64 编码后再发布，
+ * 编码后的内容以 "U1JC"（"SRB" 的 Base64）开头，转换器据此判断格式：
+ * 是二进制的规则时用 BinaryRuleCodec 解码，否则还是用 fastjson 解析，
+ * 这样配置中心里已有的 JSON 规则不需要一次性全部改掉。
+ * @author houyi
+ * @date 2019-03-04
+ **/
+public final class RuleConverters {
+
+    /**
+     * MAGIC 的 Base64 编码
+     */
+    static final String BASE64_PREFIX = "U1JC";
+
+    private RuleConverters() {
+    }
+
+    public static Converter<String, List<FlowRule>> flowRules() {
+        return source -> {
+            if (isBinary(source)) {
+                return BinaryRuleCodec.decodeFlowRules(decodeBase64(source));
+            }
+            return parseJson(source, new TypeReference<List<FlowRule>>() {});
+        };
+    }
+
+    public static Converter<String, List<ParamFlowRule>> paramFlowRules() {
+        return source -> {
+            if (isBinary(source)) {
+                return BinaryRuleCodec.decodeParamFlowRules(decodeBase64(source));
+            }
+            return parseJson(source, new TypeReference<List<ParamFlowRule>>() {});
+        };
+    }
+
+    /**
+     * 把二进制的规则编码成可以发布到配置中心的文本
+     */
+    public static String toBase64(byte[] binary) {
+        return Base64.getEncoder().encodeToString(binary);
+    }
+
+    private static boolean isBinary(String source) {
+        return source != null && source.startsWith(BASE64_PREFIX);
+    }
+
+    private static ByteBuffer decodeBase64(String source) {
+        // 配置中心的内容末尾可能带有换行
+        return ByteBuffer.wrap(Base64.getMimeDecoder().decode(source.trim().getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    private static <T> List<T> parseJson(String source, TypeReference<List<T>> type) {
+        if (source == null || source.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        return JSON.parseObject(source, type);
+    }
+
+}
@@ -0,0 +1,66 @@
+package com.lememo.sentinel.persistence;
+
+import com.alibaba.csp.sentinel.slots.block.AbstractRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 规则的增量变更
+ *
+ * 以资源为单位描述变更：put 表示新增或者修改一个资源的全部规则，remove 表示删除一个资源的全部规则。
+ * 同一个资源在一次变更中只保留最后一次操作。
+ * @author houyi
+ * @date 2019-03-05
+ **/
+public class RuleDelta<T extends AbstractRule> {
+
+    /**
+     * 资源以及它的新规则，空列表表示删除
+     */
+    private final Map<String, List<T>> changes = new LinkedHashMap<>();
+
+    /**
+     * 新增或者修改资源的规则，资源原有的规则会被全部替换
+     * @param resource 资源名
+     * @param rules 资源的全部规则，每个规则的 resource 必须和 resource 一致
+     */
+    public RuleDelta<T> put(String resource, List<T> rules) {
+        if (rules == null || rules.isEmpty()) {
+            return remove(resource);
+        }
+        for (T rule : rules) {
+            if (!resource.equals(rule.getResource())) {
+                throw new IllegalArgumentException("Rule " + rule + " does not belong to resource " + resource);
+            }
+        }
+        changes.put(resource, new ArrayList<>(rules));
+        return this;
+    }
+
+    public RuleDelta<T> remove(String resource) {
+        changes.put(resource, Collections.<T>emptyList());
+        return this;
+    }
+
+    public Map<String, List<T>> getChanges() {
+        return Collections.unmodifiableMap(changes);
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    public int size() {
+        return changes.size();
+    }
+
+    @Override
+    public String toString() {
+        return "RuleDelta{" + "changes=" + changes.keySet() + '}';
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.lememo.sentinel.persistence;
+
+import com.alibaba.csp.sentinel.property.DynamicSentinelProperty;
+import com.alibaba.csp.sentinel.property.PropertyListener;
+import com.alibaba.csp.sentinel.property.SentinelProperty;
+import com.alibaba.csp.sentinel.slots.block.AbstractRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 把全量的规则转换成增量的变更
+ *
+ * Nacos 等数据源每次推送的都是全量的规则，这里记住上一次的规则，按资源比较之后只把有变化的资源发出去。
+ * 比较本身还是要遍历全部规则，但是只用到 equals 和 hashCode，
+ * 不会像 FlowRuleManager 那样为每个规则重新创建流控器，也不会清掉没有变化的资源的统计。
+ * @author houyi
+ * @date 2019-03-05
+ **/
+public class RuleDiffer<T extends AbstractRule> implements PropertyListener<List<T>> {
+
+    private final SentinelProperty<RuleDelta<T>> deltaProperty = new DynamicSentinelProperty<>();
+
+    private Map<String, List<T>> previous = Collections.emptyMap();
+
+    /**
+     * 监听全量规则的 property，返回增量变更的 property
+     * @param fullProperty 全量规则的 property，例如 NacosDataSource.getProperty()
+     * @return 增量变更的 property，交给 DeltaRuleManager 注册
+     */
+    public static <T extends AbstractRule> SentinelProperty<RuleDelta<T>> of(SentinelProperty<List<T>> fullProperty) {
+        RuleDiffer<T> differ = new RuleDiffer<>();
+        fullProperty.addListener(differ);
+        return differ.getDeltaProperty();
+    }
+
+    public SentinelProperty<RuleDelta<T>> getDeltaProperty() {
+        return deltaProperty;
+    }
+
+    @Override
+    public synchronized void configUpdate(List<T> value) {
+        Map<String, List<T>> current = groupByResource(value);
+        RuleDelta<T> delta = diff(previous, current);
+        previous = current;
+        if (!delta.isEmpty()) {
+            deltaProperty.updateValue(delta);
+        }
+    }
+
+    @Override
+    public void configLoad(List<T> value) {
+        configUpdate(value);
+    }
+
+    static <T extends AbstractRule> RuleDelta<T> diff(Map<String, List<T>> previous, Map<String, List<T>> current) {
+        RuleDelta<T> delta = new RuleDelta<>();
+        for (Map.Entry<String, List<T>> entry : current.entrySet()) {
+            if (!entry.getValue().equals(previous.get(entry.getKey()))) {
+                delta.put(entry.getKey(), entry.getValue());
+            }
+        }
+        for (String resource : previous.keySet()) {
+            if (!current.containsKey(resource)) {
+                delta.remove(resource);
+            }
+        }
+        return delta;
+    }
+
+    static <T extends AbstractRule> Map<String, List<T>> groupByResource(List<T> rules) {
+        if (rules == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<T>> grouped = new HashMap<>(rules.size() * 2);
+        for (T rule : rules) {
+            if (rule == null || rule.getResource() == null) {
+                continue;
+            }
+            List<T> list = grouped.get(rule.getResource());
+            if (list == null) {
+                list = new ArrayList<>(1);
+                grouped.put(rule.getResource(), list);
+            }
+            list.add(rule);
+        }
+        return grouped;
+    }
+
+}
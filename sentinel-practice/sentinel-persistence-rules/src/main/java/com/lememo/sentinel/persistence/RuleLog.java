@@ -0,0 +1,208 @@
+package com.lememo.sentinel.persistence;
+
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.slots.block.AbstractRule;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 只追加写的规则日志
+ *
+ * 文件格式：
+ * <pre>
+ * 文件头：magic("SRL") | version(1) | kind(1) | 保留(3) | generation(8)
+ * 记录：  length(4) | crc32(4) | type(1) | body
+ * </pre>
+ * <ul>
+ *     <li>SNAPSHOT：body 为全部规则，只出现在压缩后文件的第一条记录</li>
+ *     <li>PUT：body 为一个资源的全部规则，替换该资源原有的规则</li>
+ *     <li>REMOVE：body 为资源名，删除该资源的全部规则</li>
+ * </ul>
+ * 压缩时写一个新文件再替换原来的文件，新文件的 generation 不同，读取方据此知道需要从头读取。
+ * 进程在写入一条记录的过程中退出时，文件末尾会留下不完整的记录，读取时通过长度和 crc 识别出来并忽略。
+ *
+ * 这个类记录读到的位置以及读到的规则，每次只把上次读到的位置之后新追加的部分 mmap 进来解析。
+ * @author houyi
+ * @date 2019-03-06
+ **/
+class RuleLog<T extends AbstractRule> {
+
+    static final byte[] MAGIC = {'S', 'R', 'L'};
+    static final byte VERSION = 1;
+    static final int HEADER_LENGTH = 16;
+    static final int RECORD_HEADER_LENGTH = 8;
+
+    static final byte SNAPSHOT = 1;
+    static final byte PUT = 2;
+    static final byte REMOVE = 3;
+
+    private final Path path;
+    private final RuleLogFormat<T> format;
+
+    private long generation = -1;
+    /**
+     * 下一次从这个位置开始读取
+     */
+    private long offset = HEADER_LENGTH;
+    private Map<String, List<T>> rules = new HashMap<>();
+
+    RuleLog(Path path, RuleLogFormat<T> format) {
+        this.path = path;
+        this.format = format;
+    }
+
+    /**
+     * 读取上次读到的位置之后新追加的记录
+     * @return 读到的变更，文件不存在或者没有新的记录时返回空的变更
+     */
+    RuleDelta<T> readTail() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_LENGTH) {
+                return new RuleDelta<>();
+            }
+            long fileGeneration = readGeneration(channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_LENGTH));
+            if (fileGeneration != generation) {
+                // 文件被压缩过或者是第一次读取，从头读取之后和之前的规则比较
+                Map<String, List<T>> previous = rules;
+                rules = new HashMap<>();
+                generation = fileGeneration;
+                offset = HEADER_LENGTH;
+                readRecords(channel, size, null);
+                return RuleDiffer.diff(previous, rules);
+            }
+            RuleDelta<T> delta = new RuleDelta<>();
+            if (size > offset) {
+                readRecords(channel, size, delta);
+            }
+            return delta;
+        } catch (NoSuchFileException e) {
+            return new RuleDelta<>();
+        }
+    }
+
+    private void readRecords(FileChannel channel, long size, RuleDelta<T> delta) throws IOException {
+        MappedByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, offset, size - offset);
+        CRC32 crc = new CRC32();
+        while (tail.remaining() >= RECORD_HEADER_LENGTH) {
+            int start = tail.position();
+            int length = tail.getInt();
+            int checksum = tail.getInt();
+            if (length <= 0 || length > tail.remaining()) {
+                // 不完整的记录，可能还在写入，下次再读
+                break;
+            }
+            ByteBuffer payload = tail.slice();
+            payload.limit(length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                RecordLog.warn("[RuleLog] Corrupted record at " + (offset + start) + " in " + path);
+                break;
+            }
+            apply(payload, delta);
+            tail.position(start + RECORD_HEADER_LENGTH + length);
+        }
+        offset += tail.position();
+    }
+
+    private void apply(ByteBuffer payload, RuleDelta<T> delta) {
+        byte type = payload.get();
+        ByteBuffer body = payload.slice();
+        if (type == SNAPSHOT) {
+            Map<String, List<T>> snapshot = RuleDiffer.groupByResource(format.decode(body));
+            if (delta != null) {
+                for (String resource : rules.keySet()) {
+                    if (!snapshot.containsKey(resource)) {
+                        delta.remove(resource);
+                    }
+                }
+                for (Map.Entry<String, List<T>> entry : snapshot.entrySet()) {
+                    delta.put(entry.getKey(), entry.getValue());
+                }
+            }
+            rules = snapshot;
+        } else if (type == PUT) {
+            List<T> list = format.decode(body);
+            if (list.isEmpty()) {
+                return;
+            }
+            String resource = list.get(0).getResource();
+            rules.put(resource, list);
+            if (delta != null) {
+                delta.put(resource, list);
+            }
+        } else if (type == REMOVE) {
+            String resource = StandardCharsets.UTF_8.decode(body).toString();
+            rules.remove(resource);
+            if (delta != null) {
+                delta.remove(resource);
+            }
+        } else {
+            RecordLog.warn("[RuleLog] Unknown record type " + type + " in " + path);
+        }
+    }
+
+    private long readGeneration(ByteBuffer header) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (header.get(i) != MAGIC[i]) {
+                throw new IllegalStateException("Not a rule log: " + path);
+            }
+        }
+        if (header.get(3) != VERSION) {
+            throw new IllegalStateException("Unsupported rule log version " + header.get(3) + ": " + path);
+        }
+        if (header.get(4) != format.kind()) {
+            throw new IllegalStateException("Rule kind mismatch, expected " + format.kind() + ": " + path);
+        }
+        return header.getLong(8);
+    }
+
+    long offset() {
+        return offset;
+    }
+
+    Map<String, List<T>> rules() {
+        return rules;
+    }
+
+    /**
+     * 把当前的全部规则转换成一个变更，交给新注册的监听器
+     */
+    RuleDelta<T> fullDelta() {
+        RuleDelta<T> delta = new RuleDelta<>();
+        for (Map.Entry<String, List<T>> entry : rules.entrySet()) {
+            delta.put(entry.getKey(), entry.getValue());
+        }
+        return delta;
+    }
+
+    static ByteBuffer header(byte kind, long generation) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        header.put(MAGIC).put(VERSION).put(kind).put(new byte[3]).putLong(generation);
+        header.flip();
+        return header;
+    }
+
+    static ByteBuffer record(byte type, byte[] body) {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_LENGTH + 1 + body.length);
+        record.putInt(1 + body.length).putInt(0).put(type).put(body);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_LENGTH, 1 + body.length);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.lememo.sentinel.persistence;
+
+import com.alibaba.csp.sentinel.datasource.AutoRefreshDataSource;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.property.PropertyListener;
+import com.alibaba.csp.sentinel.property.SentinelProperty;
+import com.alibaba.csp.sentinel.slots.block.AbstractRule;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * 读取规则日志的数据源
+ *
+ * 定时检查规则日志，有新追加的记录时只把新的部分 mmap 进来解析，得到的是增量的变更，需要注册到 DeltaRuleManager：
+ * <pre>
+ * RuleLogDataSource&lt;FlowRule&gt; ds = new RuleLogDataSource&lt;&gt;(path, RuleLogFormat.FLOW);
+ * DeltaRuleManager.registerFlowDeltaProperty(ds.getProperty());
+ * </pre>
+ * 增量的变更只有在已经拿到了之前全部规则的前提下才有意义，所以这里的 property 在注册监听器时，
+ * 交给监听器的是当前全部的规则，而不是最后一次的变更。
+ * @author houyi
+ * @date 2019-03-06
+ **/
+public class RuleLogDataSource<T extends AbstractRule> extends AutoRefreshDataSource<RuleDelta<T>, RuleDelta<T>> {
+
+    private static final long DEFAULT_REFRESH_MS = 3000;
+
+    private final File file;
+
+    private final RuleLog<T> log;
+
+    private final RuleLogProperty deltaProperty = new RuleLogProperty();
+
+    private long lastModified;
+    private long lastSize;
+
+    public RuleLogDataSource(Path path, RuleLogFormat<T> format) {
+        this(path, format, DEFAULT_REFRESH_MS);
+    }
+
+    public RuleLogDataSource(Path path, RuleLogFormat<T> format, long refreshMs) {
+        // 读到的已经是变更了，不需要再转换
+        super(source -> source, refreshMs);
+        this.file = path.toFile();
+        this.log = new RuleLog<>(path, format);
+        firstLoad();
+    }
+
+    private void firstLoad() {
+        try {
+            getProperty().updateValue(loadConfig());
+        } catch (Exception e) {
+            RecordLog.warn("[RuleLogDataSource] Failed to load rules from " + file, e);
+        }
+    }
+
+    @Override
+    public RuleDelta<T> readSource() throws Exception {
+        // 定时任务和 firstLoad 可能同时执行
+        synchronized (log) {
+            lastModified = file.lastModified();
+            lastSize = file.length();
+            return log.readTail();
+        }
+    }
+
+    @Override
+    protected boolean isModified() {
+        // 压缩之后文件的大小可能不变，所以同时比较修改时间
+        return file.lastModified() != lastModified || file.length() != lastSize;
+    }
+
+    @Override
+    public SentinelProperty<RuleDelta<T>> getProperty() {
+        return deltaProperty;
+    }
+
+    /**
+     * 已经读到的位置，用于观察每次读取的量
+     */
+    public long getOffset() {
+        synchronized (log) {
+            return log.offset();
+        }
+    }
+
+    private final class RuleLogProperty implements SentinelProperty<RuleDelta<T>> {
+
+        private final Set<PropertyListener<RuleDelta<T>>> listeners = new CopyOnWriteArraySet<>();
+
+        @Override
+        public void addListener(PropertyListener<RuleDelta<T>> listener) {
+            listeners.add(listener);
+            RuleDelta<T> full;
+            synchronized (log) {
+                full = log.fullDelta();
+            }
+            listener.configLoad(full);
+        }
+
+        @Override
+        public void removeListener(PropertyListener<RuleDelta<T>> listener) {
+            listeners.remove(listener);
+        }
+
+        @Override
+        public boolean updateValue(RuleDelta<T> newValue) {
+            if (newValue == null || newValue.isEmpty()) {
+                return false;
+            }
+            for (PropertyListener<RuleDelta<T>> listener : listeners) {
+                listener.configUpdate(newValue);
+            }
+            return true;
+        }
+    }
+
+}
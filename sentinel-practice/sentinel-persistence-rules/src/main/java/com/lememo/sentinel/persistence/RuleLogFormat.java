@@ -0,0 +1,58 @@
+package com.lememo.sentinel.persistence;
+
+import com.alibaba.csp.sentinel.slots.block.AbstractRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * 规则日志中保存的规则类型，规则本身使用 BinaryRuleCodec 编码
+ * @author houyi
+ * @date 2019-03-06
+ **/
+public abstract class RuleLogFormat<T extends AbstractRule> {
+
+    public static final RuleLogFormat<FlowRule> FLOW = new RuleLogFormat<FlowRule>((byte) 1) {
+        @Override
+        byte[] encode(List<FlowRule> rules) {
+            return BinaryRuleCodec.encodeFlowRules(rules);
+        }
+
+        @Override
+        List<FlowRule> decode(ByteBuffer source) {
+            return BinaryRuleCodec.decodeFlowRules(source);
+        }
+    };
+
+    public static final RuleLogFormat<ParamFlowRule> PARAM_FLOW = new RuleLogFormat<ParamFlowRule>((byte) 2) {
+        @Override
+        byte[] encode(List<ParamFlowRule> rules) {
+            return BinaryRuleCodec.encodeParamFlowRules(rules);
+        }
+
+        @Override
+        List<ParamFlowRule> decode(ByteBuffer source) {
+            return BinaryRuleCodec.decodeParamFlowRules(source);
+        }
+    };
+
+    /**
+     * 写在文件头中，防止用流控规则的数据源读取热点参数规则的文件
+     */
+    private final byte kind;
+
+    private RuleLogFormat(byte kind) {
+        this.kind = kind;
+    }
+
+    byte kind() {
+        return kind;
+    }
+
+    abstract byte[] encode(List<T> rules);
+
+    abstract List<T> decode(ByteBuffer source);
+
+}
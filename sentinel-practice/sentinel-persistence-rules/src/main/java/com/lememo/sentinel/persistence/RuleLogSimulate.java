@@ -0,0 +1,107 @@
+package com.lememo.sentinel.persistence;
+
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.TypeReference;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 规则日志的写入、压缩以及重启后恢复规则的耗时
+ *
+ * 不依赖任何配置中心，规则日志写在临时目录中
+ * 启动参数为规则的条数，默认为 100000
+ * @author houyi
+ * @date 2019-03-06
+ **/
+public class RuleLogSimulate {
+
+    private static final int DEFAULT_RULE_COUNT = 100000;
+
+    private static final int DELTA_COUNT = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int ruleCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_RULE_COUNT;
+        Path dir = Files.createTempDirectory("sentinel-rule-log");
+        Path path = dir.resolve("flow-rules.log");
+        List<FlowRule> rules = new ArrayList<>(ruleCount);
+        for (int i = 0; i < ruleCount; i++) {
+            rules.add(flowRule("resource-" + i, 100));
+        }
+
+        // 每秒检查一次，追加 100 条记录之后压缩
+        RuleLogWritableDataSource<FlowRule> writer = new RuleLogWritableDataSource<>(path, RuleLogFormat.FLOW,
+                1000, 100);
+        long start = System.nanoTime();
+        writer.write(rules);
+        long writeCost = System.nanoTime() - start;
+        long appendedSize = writer.size();
+        start = System.nanoTime();
+        writer.compact();
+        long compactCost = System.nanoTime() - start;
+        System.out.println(String.format("[write] rules=%d, write=%.1fms, size=%dKB, compact=%.1fms, "
+                        + "size after compact=%dKB",
+                ruleCount, writeCost / 1e6, appendedSize / 1024, compactCost / 1e6, writer.size() / 1024));
+
+        // 不断修改同一个资源，追加的记录达到阈值后由后台线程压缩
+        long sizeBefore = writer.size();
+        for (int i = 0; i < DELTA_COUNT; i++) {
+            writer.append(new RuleDelta<FlowRule>()
+                    .put("resource-0", Collections.singletonList(flowRule("resource-0", 200 + i))));
+        }
+        long sizeAfterAppend = writer.size();
+        Thread.sleep(1500);
+        System.out.println(String.format("[compact] appended=%d, size before=%dKB, after append=%dKB, "
+                        + "after periodic compact=%dKB",
+                DELTA_COUNT, sizeBefore / 1024, sizeAfterAppend / 1024, writer.size() / 1024));
+
+        // 模拟重启：用新的数据源从规则日志中恢复规则，定时刷新的间隔设置得很大，下面手动读取
+        start = System.nanoTime();
+        RuleLogDataSource<FlowRule> ds = new RuleLogDataSource<>(path, RuleLogFormat.FLOW, 3600 * 1000);
+        long recoverCost = System.nanoTime() - start;
+        start = System.nanoTime();
+        DeltaRuleManager.registerFlowDeltaProperty(ds.getProperty());
+        long applyCost = System.nanoTime() - start;
+        System.out.println(String.format("[recover] rules=%d, read from log=%.1fms, apply to FlowRuleManager=%.1fms, "
+                        + "resource-0 count=%.0f",
+                ruleCount, recoverCost / 1e6, applyCost / 1e6,
+                DeltaRuleManager.currentFlowRules("resource-0").get(0).getCount()));
+
+        // 作为对比，从 JSON 文件中解析同样的规则
+        String json = JSON.toJSONString(rules);
+        start = System.nanoTime();
+        JSON.parseObject(json, new TypeReference<List<FlowRule>>() {});
+        System.out.println(String.format("[json] rules=%d, parse=%.1fms", ruleCount,
+                (System.nanoTime() - start) / 1e6));
+
+        // 追加一条变更后重新加载，只读取新追加的部分
+        writer.append(new RuleDelta<FlowRule>()
+                .put("resource-1", Collections.singletonList(flowRule("resource-1", 300))));
+        long offset = ds.getOffset();
+        start = System.nanoTime();
+        ds.getProperty().updateValue(ds.loadConfig());
+        long reloadCost = System.nanoTime() - start;
+        System.out.println(String.format("[reload] read bytes=%d, reload=%.1fus, resource-1 count=%.0f",
+                ds.getOffset() - offset, reloadCost / 1e3,
+                DeltaRuleManager.currentFlowRules("resource-1").get(0).getCount()));
+
+        ds.close();
+        writer.close();
+        System.exit(0);
+    }
+
+    private static FlowRule flowRule(String resource, double count) {
+        FlowRule rule = new FlowRule();
+        rule.setResource(resource);
+        rule.setLimitApp(RuleConstant.LIMIT_APP_DEFAULT);
+        rule.setGrade(RuleConstant.FLOW_GRADE_QPS)
+                .setCount(count);
+        return rule;
+    }
+
+}
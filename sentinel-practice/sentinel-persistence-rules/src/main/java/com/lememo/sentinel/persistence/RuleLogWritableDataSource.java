@@ -0,0 +1,224 @@
+package com.lememo.sentinel.persistence;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.datasource.WritableDataSource;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.slots.block.AbstractRule;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 写入规则日志的数据源
+ *
+ * 和 Sentinel 的 FileWritableDataSource 一样接收全量的规则（例如 dashboard 推送过来的规则），
+ * 但是不会覆盖整个文件，而是和当前的规则比较之后，只把有变化的资源追加到文件的末尾。
+ * 能直接拿到变更的地方可以调用 append，省掉比较的过程。
+ *
+ * 追加的记录越来越多之后，后台线程定时检查，追加的记录数达到阈值时压缩：
+ * 把当前的全部规则写成一个只有一条 SNAPSHOT 记录的新文件，再原子地替换原来的文件。
+ * @author houyi
+ * @date 2019-03-06
+ **/
+public class RuleLogWritableDataSource<T extends AbstractRule> implements WritableDataSource<List<T>> {
+
+    private static final long DEFAULT_COMPACT_INTERVAL_MS = 60 * 1000;
+    private static final int DEFAULT_COMPACT_THRESHOLD = 1000;
+
+    private final Path path;
+    private final RuleLogFormat<T> format;
+    private final int compactThreshold;
+
+    private final ScheduledExecutorService compactService = Executors.newSingleThreadScheduledExecutor(
+            new NamedThreadFactory("sentinel-rule-log-compact-task", true));
+
+    private FileChannel channel;
+    private Map<String, List<T>> rules;
+    /**
+     * 上次压缩之后追加的记录数
+     */
+    private int appendedRecords;
+
+    public RuleLogWritableDataSource(Path path, RuleLogFormat<T> format) throws IOException {
+        this(path, format, DEFAULT_COMPACT_INTERVAL_MS, DEFAULT_COMPACT_THRESHOLD);
+    }
+
+    /**
+     * @param path 规则日志文件
+     * @param format 规则的类型
+     * @param compactIntervalMs 检查是否需要压缩的间隔
+     * @param compactThreshold 追加的记录数达到该值时压缩
+     */
+    public RuleLogWritableDataSource(Path path, RuleLogFormat<T> format, long compactIntervalMs,
+                                     int compactThreshold) throws IOException {
+        this.path = path;
+        this.format = format;
+        this.compactThreshold = compactThreshold;
+        open();
+        compactService.scheduleWithFixedDelay(this::compactIfNecessary, compactIntervalMs, compactIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void open() throws IOException {
+        if (!Files.exists(path) || Files.size(path) < RuleLog.HEADER_LENGTH) {
+            writeNewFile(new ArrayList<T>());
+        }
+        RuleLog<T> log = new RuleLog<>(path, format);
+        log.readTail();
+        this.rules = new HashMap<>(log.rules());
+        this.channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        // 上次退出时没有写完的记录直接丢掉
+        if (channel.size() > log.offset()) {
+            RecordLog.warn("[RuleLogWritableDataSource] Truncating incomplete records of " + path);
+            channel.truncate(log.offset());
+        }
+        channel.position(log.offset());
+    }
+
+    /**
+     * 写入全量的规则，只追加有变化的资源
+     */
+    @Override
+    public synchronized void write(List<T> value) throws Exception {
+        append(RuleDiffer.diff(rules, RuleDiffer.groupByResource(value)));
+    }
+
+    /**
+     * 追加一组变更，返回之前已经 force 到磁盘上
+     * 写入失败时把文件截断到追加之前的位置，不会留下写了一半的记录，内存中的规则也保持不变
+     */
+    public synchronized void append(RuleDelta<T> delta) throws IOException {
+        if (delta.isEmpty()) {
+            return;
+        }
+        List<ByteBuffer> records = new ArrayList<>(delta.size());
+        for (Map.Entry<String, List<T>> entry : delta.getChanges().entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                records.add(RuleLog.record(RuleLog.REMOVE, entry.getKey().getBytes(StandardCharsets.UTF_8)));
+            } else {
+                records.add(RuleLog.record(RuleLog.PUT, format.encode(entry.getValue())));
+            }
+        }
+        ByteBuffer[] buffers = records.toArray(new ByteBuffer[0]);
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        long start = channel.position();
+        try {
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            rollback(start);
+            throw e;
+        }
+        for (Map.Entry<String, List<T>> entry : delta.getChanges().entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                rules.remove(entry.getKey());
+            } else {
+                rules.put(entry.getKey(), entry.getValue());
+            }
+        }
+        appendedRecords += records.size();
+    }
+
+    private void rollback(long start) {
+        try {
+            channel.truncate(start);
+            channel.position(start);
+        } catch (IOException e) {
+            RecordLog.warn("[RuleLogWritableDataSource] Failed to truncate incomplete records of " + path, e);
+        }
+    }
+
+    /**
+     * 把当前的全部规则写成一个新文件，替换原来的文件
+     * 新文件替换成功之后才切换到新文件上追加，写入或者替换失败时继续使用原来的文件
+     */
+    public synchronized void compact() throws IOException {
+        List<T> all = new ArrayList<>();
+        for (List<T> resourceRules : rules.values()) {
+            all.addAll(resourceRules);
+        }
+        writeNewFile(all);
+        FileChannel old = channel;
+        channel = FileChannel.open(path, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        appendedRecords = 0;
+        try {
+            old.close();
+        } catch (IOException e) {
+            RecordLog.warn("[RuleLogWritableDataSource] Failed to close replaced rule log " + path, e);
+        }
+    }
+
+    private void compactIfNecessary() {
+        try {
+            synchronized (this) {
+                if (appendedRecords < compactThreshold) {
+                    return;
+                }
+                compact();
+            }
+            RecordLog.info("[RuleLogWritableDataSource] Compacted rule log " + path);
+        } catch (Throwable e) {
+            RecordLog.warn("[RuleLogWritableDataSource] Failed to compact rule log " + path, e);
+        }
+    }
+
+    /**
+     * 先写临时文件再替换，任何时候读取方看到的都是一个完整的文件
+     * 每个文件使用一个随机的 generation，读取方发现变化之后从头读取
+     */
+    private void writeNewFile(List<T> all) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        Files.createDirectories(parent);
+        Path tmp = Files.createTempFile(parent, path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                long generation = ThreadLocalRandom.current().nextLong();
+                ByteBuffer[] buffers = {RuleLog.header(format.kind(), generation),
+                        RuleLog.record(RuleLog.SNAPSHOT, format.encode(all))};
+                long remaining = buffers[0].remaining() + buffers[1].remaining();
+                while (remaining > 0) {
+                    remaining -= out.write(buffers);
+                }
+                out.force(true);
+            }
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    /**
+     * 当前文件的大小
+     */
+    public synchronized long size() throws IOException {
+        return channel.size();
+    }
+
+    @Override
+    public synchronized void close() throws Exception {
+        compactService.shutdownNow();
+        channel.close();
+    }
+
+}
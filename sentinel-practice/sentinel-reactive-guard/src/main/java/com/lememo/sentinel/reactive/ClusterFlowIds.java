@@ -0,0 +1,81 @@
+package com.lememo.sentinel.reactive;
+
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.ClusterFlowConfig;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 查找资源上需要提前请求 token 的集群规则
+ *
+ * FlowRuleManager.getRules() 每次都会把所有的规则复制一遍，这里通过反射直接读取按资源分组的规则，
+ * 规则更新时 FlowRuleManager 会清空并重新填充这个 map，所以只需要获取一次。
+ * 只处理 limitApp 为 default 的规则，其他规则是否生效取决于调用方，依然交给 FlowRuleChecker 同步请求。
+ * @author houyi
+ * @date 2019-03-11
+ **/
+final class ClusterFlowIds {
+
+    static final long[] EMPTY = new long[0];
+
+    private static final Map<String, List<FlowRule>> FLOW_RULES = flowRules();
+
+    private ClusterFlowIds() {
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, List<FlowRule>> flowRules() {
+        try {
+            Field field = FlowRuleManager.class.getDeclaredField("flowRules");
+            field.setAccessible(true);
+            return (Map<String, List<FlowRule>>) field.get(null);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unsupported sentinel version, field not found: flowRules", e);
+        }
+    }
+
+    /**
+     * @return 资源上的流控规则，没有时返回 null
+     */
+    static List<FlowRule> rulesOf(String resource) {
+        return FLOW_RULES.get(resource);
+    }
+
+    /**
+     * @return 资源上集群规则的 flowId，没有时返回 EMPTY
+     */
+    static long[] of(String resource) {
+        List<FlowRule> rules = FLOW_RULES.get(resource);
+        if (rules == null) {
+            return EMPTY;
+        }
+        int count = 0;
+        for (FlowRule rule : rules) {
+            if (isPrefetchable(rule)) {
+                count++;
+            }
+        }
+        if (count == 0) {
+            return EMPTY;
+        }
+        long[] flowIds = new long[count];
+        int i = 0;
+        for (FlowRule rule : rules) {
+            if (isPrefetchable(rule)) {
+                flowIds[i++] = rule.getClusterConfig().getFlowId();
+            }
+        }
+        return flowIds;
+    }
+
+    private static boolean isPrefetchable(FlowRule rule) {
+        ClusterFlowConfig config = rule.getClusterConfig();
+        return rule.isClusterMode() && config != null && config.getFlowId() != null
+                && RuleConstant.LIMIT_APP_DEFAULT.equals(rule.getLimitApp());
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.lememo.sentinel.reactive;
+
+import com.alibaba.csp.sentinel.AsyncEntry;
+import com.alibaba.csp.sentinel.EntryType;
+import com.alibaba.csp.sentinel.cluster.ClusterStateManager;
+import com.alibaba.csp.sentinel.cluster.TokenResult;
+import com.alibaba.csp.sentinel.cluster.TokenResultStatus;
+import com.alibaba.csp.sentinel.cluster.client.ClusterTokenClient;
+import com.alibaba.csp.sentinel.cluster.client.TokenClientProvider;
+import com.lememo.sentinel.clusterextension.client.AsyncTokenClient;
+import com.lememo.sentinel.guard.SphGuard;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.function.Function;
+
+/**
+ * 以非阻塞的方式为 Mono / Flux 埋点
+ *
+ * 用法：mono.transform(GuardTransformer.of("userResource"))
+ * <ul>
+ *     <li>订阅时通过 SphGuard.tryAsyncEntry 进入资源，source 结束、出错或者被取消时 exit，entry 可以在任意线程中 exit</li>
+ *     <li>被限流时不订阅 source，改为订阅 fallback，默认的 fallback 直接结束，和 SphGuard 被限流时返回 null 对应，不会创建异常</li>
+ *     <li>集群客户端模式下，先通过 AsyncTokenClient 异步请求资源上所有集群规则的 token，
+ *     结果到达后再进入资源，FlowRuleChecker 直接使用拿到的结果，调用线程不会等待 token server 的响应。
+ *     请求 token 之前先通过 LocalPrecheck 检查本地的规则，本地会限流时不请求 token，集群规则按请求失败处理，
+ *     由 FlowRuleChecker 在本地决定，避免拿到的 token 因为本地限流没有用上</li>
+ * </ul>
+ * 异步请求 token 时，source 在 token 的结果到达的线程上被订阅（CoalescingTokenClient 为 netty 的 IO 线程），
+ * source 中有耗时的操作时需要自己 publishOn 到其他线程。
+ * 当前的 token client 不是 AsyncTokenClient 时，集群规则依然由 FlowRuleChecker 同步请求。
+ * @author houyi
+ * @date 2019-03-11
+ **/
+public final class GuardTransformer<T> implements Function<Publisher<T>, Publisher<T>> {
+
+    private static final Object[] OBJECTS0 = new Object[0];
+
+    private final String resource;
+    private final EntryType entryType;
+    private final int count;
+    private final Object[] args;
+    private final Publisher<T> fallback;
+
+    private GuardTransformer(String resource, EntryType entryType, int count, Object[] args, Publisher<T> fallback) {
+        this.resource = resource;
+        this.entryType = entryType;
+        this.count = count;
+        this.args = args;
+        this.fallback = fallback;
+    }
+
+    public static <T> GuardTransformer<T> of(String resource) {
+        return new GuardTransformer<>(resource, EntryType.OUT, 1, OBJECTS0, Mono.<T>empty());
+    }
+
+    /**
+     * @param resource 资源名
+     * @param entryType 流量类型
+     * @param args 热点参数，每个请求的参数不同时，每个请求创建一个 GuardTransformer
+     */
+    public static <T> GuardTransformer<T> of(String resource, EntryType entryType, Object... args) {
+        return new GuardTransformer<>(resource, entryType, 1, args, Mono.<T>empty());
+    }
+
+    /**
+     * @param fallback 被限流时订阅的 publisher
+     */
+    public GuardTransformer<T> orElse(Publisher<T> fallback) {
+        return new GuardTransformer<>(resource, entryType, count, args, fallback);
+    }
+
+    @Override
+    public Publisher<T> apply(Publisher<T> source) {
+        if (source instanceof Mono) {
+            return Mono.defer(() -> {
+                long[] flowIds = clusterFlowIds();
+                AsyncTokenClient client = flowIds.length == 0 ? null : asyncTokenClient();
+                if (client == null) {
+                    return guardMono(source, null, null);
+                }
+                if (!LocalPrecheck.mayPass(resource, entryType, count)) {
+                    return guardMono(source, flowIds, notRequested(flowIds));
+                }
+                return Mono.fromFuture(client.requestTokensAsync(flowIds, count))
+                        .flatMap(results -> guardMono(source, flowIds, results));
+            });
+        }
+        return Flux.defer(() -> {
+            long[] flowIds = clusterFlowIds();
+            AsyncTokenClient client = flowIds.length == 0 ? null : asyncTokenClient();
+            if (client == null) {
+                return guardFlux(source, null, null);
+            }
+            if (!LocalPrecheck.mayPass(resource, entryType, count)) {
+                return guardFlux(source, flowIds, notRequested(flowIds));
+            }
+            return Mono.fromFuture(client.requestTokensAsync(flowIds, count))
+                    .flatMapMany(results -> guardFlux(source, flowIds, results));
+        });
+    }
+
+    private Mono<T> guardMono(Publisher<T> source, long[] flowIds, TokenResult[] results) {
+        AsyncEntry entry = enter(flowIds, results);
+        if (entry == null) {
+            return Mono.from(fallback);
+        }
+        return Mono.from(source).doFinally(signal -> entry.exit(count, args));
+    }
+
+    private Flux<T> guardFlux(Publisher<T> source, long[] flowIds, TokenResult[] results) {
+        AsyncEntry entry = enter(flowIds, results);
+        if (entry == null) {
+            return Flux.from(fallback);
+        }
+        return Flux.from(source).doFinally(signal -> entry.exit(count, args));
+    }
+
+    private AsyncEntry enter(long[] flowIds, TokenResult[] results) {
+        if (flowIds == null) {
+            return SphGuard.tryAsyncEntry(resource, entryType, count, args);
+        }
+        return AsyncTokenClient.callWithTokens(flowIds, results,
+                () -> SphGuard.tryAsyncEntry(resource, entryType, count, args));
+    }
+
+    /**
+     * 没有请求 token 的集群规则按请求失败处理，FlowRuleChecker 不会再同步请求 token server
+     */
+    private static TokenResult[] notRequested(long[] flowIds) {
+        TokenResult[] results = new TokenResult[flowIds.length];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new TokenResult(TokenResultStatus.FAIL);
+        }
+        return results;
+    }
+
+    private long[] clusterFlowIds() {
+        return ClusterStateManager.isClient() ? ClusterFlowIds.of(resource) : ClusterFlowIds.EMPTY;
+    }
+
+    private static AsyncTokenClient asyncTokenClient() {
+        ClusterTokenClient client = TokenClientProvider.getClient();
+        return client instanceof AsyncTokenClient ? (AsyncTokenClient) client : null;
+    }
+
+}
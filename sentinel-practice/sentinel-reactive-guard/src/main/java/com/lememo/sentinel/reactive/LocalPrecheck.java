@@ -0,0 +1,70 @@
+package com.lememo.sentinel.reactive;
+
+import com.alibaba.csp.sentinel.EntryType;
+import com.alibaba.csp.sentinel.node.ClusterNode;
+import com.alibaba.csp.sentinel.slotchain.StringResourceWrapper;
+import com.alibaba.csp.sentinel.slots.block.BlockException;
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.clusterbuilder.ClusterBuilderSlot;
+import com.alibaba.csp.sentinel.slots.system.SystemRuleManager;
+
+import java.util.List;
+
+/**
+ * 请求集群 token 之前，先用本地的规则检查一遍请求是否会被限流
+ *
+ * 只读取统计数据，不修改任何状态，覆盖的是最常见的两类本地规则：
+ * <ul>
+ *     <li>系统规则，和 SystemSlot 一样调用 SystemRuleManager.checkSystem</li>
+ *     <li>limitApp 为 default、直接拒绝的 QPS 或线程数规则，和 DefaultController 一样比较 ClusterNode 上的统计</li>
+ * </ul>
+ * 匀速排队、预热等会修改状态的规则以及授权、降级规则不在这里检查，依然只在 slot chain 中生效。
+ * @author houyi
+ * @date 2019-03-11
+ **/
+final class LocalPrecheck {
+
+    private LocalPrecheck() {
+    }
+
+    /**
+     * @return 本地规则是否会放行这次请求，无法判断时返回 true
+     */
+    static boolean mayPass(String resource, EntryType entryType, int count) {
+        try {
+            SystemRuleManager.checkSystem(new StringResourceWrapper(resource, entryType));
+        } catch (BlockException e) {
+            return false;
+        }
+        List<FlowRule> rules = ClusterFlowIds.rulesOf(resource);
+        if (rules == null) {
+            return true;
+        }
+        ClusterNode node = null;
+        for (FlowRule rule : rules) {
+            if (!isCheckable(rule)) {
+                continue;
+            }
+            if (node == null) {
+                node = ClusterBuilderSlot.getClusterNode(resource, entryType);
+                if (node == null) {
+                    return true;
+                }
+            }
+            double current = rule.getGrade() == RuleConstant.FLOW_GRADE_THREAD ? node.curThreadNum() : node.passQps();
+            if ((int) current + count > rule.getCount()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isCheckable(FlowRule rule) {
+        return !rule.isClusterMode()
+                && RuleConstant.LIMIT_APP_DEFAULT.equals(rule.getLimitApp())
+                && rule.getStrategy() == RuleConstant.STRATEGY_DIRECT
+                && rule.getControlBehavior() == RuleConstant.CONTROL_BEHAVIOR_DEFAULT;
+    }
+
+}
@@ -0,0 +1,161 @@
+package com.lememo.sentinel.reactive;
+
+import com.alibaba.csp.sentinel.Entry;
+import com.alibaba.csp.sentinel.EntryType;
+import com.alibaba.csp.sentinel.cluster.ClusterStateManager;
+import com.alibaba.csp.sentinel.slots.block.ClusterRuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.ClusterFlowConfig;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+import com.lememo.sentinel.clusterextension.LoopbackCluster;
+import com.lememo.sentinel.clusterextension.client.AsyncTokenClient;
+import com.lememo.sentinel.clusterextension.client.CoalescingTokenClient;
+import com.lememo.sentinel.guard.SphGuard;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 对比阻塞的埋点和 GuardTransformer 的开销
+ *
+ * 第一部分没有集群规则，在一个线程上对比 SphGuard.tryEntry、GuardTransformer 以及不埋点的 Mono 每次调用的耗时。
+ * 第二部分在同一个进程中启动 token server，资源配置一条集群规则：
+ * 阻塞的方式由多个线程调用 SphGuard.tryEntry，每个线程在 FlowRuleChecker 中等待 token server 的响应；
+ * 非阻塞的方式只用一个线程订阅 GuardTransformer，模拟一个 event loop，同时最多有 MAX_IN_FLIGHT 个请求在等待 token，
+ * 同时记录这个线程每次订阅花费的时间，也就是每个请求占用 event loop 的时间。
+ * @author houyi
+ * @date 2019-03-11
+ **/
+public class ReactiveGuardSimulate {
+
+    private static final String LOCAL_RESOURCE = "userResource";
+
+    private static final int SERVER_PORT = 11114;
+    private static final long FLOW_ID = 311L;
+    private static final String CLUSTER_RESOURCE = "cluster-resource-" + FLOW_ID;
+    /**
+     * 阈值足够大，所有请求都能通过，只比较请求 token 的开销
+     */
+    private static final double THRESHOLD = 100000000;
+
+    private static final int CALLS = 2000000;
+    private static final int SECONDS = 5;
+    private static final int MAX_IN_FLIGHT = 4096;
+    /**
+     * 最多记录的订阅耗时样本数
+     */
+    private static final int SUBSCRIBE_SAMPLES = 1000000;
+
+    public static void main(String[] args) throws Exception {
+        localOverhead();
+
+        LoopbackCluster.startServer(SERVER_PORT, THRESHOLD, FLOW_ID);
+        LoopbackCluster.startClient(SERVER_PORT, FLOW_ID);
+        ClusterStateManager.applyState(ClusterStateManager.CLUSTER_CLIENT);
+        CoalescingTokenClient.install();
+        AsyncTokenClient.install();
+        List<FlowRule> rules = new ArrayList<>();
+        rules.add(new FlowRule(CLUSTER_RESOURCE)
+                .setCount(THRESHOLD)
+                .setClusterMode(true)
+                .setClusterConfig(new ClusterFlowConfig()
+                        .setFlowId(FLOW_ID)
+                        .setThresholdType(ClusterRuleConstant.FLOW_THRESHOLD_GLOBAL)));
+        FlowRuleManager.loadRules(rules);
+
+        for (int threads : new int[] {1, 32}) {
+            blocking(threads);
+            blocking(threads);
+        }
+        nonBlocking();
+        nonBlocking();
+        System.exit(0);
+    }
+
+    private static void localOverhead() {
+        GuardTransformer<Integer> guard = GuardTransformer.of(LOCAL_RESOURCE, EntryType.IN);
+        Mono<Integer> source = Mono.just(1);
+        Mono<Integer> guarded = source.transform(guard);
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                Entry entry = SphGuard.tryEntry(LOCAL_RESOURCE, EntryType.IN);
+                if (entry != null) {
+                    entry.exit();
+                }
+            }
+            long blocking = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                guarded.subscribe();
+            }
+            long reactive = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i = 0; i < CALLS; i++) {
+                source.subscribe();
+            }
+            long plain = System.nanoTime() - start;
+            if (round > 0) {
+                System.out.printf("[local] SphGuard.tryEntry %.0f ns/call, GuardTransformer %.0f ns/call, "
+                                + "Mono without guard %.0f ns/call%n",
+                        blocking / (double) CALLS, reactive / (double) CALLS, plain / (double) CALLS);
+            }
+        }
+    }
+
+    private static void blocking(int threads) throws InterruptedException {
+        final AtomicLong calls = new AtomicLong();
+        final long end = System.currentTimeMillis() + SECONDS * 1000;
+        final CountDownLatch latch = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            new Thread(() -> {
+                while (System.currentTimeMillis() < end) {
+                    Entry entry = SphGuard.tryEntry(CLUSTER_RESOURCE, EntryType.IN);
+                    if (entry != null) {
+                        entry.exit();
+                    }
+                    calls.incrementAndGet();
+                }
+                latch.countDown();
+            }).start();
+        }
+        latch.await();
+        System.out.println("[blocking] threads=" + threads + ", calls/s=" + calls.get() / SECONDS);
+    }
+
+    private static void nonBlocking() {
+        Mono<Integer> guarded = Mono.just(1).transform(GuardTransformer.of(CLUSTER_RESOURCE, EntryType.IN));
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicLong passed = new AtomicLong();
+        long calls = 0;
+        long[] samples = new long[SUBSCRIBE_SAMPLES];
+        long end = System.currentTimeMillis() + SECONDS * 1000;
+        while (System.currentTimeMillis() < end) {
+            if (inFlight.get() >= MAX_IN_FLIGHT) {
+                Thread.yield();
+                continue;
+            }
+            inFlight.incrementAndGet();
+            long start = System.nanoTime();
+            guarded.doFinally(signal -> inFlight.decrementAndGet())
+                    .subscribe(value -> passed.incrementAndGet());
+            if (calls < samples.length) {
+                samples[(int) calls] = System.nanoTime() - start;
+            }
+            calls++;
+        }
+        int sampled = (int) Math.min(calls, samples.length);
+        Arrays.sort(samples, 0, sampled);
+        System.out.println("[non-blocking] threads=1, calls/s=" + calls / SECONDS
+                + ", passed/s=" + passed.get() / SECONDS
+                + ", subscribe p50=" + samples[sampled / 2] / 1000.0 + "us"
+                + ", p99=" + samples[(int) (sampled * 0.99)] / 1000.0 + "us"
+                + ", p99.9=" + samples[(int) (sampled * 0.999)] / 1000.0 + "us");
+    }
+
+}
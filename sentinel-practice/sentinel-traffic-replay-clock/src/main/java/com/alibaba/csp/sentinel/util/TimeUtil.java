@@ -0,0 +1,26 @@
+package com.alibaba.csp.sentinel.util;
+
+import com.lememo.sentinel.replay.clock.VirtualTime;
+
+/**
+ * 替换 sentinel-core 中的 TimeUtil，回放时 Sentinel 读到的是 VirtualTime 中的虚拟时间
+ *
+ * sentinel-core 1.4.1 的 TimeUtil 由一个后台线程每 1ms 把 System.currentTimeMillis 写到一个静态字段中，
+ * 反射修改这个字段会被后台线程覆盖，所以这里用同名的类替换。
+ * 这个类单独放在 sentinel-traffic-replay-clock 中，只有依赖了它的回放模块会用到，
+ * 依赖它的模块要把它声明在 sentinel-core 之前，ReplayClock.checkInstalled 会检查实际加载的是不是这个类。
+ *
+ * 只保留了 1.4.1 中的 currentTimeMillis 方法，升级 sentinel-core 时要对照新版本的 TimeUtil 修改。
+ * @author houyi
+ * @date 2019-03-15
+ **/
+public final class TimeUtil {
+
+    private TimeUtil() {
+    }
+
+    public static long currentTimeMillis() {
+        return VirtualTime.currentTimeMillis();
+    }
+
+}
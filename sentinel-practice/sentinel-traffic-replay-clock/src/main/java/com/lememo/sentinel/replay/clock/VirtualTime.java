@@ -0,0 +1,36 @@
+package com.lememo.sentinel.replay.clock;
+
+/**
+ * 替换后的 TimeUtil 读取的时间
+ *
+ * 没有设置时返回真实的时间，回放期间由 sentinel-traffic-replay 中的 ReplayEngine 通过 ReplayClock 推进。
+ * @author houyi
+ * @date 2019-03-15
+ **/
+public final class VirtualTime {
+
+    private static final long REAL_TIME = -1;
+
+    private static volatile long virtualMillis = REAL_TIME;
+
+    private VirtualTime() {
+    }
+
+    public static long currentTimeMillis() {
+        long millis = virtualMillis;
+        return millis == REAL_TIME ? System.currentTimeMillis() : millis;
+    }
+
+    public static boolean isVirtual() {
+        return virtualMillis != REAL_TIME;
+    }
+
+    public static void set(long millis) {
+        virtualMillis = millis;
+    }
+
+    public static void reset() {
+        virtualMillis = REAL_TIME;
+    }
+
+}
@@ -0,0 +1,61 @@
+package com.lememo.sentinel.replay;
+
+import java.util.PriorityQueue;
+
+/**
+ * 按虚拟时间排序的事件，例如请求的 exit、降级规则的恢复，时间相同时按加入的顺序执行
+ *
+ * 只在回放的线程中访问。
+ * @author houyi
+ * @date 2019-03-15
+ **/
+final class EventQueue {
+
+    private final PriorityQueue<Event> events = new PriorityQueue<>();
+    private long sequence;
+
+    void schedule(long timeMillis, Runnable task) {
+        events.add(new Event(timeMillis, sequence++, task));
+    }
+
+    /**
+     * 依次把虚拟时钟推进到每个事件的时间并执行，直到 timeMillis 为止（包括 timeMillis）
+     */
+    void runUntil(long timeMillis) {
+        Event event;
+        while ((event = events.peek()) != null && event.timeMillis <= timeMillis) {
+            events.poll();
+            if (event.timeMillis > ReplayClock.currentTimeMillis()) {
+                ReplayClock.set(event.timeMillis);
+            }
+            event.task.run();
+        }
+    }
+
+    /**
+     * 执行剩下的所有事件，执行的过程中新加入的事件也会执行
+     */
+    void drain() {
+        runUntil(Long.MAX_VALUE);
+    }
+
+    private static final class Event implements Comparable<Event> {
+
+        private final long timeMillis;
+        private final long sequence;
+        private final Runnable task;
+
+        private Event(long timeMillis, long sequence, Runnable task) {
+            this.timeMillis = timeMillis;
+            this.sequence = sequence;
+            this.task = task;
+        }
+
+        @Override
+        public int compareTo(Event o) {
+            int c = Long.compare(timeMillis, o.timeMillis);
+            return c != 0 ? c : Long.compare(sequence, o.sequence);
+        }
+    }
+
+}
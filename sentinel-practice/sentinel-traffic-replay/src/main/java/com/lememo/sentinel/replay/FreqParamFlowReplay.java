@@ -0,0 +1,74 @@
+package com.lememo.sentinel.replay;
+
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowItem;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 用回放的方式重写 sentinel-frequent-param-flow-control 中的 FreqParamFlowSimulate
+ *
+ * 规则和流量都和 FreqParamFlowSimulate 相同：热点参数阈值为 5，userId=111 的例外项阈值为 10，
+ * 4 个用户分别每隔 20、80、160、300ms 请求一次，一共 30s。
+ * FreqParamFlowSimulate 每个用户一个线程、真的 sleep，每秒打印的通过数是两次读取计数器之间的差，会有误差；
+ * 这里在虚拟时钟上回放，每一秒的通过数和拒绝数都是精确的，多次运行的结果也完全相同。
+ * @author houyi
+ * @date 2019-03-15
+ **/
+public class FreqParamFlowReplay {
+
+    private static final String RESOURCE = "freqParam";
+    private static final int[] USER_IDS = {111, 222, 333, 444};
+    private static final int[] INTERVAL_MILLIS = {20, 80, 160, 300};
+    private static final long DURATION_MILLIS = 30 * 1000;
+
+    public static void main(String[] args) {
+        ReplayReport report = ReplayEngine.replay(scenario());
+        System.out.printf("%-8s", "second");
+        for (int userId : USER_IDS) {
+            System.out.printf("%16s", userId + " pass/block");
+        }
+        System.out.println();
+        for (int second = 0; second < DURATION_MILLIS / 1000; second++) {
+            System.out.printf("%-8d", second);
+            for (int userId : USER_IDS) {
+                ReplayReport.Series series = report.series(RESOURCE, userId);
+                System.out.printf("%16s", series.pass(second) + "/" + series.block(second));
+            }
+            System.out.println();
+        }
+        report.printSummary(System.out, USER_IDS.length);
+    }
+
+    static ReplayScenario scenario() {
+        ParamFlowRule rule = new ParamFlowRule(RESOURCE)
+                .setParamIdx(0)
+                .setGrade(RuleConstant.FLOW_GRADE_QPS)
+                .setCount(5);
+        ParamFlowItem item = new ParamFlowItem().setObject(String.valueOf(111))
+                .setClassType(int.class.getName())
+                .setCount(10);
+        rule.setParamFlowItemList(Collections.singletonList(item));
+        return ReplayScenario.builder("freq-param-flow")
+                .paramFlowRules(Collections.singletonList(rule))
+                .traffic(FreqParamFlowReplay::traffic)
+                .build();
+    }
+
+    private static TrafficSource traffic() {
+        List<TrafficSource> users = new ArrayList<>();
+        for (int i = 0; i < USER_IDS.length; i++) {
+            users.add(SyntheticTraffic.builder(RESOURCE)
+                    .keys(KeyDistribution.fixed(USER_IDS[i]))
+                    .rate(RateCurve.constant(1000.0 / INTERVAL_MILLIS[i]))
+                    .evenlySpaced(true)
+                    .durationMillis(DURATION_MILLIS)
+                    .build());
+        }
+        return TrafficSource.merge(users.toArray(new TrafficSource[0]));
+    }
+
+}
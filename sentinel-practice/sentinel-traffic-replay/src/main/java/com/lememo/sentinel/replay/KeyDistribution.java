@@ -0,0 +1,70 @@
+package com.lememo.sentinel.replay;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * 热点参数的分布
+ * @author houyi
+ * @date 2019-03-15
+ **/
+@FunctionalInterface
+public interface KeyDistribution {
+
+    /**
+     * @param random 由流量源传入，使用同一个种子时结果相同
+     */
+    Object next(Random random);
+
+    /**
+     * 所有请求都使用同一个参数，key 为 null 时不传参数
+     */
+    static KeyDistribution fixed(Object key) {
+        return random -> key;
+    }
+
+    /**
+     * 在 1 到 n 之间均匀分布
+     */
+    static KeyDistribution uniform(int n) {
+        return random -> random.nextInt(n) + 1;
+    }
+
+    /**
+     * 在 1 到 n 之间按 Zipf 分布，排名为 k 的参数出现的概率和 1/k^exponent 成正比，1 最热
+     */
+    static KeyDistribution zipf(int n, double exponent) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int k = 1; k <= n; k++) {
+            sum += 1 / Math.pow(k, exponent);
+            cdf[k - 1] = sum;
+        }
+        double total = sum;
+        return random -> {
+            int index = Arrays.binarySearch(cdf, random.nextDouble() * total);
+            return (index >= 0 ? index : -index - 1) + 1;
+        };
+    }
+
+    /**
+     * 按权重选择参数
+     */
+    static KeyDistribution weighted(Object[] keys, double[] weights) {
+        if (keys.length == 0 || keys.length != weights.length) {
+            throw new IllegalArgumentException("keys and weights should have the same non-zero length");
+        }
+        double[] cdf = new double[weights.length];
+        double sum = 0;
+        for (int i = 0; i < weights.length; i++) {
+            sum += weights[i];
+            cdf[i] = sum;
+        }
+        double total = sum;
+        return random -> {
+            int index = Arrays.binarySearch(cdf, random.nextDouble() * total);
+            return keys[Math.min(keys.length - 1, index >= 0 ? index : -index - 1)];
+        };
+    }
+
+}
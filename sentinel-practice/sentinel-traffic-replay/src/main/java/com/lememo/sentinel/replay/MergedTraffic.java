@@ -0,0 +1,55 @@
+package com.lememo.sentinel.replay;
+
+import java.util.PriorityQueue;
+
+/**
+ * 多个流量源按时间合并，时间相同时按流量源的下标排序
+ * @author houyi
+ * @date 2019-03-15
+ **/
+final class MergedTraffic implements TrafficSource {
+
+    private final TrafficSource[] sources;
+    private final PriorityQueue<Head> heads = new PriorityQueue<>();
+
+    MergedTraffic(TrafficSource[] sources) {
+        this.sources = sources.clone();
+        for (int i = 0; i < sources.length; i++) {
+            Request request = sources[i].next();
+            if (request != null) {
+                heads.add(new Head(request, i));
+            }
+        }
+    }
+
+    @Override
+    public Request next() {
+        Head head = heads.poll();
+        if (head == null) {
+            return null;
+        }
+        Request next = sources[head.index].next();
+        if (next != null) {
+            heads.add(new Head(next, head.index));
+        }
+        return head.request;
+    }
+
+    private static final class Head implements Comparable<Head> {
+
+        private final Request request;
+        private final int index;
+
+        private Head(Request request, int index) {
+            this.request = request;
+            this.index = index;
+        }
+
+        @Override
+        public int compareTo(Head o) {
+            int c = Long.compare(request.getOffsetMillis(), o.request.getOffsetMillis());
+            return c != 0 ? c : Integer.compare(index, o.index);
+        }
+    }
+
+}
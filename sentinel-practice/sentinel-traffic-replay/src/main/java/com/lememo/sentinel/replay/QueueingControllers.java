@@ -0,0 +1,134 @@
+package com.lememo.sentinel.replay;
+
+import com.alibaba.csp.sentinel.node.Node;
+import com.alibaba.csp.sentinel.slots.block.flow.TrafficShapingController;
+import com.alibaba.csp.sentinel.slots.block.flow.controller.WarmUpController;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 回放时替换匀速排队规则的流控器
+ *
+ * RateLimiterController 和 WarmUpRateLimiterController 用 Thread.sleep 等到通过的时间，
+ * 回放时按虚拟时间算出来的等待时间会让回放真的 sleep 这么久。这里的流控器和原来的计算方式逐行一致，
+ * 得到的通过、拒绝的结果相同，只是不 sleep，而是把等待时间记下来，由 ReplayEngine 把请求的 exit 推迟这么久。
+ * 通过的请求按到达的时间计数，而 Sentinel 的统计中记在等待之后。
+ * @author houyi
+ * @date 2019-03-15
+ **/
+final class QueueingControllers {
+
+    /**
+     * 当前请求在各个匀速排队规则上累计的等待时间，只在回放的线程中访问
+     */
+    private static long queueingMillis;
+
+    private QueueingControllers() {
+    }
+
+    /**
+     * @return 上一个请求累计的等待时间，并清零
+     */
+    static long takeQueueingMillis() {
+        long millis = queueingMillis;
+        queueingMillis = 0;
+        return millis;
+    }
+
+    static final class RateLimiter implements TrafficShapingController {
+
+        private final int maxQueueingTimeMs;
+        private final double count;
+        private final AtomicLong latestPassedTime = new AtomicLong(-1);
+
+        RateLimiter(int maxQueueingTimeMs, double count) {
+            this.maxQueueingTimeMs = maxQueueingTimeMs;
+            this.count = count;
+        }
+
+        @Override
+        public boolean canPass(Node node, int acquireCount) {
+            return canPass(node, acquireCount, false);
+        }
+
+        @Override
+        public boolean canPass(Node node, int acquireCount, boolean prioritized) {
+            if (acquireCount <= 0) {
+                return true;
+            }
+            if (count <= 0) {
+                return false;
+            }
+            long currentTime = TimeUtil.currentTimeMillis();
+            long costTime = Math.round(1.0 * acquireCount / count * 1000);
+            long expectedTime = costTime + latestPassedTime.get();
+            if (expectedTime <= currentTime) {
+                latestPassedTime.set(currentTime);
+                return true;
+            }
+            long waitTime = costTime + latestPassedTime.get() - currentTime;
+            if (waitTime >= maxQueueingTimeMs) {
+                return false;
+            }
+            long oldTime = latestPassedTime.addAndGet(costTime);
+            waitTime = oldTime - currentTime;
+            if (waitTime >= maxQueueingTimeMs) {
+                latestPassedTime.addAndGet(-costTime);
+                return false;
+            }
+            queueingMillis += Math.max(0, waitTime);
+            return true;
+        }
+    }
+
+    static final class WarmUpRateLimiter extends WarmUpController {
+
+        private final int timeOutInMs;
+        private final AtomicLong latestPassedTime = new AtomicLong(-1);
+
+        WarmUpRateLimiter(double count, int warmUpPeriodSec, int timeOutMs, int coldFactor) {
+            super(count, warmUpPeriodSec, coldFactor);
+            this.timeOutInMs = timeOutMs;
+        }
+
+        @Override
+        public boolean canPass(Node node, int acquireCount) {
+            return canPass(node, acquireCount, false);
+        }
+
+        @Override
+        public boolean canPass(Node node, int acquireCount, boolean prioritized) {
+            long previousQps = node.previousPassQps();
+            syncToken(previousQps);
+            long currentTime = TimeUtil.currentTimeMillis();
+            long restToken = storedTokens.get();
+            long costTime;
+            if (restToken >= warningToken) {
+                long aboveToken = restToken - warningToken;
+                double warmingQps = Math.nextUp(1.0 / (aboveToken * slope + 1.0 / count));
+                costTime = Math.round(1.0 * acquireCount / warmingQps * 1000);
+            } else {
+                costTime = Math.round(1.0 * acquireCount / count * 1000);
+            }
+            long expectedTime = costTime + latestPassedTime.get();
+            if (expectedTime <= currentTime) {
+                latestPassedTime.set(currentTime);
+                return true;
+            }
+            long waitTime = costTime + latestPassedTime.get() - currentTime;
+            if (waitTime >= timeOutInMs) {
+                return false;
+            }
+            long oldTime = latestPassedTime.addAndGet(costTime);
+            waitTime = oldTime - currentTime;
+            if (waitTime >= timeOutInMs) {
+                latestPassedTime.addAndGet(-costTime);
+                return false;
+            }
+            queueingMillis += Math.max(0, waitTime);
+            return true;
+        }
+    }
+
+}
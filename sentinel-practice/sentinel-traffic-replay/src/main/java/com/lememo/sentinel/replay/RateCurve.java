@@ -0,0 +1,47 @@
+package com.lememo.sentinel.replay;
+
+/**
+ * 随时间变化的请求速率
+ * @author houyi
+ * @date 2019-03-15
+ **/
+@FunctionalInterface
+public interface RateCurve {
+
+    /**
+     * @param offsetMillis 相对于回放开始的时间
+     * @return 这一时刻每秒的请求数
+     */
+    double qpsAt(long offsetMillis);
+
+    default RateCurve plus(RateCurve other) {
+        return offsetMillis -> qpsAt(offsetMillis) + other.qpsAt(offsetMillis);
+    }
+
+    default RateCurve times(double factor) {
+        return offsetMillis -> qpsAt(offsetMillis) * factor;
+    }
+
+    static RateCurve constant(double qps) {
+        return offsetMillis -> qps;
+    }
+
+    /**
+     * 按余弦曲线在 minQps 和 maxQps 之间周期变化，例如一天之内的波峰波谷
+     *
+     * @param periodMillis 周期
+     * @param peakAtMillis 第一个波峰出现的时间
+     */
+    static RateCurve diurnal(double minQps, double maxQps, long periodMillis, long peakAtMillis) {
+        return offsetMillis -> minQps + (maxQps - minQps)
+                * (1 + Math.cos(2 * Math.PI * (offsetMillis - peakAtMillis) / periodMillis)) / 2;
+    }
+
+    /**
+     * 每隔 periodMillis 出现一次持续 burstMillis 的突发，突发期间的速率为 burstQps，其余时间为 0，通常和其他曲线相加使用
+     */
+    static RateCurve bursts(double burstQps, long periodMillis, long burstMillis) {
+        return offsetMillis -> offsetMillis % periodMillis < burstMillis ? burstQps : 0;
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.lememo.sentinel.replay;
+
+import com.alibaba.csp.sentinel.util.StringUtil;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Function;
+
+/**
+ * 从文件中读取记录下来的流量，逐行读取，不会一次把整个文件读进内存
+ *
+ * 每行一个请求，以逗号分隔，# 开头的行和空行会被忽略：
+ * <pre>
+ * timestamp,resource[,key[,origin[,latencyMillis[,error]]]]
+ * 1552636800000,/user/get,111,app-a,12,false
+ * </pre>
+ * timestamp 是毫秒数，可以是绝对时间也可以是相对时间，第一个请求的时间作为回放的开始，后面的请求不能早于前一个请求。
+ * key 为空时不传参数，默认按 Long 解析，不是数字时作为 String。
+ * @author houyi
+ * @date 2019-03-15
+ **/
+public final class RecordedTraffic implements TrafficSource, Closeable {
+
+    private static final String SEPARATOR = ",";
+
+    private final BufferedReader reader;
+    private final Function<String, Object> keyParser;
+
+    private long firstTimestamp = -1;
+    private long lastOffset;
+    private int lineNumber;
+
+    private RecordedTraffic(BufferedReader reader, Function<String, Object> keyParser) {
+        this.reader = reader;
+        this.keyParser = keyParser;
+    }
+
+    public static RecordedTraffic fromCsv(Path path) throws IOException {
+        return fromCsv(path, RecordedTraffic::parseKey);
+    }
+
+    /**
+     * @param keyParser 把 key 列的文本转成热点参数，需要和热点规则中参数的类型一致
+     */
+    public static RecordedTraffic fromCsv(Path path, Function<String, Object> keyParser) throws IOException {
+        return new RecordedTraffic(Files.newBufferedReader(path, StandardCharsets.UTF_8), keyParser);
+    }
+
+    @Override
+    public Request next() {
+        String line;
+        try {
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    return parse(line);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return null;
+    }
+
+    private Request parse(String line) {
+        String[] columns = line.split(SEPARATOR, -1);
+        if (columns.length < 2) {
+            throw new IllegalArgumentException("line " + lineNumber + ": expected timestamp,resource[,...] but was " + line);
+        }
+        long timestamp = Long.parseLong(columns[0].trim());
+        if (firstTimestamp < 0) {
+            firstTimestamp = timestamp;
+        }
+        long offset = timestamp - firstTimestamp;
+        if (offset < lastOffset) {
+            throw new IllegalArgumentException("line " + lineNumber + ": timestamp " + timestamp
+                    + " is earlier than the previous request");
+        }
+        lastOffset = offset;
+        String key = column(columns, 2);
+        String latency = column(columns, 4);
+        String error = column(columns, 5);
+        return new Request(offset, columns[1].trim(), key == null ? null : keyParser.apply(key), column(columns, 3),
+                latency == null ? 0 : Integer.parseInt(latency), Boolean.parseBoolean(error));
+    }
+
+    private static String column(String[] columns, int index) {
+        if (index >= columns.length) {
+            return null;
+        }
+        String value = columns[index].trim();
+        return StringUtil.isEmpty(value) ? null : value;
+    }
+
+    private static Object parseKey(String text) {
+        try {
+            return Long.valueOf(text);
+        } catch (NumberFormatException e) {
+            return text;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
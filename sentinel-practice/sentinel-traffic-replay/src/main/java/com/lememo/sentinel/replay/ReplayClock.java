@@ -0,0 +1,52 @@
+package com.lememo.sentinel.replay;
+
+import com.alibaba.csp.sentinel.util.TimeUtil;
+import com.lememo.sentinel.replay.clock.VirtualTime;
+
+import java.security.CodeSource;
+
+/**
+ * 回放时使用的虚拟时钟
+ *
+ * 没有回放时返回真实的时间，回放期间由 ReplayEngine 按请求和事件的时间推进，
+ * Sentinel 通过 sentinel-traffic-replay-clock 中替换后的 TimeUtil 读到这个时间。
+ * 虚拟时间只会向前走，同一时刻只能有一个回放在运行。
+ * @author houyi
+ * @date 2019-03-15
+ **/
+public final class ReplayClock {
+
+    private ReplayClock() {
+    }
+
+    public static long currentTimeMillis() {
+        return VirtualTime.currentTimeMillis();
+    }
+
+    public static boolean isVirtual() {
+        return VirtualTime.isVirtual();
+    }
+
+    static void set(long millis) {
+        VirtualTime.set(millis);
+    }
+
+    static void reset() {
+        VirtualTime.reset();
+    }
+
+    /**
+     * 检查 Sentinel 使用的是 sentinel-traffic-replay-clock 中替换后的 TimeUtil，而不是 sentinel-core 中的版本
+     *
+     * @throws IllegalStateException classpath 中 sentinel-core 排在 sentinel-traffic-replay-clock 之前时
+     */
+    static void checkInstalled() {
+        CodeSource timeUtil = TimeUtil.class.getProtectionDomain().getCodeSource();
+        CodeSource clock = VirtualTime.class.getProtectionDomain().getCodeSource();
+        if (timeUtil == null || clock == null || !timeUtil.getLocation().equals(clock.getLocation())) {
+            throw new IllegalStateException("TimeUtil is loaded from " + (timeUtil == null ? null : timeUtil.getLocation())
+                    + ", put sentinel-traffic-replay-clock before sentinel-core in the classpath");
+        }
+    }
+
+}
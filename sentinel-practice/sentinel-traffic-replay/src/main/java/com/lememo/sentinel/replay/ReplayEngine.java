@@ -0,0 +1,213 @@
+package com.lememo.sentinel.replay;
+
+import com.alibaba.csp.sentinel.AsyncEntry;
+import com.alibaba.csp.sentinel.EntryType;
+import com.alibaba.csp.sentinel.SphU;
+import com.alibaba.csp.sentinel.Tracer;
+import com.alibaba.csp.sentinel.config.SentinelConfig;
+import com.alibaba.csp.sentinel.context.ContextUtil;
+import com.alibaba.csp.sentinel.slots.block.BlockException;
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.authority.AuthorityException;
+import com.alibaba.csp.sentinel.slots.block.authority.AuthorityRuleManager;
+import com.alibaba.csp.sentinel.slots.block.degrade.DegradeException;
+import com.alibaba.csp.sentinel.slots.block.degrade.DegradeRule;
+import com.alibaba.csp.sentinel.slots.block.degrade.DegradeRuleManager;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowException;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+import com.alibaba.csp.sentinel.slots.block.flow.TrafficShapingController;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowException;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRuleManager;
+import com.alibaba.csp.sentinel.slots.system.SystemBlockException;
+import com.alibaba.csp.sentinel.slots.system.SystemRuleManager;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在虚拟时钟上把流量回放到 Sentinel 中，得到每个请求通过还是被拒绝
+ *
+ * 回放在调用 replay 的线程上顺序执行：每个请求先把虚拟时钟推进到请求的时间，执行在这之前到期的事件，
+ * 然后调用 SphU.asyncEntry；通过的请求在 latencyMillis 之后 exit，exit 作为事件放进 EventQueue。
+ * 使用 AsyncEntry 是因为同一个线程上的普通 Entry 必须按进入的相反顺序 exit，而回放中的请求是交错结束的。
+ * 时间不需要真的流逝，一个小时的场景通常几秒钟就能回放完，同样的场景和种子每次得到的结果都相同。
+ *
+ * 为了让 Sentinel 中和时间有关的逻辑都使用虚拟时间：
+ * <ul>
+ *     <li>TimeUtil 被替换为读取 ReplayClock</li>
+ *     <li>DegradeRule 中恢复降级的线程池被替换为 VirtualScheduler</li>
+ *     <li>匀速排队规则的流控器被替换为不 sleep 的版本，见 QueueingControllers</li>
+ * </ul>
+ * 系统规则中的 load 和 cpu 使用率依然是真实的值，其他的系统规则（qps、rt、线程数）按回放的流量计算。
+ *
+ * 每次回放从真实时间和上一次回放结束时间中较大的一个之后的整点开始，滑动窗口中之前的数据都已经过期，
+ * 每个 bucket 的边界也相同，所以在同一个进程中多次回放，结果和单独回放一样。
+ * 回放会覆盖各个 RuleManager 中的规则，结束时清空。
+ * @author houyi
+ * @date 2019-03-15
+ **/
+public final class ReplayEngine {
+
+    private static final String CONTEXT_NAME = "sentinel_replay_context";
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final RuntimeException BUSINESS_ERROR = new RuntimeException("replayed business error");
+
+    private static final Field DEGRADE_POOL_FIELD = field(DegradeRule.class, "pool");
+    private static final Field CONTROLLER_FIELD = field(FlowRule.class, "controller");
+
+    /**
+     * 上一次回放结束时的虚拟时间
+     */
+    private static long lastEndMillis;
+
+    private ReplayEngine() {
+    }
+
+    public static synchronized ReplayReport replay(ReplayScenario scenario) {
+        ReplayClock.checkInstalled();
+        long startMillis = (Math.max(System.currentTimeMillis(), lastEndMillis) / HOUR_MILLIS + 1) * HOUR_MILLIS;
+        ReplayReport report = new ReplayReport(scenario.getName(), startMillis, scenario.getSeriesIntervalMillis(),
+                scenario.getMaxSeriesKeys());
+        EventQueue events = new EventQueue();
+        ScheduledExecutorService degradePool = swapDegradePool(new VirtualScheduler(events));
+        long wallStart = System.nanoTime();
+        ReplayClock.set(startMillis);
+        try {
+            loadRules(scenario);
+            TrafficSource traffic = scenario.newTraffic();
+            long duration = scenario.getDurationMillis();
+            Request request;
+            while ((request = traffic.next()) != null
+                    && (duration == 0 || request.getOffsetMillis() < duration)) {
+                long time = startMillis + request.getOffsetMillis();
+                events.runUntil(time);
+                ReplayClock.set(time);
+                process(request, events, report);
+            }
+            // 等所有请求 exit、降级恢复之后再结束，下一次回放不会受到影响
+            events.drain();
+            report.finish(ReplayClock.currentTimeMillis(), System.nanoTime() - wallStart);
+        } finally {
+            lastEndMillis = ReplayClock.currentTimeMillis();
+            clearRules();
+            swapDegradePool(degradePool);
+            ReplayClock.reset();
+        }
+        return report;
+    }
+
+    private static void process(Request request, EventQueue events, ReplayReport report) {
+        Object[] args = request.args();
+        ContextUtil.enter(CONTEXT_NAME, request.getOrigin() == null ? "" : request.getOrigin());
+        try {
+            AsyncEntry entry = SphU.asyncEntry(request.getResource(), EntryType.IN, 1, args);
+            long queueingMillis = QueueingControllers.takeQueueingMillis();
+            report.recordPass(request);
+            events.schedule(ReplayClock.currentTimeMillis() + queueingMillis + request.getLatencyMillis(), () -> {
+                if (request.isError()) {
+                    ContextUtil.runOnContext(entry.getAsyncContext(), () -> Tracer.trace(BUSINESS_ERROR));
+                }
+                entry.exit(1, args);
+            });
+        } catch (BlockException e) {
+            QueueingControllers.takeQueueingMillis();
+            report.recordBlock(request, reason(e));
+        } finally {
+            ContextUtil.exit();
+        }
+    }
+
+    private static String reason(BlockException e) {
+        if (e instanceof FlowException) {
+            return "flow";
+        }
+        if (e instanceof ParamFlowException) {
+            return "param";
+        }
+        if (e instanceof DegradeException) {
+            return "degrade";
+        }
+        if (e instanceof AuthorityException) {
+            return "authority";
+        }
+        if (e instanceof SystemBlockException) {
+            return "system";
+        }
+        return e.getClass().getSimpleName();
+    }
+
+    private static void loadRules(ReplayScenario scenario) {
+        // 先清空热点参数规则，ParamFlowRuleManager 会同时清空之前的参数统计
+        ParamFlowRuleManager.loadRules(Collections.emptyList());
+        ParamFlowRuleManager.loadRules(scenario.getParamFlowRules());
+        FlowRuleManager.loadRules(scenario.getFlowRules());
+        for (DegradeRule rule : scenario.getDegradeRules()) {
+            rule.getPassCount().set(0);
+        }
+        DegradeRuleManager.loadRules(scenario.getDegradeRules());
+        AuthorityRuleManager.loadRules(scenario.getAuthorityRules());
+        SystemRuleManager.loadRules(scenario.getSystemRules());
+        replaceQueueingControllers();
+    }
+
+    private static void clearRules() {
+        ParamFlowRuleManager.loadRules(Collections.emptyList());
+        FlowRuleManager.loadRules(Collections.emptyList());
+        DegradeRuleManager.loadRules(Collections.emptyList());
+        AuthorityRuleManager.loadRules(Collections.emptyList());
+        SystemRuleManager.loadRules(Collections.emptyList());
+    }
+
+    /**
+     * loadRules 返回时 FlowRuleManager 已经为每条规则创建好了流控器，这里直接替换匀速排队的两种
+     */
+    private static void replaceQueueingControllers() {
+        try {
+            for (FlowRule rule : FlowRuleManager.getRules()) {
+                if (rule.getGrade() != RuleConstant.FLOW_GRADE_QPS) {
+                    continue;
+                }
+                TrafficShapingController controller;
+                switch (rule.getControlBehavior()) {
+                    case RuleConstant.CONTROL_BEHAVIOR_RATE_LIMITER:
+                        controller = new QueueingControllers.RateLimiter(rule.getMaxQueueingTimeMs(), rule.getCount());
+                        break;
+                    case RuleConstant.CONTROL_BEHAVIOR_WARM_UP_RATE_LIMITER:
+                        controller = new QueueingControllers.WarmUpRateLimiter(rule.getCount(),
+                                rule.getWarmUpPeriodSec(), rule.getMaxQueueingTimeMs(), SentinelConfig.coldFactor());
+                        break;
+                    default:
+                        continue;
+                }
+                CONTROLLER_FIELD.set(rule, controller);
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Failed to replace rate limiter controllers", e);
+        }
+    }
+
+    private static ScheduledExecutorService swapDegradePool(ScheduledExecutorService pool) {
+        try {
+            ScheduledExecutorService current = (ScheduledExecutorService) DEGRADE_POOL_FIELD.get(null);
+            DEGRADE_POOL_FIELD.set(null, pool);
+            return current;
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Failed to replace DegradeRule.pool", e);
+        }
+    }
+
+    private static Field field(Class<?> type, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("Unsupported sentinel version, field not found: "
+                    + type.getSimpleName() + "." + name, e);
+        }
+    }
+
+}
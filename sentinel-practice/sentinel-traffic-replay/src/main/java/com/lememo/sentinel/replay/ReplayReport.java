@@ -0,0 +1,277 @@
+package com.lememo.sentinel.replay;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * 回放的结果：每个资源、每个热点参数在每个时间段内通过和拒绝的请求数
+ *
+ * 所有的 map 都按第一次出现的顺序排列，同样的场景回放两次，writeCsv 的输出和 checksum 完全相同，
+ * 可以把 csv 保存下来，修改规则或者升级 Sentinel 之后对比。
+ * @author houyi
+ * @date 2019-03-15
+ **/
+public final class ReplayReport {
+
+    /**
+     * 超过 maxSeriesKeys 之后出现的参数合并在这个 key 下
+     */
+    public static final String OTHER_KEYS = "(other)";
+    /**
+     * 没有参数的请求使用这个 key
+     */
+    public static final String NO_KEY = "-";
+
+    private final String scenario;
+    private final long startMillis;
+    private final int intervalMillis;
+    private final int maxSeriesKeys;
+
+    private final Map<String, Map<String, Series>> series = new LinkedHashMap<>();
+    private final Map<String, Map<String, long[]>> keyTotals = new LinkedHashMap<>();
+    private final Map<String, Map<String, Long>> blockReasons = new LinkedHashMap<>();
+
+    private long requests;
+    private long endMillis;
+    private long wallNanos;
+
+    ReplayReport(String scenario, long startMillis, int intervalMillis, int maxSeriesKeys) {
+        this.scenario = scenario;
+        this.startMillis = startMillis;
+        this.intervalMillis = intervalMillis;
+        this.maxSeriesKeys = maxSeriesKeys;
+    }
+
+    void recordPass(Request request) {
+        record(request, true);
+    }
+
+    void recordBlock(Request request, String reason) {
+        record(request, false);
+        blockReasons.computeIfAbsent(request.getResource(), k -> new LinkedHashMap<>()).merge(reason, 1L, Long::sum);
+    }
+
+    private void record(Request request, boolean pass) {
+        requests++;
+        String key = keyOf(request.getKey());
+        long[] totals = keyTotals.computeIfAbsent(request.getResource(), k -> new LinkedHashMap<>())
+                .computeIfAbsent(key, k -> new long[2]);
+        totals[pass ? 0 : 1]++;
+
+        Map<String, Series> resourceSeries = series.computeIfAbsent(request.getResource(), k -> new LinkedHashMap<>());
+        Series keySeries = resourceSeries.get(key);
+        if (keySeries == null) {
+            if (resourceSeries.size() < maxSeriesKeys) {
+                keySeries = new Series();
+                resourceSeries.put(key, keySeries);
+            } else {
+                keySeries = resourceSeries.computeIfAbsent(OTHER_KEYS, k -> new Series());
+            }
+        }
+        keySeries.add((int) (request.getOffsetMillis() / intervalMillis), pass);
+    }
+
+    void finish(long endMillis, long wallNanos) {
+        this.endMillis = endMillis;
+        this.wallNanos = wallNanos;
+    }
+
+    private static String keyOf(Object key) {
+        return key == null ? NO_KEY : String.valueOf(key);
+    }
+
+    public String getScenario() {
+        return scenario;
+    }
+
+    /**
+     * @return 回放开始时的虚拟时间
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * @return 虚拟时间一共走了多久，包括最后一个请求之后等待 exit 和降级恢复的时间
+     */
+    public long getVirtualMillis() {
+        return endMillis - startMillis;
+    }
+
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    public int getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    public long getRequests() {
+        return requests;
+    }
+
+    public List<String> resources() {
+        return new ArrayList<>(series.keySet());
+    }
+
+    /**
+     * @return 单独记录了序列的参数，可能包含 OTHER_KEYS
+     */
+    public List<String> seriesKeys(String resource) {
+        Map<String, Series> resourceSeries = series.get(resource);
+        return resourceSeries == null ? Collections.<String>emptyList() : new ArrayList<>(resourceSeries.keySet());
+    }
+
+    /**
+     * @param key 热点参数，null 表示没有参数的请求，也可以是 OTHER_KEYS
+     * @return 没有这个参数的请求时返回 null
+     */
+    public Series series(String resource, Object key) {
+        Map<String, Series> resourceSeries = series.get(resource);
+        return resourceSeries == null ? null : resourceSeries.get(keyOf(key));
+    }
+
+    /**
+     * @return 所有参数的通过数和拒绝数，不受 maxSeriesKeys 的限制，数组的第一个元素为通过数，第二个为拒绝数
+     */
+    public Map<String, long[]> keyTotals(String resource) {
+        Map<String, long[]> totals = keyTotals.get(resource);
+        return totals == null ? Collections.<String, long[]>emptyMap() : Collections.unmodifiableMap(totals);
+    }
+
+    /**
+     * @return 拒绝的原因（flow、param、degrade、authority、system）和次数
+     */
+    public Map<String, Long> blockReasons(String resource) {
+        Map<String, Long> reasons = blockReasons.get(resource);
+        return reasons == null ? Collections.<String, Long>emptyMap() : Collections.unmodifiableMap(reasons);
+    }
+
+    /**
+     * 每行一个资源、一个参数在一个时间段内的结果，没有请求的时间段不输出
+     * <pre>
+     * offsetMillis,resource,key,pass,block
+     * </pre>
+     */
+    public void writeCsv(Appendable out) throws IOException {
+        out.append("offsetMillis,resource,key,pass,block\n");
+        for (Map.Entry<String, Map<String, Series>> resource : series.entrySet()) {
+            for (Map.Entry<String, Series> key : resource.getValue().entrySet()) {
+                Series s = key.getValue();
+                for (int i = 0; i < s.size(); i++) {
+                    if (s.pass[i] == 0 && s.block[i] == 0) {
+                        continue;
+                    }
+                    out.append(String.valueOf((long) i * intervalMillis)).append(',').append(resource.getKey())
+                            .append(',').append(key.getKey()).append(',').append(String.valueOf(s.pass[i]))
+                            .append(',').append(String.valueOf(s.block[i])).append('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * @return writeCsv 输出的 crc32，用来快速判断两次回放的结果是否相同
+     */
+    public long checksum() {
+        StringWriter writer = new StringWriter();
+        try {
+            writeCsv(writer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(writer.toString().getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    /**
+     * 打印每个资源的汇总以及请求最多的 topKeys 个参数
+     */
+    public void printSummary(PrintStream out, int topKeys) {
+        out.printf("scenario %s: %d requests, %.1f virtual seconds replayed in %.2f wall seconds (%.0f requests/s), checksum %08x%n",
+                scenario, requests, getVirtualMillis() / 1000.0, wallNanos / 1e9,
+                wallNanos == 0 ? 0 : requests * 1e9 / wallNanos, checksum());
+        for (String resource : keyTotals.keySet()) {
+            long pass = 0;
+            long block = 0;
+            for (long[] totals : keyTotals.get(resource).values()) {
+                pass += totals[0];
+                block += totals[1];
+            }
+            out.printf("  %s: pass=%d, block=%d, keys=%d, reasons=%s%n", resource, pass, block,
+                    keyTotals.get(resource).size(), blockReasons(resource));
+            List<Map.Entry<String, long[]>> keys = new ArrayList<>(keyTotals.get(resource).entrySet());
+            keys.sort((a, b) -> Long.compare(b.getValue()[0] + b.getValue()[1], a.getValue()[0] + a.getValue()[1]));
+            for (Map.Entry<String, long[]> key : keys.subList(0, Math.min(topKeys, keys.size()))) {
+                out.printf("    key %-12s pass=%-10d block=%d%n", key.getKey(), key.getValue()[0], key.getValue()[1]);
+            }
+        }
+    }
+
+    /**
+     * 一个资源、一个参数的通过和拒绝序列，下标为 offsetMillis / intervalMillis
+     */
+    public static final class Series {
+
+        private int[] pass = new int[16];
+        private int[] block = new int[16];
+        private int size;
+
+        private void add(int index, boolean passed) {
+            if (index >= pass.length) {
+                int capacity = Math.max(index + 1, pass.length * 2);
+                pass = Arrays.copyOf(pass, capacity);
+                block = Arrays.copyOf(block, capacity);
+            }
+            if (passed) {
+                pass[index]++;
+            } else {
+                block[index]++;
+            }
+            size = Math.max(size, index + 1);
+        }
+
+        /**
+         * @return 到最后一个有请求的时间段为止的长度
+         */
+        public int size() {
+            return size;
+        }
+
+        public int pass(int index) {
+            return index < size ? pass[index] : 0;
+        }
+
+        public int block(int index) {
+            return index < size ? block[index] : 0;
+        }
+
+        public long totalPass() {
+            long total = 0;
+            for (int i = 0; i < size; i++) {
+                total += pass[i];
+            }
+            return total;
+        }
+
+        public long totalBlock() {
+            long total = 0;
+            for (int i = 0; i < size; i++) {
+                total += block[i];
+            }
+            return total;
+        }
+    }
+
+}
@@ -0,0 +1,176 @@
+package com.lememo.sentinel.replay;
+
+import com.alibaba.csp.sentinel.slots.block.authority.AuthorityRule;
+import com.alibaba.csp.sentinel.slots.block.degrade.DegradeRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
+import com.alibaba.csp.sentinel.slots.system.SystemRule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 一次回放的规则和流量
+ *
+ * 流量以 Supplier 的方式提供，同一个场景可以回放多次，例如只改规则的阈值、对比不同阈值下的结果。
+ * @author houyi
+ * @date 2019-03-15
+ **/
+public final class ReplayScenario {
+
+    private final String name;
+    private final Supplier<TrafficSource> traffic;
+    private final long durationMillis;
+    private final int seriesIntervalMillis;
+    private final int maxSeriesKeys;
+    private final List<FlowRule> flowRules;
+    private final List<ParamFlowRule> paramFlowRules;
+    private final List<DegradeRule> degradeRules;
+    private final List<AuthorityRule> authorityRules;
+    private final List<SystemRule> systemRules;
+
+    private ReplayScenario(Builder builder) {
+        this.name = builder.name;
+        this.traffic = builder.traffic;
+        this.durationMillis = builder.durationMillis;
+        this.seriesIntervalMillis = builder.seriesIntervalMillis;
+        this.maxSeriesKeys = builder.maxSeriesKeys;
+        this.flowRules = Collections.unmodifiableList(new ArrayList<>(builder.flowRules));
+        this.paramFlowRules = Collections.unmodifiableList(new ArrayList<>(builder.paramFlowRules));
+        this.degradeRules = Collections.unmodifiableList(new ArrayList<>(builder.degradeRules));
+        this.authorityRules = Collections.unmodifiableList(new ArrayList<>(builder.authorityRules));
+        this.systemRules = Collections.unmodifiableList(new ArrayList<>(builder.systemRules));
+    }
+
+    public static Builder builder(String name) {
+        return new Builder(name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public TrafficSource newTraffic() {
+        return traffic.get();
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    public int getSeriesIntervalMillis() {
+        return seriesIntervalMillis;
+    }
+
+    public int getMaxSeriesKeys() {
+        return maxSeriesKeys;
+    }
+
+    public List<FlowRule> getFlowRules() {
+        return flowRules;
+    }
+
+    public List<ParamFlowRule> getParamFlowRules() {
+        return paramFlowRules;
+    }
+
+    public List<DegradeRule> getDegradeRules() {
+        return degradeRules;
+    }
+
+    public List<AuthorityRule> getAuthorityRules() {
+        return authorityRules;
+    }
+
+    public List<SystemRule> getSystemRules() {
+        return systemRules;
+    }
+
+    public static final class Builder {
+
+        private final String name;
+        private Supplier<TrafficSource> traffic;
+        private long durationMillis;
+        private int seriesIntervalMillis = 1000;
+        private int maxSeriesKeys = 1000;
+        private List<FlowRule> flowRules = Collections.emptyList();
+        private List<ParamFlowRule> paramFlowRules = Collections.emptyList();
+        private List<DegradeRule> degradeRules = Collections.emptyList();
+        private List<AuthorityRule> authorityRules = Collections.emptyList();
+        private List<SystemRule> systemRules = Collections.emptyList();
+
+        private Builder(String name) {
+            this.name = name;
+        }
+
+        /**
+         * 每次回放调用一次，返回一个新的流量源
+         */
+        public Builder traffic(Supplier<TrafficSource> traffic) {
+            this.traffic = traffic;
+            return this;
+        }
+
+        /**
+         * 只回放这段时间内的请求，默认为 0，回放流量源中的所有请求
+         */
+        public Builder durationMillis(long durationMillis) {
+            this.durationMillis = durationMillis;
+            return this;
+        }
+
+        /**
+         * 通过、拒绝序列中每个点的时间跨度，默认为 1000ms
+         */
+        public Builder seriesIntervalMillis(int seriesIntervalMillis) {
+            this.seriesIntervalMillis = seriesIntervalMillis;
+            return this;
+        }
+
+        /**
+         * 每个资源最多为多少个热点参数单独记录序列，之后出现的参数合并记在 ReplayReport.OTHER_KEYS 中，默认为 1000
+         */
+        public Builder maxSeriesKeys(int maxSeriesKeys) {
+            this.maxSeriesKeys = maxSeriesKeys;
+            return this;
+        }
+
+        public Builder flowRules(List<FlowRule> flowRules) {
+            this.flowRules = flowRules;
+            return this;
+        }
+
+        public Builder paramFlowRules(List<ParamFlowRule> paramFlowRules) {
+            this.paramFlowRules = paramFlowRules;
+            return this;
+        }
+
+        public Builder degradeRules(List<DegradeRule> degradeRules) {
+            this.degradeRules = degradeRules;
+            return this;
+        }
+
+        public Builder authorityRules(List<AuthorityRule> authorityRules) {
+            this.authorityRules = authorityRules;
+            return this;
+        }
+
+        public Builder systemRules(List<SystemRule> systemRules) {
+            this.systemRules = systemRules;
+            return this;
+        }
+
+        public ReplayScenario build() {
+            if (traffic == null) {
+                throw new IllegalArgumentException("traffic is required");
+            }
+            if (seriesIntervalMillis <= 0 || maxSeriesKeys < 0 || durationMillis < 0) {
+                throw new IllegalArgumentException("invalid series interval, max series keys or duration");
+            }
+            return new ReplayScenario(this);
+        }
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.lememo.sentinel.replay;
+
+import java.util.Arrays;
+
+/**
+ * 回放的一个请求
+ * @author houyi
+ * @date 2019-03-15
+ **/
+public final class Request {
+
+    private static final Object[] NO_ARGS = new Object[0];
+
+    private final long offsetMillis;
+    private final String resource;
+    private final Object key;
+    private final String origin;
+    private final int latencyMillis;
+    private final boolean error;
+
+    /**
+     * @param offsetMillis 相对于回放开始的时间
+     * @param resource 资源名
+     * @param key 热点参数，作为 SphU.entry 的第一个参数，同时按它统计通过和拒绝的序列，可以为 null
+     * @param origin 调用方，可以为 null
+     * @param latencyMillis 通过之后多久 exit
+     * @param error 是否在 exit 之前记录一个业务异常
+     */
+    public Request(long offsetMillis, String resource, Object key, String origin, int latencyMillis, boolean error) {
+        if (offsetMillis < 0 || latencyMillis < 0) {
+            throw new IllegalArgumentException("offsetMillis and latencyMillis should not be negative");
+        }
+        this.offsetMillis = offsetMillis;
+        this.resource = resource;
+        this.key = key;
+        this.origin = origin;
+        this.latencyMillis = latencyMillis;
+        this.error = error;
+    }
+
+    public long getOffsetMillis() {
+        return offsetMillis;
+    }
+
+    public String getResource() {
+        return resource;
+    }
+
+    public Object getKey() {
+        return key;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public int getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public boolean isError() {
+        return error;
+    }
+
+    Object[] args() {
+        return key == null ? NO_ARGS : new Object[] {key};
+    }
+
+    @Override
+    public String toString() {
+        return "Request{offsetMillis=" + offsetMillis + ", resource=" + resource + ", args=" + Arrays.toString(args())
+                + ", origin=" + origin + ", latencyMillis=" + latencyMillis + ", error=" + error + "}";
+    }
+
+}
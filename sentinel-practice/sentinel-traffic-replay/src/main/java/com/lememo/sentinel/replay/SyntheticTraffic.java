@@ -0,0 +1,158 @@
+package com.lememo.sentinel.replay;
+
+import java.util.Random;
+
+/**
+ * 按速率曲线和参数分布生成的流量，使用同一个种子时生成的请求完全相同
+ *
+ * 时间以 1ms 为单位推进，每一毫秒的请求数由 RateCurve 决定：
+ * <ul>
+ *     <li>默认按泊松分布随机产生</li>
+ *     <li>evenlySpaced 时累加每一毫秒的期望值，满一个请求就产生一个，请求间隔均匀，例如 50 qps 时每 20ms 一个</li>
+ * </ul>
+ * 同一毫秒的多个请求使用相同的时间，Sentinel 的时间本来就只精确到毫秒。
+ * @author houyi
+ * @date 2019-03-15
+ **/
+public final class SyntheticTraffic implements TrafficSource {
+
+    /**
+     * 期望值超过这个数时用正态分布近似泊松分布
+     */
+    private static final double POISSON_NORMAL_THRESHOLD = 30;
+
+    private final String resource;
+    private final RateCurve rate;
+    private final KeyDistribution keys;
+    private final String origin;
+    private final int latencyMillis;
+    private final double errorRatio;
+    private final long durationMillis;
+    private final boolean evenlySpaced;
+    private final Random random;
+
+    private long currentMillis = -1;
+    private int remainingInMillis;
+    private double accumulated;
+
+    private SyntheticTraffic(Builder builder) {
+        this.resource = builder.resource;
+        this.rate = builder.rate;
+        this.keys = builder.keys;
+        this.origin = builder.origin;
+        this.latencyMillis = builder.latencyMillis;
+        this.errorRatio = builder.errorRatio;
+        this.durationMillis = builder.durationMillis;
+        this.evenlySpaced = builder.evenlySpaced;
+        this.random = new Random(builder.seed);
+    }
+
+    public static Builder builder(String resource) {
+        return new Builder(resource);
+    }
+
+    @Override
+    public Request next() {
+        while (remainingInMillis == 0) {
+            if (++currentMillis >= durationMillis) {
+                return null;
+            }
+            remainingInMillis = arrivals(Math.max(0, rate.qpsAt(currentMillis)) / 1000);
+        }
+        remainingInMillis--;
+        boolean error = errorRatio > 0 && random.nextDouble() < errorRatio;
+        return new Request(currentMillis, resource, keys.next(random), origin, latencyMillis, error);
+    }
+
+    private int arrivals(double expected) {
+        if (evenlySpaced) {
+            accumulated += expected;
+            int count = (int) accumulated;
+            accumulated -= count;
+            return count;
+        }
+        if (expected <= 0) {
+            return 0;
+        }
+        if (expected > POISSON_NORMAL_THRESHOLD) {
+            return (int) Math.max(0, Math.round(expected + Math.sqrt(expected) * random.nextGaussian()));
+        }
+        // Knuth 的算法，期望值较小时足够快
+        double limit = Math.exp(-expected);
+        double product = random.nextDouble();
+        int count = 0;
+        while (product > limit) {
+            count++;
+            product *= random.nextDouble();
+        }
+        return count;
+    }
+
+    public static final class Builder {
+
+        private final String resource;
+        private RateCurve rate = RateCurve.constant(1);
+        private KeyDistribution keys = KeyDistribution.fixed(null);
+        private String origin;
+        private int latencyMillis;
+        private double errorRatio;
+        private long durationMillis = 60 * 1000;
+        private boolean evenlySpaced;
+        private long seed = 1;
+
+        private Builder(String resource) {
+            this.resource = resource;
+        }
+
+        public Builder rate(RateCurve rate) {
+            this.rate = rate;
+            return this;
+        }
+
+        public Builder keys(KeyDistribution keys) {
+            this.keys = keys;
+            return this;
+        }
+
+        public Builder origin(String origin) {
+            this.origin = origin;
+            return this;
+        }
+
+        /**
+         * 每个请求通过之后多久 exit，影响并发线程数和平均 rt
+         */
+        public Builder latencyMillis(int latencyMillis) {
+            this.latencyMillis = latencyMillis;
+            return this;
+        }
+
+        /**
+         * 通过的请求中记录业务异常的比例
+         */
+        public Builder errorRatio(double errorRatio) {
+            this.errorRatio = errorRatio;
+            return this;
+        }
+
+        public Builder durationMillis(long durationMillis) {
+            this.durationMillis = durationMillis;
+            return this;
+        }
+
+        public Builder evenlySpaced(boolean evenlySpaced) {
+            this.evenlySpaced = evenlySpaced;
+            return this;
+        }
+
+        public Builder seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public SyntheticTraffic build() {
+            return new SyntheticTraffic(this);
+        }
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.lememo.sentinel.replay;
+
+/**
+ * 按时间顺序产生请求
+ * @author houyi
+ * @date 2019-03-15
+ **/
+public interface TrafficSource {
+
+    /**
+     * @return 下一个请求，offsetMillis 不小于上一个请求，没有更多的请求时返回 null
+     */
+    Request next();
+
+    /**
+     * 把多个流量源按时间合并，同一毫秒的请求按参数中的顺序排列，结果是确定的
+     */
+    static TrafficSource merge(TrafficSource... sources) {
+        return new MergedTraffic(sources);
+    }
+
+}
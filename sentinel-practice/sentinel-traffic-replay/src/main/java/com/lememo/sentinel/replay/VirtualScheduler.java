@@ -0,0 +1,108 @@
+package com.lememo.sentinel.replay;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 按虚拟时间执行延迟任务的 ScheduledExecutorService，任务放进 EventQueue，由回放的线程执行
+ *
+ * 回放期间替换 DegradeRule 中用来恢复降级的线程池，降级的 timeWindow 按虚拟时间计算。
+ * 只实现了一次性的延迟任务，周期任务不支持。
+ * @author houyi
+ * @date 2019-03-15
+ **/
+final class VirtualScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+    private final EventQueue events;
+
+    VirtualScheduler(EventQueue events) {
+        this.events = events;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+        return schedule(new VirtualFuture<Void>(command, null, ReplayClock.currentTimeMillis() + unit.toMillis(delay)));
+    }
+
+    @Override
+    public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+        return schedule(new VirtualFuture<>(callable, ReplayClock.currentTimeMillis() + unit.toMillis(delay)));
+    }
+
+    private <V> VirtualFuture<V> schedule(VirtualFuture<V> future) {
+        events.schedule(future.timeMillis, future);
+        return future;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        events.schedule(ReplayClock.currentTimeMillis(), command);
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+        throw new UnsupportedOperationException("periodic tasks are not supported in replay");
+    }
+
+    @Override
+    public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+        throw new UnsupportedOperationException("periodic tasks are not supported in replay");
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return false;
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return false;
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return false;
+    }
+
+    private static final class VirtualFuture<V> extends FutureTask<V> implements ScheduledFuture<V> {
+
+        private final long timeMillis;
+
+        private VirtualFuture(Runnable runnable, V result, long timeMillis) {
+            super(runnable, result);
+            this.timeMillis = timeMillis;
+        }
+
+        private VirtualFuture(Callable<V> callable, long timeMillis) {
+            super(callable);
+            this.timeMillis = timeMillis;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(timeMillis - ReplayClock.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(getDelay(TimeUnit.MILLISECONDS), o.getDelay(TimeUnit.MILLISECONDS));
+        }
+    }
+
+}
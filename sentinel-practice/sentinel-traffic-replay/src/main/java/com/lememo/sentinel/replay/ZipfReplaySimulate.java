@@ -0,0 +1,98 @@
+package com.lememo.sentinel.replay;
+
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
+
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 回放一个小时的合成流量，用来调整阈值，同时作为回归测试和性能基准
+ *
+ * 商品详情接口的流量在 200 到 1000 qps 之间按余弦曲线变化（周期 1 小时，30 分钟时到达波峰），
+ * 每 10 分钟有一次持续 30s、额外 1500 qps 的突发；商品 id 在 10000 个商品中按 Zipf 分布（exponent=1.1），
+ * 每个请求耗时 20ms。规则为资源 qps 阈值 1500，每个商品 id 的热点参数阈值 50。
+ *
+ * 同一个场景回放两次，两次的 checksum 必须相同；回放的耗时主要是 Sentinel 本身的开销，可以用来对比不同版本、不同规则的性能。
+ *
+ * 启动参数：
+ * args[0] 把结果写到这个 csv 文件中，可选
+ * @author houyi
+ * @date 2019-03-15
+ **/
+public class ZipfReplaySimulate {
+
+    private static final String RESOURCE = "/item/get";
+    private static final long DURATION_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long REPORT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    public static void main(String[] args) throws Exception {
+        ReplayScenario scenario = scenario();
+        ReplayReport first = ReplayEngine.replay(scenario);
+        ReplayReport second = ReplayEngine.replay(scenario);
+        if (first.checksum() != second.checksum()) {
+            throw new IllegalStateException("replay is not deterministic");
+        }
+        printSeries(second);
+        first.printSummary(System.out, 5);
+        second.printSummary(System.out, 5);
+        if (args.length > 0) {
+            try (Writer writer = Files.newBufferedWriter(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+                second.writeCsv(writer);
+            }
+            System.out.println("series written to " + args[0]);
+        }
+    }
+
+    static ReplayScenario scenario() {
+        FlowRule flowRule = new FlowRule();
+        flowRule.setResource(RESOURCE);
+        flowRule.setGrade(RuleConstant.FLOW_GRADE_QPS);
+        flowRule.setCount(1500);
+        flowRule.setLimitApp(RuleConstant.LIMIT_APP_DEFAULT);
+
+        ParamFlowRule paramFlowRule = new ParamFlowRule(RESOURCE)
+                .setParamIdx(0)
+                .setGrade(RuleConstant.FLOW_GRADE_QPS)
+                .setCount(50);
+
+        return ReplayScenario.builder("zipf-item-get")
+                .flowRules(Collections.singletonList(flowRule))
+                .paramFlowRules(Collections.singletonList(paramFlowRule))
+                .traffic(() -> SyntheticTraffic.builder(RESOURCE)
+                        .rate(RateCurve.diurnal(200, 1000, DURATION_MILLIS, DURATION_MILLIS / 2)
+                                .plus(RateCurve.bursts(1500, TimeUnit.MINUTES.toMillis(10), TimeUnit.SECONDS.toMillis(30))))
+                        .keys(KeyDistribution.zipf(10000, 1.1))
+                        .latencyMillis(20)
+                        .durationMillis(DURATION_MILLIS)
+                        .seed(20190315)
+                        .build())
+                .build();
+    }
+
+    /**
+     * 每 5 分钟汇总一次所有商品的通过数和拒绝数
+     */
+    private static void printSeries(ReplayReport report) {
+        int pointsPerRow = (int) (REPORT_INTERVAL_MILLIS / report.getIntervalMillis());
+        long[] pass = new long[(int) (DURATION_MILLIS / REPORT_INTERVAL_MILLIS)];
+        long[] block = new long[pass.length];
+        for (String key : report.seriesKeys(RESOURCE)) {
+            ReplayReport.Series series = report.series(RESOURCE, key);
+            for (int i = 0; i < series.size(); i++) {
+                pass[i / pointsPerRow] += series.pass(i);
+                block[i / pointsPerRow] += series.block(i);
+            }
+        }
+        System.out.printf("%-8s %10s %10s%n", "minute", "pass", "block");
+        for (int i = 0; i < pass.length; i++) {
+            System.out.printf("%-8d %10d %10d%n", i * REPORT_INTERVAL_MILLIS / 60000, pass[i], block[i]);
+        }
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.lememo.sentinel.webflux;
+
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 多个 bean 各自在代码中定义流控规则
+ *
+ * FlowRuleManager.loadRules 会替换掉全部的规则，这里在已有的规则上添加，同一个资源上原来的规则会被替换。
+ * @author houyi
+ * @date 2019-03-11
+ **/
+final class FlowRules {
+
+    private FlowRules() {
+    }
+
+    static synchronized void put(FlowRule rule) {
+        List<FlowRule> rules = new ArrayList<>(FlowRuleManager.getRules());
+        for (Iterator<FlowRule> it = rules.iterator(); it.hasNext(); ) {
+            if (rule.getResource().equals(it.next().getResource())) {
+                it.remove();
+            }
+        }
+        rules.add(rule);
+        FlowRuleManager.loadRules(rules);
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.lememo.sentinel.webflux;
+
+import com.alibaba.csp.sentinel.EntryType;
+import com.alibaba.csp.sentinel.cluster.ClusterStateManager;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientAssignConfig;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientConfig;
+import com.alibaba.csp.sentinel.cluster.client.config.ClusterClientConfigManager;
+import com.alibaba.csp.sentinel.slots.block.ClusterRuleConstant;
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.ClusterFlowConfig;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.lememo.sentinel.clusterextension.client.AsyncTokenClient;
+import com.lememo.sentinel.clusterextension.client.CoalescingTokenClient;
+import com.lememo.sentinel.clusterextension.client.FailoverTokenClient;
+import com.lememo.sentinel.reactive.GuardTransformer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+/**
+ * sentinel-cluster-client 中 ClusterFlowClientController 的 WebFlux 版本
+ * 为了便于对比，配置和规则直接写在代码中，需要先启动 sentinel-cluster-server-alone
+ * 创建时会把整个应用切换为集群客户端模式，所以只有配置了 sentinel.cluster.client.enabled=true 时才会创建
+ * @author houyi
+ * @date 2019-03-11
+ **/
+@RestController
+@ConditionalOnProperty(name = ReactiveClusterFlowController.CLUSTER_CLIENT_ENABLED, havingValue = "true")
+public class ReactiveClusterFlowController {
+
+    static final String CLUSTER_CLIENT_ENABLED = "sentinel.cluster.client.enabled";
+
+    private static final String RESOURCE_NAME = "cluster-resource";
+
+    private static final String CLUSTER_SERVER_HOST = "localhost";
+    private static final int CLUSTER_SERVER_PORT = 11111;
+    private static final int REQUEST_TIME_OUT = 200;
+
+    private static final Mono<String> PASSED = Mono.just("passed");
+    private static final Mono<String> BLOCKED = Mono.just("blocked");
+
+    private final GuardTransformer<String> clusterGuard =
+            GuardTransformer.<String>of(RESOURCE_NAME, EntryType.IN).orElse(BLOCKED);
+
+    public ReactiveClusterFlowController(){
+        loadClusterClientConfig();
+        loadClusterFlowRule();
+        ClusterStateManager.applyState(ClusterStateManager.CLUSTER_CLIENT);
+        installTokenClients();
+    }
+
+    /**
+     * 加载集群客户端配置
+     */
+    private void loadClusterClientConfig(){
+        ClusterClientAssignConfig assignConfig = new ClusterClientAssignConfig();
+        assignConfig.setServerHost(CLUSTER_SERVER_HOST);
+        assignConfig.setServerPort(CLUSTER_SERVER_PORT);
+        ClusterClientConfigManager.applyNewAssignConfig(assignConfig);
+
+        ClusterClientConfig clientConfig = new ClusterClientConfig();
+        clientConfig.setRequestTimeout(REQUEST_TIME_OUT);
+        ClusterClientConfigManager.applyNewConfig(clientConfig);
+    }
+
+    /**
+     * 和 token server 上的规则一致，当client与Server连接中断，退化为本地限流时需要用到的该规则
+     */
+    private void loadClusterFlowRule(){
+        FlowRule rule = new FlowRule(RESOURCE_NAME)
+                .setGrade(RuleConstant.FLOW_GRADE_QPS)
+                .setCount(10)
+                .setClusterMode(true)
+                .setClusterConfig(new ClusterFlowConfig()
+                        .setFlowId(111L)
+                        .setThresholdType(ClusterRuleConstant.FLOW_THRESHOLD_GLOBAL)
+                        .setFallbackToLocalWhenFail(true));
+        FlowRules.put(rule);
+    }
+
+    /**
+     * 合并请求的 client 提供真正异步的请求，FailoverTokenClient 在 token server 不可用时直接在本地决定，
+     * AsyncTokenClient 放在最外层，让 FlowRuleChecker 使用提前拿到的结果
+     */
+    private void installTokenClients(){
+        CoalescingTokenClient.install();
+        FailoverTokenClient.install();
+        AsyncTokenClient.install();
+    }
+
+    /**
+     * 模拟流量请求该方法，等待 token server 响应的过程中不会占用 event loop
+     */
+    @GetMapping("/clusterFlow")
+    public Mono<String> clusterFlow() {
+        return PASSED.transform(clusterGuard);
+    }
+
+}
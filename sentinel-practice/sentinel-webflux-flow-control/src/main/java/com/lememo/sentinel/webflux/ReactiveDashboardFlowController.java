@@ -0,0 +1,31 @@
+package com.lememo.sentinel.webflux;
+
+import com.alibaba.csp.sentinel.EntryType;
+import com.lememo.sentinel.reactive.GuardTransformer;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+/**
+ * sentinel-manage-rule-with-dashboard 中 FlowController 的 WebFlux 版本
+ * @author houyi
+ * @date 2019-03-11
+ **/
+@RestController
+public class ReactiveDashboardFlowController {
+
+    private static final Mono<String> PASSED = Mono.just("passed");
+    private static final Mono<String> BLOCKED = Mono.just("blocked");
+
+    /**
+     * 定义资源，具体的规则通过 dashboard 在页面中配置
+     */
+    private final GuardTransformer<String> testGuard =
+            GuardTransformer.<String>of("testSentinel", EntryType.IN).orElse(BLOCKED);
+
+    @GetMapping("/testSentinel")
+    public Mono<String> testSentinel() {
+        return PASSED.transform(testGuard);
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.lememo.sentinel.webflux;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+/**
+ * sentinel-flow-control 中 FlowController 的 WebFlux 版本
+ * @author houyi
+ * @date 2019-03-11
+ **/
+@RestController
+public class ReactiveFlowController {
+
+    @Autowired
+    private ReactiveUserService userService;
+
+    /**
+     * 获取用户信息
+     */
+    @GetMapping("/getUser")
+    public Mono<ReactiveUserService.User> getUser(@RequestParam("uid") Long uid) {
+        return userService.getUser(uid);
+    }
+
+}
@@ -0,0 +1,51 @@
+package com.lememo.sentinel.webflux;
+
+import com.alibaba.csp.sentinel.EntryType;
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRuleManager;
+import com.lememo.sentinel.reactive.GuardTransformer;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+
+/**
+ * sentinel-frequent-param-flow-control 中 FreqParamFlowController 的 WebFlux 版本
+ * LongParamFlowChecker 在 Spring Boot 1.5 的应用模块中，这里直接使用 Sentinel 的热点参数限流
+ * @author houyi
+ * @date 2019-03-11
+ **/
+@RestController
+public class ReactiveFreqParamFlowController {
+
+    /**
+     * 热点限流的资源名
+     */
+    private String resourceName = "freqParam";
+
+    private static final Mono<String> PASSED = Mono.just("passed");
+    private static final Mono<String> BLOCKED = Mono.just("blocked");
+
+    public ReactiveFreqParamFlowController(){
+        // 定义热点限流的规则，对第一个参数设置 qps 限流模式，阈值为5
+        ParamFlowRule rule = new ParamFlowRule(resourceName)
+                .setParamIdx(0)
+                .setGrade(RuleConstant.FLOW_GRADE_QPS)
+                .setCount(5);
+        ParamFlowRuleManager.loadRules(Collections.singletonList(rule));
+    }
+
+    /**
+     * 热点参数限流
+     * 构造不同的uid的值，并且以不同的频率来请求该方法，查看效果
+     */
+    @GetMapping("/freqParamFlow")
+    public Mono<String> freqParamFlow(@RequestParam("uid") Long uid, @RequestParam("ip") Long ip) {
+        // 只对参数 uid 的值进行限流，参数 ip 的值不进行限制，每个请求的参数不同，所以每次创建一个 GuardTransformer
+        return PASSED.transform(GuardTransformer.<String>of(resourceName, EntryType.IN, uid).orElse(BLOCKED));
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.lememo.sentinel.webflux;
+
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.lememo.sentinel.reactive.GuardTransformer;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+
+/**
+ * sentinel-flow-control 中 UserService 的 WebFlux 版本
+ * @author houyi
+ * @date 2019-03-11
+ **/
+@Service
+public class ReactiveUserService {
+
+    public static final String USER_RES = "userResource";
+
+    private final GuardTransformer<User> userGuard = GuardTransformer.of(USER_RES);
+
+    public ReactiveUserService(){
+        // 和 UserService 一样，qps 模式，阈值为5
+        FlowRule rule = new FlowRule();
+        rule.setResource(USER_RES);
+        rule.setGrade(RuleConstant.FLOW_GRADE_QPS);
+        rule.setCount(5);
+        rule.setLimitApp(RuleConstant.LIMIT_APP_DEFAULT);
+        rule.setStrategy(RuleConstant.STRATEGY_DIRECT);
+        rule.setControlBehavior(RuleConstant.CONTROL_BEHAVIOR_DEFAULT);
+        FlowRules.put(rule);
+    }
+
+    /**
+     * 根据uid获取用户信息
+     * @param uid uid
+     * @return 用户信息，被限流时直接结束，和 UserService 返回 null 对应
+     */
+    public Mono<User> getUser(Long uid){
+        return Mono.fromSupplier(() -> {
+            // 业务代码
+            User user = new User();
+            user.setUid(uid);
+            user.setName("user-" + uid);
+            return user;
+        }).transform(userGuard);
+    }
+
+
+    public static class User {
+        private Long uid;
+        private String name;
+
+        public Long getUid() {
+            return uid;
+        }
+
+        public void setUid(Long uid) {
+            this.uid = uid;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public void setName(String name) {
+            this.name = name;
+        }
+    }
+
+}
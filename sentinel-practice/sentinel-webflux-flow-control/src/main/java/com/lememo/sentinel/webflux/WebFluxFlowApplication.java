@@ -0,0 +1,19 @@
+package com.lememo.sentinel.webflux;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+
+/**
+ * 实战模块中几个 controller 的 WebFlux 版本，请求在 reactor-netty 的 event loop 上处理
+ * 启动时加参数：
+ * -Dproject.name=xxx -Dcsp.sentinel.dashboard.server=consoleIp:port
+ * 可以在对应的 sentinel 的 dashboard 中查看效果
+ * @author houyi
+ * @date 2019-03-11
+ */
+@SpringBootApplication(scanBasePackages = {"com.lememo.sentinel.webflux"})
+public class WebFluxFlowApplication {
+    public static void main(String[] args) {
+        SpringApplication.run(WebFluxFlowApplication.class, args);
+    }
+}
@@ -0,0 +1,393 @@
+package com.lememo.sentinel.entities;
+
+import com.alibaba.csp.sentinel.Constants;
+import com.alibaba.csp.sentinel.Entry;
+import com.alibaba.csp.sentinel.EntryType;
+import com.alibaba.csp.sentinel.SphU;
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.config.SentinelConfig;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.slotchain.ProcessorSlotChain;
+import com.alibaba.csp.sentinel.slotchain.ResourceWrapper;
+import com.alibaba.csp.sentinel.slotchain.SlotChainBuilder;
+import com.alibaba.csp.sentinel.slotchain.SlotChainProvider;
+import com.alibaba.csp.sentinel.slots.block.BlockException;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 有上限的资源表，淘汰长时间没有访问的资源
+ *
+ * Sentinel 为每个资源创建一条调用链、一个 ClusterNode，以及每个 context 一个 DefaultNode，创建之后一直保留到进程结束。
+ * 资源名中带有路径参数（例如 /user/123）时，资源的数量没有上限，超过 Constants.MAX_SLOT_CHAIN_SIZE 之后
+ * 新的资源拿不到调用链，不再做任何检查，而之前的资源即使再也不会被访问也一直占着位置。
+ *
+ * BoundedResourceRegistry 把每个新创建的调用链登记到一个以 int 下标索引的 NodeTable 中，每次 entry 更新最近访问时间：
+ * <ul>
+ *     <li>后台线程每秒淘汰超过 idleMillis 没有访问的资源</li>
+ *     <li>资源数达到 capacity 时，新的调用链先放进等待队列，由后台线程淘汰最久没有访问的 1/10 之后再登记</li>
+ *     <li>还有请求没有 exit 的资源不会被淘汰</li>
+ * </ul>
+ * 请求线程只在登记时持有一次锁分配下标，不会做排序和淘汰；chainMap 等结构的复制都在后台线程上，
+ * 一次淘汰的所有资源只复制一次。等待登记的调用链和普通的调用链一样工作，只是暂时不会被淘汰。
+ * 淘汰的资源从 chainMap、clusterNodeMap、调用链树以及热点参数的统计中删除，之后再访问时重新创建，统计数据从零开始。
+ * 其他以资源名缓存节点的代码可以通过 addEvictionListener 在淘汰之后删除自己的缓存。
+ * 淘汰的数量以 EVICTION_RESOURCE 这个资源的通过数记录下来，会出现在 metrics 日志和 dashboard 中。
+ *
+ * 和 SpecializedSlotChainBuilder 一样通过反射替换 SlotChainProvider 中的 builder，需要在第一次调用 SphU.entry 之前 install，
+ * 同时使用时先安装 SpecializedSlotChainBuilder，这里会包装当前的 builder。
+ * @author houyi
+ * @date 2019-03-13
+ **/
+public final class BoundedResourceRegistry {
+
+    /**
+     * 资源数的上限，配置了这个参数时会在 Sentinel 初始化时自动安装
+     */
+    public static final String CAPACITY = "csp.sentinel.resource.registry.capacity";
+    /**
+     * 资源多久没有访问就被淘汰，单位 ms
+     */
+    public static final String IDLE_MILLIS = "csp.sentinel.resource.registry.idle.ms";
+
+    public static final int DEFAULT_CAPACITY = 4000;
+    public static final long DEFAULT_IDLE_MILLIS = 10 * 60 * 1000;
+
+    /**
+     * 记录淘汰数量的资源，本身不会被淘汰
+     */
+    public static final String EVICTION_RESOURCE = "__resource_registry_evicted__";
+
+    private static final long CHECK_INTERVAL_MS = 1000;
+    private static final int CAPACITY_EVICTION_DIVISOR = 10;
+
+    private static final List<EvictionListener> EVICTION_LISTENERS = new CopyOnWriteArrayList<>();
+
+    private static volatile BoundedResourceRegistry instance;
+
+    private final NodeTable table;
+    private final long idleMillis;
+    private final Object lock = new Object();
+
+    /**
+     * 资源表已满时等待后台线程登记的调用链
+     */
+    private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private ScheduledExecutorService scheduler;
+
+    private final LongAdder idleEvictions = new LongAdder();
+    private final LongAdder capacityEvictions = new LongAdder();
+    private long reportedEvictions;
+
+    private BoundedResourceRegistry(int capacity, long idleMillis) {
+        this.table = new NodeTable(capacity);
+        this.idleMillis = idleMillis;
+    }
+
+    /**
+     * 按 CAPACITY 和 IDLE_MILLIS 的配置安装
+     */
+    public static BoundedResourceRegistry install() {
+        return install(intConfig(CAPACITY, DEFAULT_CAPACITY), longConfig(IDLE_MILLIS, DEFAULT_IDLE_MILLIS));
+    }
+
+    /**
+     * @param capacity 资源数的上限，要小于 Constants.MAX_SLOT_CHAIN_SIZE
+     * @param idleMillis 资源多久没有访问就被淘汰
+     * @return 已经安装过时返回之前的实例
+     */
+    public static synchronized BoundedResourceRegistry install(int capacity, long idleMillis) {
+        if (instance != null) {
+            return instance;
+        }
+        if (capacity <= 0 || capacity >= Constants.MAX_SLOT_CHAIN_SIZE) {
+            throw new IllegalArgumentException("capacity should be in (0, " + Constants.MAX_SLOT_CHAIN_SIZE + ")");
+        }
+        BoundedResourceRegistry registry = new BoundedResourceRegistry(capacity, idleMillis);
+        replaceBuilder(registry);
+        registry.scheduler = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory("sentinel-resource-registry-task", true));
+        registry.scheduler.scheduleAtFixedRate(registry::tick, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+        instance = registry;
+        RecordLog.info("[BoundedResourceRegistry] Installed, capacity=" + capacity + ", idleMillis=" + idleMillis);
+        return registry;
+    }
+
+    /**
+     * 注册资源被淘汰之后的回调，可以在 install 之前注册
+     */
+    public static void addEvictionListener(EvictionListener listener) {
+        EVICTION_LISTENERS.add(listener);
+    }
+
+    public static void removeEvictionListener(EvictionListener listener) {
+        EVICTION_LISTENERS.remove(listener);
+    }
+
+    /**
+     * @return 没有安装时返回 null
+     */
+    public static BoundedResourceRegistry get() {
+        return instance;
+    }
+
+    private static void replaceBuilder(BoundedResourceRegistry registry) {
+        try {
+            Field field = SlotChainProvider.class.getDeclaredField("builder");
+            field.setAccessible(true);
+            if (field.get(null) == null) {
+                // 还没有通过 SPI 选出 builder，先创建一条调用链触发选择
+                SlotChainProvider.newSlotChain();
+            }
+            SlotChainBuilder current = (SlotChainBuilder) field.get(null);
+            field.set(null, new TrackedSlotChainBuilder(current, registry));
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalStateException("Unsupported sentinel version, failed to replace slot chain builder", e);
+        }
+    }
+
+    private static int intConfig(String key, int defaultValue) {
+        String value = SentinelConfig.getConfig(key);
+        return value == null ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    private static long longConfig(String key, long defaultValue) {
+        String value = SentinelConfig.getConfig(key);
+        return value == null ? defaultValue : Long.parseLong(value.trim());
+    }
+
+    void register(TrackedSlotChain chain, ResourceWrapper resource) {
+        synchronized (lock) {
+            if (chain.id != TrackedSlotChain.UNREGISTERED) {
+                return;
+            }
+            if (EVICTION_RESOURCE.equals(resource.getName())) {
+                chain.id = TrackedSlotChain.UNTRACKED;
+                return;
+            }
+            int id = table.allocate(chain, resource, TimeUtil.currentTimeMillis());
+            if (id >= 0) {
+                chain.id = id;
+                return;
+            }
+            chain.id = TrackedSlotChain.PENDING;
+        }
+        // 资源表已满，交给后台线程淘汰之后再登记
+        pending.add(new Pending(chain, resource));
+        if (drainScheduled.compareAndSet(false, true)) {
+            scheduler.execute(this::drain);
+        }
+    }
+
+    void touch(int id, TrackedSlotChain chain) {
+        table.touch(id, chain, TimeUtil.currentTimeMillis());
+    }
+
+    private void tick() {
+        try {
+            maintain(true);
+            reportEvictions();
+        } catch (Throwable e) {
+            RecordLog.warn("[BoundedResourceRegistry] Failed to evict idle resources", e);
+        }
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+        try {
+            maintain(false);
+        } catch (Throwable e) {
+            RecordLog.warn("[BoundedResourceRegistry] Failed to register pending resources", e);
+        }
+    }
+
+    /**
+     * 在后台线程上调用：淘汰空闲的资源，以及为等待登记的调用链腾出位置的资源，再登记等待的调用链
+     * @param checkIdle 是否淘汰超过 idleMillis 没有访问的资源
+     */
+    private void maintain(boolean checkIdle) {
+        int[] ids;
+        int idleCount;
+        synchronized (lock) {
+            ids = checkIdle ? table.idleSince(TimeUtil.currentTimeMillis() - idleMillis) : new int[0];
+            idleCount = ids.length;
+            int shortage = pending.size() - (table.capacity() - table.size()) - idleCount;
+            if (shortage > 0) {
+                int n = Math.max(shortage, table.capacity() / CAPACITY_EVICTION_DIVISOR);
+                ids = merge(ids, table.oldest(n + idleCount));
+            }
+        }
+        evict(ids, idleCount);
+        synchronized (lock) {
+            long now = TimeUtil.currentTimeMillis();
+            Pending next;
+            while (table.size() < table.capacity() && (next = pending.poll()) != null) {
+                next.chain.id = table.allocate(next.chain, next.resource, now);
+            }
+        }
+    }
+
+    /**
+     * 空闲的下标在前，再加上 oldest 中不重复的下标
+     */
+    private static int[] merge(int[] idle, int[] oldest) {
+        Set<Integer> seen = new HashSet<>();
+        for (int id : idle) {
+            seen.add(id);
+        }
+        int[] ids = Arrays.copyOf(idle, idle.length + oldest.length);
+        int count = idle.length;
+        for (int id : oldest) {
+            if (seen.add(id)) {
+                ids[count++] = id;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * 在后台线程上、锁外调用，只有后台线程会释放下标，所以这期间这些下标不会被重新分配
+     * @param idleCount ids 中前 idleCount 个是因为空闲被淘汰的，其余的是因为容量被淘汰的
+     */
+    private void evict(int[] ids, int idleCount) {
+        if (ids.length == 0) {
+            return;
+        }
+        Map<ResourceWrapper, ProcessorSlotChain> candidates = new HashMap<>();
+        for (int id : ids) {
+            candidates.put(table.resource(id), table.chain(id));
+        }
+        Set<ResourceWrapper> resources;
+        try {
+            resources = NodeEvictor.evict(candidates);
+        } catch (IllegalAccessException e) {
+            RecordLog.warn("[BoundedResourceRegistry] Failed to evict resources", e);
+            return;
+        }
+        if (resources.isEmpty()) {
+            return;
+        }
+        int idle = 0;
+        synchronized (lock) {
+            for (int i = 0; i < ids.length; i++) {
+                if (!resources.contains(table.resource(ids[i]))) {
+                    continue;
+                }
+                if (i < idleCount) {
+                    idle++;
+                }
+                table.chain(ids[i]).id = TrackedSlotChain.UNTRACKED;
+                table.release(ids[i]);
+            }
+        }
+        idleEvictions.add(idle);
+        capacityEvictions.add(resources.size() - idle);
+        notifyListeners(resources);
+    }
+
+    private static void notifyListeners(Set<ResourceWrapper> resources) {
+        if (EVICTION_LISTENERS.isEmpty()) {
+            return;
+        }
+        Set<String> names = new HashSet<>();
+        for (ResourceWrapper resource : resources) {
+            names.add(resource.getName());
+        }
+        names = Collections.unmodifiableSet(names);
+        for (EvictionListener listener : EVICTION_LISTENERS) {
+            try {
+                listener.onEvicted(names);
+            } catch (Throwable e) {
+                RecordLog.warn("[BoundedResourceRegistry] Error when notifying eviction listener", e);
+            }
+        }
+    }
+
+    /**
+     * 把新增的淘汰数记为 EVICTION_RESOURCE 的通过数
+     */
+    private void reportEvictions() {
+        long total = getIdleEvictions() + getCapacityEvictions();
+        int delta = (int) (total - reportedEvictions);
+        if (delta <= 0) {
+            return;
+        }
+        reportedEvictions = total;
+        Entry entry = null;
+        try {
+            entry = SphU.entry(EVICTION_RESOURCE, EntryType.OUT, delta);
+        } catch (BlockException e) {
+            // 不应该给这个资源配置规则
+        } finally {
+            if (entry != null) {
+                entry.exit(delta);
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (lock) {
+            return table.size();
+        }
+    }
+
+    public int capacity() {
+        return table.capacity();
+    }
+
+    /**
+     * 因为长时间没有访问而被淘汰的资源数
+     */
+    public long getIdleEvictions() {
+        return idleEvictions.sum();
+    }
+
+    /**
+     * 因为资源数达到上限而被淘汰的资源数
+     */
+    public long getCapacityEvictions() {
+        return capacityEvictions.sum();
+    }
+
+    /**
+     * 资源被淘汰的监听器，在后台线程上回调，这时资源已经从 Sentinel 中删除
+     * 以资源名缓存节点或者状态的代码通过它删除对应的缓存，避免被淘汰的节点一直无法回收
+     */
+    public interface EvictionListener {
+
+        /**
+         * @param resources 被淘汰的资源名
+         */
+        void onEvicted(Set<String> resources);
+    }
+
+    private static final class Pending {
+
+        final TrackedSlotChain chain;
+        final ResourceWrapper resource;
+
+        Pending(TrackedSlotChain chain, ResourceWrapper resource) {
+            this.chain = chain;
+            this.resource = resource;
+        }
+    }
+
+}
@@ -0,0 +1,180 @@
+package com.lememo.sentinel.entities;
+
+import com.alibaba.csp.sentinel.Constants;
+import com.alibaba.csp.sentinel.CtSph;
+import com.alibaba.csp.sentinel.node.ClusterNode;
+import com.alibaba.csp.sentinel.node.DefaultNode;
+import com.alibaba.csp.sentinel.node.EntranceNode;
+import com.alibaba.csp.sentinel.node.Node;
+import com.alibaba.csp.sentinel.slotchain.ProcessorSlotChain;
+import com.alibaba.csp.sentinel.slotchain.ResourceWrapper;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowSlot;
+import com.alibaba.csp.sentinel.slots.clusterbuilder.ClusterBuilderSlot;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 从 Sentinel 内部的各个结构中删除资源
+ *
+ * 一个资源在 Sentinel 中会留下这些对象，都没有提供删除的入口，这里通过反射处理：
+ * <ul>
+ *     <li>CtSph.chainMap 中的调用链，连同 NodeSelectorSlot 中每个 context 的 DefaultNode</li>
+ *     <li>ClusterBuilderSlot.clusterNodeMap 中的 ClusterNode，连同其中每个 origin 的 StatisticNode</li>
+ *     <li>调用链树中的 DefaultNode，挂在 EntranceNode 或者上一层资源的 DefaultNode 下面</li>
+ *     <li>ParamFlowSlot 中热点参数的统计</li>
+ * </ul>
+ * chainMap、clusterNodeMap 和 childList 都是写时复制的，这里和 Sentinel 一样在对应的锁中复制一份再替换。
+ *
+ * 整个删除过程持有 CtSph 创建调用链时的锁，期间不会有新的资源创建调用链。还有请求没有 exit 的资源在这个锁中再检查一次，
+ * 不会被删除。已经拿到调用链的请求不经过这个锁，检查之后仍然可能在旧的调用链上 entry：
+ * 这个请求的统计记在已经被删除的节点上，exit 时也在同一个节点上减少线程数，只是这一次请求的统计不会出现在新的节点中。
+ * @author houyi
+ * @date 2019-03-13
+ **/
+final class NodeEvictor {
+
+    private static final Field CHAIN_MAP = field(CtSph.class, "chainMap");
+    private static final Object CHAIN_LOCK = staticValue(field(CtSph.class, "LOCK"));
+    private static final Field CLUSTER_NODE_MAP = field(ClusterBuilderSlot.class, "clusterNodeMap");
+    private static final Object CLUSTER_NODE_LOCK = staticValue(field(ClusterBuilderSlot.class, "lock"));
+    private static final Field CHILD_LIST = field(DefaultNode.class, "childList");
+
+    private static final boolean PARAM_FLOW_AVAILABLE = isParamFlowAvailable();
+
+    private NodeEvictor() {
+    }
+
+    private static Field field(Class<?> type, String name) {
+        try {
+            Field field = type.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("Unsupported sentinel version, field not found: "
+                    + type.getSimpleName() + "." + name, e);
+        }
+    }
+
+    private static Object staticValue(Field field) {
+        try {
+            return field.get(null);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unsupported sentinel version, field not accessible: " + field, e);
+        }
+    }
+
+    private static boolean isParamFlowAvailable() {
+        try {
+            Class.forName("com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowSlot", false,
+                    NodeEvictor.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 删除资源及其调用链，调用链只按引用比较，同名资源新创建的调用链不会被删除
+     * 最后才删调用链：旧的调用链还在 chainMap 中时，不会有新的调用链再用这个资源名创建 ClusterNode 和 DefaultNode，
+     * 不会误删新创建的节点
+     * @param candidates 要删除的资源及其调用链
+     * @return 实际删除的资源，还有请求没有 exit 的资源不会被删除
+     */
+    static Set<ResourceWrapper> evict(Map<ResourceWrapper, ProcessorSlotChain> candidates)
+            throws IllegalAccessException {
+        Set<ResourceWrapper> resources = new HashSet<>();
+        Set<ProcessorSlotChain> chains = new HashSet<>();
+        synchronized (CHAIN_LOCK) {
+            Map<ResourceWrapper, ClusterNode> clusterNodes = ClusterBuilderSlot.getClusterNodeMap();
+            for (Map.Entry<ResourceWrapper, ProcessorSlotChain> entry : candidates.entrySet()) {
+                ClusterNode node = clusterNodes.get(entry.getKey());
+                if (node != null && node.curThreadNum() > 0) {
+                    continue;
+                }
+                resources.add(entry.getKey());
+                chains.add(entry.getValue());
+            }
+            if (resources.isEmpty()) {
+                return resources;
+            }
+            removeClusterNodes(resources);
+            removeTreeNodes(Constants.ROOT, resources);
+            removeChains(chains);
+        }
+        if (PARAM_FLOW_AVAILABLE) {
+            ParamMetrics.remove(resources);
+        }
+        return resources;
+    }
+
+    /**
+     * 调用方持有 CHAIN_LOCK
+     */
+    @SuppressWarnings("unchecked")
+    private static void removeChains(Set<ProcessorSlotChain> chains) throws IllegalAccessException {
+        Set<ProcessorSlotChain> evicted = Collections.newSetFromMap(new IdentityHashMap<>());
+        evicted.addAll(chains);
+        Map<ResourceWrapper, ProcessorSlotChain> current =
+                (Map<ResourceWrapper, ProcessorSlotChain>) CHAIN_MAP.get(null);
+        Map<ResourceWrapper, ProcessorSlotChain> newMap = new HashMap<>(current);
+        newMap.values().removeIf(evicted::contains);
+        CHAIN_MAP.set(null, newMap);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void removeClusterNodes(Set<ResourceWrapper> resources) throws IllegalAccessException {
+        synchronized (CLUSTER_NODE_LOCK) {
+            Map<ResourceWrapper, Object> current = (Map<ResourceWrapper, Object>) CLUSTER_NODE_MAP.get(null);
+            Map<ResourceWrapper, Object> newMap = new HashMap<>(current);
+            newMap.keySet().removeAll(resources);
+            CLUSTER_NODE_MAP.set(null, newMap);
+        }
+    }
+
+    /**
+     * 从调用链树中摘掉这些资源的 DefaultNode，被摘掉的节点下面的子树也一起被丢弃
+     * EntranceNode 的 id 是 context 的名字，可能和资源重名，不能删除
+     */
+    private static void removeTreeNodes(DefaultNode parent, Set<ResourceWrapper> resources)
+            throws IllegalAccessException {
+        Set<Node> children = parent.getChildList();
+        boolean matched = false;
+        for (Node child : children) {
+            if (isEvicted(child, resources)) {
+                matched = true;
+            } else if (child instanceof DefaultNode) {
+                removeTreeNodes((DefaultNode) child, resources);
+            }
+        }
+        if (!matched) {
+            return;
+        }
+        synchronized (parent) {
+            Set<Node> newSet = new HashSet<>(parent.getChildList());
+            newSet.removeIf(child -> isEvicted(child, resources));
+            CHILD_LIST.set(parent, newSet);
+        }
+    }
+
+    private static boolean isEvicted(Node node, Set<ResourceWrapper> resources) {
+        return node instanceof DefaultNode && !(node instanceof EntranceNode)
+                && resources.contains(((DefaultNode) node).getId());
+    }
+
+    /**
+     * 没有引入 sentinel-parameter-flow-control 时不会加载这个类
+     */
+    private static final class ParamMetrics {
+
+        static void remove(Set<ResourceWrapper> resources) {
+            ParamFlowSlot.getMetricsMap().keySet().removeAll(resources);
+        }
+    }
+
+}
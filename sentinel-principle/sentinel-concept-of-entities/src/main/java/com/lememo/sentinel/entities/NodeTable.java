@@ -0,0 +1,118 @@
+package com.lememo.sentinel.entities;
+
+import com.alibaba.csp.sentinel.slotchain.ResourceWrapper;
+
+import java.util.Arrays;
+
+/**
+ * 以 int 下标索引的资源表
+ *
+ * 每个登记的调用链分配一个下标，最近访问时间保存在 long[] 中，调用链每次 entry 时只需要按下标写一次，
+ * 不需要查 map，也不会分配内存；淘汰时顺序扫描 long[] 即可。
+ * 释放的下标放回空闲栈中给新的资源使用。非线程安全，除了 touch 以及后台线程淘汰时读取调用链和资源之外，
+ * 都在 BoundedResourceRegistry 的锁中调用。
+ * @author houyi
+ * @date 2019-03-13
+ **/
+final class NodeTable {
+
+    private final TrackedSlotChain[] chains;
+    private final ResourceWrapper[] resources;
+    private final long[] lastAccess;
+
+    private final int[] freeIds;
+    private int freeCount;
+
+    NodeTable(int capacity) {
+        this.chains = new TrackedSlotChain[capacity];
+        this.resources = new ResourceWrapper[capacity];
+        this.lastAccess = new long[capacity];
+        this.freeIds = new int[capacity];
+        // 倒序入栈，先分配小的下标
+        for (int i = 0; i < capacity; i++) {
+            freeIds[i] = capacity - 1 - i;
+        }
+        this.freeCount = capacity;
+    }
+
+    int capacity() {
+        return chains.length;
+    }
+
+    int size() {
+        return chains.length - freeCount;
+    }
+
+    /**
+     * @return 分配的下标，表已满时返回 -1
+     */
+    int allocate(TrackedSlotChain chain, ResourceWrapper resource, long now) {
+        if (freeCount == 0) {
+            return -1;
+        }
+        int id = freeIds[--freeCount];
+        chains[id] = chain;
+        resources[id] = resource;
+        lastAccess[id] = now;
+        return id;
+    }
+
+    void release(int id) {
+        chains[id] = null;
+        resources[id] = null;
+        freeIds[freeCount++] = id;
+    }
+
+    /**
+     * 下标被释放并分配给其他资源之后，旧的调用链不能再更新这个下标的访问时间
+     */
+    void touch(int id, TrackedSlotChain chain, long now) {
+        if (chains[id] == chain) {
+            lastAccess[id] = now;
+        }
+    }
+
+    TrackedSlotChain chain(int id) {
+        return chains[id];
+    }
+
+    ResourceWrapper resource(int id) {
+        return resources[id];
+    }
+
+    /**
+     * @return 最近访问时间早于 deadline 的下标
+     */
+    int[] idleSince(long deadline) {
+        int[] ids = new int[size()];
+        int count = 0;
+        for (int id = 0; id < chains.length; id++) {
+            if (chains[id] != null && lastAccess[id] < deadline) {
+                ids[count++] = id;
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * @return 最久没有访问的 n 个下标，按访问时间从早到晚排列
+     */
+    int[] oldest(int n) {
+        int size = size();
+        long[] keys = new long[size];
+        int count = 0;
+        for (int id = 0; id < chains.length; id++) {
+            if (chains[id] != null) {
+                // 高位是访问时间，低位是下标，一次排序就能按时间找到下标
+                keys[count++] = (lastAccess[id] << 20) | id;
+            }
+        }
+        Arrays.sort(keys, 0, count);
+        int[] ids = new int[Math.min(n, count)];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = (int) (keys[i] & ((1 << 20) - 1));
+        }
+        return ids;
+    }
+
+}
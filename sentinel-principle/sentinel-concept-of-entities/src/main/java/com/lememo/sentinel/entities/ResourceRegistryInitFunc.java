@@ -0,0 +1,22 @@
+package com.lememo.sentinel.entities;
+
+import com.alibaba.csp.sentinel.config.SentinelConfig;
+import com.alibaba.csp.sentinel.init.InitFunc;
+import com.alibaba.csp.sentinel.util.StringUtil;
+
+/**
+ * 通过 SPI 在 Sentinel 初始化时读取启动参数 -Dcsp.sentinel.resource.registry.capacity=4000
+ * 配置了上限时安装 BoundedResourceRegistry，Sentinel 初始化发生在第一次创建调用链之前
+ * @author houyi
+ * @date 2019-03-13
+ **/
+public class ResourceRegistryInitFunc implements InitFunc {
+
+    @Override
+    public void init() throws Exception {
+        if (StringUtil.isNotBlank(SentinelConfig.getConfig(BoundedResourceRegistry.CAPACITY))) {
+            BoundedResourceRegistry.install();
+        }
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.lememo.sentinel.entities;
+
+import com.alibaba.csp.sentinel.CtSph;
+import com.alibaba.csp.sentinel.Entry;
+import com.alibaba.csp.sentinel.SphU;
+import com.alibaba.csp.sentinel.slots.block.BlockException;
+import com.alibaba.csp.sentinel.slots.block.RuleConstant;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+import com.alibaba.csp.sentinel.slots.clusterbuilder.ClusterBuilderSlot;
+
+import java.util.Collections;
+
+/**
+ * 用大量不同的资源名做长时间的压测，观察堆内存是否保持平稳
+ *
+ * 模拟以带路径参数的 url 作为资源名：每个请求的资源名都不同（/user/0、/user/1 ...），每个只访问一次。
+ * 每处理 REPORT_INTERVAL 个资源名做一次 full gc，打印 gc 之后的堆内存以及 Sentinel 中的资源数。
+ * 最后给一个新的资源名配置阈值为 0 的规则，检查新资源是否还能被限流。
+ *
+ * 启动参数：
+ * args[0] bounded 或 stock，stock 时不安装 BoundedResourceRegistry，默认为 bounded
+ * args[1] 资源名的数量，默认为 5000000
+ * args[2] BoundedResourceRegistry 的容量，默认为 4000
+ * @author houyi
+ * @date 2019-03-13
+ **/
+public class ResourceRegistrySoakSimulate {
+
+    private static final int REPORT_INTERVAL = 500000;
+    private static final long IDLE_MILLIS = 10 * 1000;
+    private static final double MB = 1024 * 1024;
+
+    public static void main(String[] args) throws Exception {
+        boolean bounded = args.length == 0 || "bounded".equals(args[0]);
+        int names = args.length > 1 ? Integer.parseInt(args[1]) : 5000000;
+        int capacity = args.length > 2 ? Integer.parseInt(args[2]) : BoundedResourceRegistry.DEFAULT_CAPACITY;
+        BoundedResourceRegistry registry = bounded ? BoundedResourceRegistry.install(capacity, IDLE_MILLIS) : null;
+
+        System.out.printf("%-10s %10s %10s %12s %10s %12s %12s%n", "names", "heap(MB)", "chains", "clusterNodes",
+                "tracked", "evict(idle)", "evict(cap)");
+        double baseline = 0;
+        double heap = 0;
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < names; i++) {
+            Entry entry = null;
+            try {
+                entry = SphU.entry("/user/" + i);
+            } catch (BlockException e) {
+                // 没有规则，不会被限流
+            } finally {
+                if (entry != null) {
+                    entry.exit();
+                }
+            }
+            if ((i + 1) % REPORT_INTERVAL == 0) {
+                heap = usedHeapAfterGc();
+                // 第一轮包含了类加载等一次性的开销，以第一轮之后的堆内存为基准
+                if (i + 1 == REPORT_INTERVAL) {
+                    baseline = heap;
+                }
+                System.out.printf("%-10d %10.1f %10d %12d %10s %12s %12s%n", i + 1, heap, CtSph.entrySize(),
+                        ClusterBuilderSlot.getClusterNodeMap().size(),
+                        registry == null ? "-" : String.valueOf(registry.size()),
+                        registry == null ? "-" : String.valueOf(registry.getIdleEvictions()),
+                        registry == null ? "-" : String.valueOf(registry.getCapacityEvictions()));
+            }
+        }
+        System.out.printf("%d names in %ds, heap growth after the first round: %.1f MB%n", names,
+                (System.currentTimeMillis() - start) / 1000, heap - baseline);
+        System.out.println("new resource still protected: " + isProtected("/user/final"));
+        System.exit(0);
+    }
+
+    private static double usedHeapAfterGc() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return (runtime.totalMemory() - runtime.freeMemory()) / MB;
+    }
+
+    /**
+     * 配置阈值为 0 的规则，能拿到调用链的资源一定会被限流
+     */
+    private static boolean isProtected(String resource) {
+        FlowRule rule = new FlowRule();
+        rule.setResource(resource);
+        rule.setGrade(RuleConstant.FLOW_GRADE_QPS);
+        rule.setCount(0);
+        rule.setLimitApp(RuleConstant.LIMIT_APP_DEFAULT);
+        FlowRuleManager.loadRules(Collections.singletonList(rule));
+        try {
+            SphU.entry(resource).exit();
+            return false;
+        } catch (BlockException e) {
+            return true;
+        }
+    }
+
+}
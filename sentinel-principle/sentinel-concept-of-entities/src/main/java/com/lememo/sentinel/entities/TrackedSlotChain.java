@@ -0,0 +1,71 @@
+package com.lememo.sentinel.entities;
+
+import com.alibaba.csp.sentinel.context.Context;
+import com.alibaba.csp.sentinel.slotchain.AbstractLinkedProcessorSlot;
+import com.alibaba.csp.sentinel.slotchain.ProcessorSlotChain;
+import com.alibaba.csp.sentinel.slotchain.ResourceWrapper;
+
+/**
+ * 包装原来的调用链，第一次 entry 时在 BoundedResourceRegistry 中登记，之后每次 entry 更新最近访问时间
+ * @author houyi
+ * @date 2019-03-13
+ **/
+final class TrackedSlotChain extends ProcessorSlotChain {
+
+    static final int UNREGISTERED = -1;
+    /**
+     * 已经被淘汰，或者不需要登记的调用链
+     */
+    static final int UNTRACKED = -2;
+    /**
+     * 资源表已满，等待后台线程淘汰之后登记
+     */
+    static final int PENDING = -3;
+
+    private final ProcessorSlotChain delegate;
+    private final BoundedResourceRegistry registry;
+
+    /**
+     * 在 NodeTable 中的下标，只在 registry 的锁中修改
+     */
+    volatile int id = UNREGISTERED;
+
+    TrackedSlotChain(ProcessorSlotChain delegate, BoundedResourceRegistry registry) {
+        this.delegate = delegate;
+        this.registry = registry;
+    }
+
+    @Override
+    public void entry(Context context, ResourceWrapper resourceWrapper, Object t, int count, boolean prioritized,
+                      Object... args) throws Throwable {
+        int current = id;
+        if (current >= 0) {
+            registry.touch(current, this);
+        } else if (current == UNREGISTERED) {
+            registry.register(this, resourceWrapper);
+        }
+        // 已经被淘汰的调用链只是把已经拿到它的请求处理完，不再登记
+        delegate.entry(context, resourceWrapper, t, count, prioritized, args);
+    }
+
+    @Override
+    public void exit(Context context, ResourceWrapper resourceWrapper, int count, Object... args) {
+        delegate.exit(context, resourceWrapper, count, args);
+    }
+
+    @Override
+    public void addFirst(AbstractLinkedProcessorSlot<?> protocolProcessor) {
+        delegate.addFirst(protocolProcessor);
+    }
+
+    @Override
+    public void addLast(AbstractLinkedProcessorSlot<?> protocolProcessor) {
+        delegate.addLast(protocolProcessor);
+    }
+
+    @Override
+    public String toString() {
+        return delegate.toString();
+    }
+
+}
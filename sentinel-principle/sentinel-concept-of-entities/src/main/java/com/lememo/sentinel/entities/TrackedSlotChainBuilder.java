@@ -0,0 +1,26 @@
+package com.lememo.sentinel.entities;
+
+import com.alibaba.csp.sentinel.slotchain.ProcessorSlotChain;
+import com.alibaba.csp.sentinel.slotchain.SlotChainBuilder;
+
+/**
+ * 用原来的 builder 创建调用链，再包装成 TrackedSlotChain
+ * @author houyi
+ * @date 2019-03-13
+ **/
+final class TrackedSlotChainBuilder implements SlotChainBuilder {
+
+    private final SlotChainBuilder delegate;
+    private final BoundedResourceRegistry registry;
+
+    TrackedSlotChainBuilder(SlotChainBuilder delegate, BoundedResourceRegistry registry) {
+        this.delegate = delegate;
+        this.registry = registry;
+    }
+
+    @Override
+    public ProcessorSlotChain build() {
+        return new TrackedSlotChain(delegate.build(), registry);
+    }
+
+}
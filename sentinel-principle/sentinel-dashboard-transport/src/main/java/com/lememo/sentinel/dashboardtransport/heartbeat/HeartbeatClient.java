@@ -0,0 +1,187 @@
+package com.lememo.sentinel.dashboardtransport.heartbeat;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 通过一个长连接向 dashboard 发送心跳
+ *
+ * SimpleHttpHeartbeatSender 每 10s 发起一次新的 http 请求，每次都要重新建立连接、重新拼装心跳的参数。
+ * 这里连接只建立一次，心跳的内容在创建时序列化好，连接建立后发送一次完整的 REGISTER，之后每次心跳只发送 5 个字节的 BEAT。
+ *
+ * 心跳的间隔由 dashboard 通过 INTERVAL 帧通知，机器越多间隔越长。第一次心跳的时间在一个间隔内随机，
+ * 断开后重连的时间也加上随机的延迟，这样 dashboard 重启后几千台机器不会在同一时刻重新连接。
+ * 所有的操作都在连接所在的 EventLoop 中执行，多个客户端可以共用一个 EventLoopGroup。
+ * @author houyi
+ * @date 2019-03-09
+ **/
+public class HeartbeatClient {
+
+    private static final long RECONNECT_DELAY_MS = 2000;
+
+    /**
+     * 收到 dashboard 的通知之前的间隔，和 SimpleHttpHeartbeatSender 一致
+     */
+    private static final long DEFAULT_INTERVAL_MS = 10 * 1000;
+
+    private static final byte[] BEAT_FRAME = HeartbeatFrames.beatFrame();
+
+    private final String serverHost;
+    private final int serverPort;
+    private final EventLoopGroup group;
+    private final byte[] registerFrame;
+
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong sentFrames = new AtomicLong();
+
+    private volatile long intervalMs = DEFAULT_INTERVAL_MS;
+    private volatile Channel channel;
+    private volatile boolean stopped;
+
+    /**
+     * @param serverHost dashboard 的地址
+     * @param serverPort 接收心跳的端口
+     * @param message 心跳的内容，app、hostname、ip、port、v
+     * @param group 共用的 EventLoopGroup
+     */
+    public HeartbeatClient(String serverHost, int serverPort, Map<String, String> message, EventLoopGroup group) {
+        this.serverHost = serverHost;
+        this.serverPort = serverPort;
+        this.group = group;
+        this.registerFrame = HeartbeatFrames.registerFrame(message);
+    }
+
+    public void start() {
+        connect();
+    }
+
+    private void connect() {
+        if (stopped) {
+            return;
+        }
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 3000)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline()
+                                .addLast(new LengthFieldBasedFrameDecoder(HeartbeatFrames.MAX_FRAME_LENGTH, 0,
+                                        HeartbeatFrames.LENGTH_FIELD_LENGTH, 0, HeartbeatFrames.LENGTH_FIELD_LENGTH))
+                                .addLast(new BeatHandler());
+                    }
+                });
+        bootstrap.connect(serverHost, serverPort).addListener((ChannelFuture future) -> {
+            if (!future.isSuccess()) {
+                scheduleReconnect();
+                return;
+            }
+            Channel ch = future.channel();
+            channel = ch;
+            // 收到 dashboard 建议的间隔之后再开始心跳
+            write(ch, registerFrame);
+            ch.closeFuture().addListener(f -> {
+                channel = null;
+                scheduleReconnect();
+            });
+        });
+    }
+
+    private void scheduleReconnect() {
+        if (!stopped) {
+            long delay = RECONNECT_DELAY_MS + ThreadLocalRandom.current().nextLong(RECONNECT_DELAY_MS);
+            group.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void write(Channel ch, byte[] frame) {
+        sentBytes.addAndGet(frame.length);
+        sentFrames.incrementAndGet();
+        ch.writeAndFlush(Unpooled.wrappedBuffer(frame));
+    }
+
+    public boolean isConnected() {
+        Channel ch = channel;
+        return ch != null && ch.isActive();
+    }
+
+    public long getIntervalMs() {
+        return intervalMs;
+    }
+
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    public long getSentFrames() {
+        return sentFrames.get();
+    }
+
+    public void stop() {
+        stopped = true;
+        Channel ch = channel;
+        if (ch != null) {
+            ch.close();
+        }
+    }
+
+    /**
+     * 处理 dashboard 通知的间隔，并按间隔发送心跳
+     */
+    private final class BeatHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+        private ScheduledFuture<?> nextBeat;
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            if (frame.readByte() != HeartbeatFrames.INTERVAL) {
+                return;
+            }
+            intervalMs = Math.max(1, frame.readInt());
+            // 第一次心跳以及间隔变化之后的第一次心跳在一个间隔内随机，
+            // 否则所有机器会在收到通知后的同一段时间内集中发送
+            if (nextBeat != null) {
+                nextBeat.cancel(false);
+            }
+            scheduleBeat(ctx.channel(), ThreadLocalRandom.current().nextLong(intervalMs));
+        }
+
+        /**
+         * 每次发送之后按最新的间隔安排下一次心跳
+         */
+        private void scheduleBeat(Channel ch, long delayMs) {
+            nextBeat = ch.eventLoop().schedule(() -> {
+                if (!ch.isActive()) {
+                    return;
+                }
+                write(ch, BEAT_FRAME);
+                scheduleBeat(ch, intervalMs);
+            }, delayMs, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+    }
+
+}
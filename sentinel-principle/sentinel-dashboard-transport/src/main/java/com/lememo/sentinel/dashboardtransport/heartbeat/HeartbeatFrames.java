@@ -0,0 +1,81 @@
+package com.lememo.sentinel.dashboardtransport.heartbeat;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 心跳连接上的帧
+ *
+ * frame:    length(4) | type(1) | body
+ * REGISTER: count(2) | count 个 key、value，每个都是 length(2) | utf-8 bytes
+ * BEAT:     没有 body
+ * INTERVAL: intervalMs(4)，dashboard 建议的心跳间隔
+ *
+ * 客户端发送的 REGISTER 和 BEAT 在创建客户端时就序列化好，之后每次发送的都是同样的字节。
+ * @author houyi
+ * @date 2019-03-09
+ **/
+final class HeartbeatFrames {
+
+    static final byte REGISTER = 1;
+    static final byte BEAT = 2;
+    static final byte INTERVAL = 3;
+
+    static final int LENGTH_FIELD_LENGTH = 4;
+    static final int MAX_FRAME_LENGTH = 64 * 1024;
+
+    private HeartbeatFrames() {
+    }
+
+    /**
+     * 序列化 REGISTER 帧，包括长度字段
+     */
+    static byte[] registerFrame(Map<String, String> message) {
+        ByteBuf body = Unpooled.buffer();
+        body.writeByte(REGISTER);
+        body.writeShort(message.size());
+        for (Map.Entry<String, String> entry : message.entrySet()) {
+            writeString(body, entry.getKey());
+            writeString(body, entry.getValue());
+        }
+        byte[] frame = new byte[LENGTH_FIELD_LENGTH + body.readableBytes()];
+        ByteBuffer.wrap(frame).putInt(body.readableBytes());
+        body.readBytes(frame, LENGTH_FIELD_LENGTH, body.readableBytes());
+        return frame;
+    }
+
+    static byte[] beatFrame() {
+        return new byte[] {0, 0, 0, 1, BEAT};
+    }
+
+    /**
+     * 读取 REGISTER 的 body，type 已经被读取
+     */
+    static Map<String, String> readMessage(ByteBuf frame) {
+        int count = frame.readUnsignedShort();
+        Map<String, String> message = new HashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            message.put(readString(frame), readString(frame));
+        }
+        return message;
+    }
+
+    private static void writeString(ByteBuf out, String value) {
+        byte[] bytes = (value == null ? "" : value).getBytes(StandardCharsets.UTF_8);
+        out.writeShort(bytes.length);
+        out.writeBytes(bytes);
+    }
+
+    private static String readString(ByteBuf in) {
+        int length = in.readUnsignedShort();
+        String value = in.toString(in.readerIndex(), length, StandardCharsets.UTF_8);
+        in.skipBytes(length);
+        return value;
+    }
+
+}
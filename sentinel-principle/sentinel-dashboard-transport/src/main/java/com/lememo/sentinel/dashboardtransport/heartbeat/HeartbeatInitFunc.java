@@ -0,0 +1,76 @@
+package com.lememo.sentinel.dashboardtransport.heartbeat;
+
+import com.alibaba.csp.sentinel.Constants;
+import com.alibaba.csp.sentinel.config.SentinelConfig;
+import com.alibaba.csp.sentinel.init.InitFunc;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.transport.config.TransportConfig;
+import com.alibaba.csp.sentinel.util.AppNameUtil;
+import com.alibaba.csp.sentinel.util.HostNameUtil;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 通过 SPI 在 Sentinel 初始化时读取启动参数 -Dcsp.sentinel.heartbeat.stream.server=host:port
+ * 配置了该参数时，启动 HeartbeatClient 通过长连接向 dashboard 发送心跳
+ *
+ * HeartbeatSenderInitFunc 只允许有一个 HeartbeatSender，所以这里没有实现 HeartbeatSender，
+ * 而是单独启动，和 SimpleHttpHeartbeatSender 互不影响
+ * @author houyi
+ * @date 2019-03-09
+ **/
+public class HeartbeatInitFunc implements InitFunc {
+
+    public static final String HEARTBEAT_STREAM_SERVER = "csp.sentinel.heartbeat.stream.server";
+
+    @Override
+    public void init() throws Exception {
+        String server = SentinelConfig.getConfig(HEARTBEAT_STREAM_SERVER);
+        if (StringUtil.isBlank(server)) {
+            return;
+        }
+        String[] hostAndPort = server.trim().split(":");
+        if (hostAndPort.length != 2) {
+            RecordLog.warn("[HeartbeatInitFunc] Invalid " + HEARTBEAT_STREAM_SERVER + ": " + server);
+            return;
+        }
+        String ip = TransportConfig.getHeartbeatClientIp();
+        if (StringUtil.isBlank(ip)) {
+            ip = HostNameUtil.getIp();
+        }
+        int serverPort;
+        int port;
+        try {
+            serverPort = Integer.parseInt(hostAndPort[1]);
+            port = TransportConfig.getRuntimePort();
+            if (port <= 0) {
+                port = Integer.parseInt(TransportConfig.getPort());
+            }
+        } catch (NumberFormatException e) {
+            RecordLog.warn("[HeartbeatInitFunc] Invalid port, " + HEARTBEAT_STREAM_SERVER + ": " + server
+                    + ", transport port: " + TransportConfig.getPort(), e);
+            return;
+        }
+        // 和 HeartbeatMessage 中的字段一致
+        Map<String, String> message = new LinkedHashMap<>();
+        message.put("hostname", HostNameUtil.getHostName());
+        message.put("ip", ip);
+        message.put("app", AppNameUtil.getAppName());
+        message.put("port", String.valueOf(port));
+        message.put("v", Constants.SENTINEL_VERSION);
+        final NioEventLoopGroup group = new NioEventLoopGroup(1,
+                new DefaultThreadFactory("sentinel-heartbeat-stream", true));
+        final HeartbeatClient client = new HeartbeatClient(hostAndPort[0], serverPort, message, group);
+        client.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            client.stop();
+            group.shutdownGracefully();
+        }, "sentinel-heartbeat-stream-shutdown"));
+        RecordLog.info("[HeartbeatInitFunc] Sending heartbeat to " + server);
+    }
+
+}
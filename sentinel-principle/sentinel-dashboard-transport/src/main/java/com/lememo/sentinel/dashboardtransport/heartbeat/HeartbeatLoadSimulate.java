@@ -0,0 +1,293 @@
+package com.lememo.sentinel.dashboardtransport.heartbeat;
+
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在本机模拟几千台机器发送心跳
+ *
+ * [short]      每次心跳新建一个连接，发送完整的心跳内容后关闭，和 SimpleHttpHeartbeatSender 的方式相同，但不包含 http 协议本身的开销
+ * [persistent] 使用 HeartbeatClient，间隔固定为 1s，和 [short] 每秒的心跳数相同
+ * [adaptive]   dashboard 限制每秒最多 500 次心跳，间隔由 dashboard 根据连接数决定
+ * [offline]    断开一部分机器，统计多久之后被判定为下线
+ * [tracker]    不经过网络，直接对 MachineLivenessTracker 调用心跳，统计时间轮的开销和判定下线的延迟
+ *
+ * 客户端和 dashboard 在同一个进程中，cpu 是整个进程的 cpu 时间。
+ * 启动参数：机器数（默认 2000） 每个阶段的秒数（默认 10）
+ * @author houyi
+ * @date 2019-03-09
+ **/
+public class HeartbeatLoadSimulate {
+
+    private static final int PORT = 18720;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        EventLoopGroup group = new NioEventLoopGroup(1);
+        // 短连接会留下大量 TIME_WAIT 的端口，只运行 5s
+        simulateShort(clients, Math.min(5, seconds), group);
+        simulatePersistent(clients, seconds, group);
+        group.shutdownGracefully().sync();
+        simulateTracker(100000, 1000);
+        System.exit(0);
+    }
+
+    private static void simulateShort(int clients, int seconds, EventLoopGroup group) throws Exception {
+        AtomicInteger online = new AtomicInteger();
+        MachineLivenessTracker tracker = new MachineLivenessTracker(100, 512, counting(online, new AtomicInteger()));
+        HeartbeatServer server = new HeartbeatServer(PORT, 1, tracker).setMinIntervalMs(1000).setMaxIntervalMs(1000);
+        server.start();
+        tracker.start();
+
+        AtomicLong sentBytes = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        List<byte[]> frames = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            frames.add(HeartbeatFrames.registerFrame(message(i)));
+        }
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                    }
+                });
+        long beatsBefore = server.getReceivedBeats();
+        long cpuBefore = processCpuNanos();
+        long deadline = System.currentTimeMillis() + seconds * 1000L;
+        for (byte[] frame : frames) {
+            group.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (System.currentTimeMillis() >= deadline) {
+                        return;
+                    }
+                    Runnable next = this;
+                    bootstrap.connect("127.0.0.1", PORT).addListener((ChannelFuture future) -> {
+                        if (!future.isSuccess()) {
+                            failed.incrementAndGet();
+                            return;
+                        }
+                        sentBytes.addAndGet(frame.length);
+                        future.channel().writeAndFlush(Unpooled.wrappedBuffer(frame))
+                                .addListener(ChannelFutureListener.CLOSE);
+                    });
+                    group.schedule(next, 1000, TimeUnit.MILLISECONDS);
+                }
+            }, ThreadLocalRandom.current().nextLong(1000), TimeUnit.MILLISECONDS);
+        }
+        Thread.sleep(seconds * 1000L);
+        long cpu = processCpuNanos() - cpuBefore;
+        long beats = server.getReceivedBeats() - beatsBefore;
+        System.out.println(String.format("[short] clients=%d, interval=1000ms, beats/s=%d, bytes/beat=%d, "
+                        + "cpu=%.0fms/s, failed connects=%d",
+                clients, beats / seconds, sentBytes.get() / Math.max(1, beats),
+                cpu / 1e6 / seconds, failed.get()));
+        Thread.sleep(1500);
+        tracker.stop();
+        server.stop();
+    }
+
+    private static void simulatePersistent(int clients, int seconds, EventLoopGroup group) throws Exception {
+        AtomicInteger online = new AtomicInteger();
+        AtomicInteger offline = new AtomicInteger();
+        MachineLivenessTracker tracker = new MachineLivenessTracker(100, 512, counting(online, offline));
+        HeartbeatServer server = new HeartbeatServer(PORT, 1, tracker).setMinIntervalMs(1000).setMaxIntervalMs(1000);
+        server.start();
+        tracker.start();
+
+        List<HeartbeatClient> heartbeatClients = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            HeartbeatClient client = new HeartbeatClient("127.0.0.1", PORT, message(i), group);
+            heartbeatClients.add(client);
+            client.start();
+        }
+        while (online.get() < clients) {
+            Thread.sleep(100);
+        }
+        // 等待第一次心跳的随机延迟结束
+        Thread.sleep(2000);
+        measure("persistent", server, heartbeatClients, seconds);
+
+        // dashboard 每秒最多接收 500 次心跳
+        server.setMaxBeatsPerSecond(500).setMaxIntervalMs(30 * 1000);
+        Thread.sleep(3000);
+        measure("adaptive", server, heartbeatClients, seconds);
+
+        int stopped = clients / 20;
+        int offlineBefore = offline.get();
+        long stopAt = System.currentTimeMillis();
+        for (int i = 0; i < stopped; i++) {
+            heartbeatClients.get(i).stop();
+        }
+        while (offline.get() - offlineBefore < stopped && System.currentTimeMillis() - stopAt < 60 * 1000) {
+            Thread.sleep(10);
+        }
+        System.out.println(String.format("[offline] stopped=%d, offline=%d, offline before stop=%d, "
+                        + "detected in %dms (grace=%dms)",
+                stopped, offline.get() - offlineBefore, offlineBefore, System.currentTimeMillis() - stopAt, server.currentIntervalMs()));
+
+        for (HeartbeatClient client : heartbeatClients) {
+            client.stop();
+        }
+        tracker.stop();
+        server.stop();
+    }
+
+    private static void measure(String name, HeartbeatServer server, List<HeartbeatClient> clients, int seconds)
+            throws InterruptedException {
+        long beatsBefore = server.getReceivedBeats();
+        long bytesBefore = sentBytes(clients);
+        long cpuBefore = processCpuNanos();
+        // 统计的时间取心跳间隔的整数倍
+        long interval = server.currentIntervalMs();
+        long windowMs = (seconds * 1000L + interval - 1) / interval * interval;
+        Thread.sleep(windowMs);
+        long beats = server.getReceivedBeats() - beatsBefore;
+        long bytes = sentBytes(clients) - bytesBefore;
+        long cpu = processCpuNanos() - cpuBefore;
+        System.out.println(String.format("[%s] clients=%d, interval=%dms, beats/s=%d, bytes/beat=%d, cpu=%.0fms/s, "
+                        + "connections=%d",
+                name, clients.size(), clients.get(clients.size() - 1).getIntervalMs(), beats * 1000 / windowMs,
+                bytes / Math.max(1, beats), cpu / 1e6 * 1000 / windowMs, server.getConnections()));
+    }
+
+    /**
+     * 不经过网络，machines 台机器每秒心跳一次，超时时间 3s，停掉其中 stopped 台
+     */
+    private static void simulateTracker(int machines, int stopped) throws Exception {
+        AtomicLong maxDelay = new AtomicLong();
+        AtomicInteger offline = new AtomicInteger();
+        long[] lastBeat = new long[machines];
+        HeartbeatMachine[] all = new HeartbeatMachine[machines];
+        for (int i = 0; i < machines; i++) {
+            Map<String, String> message = message(i);
+            all[i] = HeartbeatMachine.of(message);
+        }
+        long timeoutMs = 3000;
+        MachineLivenessTracker tracker = new MachineLivenessTracker(100, 512, new MachineLivenessListener() {
+            @Override
+            public void onOnline(HeartbeatMachine machine) {
+            }
+
+            @Override
+            public void onOffline(HeartbeatMachine machine) {
+                int index = Integer.parseInt(machine.getHostname().substring("host-".length()));
+                long delay = System.currentTimeMillis() - (lastBeat[index] + timeoutMs);
+                maxDelay.accumulateAndGet(delay, Math::max);
+                offline.incrementAndGet();
+            }
+        });
+
+        long beatNanos = 0;
+        long beats = 0;
+        long tickNanos = 0;
+        long ticks = 0;
+        long end = System.currentTimeMillis() + 8000;
+        long stopAt = System.currentTimeMillis() + 3000;
+        long nextTick = System.currentTimeMillis();
+        while (System.currentTimeMillis() < end) {
+            long now = System.currentTimeMillis();
+            long start = System.nanoTime();
+            for (int i = 0; i < machines; i++) {
+                if (i < stopped && now >= stopAt) {
+                    continue;
+                }
+                if (now - lastBeat[i] >= 1000) {
+                    lastBeat[i] = now;
+                    tracker.heartbeat(all[i], timeoutMs);
+                    beats++;
+                }
+            }
+            beatNanos += System.nanoTime() - start;
+            if (now >= nextTick) {
+                start = System.nanoTime();
+                tracker.tick();
+                tickNanos += System.nanoTime() - start;
+                ticks++;
+                nextTick += 100;
+            }
+            Thread.sleep(5);
+        }
+
+        // 对比：按机器保存上次心跳的时间，每一格都扫描所有的机器
+        Map<String, AtomicLong> lastBeats = new ConcurrentHashMap<>();
+        for (int i = 0; i < machines; i++) {
+            lastBeats.put(all[i].getKey(), new AtomicLong(lastBeat[i]));
+        }
+        long scanStart = System.nanoTime();
+        int expired = 0;
+        long now = System.currentTimeMillis();
+        for (int round = 0; round < 10; round++) {
+            for (AtomicLong beat : lastBeats.values()) {
+                if (beat.get() + timeoutMs <= now) {
+                    expired++;
+                }
+            }
+        }
+        long scanNanos = (System.nanoTime() - scanStart) / 10;
+        System.out.println(String.format("[tracker] machines=%d, stopped=%d, offline=%d, max detect delay=%dms, "
+                        + "heartbeat=%.0fns, tick=%.1fus, full scan=%.1fus (expired=%d)",
+                machines, stopped, offline.get(), maxDelay.get(), beatNanos / (double) beats,
+                tickNanos / 1e3 / ticks, scanNanos / 1e3, expired / 10));
+    }
+
+    private static MachineLivenessListener counting(AtomicInteger online, AtomicInteger offline) {
+        return new MachineLivenessListener() {
+            @Override
+            public void onOnline(HeartbeatMachine machine) {
+                online.incrementAndGet();
+            }
+
+            @Override
+            public void onOffline(HeartbeatMachine machine) {
+                offline.incrementAndGet();
+            }
+        };
+    }
+
+    private static Map<String, String> message(int i) {
+        Map<String, String> message = new LinkedHashMap<>();
+        message.put("hostname", "host-" + i);
+        message.put("ip", "10." + (i >> 16) + "." + ((i >> 8) & 0xFF) + "." + (i & 0xFF));
+        message.put("app", "app-" + (i % 20));
+        message.put("port", "8719");
+        message.put("v", "1.4.1");
+        return message;
+    }
+
+    private static long sentBytes(List<HeartbeatClient> clients) {
+        long bytes = 0;
+        for (HeartbeatClient client : clients) {
+            bytes += client.getSentBytes();
+        }
+        return bytes;
+    }
+
+    private static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean())
+                .getProcessCpuTime();
+    }
+
+}
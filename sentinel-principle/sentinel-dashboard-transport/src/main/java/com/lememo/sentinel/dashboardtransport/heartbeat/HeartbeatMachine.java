@@ -0,0 +1,67 @@
+package com.lememo.sentinel.dashboardtransport.heartbeat;
+
+import java.util.Map;
+
+/**
+ * 发送心跳的机器，字段和 SimpleHttpHeartbeatSender 发送的 HeartbeatMessage 一致
+ * 和 dashboard 中的 MachineInfo 一样用 app、ip、port 标识
+ * @author houyi
+ * @date 2019-03-09
+ **/
+public class HeartbeatMachine {
+
+    private final String app;
+    private final String hostname;
+    private final String ip;
+    private final int port;
+    private final String version;
+    private final String key;
+
+    public HeartbeatMachine(String app, String hostname, String ip, int port, String version) {
+        this.app = app;
+        this.hostname = hostname;
+        this.ip = ip;
+        this.port = port;
+        this.version = version;
+        this.key = app + "@" + ip + ":" + port;
+    }
+
+    static HeartbeatMachine of(Map<String, String> message) {
+        String port = message.get("port");
+        return new HeartbeatMachine(message.get("app"), message.get("hostname"), message.get("ip"),
+                port == null || port.isEmpty() ? -1 : Integer.parseInt(port), message.get("v"));
+    }
+
+    public String getApp() {
+        return app;
+    }
+
+    public String getHostname() {
+        return hostname;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    /**
+     * app@ip:port
+     */
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public String toString() {
+        return key;
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.lememo.sentinel.dashboardtransport.heartbeat;
+
+import com.alibaba.csp.sentinel.log.RecordLog;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * dashboard 中接收心跳的服务端
+ *
+ * 每台机器一个长连接，连接建立后发送一次 REGISTER，之后只发送一个字节的 BEAT。
+ * 心跳的间隔由 dashboard 根据连接数决定：连接数 * 1000 / maxBeatsPerSecond，并限制在 [minIntervalMs, maxIntervalMs] 之间，
+ * 这样机器再多，每秒收到的心跳数也不会超过 maxBeatsPerSecond。间隔变化超过 20% 时通过 INTERVAL 帧通知客户端。
+ * 连接断开时机器并不会马上下线，等一个心跳间隔之后还没有重新连接才下线，避免网络抖动时机器列表来回变化。
+ * @author houyi
+ * @date 2019-03-09
+ **/
+public class HeartbeatServer {
+
+    private final int port;
+    private final int ioThreads;
+    private final MachineLivenessTracker tracker;
+
+    private long minIntervalMs = 1000;
+    private long maxIntervalMs = 30 * 1000;
+    private int maxBeatsPerSecond = 500;
+
+    /**
+     * 连续多少次没有收到心跳认为机器下线
+     */
+    private int missedBeats = 3;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong receivedBeats = new AtomicLong();
+    private final AtomicLong receivedBytes = new AtomicLong();
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+
+    public HeartbeatServer(int port, int ioThreads, MachineLivenessTracker tracker) {
+        this.port = port;
+        this.ioThreads = ioThreads;
+        this.tracker = tracker;
+    }
+
+    public HeartbeatServer setMinIntervalMs(long minIntervalMs) {
+        this.minIntervalMs = minIntervalMs;
+        return this;
+    }
+
+    public HeartbeatServer setMaxIntervalMs(long maxIntervalMs) {
+        this.maxIntervalMs = maxIntervalMs;
+        return this;
+    }
+
+    public HeartbeatServer setMaxBeatsPerSecond(int maxBeatsPerSecond) {
+        this.maxBeatsPerSecond = maxBeatsPerSecond;
+        return this;
+    }
+
+    public HeartbeatServer setMissedBeats(int missedBeats) {
+        this.missedBeats = missedBeats;
+        return this;
+    }
+
+    public void start() throws InterruptedException {
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup(ioThreads);
+        serverChannel = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, 4096)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline()
+                                .addLast(new LengthFieldBasedFrameDecoder(HeartbeatFrames.MAX_FRAME_LENGTH, 0,
+                                        HeartbeatFrames.LENGTH_FIELD_LENGTH, 0, HeartbeatFrames.LENGTH_FIELD_LENGTH))
+                                .addLast(new MachineHandler());
+                    }
+                })
+                .bind(port).sync().channel();
+        RecordLog.info("[HeartbeatServer] Heartbeat server started on port " + port);
+    }
+
+    public void stop() {
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully();
+        }
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully();
+        }
+    }
+
+    /**
+     * 按当前的连接数计算心跳间隔
+     */
+    public long currentIntervalMs() {
+        long interval = connections.get() * 1000L / Math.max(1, maxBeatsPerSecond);
+        return Math.max(minIntervalMs, Math.min(maxIntervalMs, interval));
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    /**
+     * 收到的 REGISTER 和 BEAT 的总数
+     */
+    public long getReceivedBeats() {
+        return receivedBeats.get();
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    private final class MachineHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+        private HeartbeatMachine machine;
+
+        /**
+         * 最近一次通知客户端的心跳间隔
+         */
+        private long advisedIntervalMs;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            connections.incrementAndGet();
+            super.channelActive(ctx);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            receivedBeats.incrementAndGet();
+            receivedBytes.addAndGet(frame.readableBytes() + HeartbeatFrames.LENGTH_FIELD_LENGTH);
+            byte type = frame.readByte();
+            if (type == HeartbeatFrames.REGISTER) {
+                machine = HeartbeatMachine.of(HeartbeatFrames.readMessage(frame));
+            } else if (type != HeartbeatFrames.BEAT || machine == null) {
+                return;
+            }
+            long before = advisedIntervalMs;
+            long interval = currentIntervalMs();
+            if (Math.abs(interval - before) * 5 > before) {
+                advisedIntervalMs = interval;
+                ByteBuf advice = ctx.alloc().buffer(HeartbeatFrames.LENGTH_FIELD_LENGTH + 5);
+                advice.writeInt(5).writeByte(HeartbeatFrames.INTERVAL).writeInt((int) interval);
+                ctx.writeAndFlush(advice);
+            }
+            // 间隔刚刚缩短时，客户端在收到通知之前还是按原来的间隔发送
+            tracker.heartbeat(machine, Math.max(before, advisedIntervalMs) * missedBeats);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            connections.decrementAndGet();
+            if (machine != null) {
+                tracker.disconnected(machine, advisedIntervalMs);
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            RecordLog.warn("[HeartbeatServer] Closing heartbeat connection of " + machine, cause);
+            ctx.close();
+        }
+    }
+
+}
@@ -0,0 +1,21 @@
+package com.lememo.sentinel.dashboardtransport.heartbeat;
+
+/**
+ * 机器上线、下线的回调，例如更新 dashboard 中的 AppManagement
+ * onOffline 在 MachineLivenessTracker 的定时线程中执行，onOnline 在收到心跳的线程中执行
+ * @author houyi
+ * @date 2019-03-09
+ **/
+public interface MachineLivenessListener {
+
+    /**
+     * 收到一台新机器的心跳，或者下线的机器重新发送了心跳
+     */
+    void onOnline(HeartbeatMachine machine);
+
+    /**
+     * 机器在超时时间内没有发送心跳
+     */
+    void onOffline(HeartbeatMachine machine);
+
+}
@@ -0,0 +1,241 @@
+package com.lememo.sentinel.dashboardtransport.heartbeat;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 基于时间轮判断机器是否存活
+ *
+ * dashboard 默认只在查询时用当前时间减去上次心跳的时间，超过 5 分钟才认为机器失联，失联的机器也不会被移除。
+ * 这里每台机器在时间轮上挂在它的超时时间所在的格子里，时间轮每 tickMs 前进一格，只检查当前格子中的机器：
+ *
+ * - 收到心跳时只更新机器的超时时间，不移动它在时间轮上的位置，所以心跳的开销只是一次 map 查找和一次 volatile 写
+ * - 时间轮走到机器所在的格子时再检查超时时间：已经超时的机器下线并移除，否则挂到新的超时时间所在的格子里
+ * - 超时时间超过一圈的机器记录还需要转几圈
+ *
+ * 这样每台存活的机器每个超时周期只需要移动一次，下线一台机器是 O(1) 的，不需要定期扫描所有的机器。
+ * @author houyi
+ * @date 2019-03-09
+ **/
+public class MachineLivenessTracker {
+
+    private final long tickMs;
+    private final int mask;
+    private final Entry[] wheel;
+    private final long startMs;
+    private final MachineLivenessListener listener;
+
+    private final ConcurrentHashMap<String, Entry> machines = new ConcurrentHashMap<>();
+
+    /**
+     * 下一个要处理的格子
+     */
+    private long nextTick;
+
+    private ScheduledExecutorService executor;
+
+    /**
+     * @param tickMs 时间轮每一格的时间，也就是判断下线的精度
+     * @param wheelSize 时间轮的格数，会向上取整为 2 的幂
+     * @param listener 上线、下线的回调
+     */
+    public MachineLivenessTracker(long tickMs, int wheelSize, MachineLivenessListener listener) {
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1;
+        this.tickMs = Math.max(1, tickMs);
+        this.mask = size - 1;
+        this.wheel = new Entry[size];
+        this.startMs = TimeUtil.currentTimeMillis();
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (executor != null) {
+            return;
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory("sentinel-machine-liveness", true));
+        executor.scheduleAtFixedRate(this::tick, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    /**
+     * 收到一次心跳
+     * @param machine 机器
+     * @param timeoutMs 超过这个时间没有收到下一次心跳就认为机器下线
+     */
+    public void heartbeat(HeartbeatMachine machine, long timeoutMs) {
+        long deadline = TimeUtil.currentTimeMillis() + timeoutMs;
+        Entry entry = machines.get(machine.getKey());
+        if (entry != null) {
+            entry.deadline = deadline;
+            // 和时间轮同时处理同一台机器时，机器可能刚刚被移除，这时需要重新加入
+            if (!entry.expired) {
+                return;
+            }
+        }
+        if (register(machine, deadline)) {
+            listener.onOnline(machine);
+        }
+    }
+
+    /**
+     * 机器的连接断开，如果 graceMs 内没有重新连接并发送心跳就认为机器下线
+     */
+    public synchronized void disconnected(HeartbeatMachine machine, long graceMs) {
+        Entry entry = machines.get(machine.getKey());
+        if (entry == null || entry.expired) {
+            return;
+        }
+        long deadline = TimeUtil.currentTimeMillis() + graceMs;
+        if (deadline < entry.deadline) {
+            // 时间轮只会在原来的超时时间检查这台机器，所以要挪到更早的格子里
+            entry.deadline = deadline;
+            unlink(entry);
+            schedule(entry, nextTick);
+        }
+    }
+
+    public boolean isAlive(String app, String ip, int port) {
+        Entry entry = machines.get(app + "@" + ip + ":" + port);
+        return entry != null && !entry.expired;
+    }
+
+    public List<HeartbeatMachine> getLiveMachines() {
+        List<HeartbeatMachine> live = new ArrayList<>(machines.size());
+        for (Entry entry : machines.values()) {
+            live.add(entry.machine);
+        }
+        return live;
+    }
+
+    public int getLiveCount() {
+        return machines.size();
+    }
+
+    /**
+     * 处理到当前时间为止的所有格子，由定时线程调用
+     */
+    void tick() {
+        long now = TimeUtil.currentTimeMillis();
+        List<HeartbeatMachine> offline = new ArrayList<>();
+        synchronized (this) {
+            long currentTick = (now - startMs) / tickMs;
+            for (; nextTick <= currentTick; nextTick++) {
+                int slot = (int) (nextTick & mask);
+                Entry entry = wheel[slot];
+                while (entry != null) {
+                    Entry next = entry.next;
+                    if (entry.rounds > 0) {
+                        entry.rounds--;
+                    } else {
+                        unlink(entry);
+                        if (entry.deadline <= now) {
+                            // 先标记为已下线再重新读取超时时间，和 heartbeat 中先写超时时间再读取 expired 的顺序相反，
+                            // 两边至少有一边能看到对方的写入：这里看到了新的超时时间就撤销下线，否则 heartbeat 会重新加入
+                            entry.expired = true;
+                            if (entry.deadline > now) {
+                                entry.expired = false;
+                                schedule(entry, nextTick + 1);
+                            } else {
+                                machines.remove(entry.machine.getKey(), entry);
+                                offline.add(entry.machine);
+                            }
+                        } else {
+                            // 这一格已经处理过了，从下一格开始重新计算位置
+                            schedule(entry, nextTick + 1);
+                        }
+                    }
+                    entry = next;
+                }
+            }
+        }
+        for (HeartbeatMachine machine : offline) {
+            try {
+                listener.onOffline(machine);
+            } catch (Throwable e) {
+                RecordLog.warn("[MachineLivenessTracker] Error when notifying offline machine " + machine, e);
+            }
+        }
+    }
+
+    private synchronized boolean register(HeartbeatMachine machine, long deadline) {
+        Entry entry = machines.get(machine.getKey());
+        if (entry != null && !entry.expired) {
+            entry.deadline = Math.max(entry.deadline, deadline);
+            return false;
+        }
+        entry = new Entry(machine, deadline);
+        machines.put(machine.getKey(), entry);
+        schedule(entry, nextTick);
+        return true;
+    }
+
+    /**
+     * 把机器挂到超时时间所在的格子上，firstTick 是之后第一个会被处理的格子
+     */
+    private void schedule(Entry entry, long firstTick) {
+        // 处理第 n 格时当前时间至少是 startMs + n * tickMs，所以要挂在超时时间向上取整的那一格
+        long tick = Math.max(firstTick, (entry.deadline - startMs + tickMs - 1) / tickMs);
+        entry.rounds = (tick - firstTick) / wheel.length;
+        int slot = (int) (tick & mask);
+        entry.slot = slot;
+        entry.prev = null;
+        entry.next = wheel[slot];
+        if (wheel[slot] != null) {
+            wheel[slot].prev = entry;
+        }
+        wheel[slot] = entry;
+    }
+
+    private void unlink(Entry entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            wheel[entry.slot] = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    private static final class Entry {
+
+        final HeartbeatMachine machine;
+
+        /**
+         * 心跳线程写，时间轮线程读
+         */
+        volatile long deadline;
+        volatile boolean expired;
+
+        /**
+         * 以下字段只在持有锁时访问
+         */
+        int slot;
+        long rounds;
+        Entry prev;
+        Entry next;
+
+        Entry(HeartbeatMachine machine, long deadline) {
+            this.machine = machine;
+            this.deadline = deadline;
+        }
+    }
+
+}
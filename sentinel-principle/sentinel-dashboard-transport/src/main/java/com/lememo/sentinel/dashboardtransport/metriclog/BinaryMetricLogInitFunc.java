@@ -0,0 +1,50 @@
+package com.lememo.sentinel.dashboardtransport.metriclog;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.config.SentinelConfig;
+import com.alibaba.csp.sentinel.init.InitFunc;
+import com.alibaba.csp.sentinel.log.LogBase;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.util.AppNameUtil;
+import com.lememo.sentinel.dashboardtransport.stream.ClusterNodeMetricSource;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 通过 SPI 在 Sentinel 初始化时读取启动参数 -Dcsp.sentinel.metric.binary.log=true
+ * 配置了该参数时，在 metrics.log 所在的目录中同时写一份二进制的统计日志，文件名以 ${appName}-metrics 开头
+ * 分段的大小和个数使用和 metrics.log 相同的配置
+ * @author houyi
+ * @date 2019-03-08
+ **/
+public class BinaryMetricLogInitFunc implements InitFunc {
+
+    public static final String METRIC_BINARY_LOG = "csp.sentinel.metric.binary.log";
+
+    @Override
+    public void init() throws Exception {
+        if (!Boolean.parseBoolean(SentinelConfig.getConfig(METRIC_BINARY_LOG))) {
+            return;
+        }
+        String baseName = baseName();
+        BinaryMetricWriter writer = new BinaryMetricWriter(LogBase.getLogBaseDir(), baseName,
+                SentinelConfig.singleMetricFileSize(), SentinelConfig.totalMetricFileCount());
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory("sentinel-binary-metric-log", true));
+        // 和 MetricStreamClient 一样在每一秒开始后 50ms 执行，两者在同一秒内读取，共用一次遍历的结果
+        long delay = 1000 - System.currentTimeMillis() % 1000 + 50;
+        executor.scheduleAtFixedRate(new BinaryMetricLogTask(writer, ClusterNodeMetricSource.getInstance()),
+                delay, 1000, TimeUnit.MILLISECONDS);
+        RecordLog.info("[BinaryMetricLogInitFunc] Writing binary metric log: " + baseName);
+    }
+
+    /**
+     * BinaryMetricSearcher 使用同样的目录和文件名前缀查询
+     */
+    public static String baseName() {
+        return AppNameUtil.getAppName() + "-metrics";
+    }
+
+}
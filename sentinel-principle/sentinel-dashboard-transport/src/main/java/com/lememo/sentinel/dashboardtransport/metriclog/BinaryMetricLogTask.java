@@ -0,0 +1,41 @@
+package com.lememo.sentinel.dashboardtransport.metriclog;
+
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+import com.lememo.sentinel.dashboardtransport.stream.MetricSource;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+
+/**
+ * 每秒执行一次，把 MetricSource 中新结束的秒写入二进制日志，作用和 MetricTimerListener 一样
+ * @author houyi
+ * @date 2019-03-08
+ **/
+public class BinaryMetricLogTask implements Runnable {
+
+    private final BinaryMetricWriter writer;
+    private final MetricSource source;
+
+    private long lastTimestamp = -1;
+
+    public BinaryMetricLogTask(BinaryMetricWriter writer, MetricSource source) {
+        this.writer = writer;
+        this.source = source;
+    }
+
+    @Override
+    public void run() {
+        try {
+            SortedMap<Long, List<MetricNode>> seconds = source.collect(lastTimestamp);
+            for (Map.Entry<Long, List<MetricNode>> entry : seconds.entrySet()) {
+                writer.write(entry.getKey(), entry.getValue());
+                lastTimestamp = entry.getKey();
+            }
+        } catch (Throwable e) {
+            RecordLog.warn("[BinaryMetricLogTask] Write binary metric log error", e);
+        }
+    }
+
+}
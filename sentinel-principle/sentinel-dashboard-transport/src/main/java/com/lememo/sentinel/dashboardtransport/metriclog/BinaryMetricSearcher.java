@@ -0,0 +1,107 @@
+package com.lememo.sentinel.dashboardtransport.metriclog;
+
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 查询 BinaryMetricWriter 写入的日志，作用和 MetricSearcher 一样
+ *
+ * 先根据文件名中的起始时间找到时间范围内的分段，再在每个分段中通过稀疏索引定位到开始的 block，
+ * 按资源查询时在每个 block 中二分查找，不需要扫描和解析整个文件。
+ * 可以在写入方追加的同时查询，只会读到已经完整写入的 block。
+ * @author houyi
+ * @date 2019-03-08
+ **/
+public class BinaryMetricSearcher {
+
+    private final File baseDir;
+    private final String baseName;
+
+    private final TreeMap<Long, MetricLogSegment> segments = new TreeMap<>();
+
+    public BinaryMetricSearcher(String baseDir, String baseName) {
+        this.baseDir = new File(baseDir);
+        this.baseName = baseName;
+    }
+
+    /**
+     * 查询时间范围内所有资源的统计
+     * @param beginTimeMs 开始时间，包含
+     * @param endTimeMs 结束时间，包含
+     * @return 按时间排序，同一秒内按资源第一次出现的顺序排序
+     */
+    public synchronized List<MetricNode> find(long beginTimeMs, long endTimeMs) throws IOException {
+        List<MetricNode> nodes = new ArrayList<>();
+        for (MetricLogSegment segment : segmentsBetween(beginTimeMs, endTimeMs)) {
+            segment.find(beginTimeMs, endTimeMs, nodes);
+        }
+        return nodes;
+    }
+
+    /**
+     * 查询时间范围内一个资源的统计
+     * @param beginTimeMs 开始时间，包含
+     * @param endTimeMs 结束时间，包含
+     * @param resource 资源名
+     * @return 按时间排序
+     */
+    public synchronized List<MetricNode> findByTimeAndResource(long beginTimeMs, long endTimeMs, String resource)
+            throws IOException {
+        List<MetricNode> nodes = new ArrayList<>();
+        if (resource == null) {
+            return nodes;
+        }
+        for (MetricLogSegment segment : segmentsBetween(beginTimeMs, endTimeMs)) {
+            segment.findByResource(beginTimeMs, endTimeMs, resource, nodes);
+        }
+        return nodes;
+    }
+
+    public synchronized void close() throws IOException {
+        for (MetricLogSegment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    /**
+     * 和目录中的文件同步之后，返回可能包含时间范围内数据的分段
+     * 一个分段的数据在它的起始时间和下一个分段的起始时间之间
+     */
+    private List<MetricLogSegment> segmentsBetween(long beginTimeMs, long endTimeMs) throws IOException {
+        List<Long> existing = MetricLogFormat.listSegments(baseDir, baseName);
+        Iterator<Map.Entry<Long, MetricLogSegment>> iterator = segments.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Long, MetricLogSegment> entry = iterator.next();
+            if (!existing.contains(entry.getKey())) {
+                // 已经被写入方删除
+                entry.getValue().close();
+                iterator.remove();
+            }
+        }
+        List<MetricLogSegment> selected = new ArrayList<>();
+        for (int i = 0; i < existing.size(); i++) {
+            long start = existing.get(i);
+            boolean endsBeforeBegin = i + 1 < existing.size() && existing.get(i + 1) <= beginTimeMs;
+            if (start > endTimeMs || endsBeforeBegin) {
+                continue;
+            }
+            MetricLogSegment segment = segments.get(start);
+            if (segment == null) {
+                segment = new MetricLogSegment(baseDir, baseName, start);
+                segments.put(start, segment);
+            }
+            segment.refresh();
+            selected.add(segment);
+        }
+        return selected;
+    }
+
+}
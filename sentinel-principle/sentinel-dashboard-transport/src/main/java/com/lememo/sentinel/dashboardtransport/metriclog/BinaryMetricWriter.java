@@ -0,0 +1,383 @@
+package com.lememo.sentinel.dashboardtransport.metriclog;
+
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static com.lememo.sentinel.dashboardtransport.metriclog.MetricLogFormat.*;
+
+/**
+ * 把每一秒的统计写入二进制列式日志，用法和 MetricWriter 一样，每秒调用一次 write
+ *
+ * 文本的 metrics.log 每个资源每秒都要格式化一行，资源名也要重复写一遍，资源很多时写入的开销和文件的大小都很可观。
+ * 这里资源名只在分段的字典中写一次，每一秒写成一个列式的 block，格式见 MetricLogFormat。
+ *
+ * 和 MetricWriter 一样只调用 write 不调用 force，数据交给操作系统之后就返回。
+ * 重新打开时会检查最后一个分段，截掉没有写完整的 block，之后继续追加。
+ * @author houyi
+ * @date 2019-03-08
+ **/
+public class BinaryMetricWriter {
+
+    private final File baseDir;
+    private final String baseName;
+    private final long singleFileSize;
+    private final int totalFileCount;
+
+    private FileChannel data;
+    private FileChannel dict;
+    private FileChannel index;
+    private long dataSize;
+
+    private final Map<String, Integer> ids = new HashMap<>();
+
+    private long lastTimestamp = -1;
+    private long lastIndexedTimestamp = -1;
+
+    private ByteBuffer block = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer dictBuffer = ByteBuffer.allocate(4 * 1024);
+    private final ByteBuffer indexBuffer = ByteBuffer.allocate(INDEX_ENTRY_LENGTH);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * @param baseDir 日志目录
+     * @param baseName 文件名的前缀
+     * @param singleFileSize 单个分段的大小，超过之后滚动到新的分段，最大 1G
+     * @param totalFileCount 最多保留的分段数
+     */
+    public BinaryMetricWriter(String baseDir, String baseName, long singleFileSize, int totalFileCount)
+            throws IOException {
+        this.baseDir = new File(baseDir);
+        this.baseName = baseName;
+        this.singleFileSize = Math.min(singleFileSize, MAX_SEGMENT_SIZE);
+        this.totalFileCount = Math.max(1, totalFileCount);
+        if (!this.baseDir.exists() && !this.baseDir.mkdirs()) {
+            throw new IOException("Cannot create metric log dir: " + baseDir);
+        }
+        List<Long> segments = listSegments(this.baseDir, baseName);
+        if (!segments.isEmpty()) {
+            reopen(segments.get(segments.size() - 1));
+        }
+    }
+
+    /**
+     * 写入一秒的统计
+     * @param time 这一秒的时间戳，必须比上一次写入的大
+     * @param nodes 这一秒有数据的资源
+     */
+    public synchronized void write(long time, List<MetricNode> nodes) throws IOException {
+        long timestamp = time - time % 1000;
+        if (nodes == null || nodes.isEmpty()) {
+            return;
+        }
+        if (timestamp <= lastTimestamp) {
+            RecordLog.warn("[BinaryMetricWriter] Ignoring out of order metrics, timestamp=" + timestamp
+                    + ", last=" + lastTimestamp);
+            return;
+        }
+        if (data == null || dataSize >= singleFileSize) {
+            roll(timestamp);
+        }
+
+        // 先写入新的资源名，保证读到 block 的时候字典中已经有对应的资源
+        int rows = nodes.size();
+        long[] order = new long[rows];
+        dictBuffer.clear();
+        for (int i = 0; i < rows; i++) {
+            String resource = nodes.get(i).getResource();
+            Integer id = ids.get(resource);
+            if (id == null) {
+                id = ids.size();
+                ids.put(resource, id);
+                appendName(resource);
+            }
+            order[i] = (long) id << 32 | i;
+        }
+        if (dictBuffer.position() > 0) {
+            dictBuffer.flip();
+            writeFully(dict, dictBuffer);
+        }
+        // 按资源编号排序，读取时可以二分查找
+        Arrays.sort(order);
+
+        encodeBlock(timestamp, nodes, order);
+        long offset = dataSize;
+        try {
+            writeFully(data, block);
+        } catch (IOException e) {
+            // 去掉写了一半的 block，下次从同一个位置重新写
+            try {
+                data.truncate(offset);
+                data.position(offset);
+            } catch (IOException truncateError) {
+                e.addSuppressed(truncateError);
+            }
+            throw e;
+        }
+        dataSize = offset + block.limit();
+
+        if (lastIndexedTimestamp < 0 || timestamp - lastIndexedTimestamp >= INDEX_INTERVAL_MS) {
+            indexBuffer.clear();
+            indexBuffer.putLong(timestamp).putLong(offset).flip();
+            writeFully(index, indexBuffer);
+            lastIndexedTimestamp = timestamp;
+        }
+        lastTimestamp = timestamp;
+    }
+
+    public synchronized void close() throws IOException {
+        closeSegment();
+    }
+
+    private void encodeBlock(long timestamp, List<MetricNode> nodes, long[] order) {
+        int rows = order.length;
+        int idWidth = widthOf(ids.size() - 1, false);
+        int capacity = BLOCK_HEADER_LENGTH + BODY_PREFIX_LENGTH + rows * idWidth + FIELD_COUNT * (1 + rows * 8);
+        if (block.capacity() < capacity) {
+            block = ByteBuffer.allocate(Math.max(capacity, block.capacity() * 2));
+        }
+        block.clear();
+        block.position(BLOCK_HEADER_LENGTH);
+        block.putLong(timestamp).putInt(rows).put((byte) idWidth);
+        for (long key : order) {
+            putValue(block, key >>> 32, idWidth);
+        }
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            long max = 0;
+            boolean negative = false;
+            for (long key : order) {
+                long value = fieldOf(nodes.get((int) key), field);
+                max = Math.max(max, value);
+                negative |= value < 0;
+            }
+            int width = widthOf(max, negative);
+            block.put((byte) width);
+            if (width == 0) {
+                continue;
+            }
+            for (long key : order) {
+                putValue(block, fieldOf(nodes.get((int) key), field), width);
+            }
+        }
+        int bodyLength = block.position() - BLOCK_HEADER_LENGTH;
+        crc.reset();
+        crc.update(block.array(), BLOCK_HEADER_LENGTH, bodyLength);
+        block.putInt(0, bodyLength).putInt(4, (int) crc.getValue());
+        block.flip();
+    }
+
+    private void appendName(String resource) {
+        byte[] bytes = resource.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, 0xFFFF);
+        if (dictBuffer.remaining() < 2 + length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(dictBuffer.capacity() * 2, dictBuffer.position() + 2 + length));
+            dictBuffer.flip();
+            larger.put(dictBuffer);
+            dictBuffer = larger;
+        }
+        dictBuffer.putShort((short) length).put(bytes, 0, length);
+    }
+
+    /**
+     * 关闭当前的分段，以 timestamp 为起始时间创建新的分段
+     */
+    private void roll(long timestamp) throws IOException {
+        closeSegment();
+        ids.clear();
+        lastIndexedTimestamp = -1;
+        data = open(dataFile(baseDir, baseName, timestamp));
+        dict = open(dictFile(baseDir, baseName, timestamp));
+        index = open(indexFile(baseDir, baseName, timestamp));
+        data.truncate(0);
+        dict.truncate(0);
+        index.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        putHeader(header);
+        header.flip();
+        writeFully(data, header);
+        dataSize = HEADER_LENGTH;
+        removeMoreFiles();
+    }
+
+    /**
+     * 重新打开最后一个分段：截掉没有写完整的字典项、block 和索引项
+     */
+    private void reopen(long startTimestamp) throws IOException {
+        File dataFile = dataFile(baseDir, baseName, startTimestamp);
+        if (dataFile.length() >= singleFileSize) {
+            // 已经写满了，下次写入时滚动
+            lastTimestamp = lastTimestampOf(startTimestamp);
+            return;
+        }
+        data = open(dataFile);
+        dict = open(dictFile(baseDir, baseName, startTimestamp));
+        index = open(indexFile(baseDir, baseName, startTimestamp));
+
+        ByteBuffer dictBytes = readFully(dict, 0, dict.size());
+        while (dictBytes.remaining() >= 2) {
+            int length = dictBytes.getShort(dictBytes.position()) & 0xFFFF;
+            if (dictBytes.remaining() < 2 + length) {
+                break;
+            }
+            byte[] bytes = new byte[length];
+            dictBytes.getShort();
+            dictBytes.get(bytes);
+            ids.put(new String(bytes, StandardCharsets.UTF_8), ids.size());
+        }
+        dict.truncate(dictBytes.position());
+
+        dataSize = data.size();
+        if (!isValidHeader(readFully(data, 0, Math.min(dataSize, HEADER_LENGTH)))) {
+            // 分段刚创建还没有写入 header，或者不是这个格式的文件，整个重写
+            roll(startTimestamp);
+            return;
+        }
+        ByteBuffer indexBytes = readFully(index, 0, index.size() / INDEX_ENTRY_LENGTH * INDEX_ENTRY_LENGTH);
+        int indexCount = indexBytes.remaining() / INDEX_ENTRY_LENGTH;
+        // 从最后一个索引项开始检查，如果它指向的 block 就不完整，再从前一个索引项开始检查
+        long end = HEADER_LENGTH;
+        long last = -1;
+        for (int k = indexCount - 1; k >= -1; k--) {
+            long start = k >= 0 ? indexBytes.getLong(k * INDEX_ENTRY_LENGTH + 8) : HEADER_LENGTH;
+            if (start >= dataSize || start < HEADER_LENGTH) {
+                continue;
+            }
+            long[] result = scanBlocks(start);
+            end = result[0];
+            last = result[1];
+            if (end > start) {
+                break;
+            }
+        }
+        data.truncate(end);
+        dataSize = end;
+        lastTimestamp = last;
+
+        int kept = 0;
+        while (kept < indexCount && indexBytes.getLong(kept * INDEX_ENTRY_LENGTH + 8) < end) {
+            lastIndexedTimestamp = indexBytes.getLong(kept * INDEX_ENTRY_LENGTH);
+            kept++;
+        }
+        index.truncate((long) kept * INDEX_ENTRY_LENGTH);
+
+        data.position(dataSize);
+        dict.position(dict.size());
+        index.position(index.size());
+    }
+
+    /**
+     * 从 start 开始检查 block 的长度和 crc
+     * @return 最后一个完整的 block 的结束位置，以及它的时间戳
+     */
+    private long[] scanBlocks(long start) throws IOException {
+        long position = start;
+        long last = -1;
+        while (position + BLOCK_HEADER_LENGTH <= dataSize) {
+            ByteBuffer header = readFully(data, position, BLOCK_HEADER_LENGTH);
+            int length = header.getInt(0);
+            if (length < BODY_PREFIX_LENGTH || position + BLOCK_HEADER_LENGTH + length > dataSize) {
+                break;
+            }
+            ByteBuffer body = readFully(data, position + BLOCK_HEADER_LENGTH, length);
+            crc.reset();
+            crc.update(body.array(), 0, length);
+            if ((int) crc.getValue() != header.getInt(4)) {
+                break;
+            }
+            last = body.getLong(0);
+            position += BLOCK_HEADER_LENGTH + length;
+        }
+        return new long[] {position, last};
+    }
+
+    /**
+     * 已经写满的分段只需要知道最后一个 block 的时间，用来拒绝乱序的写入
+     */
+    private long lastTimestampOf(long startTimestamp) throws IOException {
+        try (FileChannel channel = FileChannel.open(dataFile(baseDir, baseName, startTimestamp).toPath(),
+                StandardOpenOption.READ);
+             FileChannel indexChannel = FileChannel.open(indexFile(baseDir, baseName, startTimestamp).toPath(),
+                     StandardOpenOption.READ)) {
+            long indexSize = indexChannel.size() / INDEX_ENTRY_LENGTH * INDEX_ENTRY_LENGTH;
+            if (indexSize == 0) {
+                return startTimestamp;
+            }
+            ByteBuffer entry = readFully(indexChannel, indexSize - INDEX_ENTRY_LENGTH, INDEX_ENTRY_LENGTH);
+            long timestamp = entry.getLong(0);
+            long position = entry.getLong(8);
+            long size = channel.size();
+            while (position + BLOCK_HEADER_LENGTH + BODY_PREFIX_LENGTH <= size) {
+                ByteBuffer header = readFully(channel, position, BLOCK_HEADER_LENGTH + 8);
+                int length = header.getInt(0);
+                if (length < BODY_PREFIX_LENGTH || position + BLOCK_HEADER_LENGTH + length > size) {
+                    break;
+                }
+                timestamp = header.getLong(BLOCK_HEADER_LENGTH);
+                position += BLOCK_HEADER_LENGTH + length;
+            }
+            return timestamp;
+        }
+    }
+
+    /**
+     * 和 MetricWriter 一样，只保留最新的 totalFileCount 个分段
+     */
+    private void removeMoreFiles() {
+        List<Long> segments = listSegments(baseDir, baseName);
+        for (int i = 0; i < segments.size() - totalFileCount; i++) {
+            long startTimestamp = segments.get(i);
+            File dataFile = dataFile(baseDir, baseName, startTimestamp);
+            boolean removed = dataFile.delete();
+            dictFile(baseDir, baseName, startTimestamp).delete();
+            indexFile(baseDir, baseName, startTimestamp).delete();
+            if (removed) {
+                RecordLog.info("[BinaryMetricWriter] Removed metric log: " + dataFile.getName());
+            }
+        }
+    }
+
+    private void closeSegment() throws IOException {
+        if (data != null) {
+            data.close();
+            dict.close();
+            index.close();
+            data = null;
+            dict = null;
+            index = null;
+        }
+    }
+
+    private static FileChannel open(File file) throws IOException {
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.lememo.sentinel.dashboardtransport.metriclog;
+
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 二进制列式统计日志的格式
+ *
+ * 日志按大小滚动，每个分段由三个文件组成，文件名中带有分段中第一秒的时间戳：
+ *
+ * ${baseName}.${startTimestamp}.bml 数据文件
+ * header: 'S' 'M' 'L' | version(1) | reserved(4)
+ * block:  length(4) | crc32(4) | body
+ * body:   timestamp(8) | rows(4) | idWidth(1) | ids | 5 个 column
+ * column: width(1) | rows 个定长的值
+ *
+ * ${baseName}.${startTimestamp}.bml.dict 资源名字典，第 n 个资源名的编号为 n，只追加
+ * entry:  length(2) | utf-8 bytes
+ *
+ * ${baseName}.${startTimestamp}.bml.idx 稀疏的时间索引，每 10s 记录一次 block 的位置
+ * entry:  timestamp(8) | offset(8)
+ *
+ * 每个 block 是一秒的数据，一行对应一个资源，按资源编号升序排列，所以可以在 ids 上二分查找。
+ * id 和 5 个指标都是定长的，宽度取这一秒中最大的值需要的字节数（0、1、2、4、8），宽度为 0 表示这一列全是 0。
+ * 找到资源所在的行之后，每个指标的位置都可以直接计算出来，不需要解码整个 block。
+ * 字典中的资源名总是在引用它的 block 之前写入，分段之间的字典互相独立，删除旧的分段不影响新的分段。
+ * @author houyi
+ * @date 2019-03-08
+ **/
+final class MetricLogFormat {
+
+    static final byte[] MAGIC = {'S', 'M', 'L'};
+    static final byte VERSION = 1;
+
+    static final int HEADER_LENGTH = 8;
+    static final int BLOCK_HEADER_LENGTH = 8;
+    static final int INDEX_ENTRY_LENGTH = 16;
+
+    /**
+     * body 中 ids 之前的长度：timestamp(8) + rows(4) + idWidth(1)
+     */
+    static final int BODY_PREFIX_LENGTH = 13;
+
+    static final long INDEX_INTERVAL_MS = 10 * 1000;
+
+    static final int FIELD_COUNT = 5;
+
+    /**
+     * 分段使用 MappedByteBuffer 读取，不能超过 2G
+     */
+    static final long MAX_SEGMENT_SIZE = 1024L * 1024 * 1024;
+
+    static final String DATA_SUFFIX = ".bml";
+    static final String DICT_SUFFIX = ".bml.dict";
+    static final String INDEX_SUFFIX = ".bml.idx";
+
+    private MetricLogFormat() {
+    }
+
+    static File dataFile(File baseDir, String baseName, long startTimestamp) {
+        return new File(baseDir, baseName + "." + startTimestamp + DATA_SUFFIX);
+    }
+
+    static File dictFile(File baseDir, String baseName, long startTimestamp) {
+        return new File(baseDir, baseName + "." + startTimestamp + DICT_SUFFIX);
+    }
+
+    static File indexFile(File baseDir, String baseName, long startTimestamp) {
+        return new File(baseDir, baseName + "." + startTimestamp + INDEX_SUFFIX);
+    }
+
+    /**
+     * 按时间顺序列出所有分段的起始时间
+     */
+    static List<Long> listSegments(File baseDir, String baseName) {
+        String[] fileNames = baseDir.list();
+        if (fileNames == null) {
+            return Collections.emptyList();
+        }
+        String prefix = baseName + ".";
+        List<Long> segments = new ArrayList<>();
+        for (String fileName : fileNames) {
+            if (!fileName.startsWith(prefix) || !fileName.endsWith(DATA_SUFFIX)) {
+                continue;
+            }
+            String timestamp = fileName.substring(prefix.length(), fileName.length() - DATA_SUFFIX.length());
+            try {
+                segments.add(Long.parseLong(timestamp));
+            } catch (NumberFormatException e) {
+                // 其它日志的文件，忽略
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    static boolean isValidHeader(ByteBuffer header) {
+        return header.remaining() >= HEADER_LENGTH
+                && header.get(0) == MAGIC[0] && header.get(1) == MAGIC[1] && header.get(2) == MAGIC[2]
+                && header.get(3) == VERSION;
+    }
+
+    static void putHeader(ByteBuffer buffer) {
+        buffer.put(MAGIC).put(VERSION).putInt(0);
+    }
+
+    /**
+     * 保存最大值需要的字节数，有负数时使用 8 个字节
+     */
+    static int widthOf(long max, boolean negative) {
+        if (negative) {
+            return 8;
+        }
+        if (max == 0) {
+            return 0;
+        }
+        if (max <= 0xFFL) {
+            return 1;
+        }
+        if (max <= 0xFFFFL) {
+            return 2;
+        }
+        if (max <= 0xFFFFFFFFL) {
+            return 4;
+        }
+        return 8;
+    }
+
+    static void putValue(ByteBuffer buffer, long value, int width) {
+        switch (width) {
+            case 0:
+                break;
+            case 1:
+                buffer.put((byte) value);
+                break;
+            case 2:
+                buffer.putShort((short) value);
+                break;
+            case 4:
+                buffer.putInt((int) value);
+                break;
+            default:
+                buffer.putLong(value);
+        }
+    }
+
+    static long getValue(ByteBuffer buffer, int index, int width) {
+        switch (width) {
+            case 0:
+                return 0;
+            case 1:
+                return buffer.get(index) & 0xFFL;
+            case 2:
+                return buffer.getShort(index) & 0xFFFFL;
+            case 4:
+                return buffer.getInt(index) & 0xFFFFFFFFL;
+            default:
+                return buffer.getLong(index);
+        }
+    }
+
+    static long fieldOf(MetricNode node, int field) {
+        switch (field) {
+            case 0:
+                return node.getPassQps();
+            case 1:
+                return node.getBlockQps();
+            case 2:
+                return node.getSuccessQps();
+            case 3:
+                return node.getExceptionQps();
+            default:
+                return node.getRt();
+        }
+    }
+
+    static void setField(MetricNode node, int field, long value) {
+        switch (field) {
+            case 0:
+                node.setPassQps(value);
+                break;
+            case 1:
+                node.setBlockQps(value);
+                break;
+            case 2:
+                node.setSuccessQps(value);
+                break;
+            case 3:
+                node.setExceptionQps(value);
+                break;
+            default:
+                node.setRt(value);
+        }
+    }
+
+}
@@ -0,0 +1,280 @@
+package com.lememo.sentinel.dashboardtransport.metriclog;
+
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static com.lememo.sentinel.dashboardtransport.metriclog.MetricLogFormat.*;
+
+/**
+ * 读取一个分段
+ *
+ * 数据文件通过 mmap 读取，查询时只会访问索引指向的 block 头部以及命中的行，不会读取整个文件。
+ * 写入方还在追加时，每次查询前调用 refresh 读取新增的字典项和索引项，文件变大后重新映射。
+ * 先映射数据文件再读取字典，因为写入方总是先写字典，所以映射到的 block 用到的资源名一定能在字典中找到。
+ * 新映射进来的 block 和写入方恢复时一样检查长度和 crc，每个 block 只检查一次，查询只读取检查过的 block。
+ * @author houyi
+ * @date 2019-03-08
+ **/
+final class MetricLogSegment {
+
+    private final FileChannel data;
+    private final FileChannel dict;
+    private final FileChannel index;
+
+    private MappedByteBuffer map;
+    private int limit;
+
+    /**
+     * 从文件头开始连续的、已经检查过长度和 crc 的 block 的结束位置
+     */
+    private int checked = HEADER_LENGTH;
+    private final CRC32 crc = new CRC32();
+
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> ids = new HashMap<>();
+    private long dictRead;
+
+    private long[] indexTimestamps = new long[64];
+    private int[] indexOffsets = new int[64];
+    private int indexCount;
+
+    MetricLogSegment(File baseDir, String baseName, long startTimestamp) throws IOException {
+        this.data = FileChannel.open(dataFile(baseDir, baseName, startTimestamp).toPath(), StandardOpenOption.READ);
+        this.dict = FileChannel.open(dictFile(baseDir, baseName, startTimestamp).toPath(), StandardOpenOption.READ);
+        this.index = FileChannel.open(indexFile(baseDir, baseName, startTimestamp).toPath(), StandardOpenOption.READ);
+    }
+
+    void refresh() throws IOException {
+        long size = Math.min(data.size(), Integer.MAX_VALUE);
+        if (size > limit) {
+            map = data.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if (limit == 0 && !isValidHeader(map)) {
+                map = null;
+                return;
+            }
+            limit = (int) size;
+            checkBlocks();
+        }
+        long dictSize = dict.size();
+        if (dictSize > dictRead) {
+            ByteBuffer bytes = read(dict, dictRead, dictSize - dictRead);
+            while (bytes.remaining() >= 2) {
+                int length = bytes.getShort(bytes.position()) & 0xFFFF;
+                if (bytes.remaining() < 2 + length) {
+                    break;
+                }
+                byte[] name = new byte[length];
+                bytes.getShort();
+                bytes.get(name);
+                String resource = new String(name, StandardCharsets.UTF_8);
+                ids.put(resource, names.size());
+                names.add(resource);
+            }
+            dictRead += bytes.position();
+        }
+        long indexSize = index.size() / INDEX_ENTRY_LENGTH * INDEX_ENTRY_LENGTH;
+        long indexRead = (long) indexCount * INDEX_ENTRY_LENGTH;
+        if (indexSize > indexRead) {
+            ByteBuffer bytes = read(index, indexRead, indexSize - indexRead);
+            while (bytes.remaining() >= INDEX_ENTRY_LENGTH) {
+                if (indexCount == indexTimestamps.length) {
+                    indexTimestamps = Arrays.copyOf(indexTimestamps, indexCount * 2);
+                    indexOffsets = Arrays.copyOf(indexOffsets, indexCount * 2);
+                }
+                indexTimestamps[indexCount] = bytes.getLong();
+                indexOffsets[indexCount] = (int) bytes.getLong();
+                indexCount++;
+            }
+        }
+    }
+
+    /**
+     * 查询时间范围内所有资源的统计
+     */
+    void find(long beginTimeMs, long endTimeMs, List<MetricNode> out) {
+        for (int position = seek(beginTimeMs); position >= 0; position = next(position)) {
+            int body = position + BLOCK_HEADER_LENGTH;
+            long timestamp = map.getLong(body);
+            if (timestamp > endTimeMs) {
+                return;
+            }
+            if (timestamp < beginTimeMs) {
+                continue;
+            }
+            int rows = map.getInt(body + 8);
+            int idWidth = map.get(body + 12);
+            int ids = body + BODY_PREFIX_LENGTH;
+            int[] widths = new int[FIELD_COUNT];
+            int[] columns = columns(ids + rows * idWidth, rows, widths);
+            for (int row = 0; row < rows; row++) {
+                MetricNode node = new MetricNode();
+                node.setTimestamp(timestamp);
+                node.setResource(names.get((int) getValue(map, ids + row * idWidth, idWidth)));
+                for (int field = 0; field < FIELD_COUNT; field++) {
+                    setField(node, field, getValue(map, columns[field] + row * widths[field], widths[field]));
+                }
+                out.add(node);
+            }
+        }
+    }
+
+    /**
+     * 查询时间范围内一个资源的统计，每个 block 中在 ids 上二分查找，再直接读取这一行的 5 个指标
+     */
+    void findByResource(long beginTimeMs, long endTimeMs, String resource, List<MetricNode> out) {
+        Integer id = ids.get(resource);
+        if (id == null) {
+            return;
+        }
+        int[] widths = new int[FIELD_COUNT];
+        for (int position = seek(beginTimeMs); position >= 0; position = next(position)) {
+            int body = position + BLOCK_HEADER_LENGTH;
+            long timestamp = map.getLong(body);
+            if (timestamp > endTimeMs) {
+                return;
+            }
+            if (timestamp < beginTimeMs) {
+                continue;
+            }
+            int rows = map.getInt(body + 8);
+            int idWidth = map.get(body + 12);
+            int ids = body + BODY_PREFIX_LENGTH;
+            int row = binarySearch(ids, rows, idWidth, id);
+            if (row < 0) {
+                continue;
+            }
+            int[] columns = columns(ids + rows * idWidth, rows, widths);
+            MetricNode node = new MetricNode();
+            node.setTimestamp(timestamp);
+            node.setResource(resource);
+            for (int field = 0; field < FIELD_COUNT; field++) {
+                setField(node, field, getValue(map, columns[field] + row * widths[field], widths[field]));
+            }
+            out.add(node);
+        }
+    }
+
+    void close() throws IOException {
+        data.close();
+        dict.close();
+        index.close();
+    }
+
+    /**
+     * 在稀疏索引中找到最后一个不晚于 beginTimeMs 的 block，从这里开始往后找
+     * @return 第一个 block 的位置，没有完整的 block 时返回 -1
+     */
+    private int seek(long beginTimeMs) {
+        if (map == null) {
+            return -1;
+        }
+        int lo = 0;
+        int hi = indexCount - 1;
+        int found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (indexTimestamps[mid] <= beginTimeMs) {
+                found = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        // 索引项在 block 之后写入，可能指向映射之后才写入的 block
+        while (found >= 0 && !isComplete(indexOffsets[found])) {
+            found--;
+        }
+        int position = found >= 0 ? indexOffsets[found] : HEADER_LENGTH;
+        return isComplete(position) ? position : -1;
+    }
+
+    private int next(int position) {
+        int next = position + BLOCK_HEADER_LENGTH + map.getInt(position);
+        return isComplete(next) ? next : -1;
+    }
+
+    /**
+     * 写入方可能正在写最后一个 block，只读取已经检查过的 block
+     */
+    private boolean isComplete(int position) {
+        if (position < HEADER_LENGTH || position + BLOCK_HEADER_LENGTH > checked) {
+            return false;
+        }
+        return (long) position + BLOCK_HEADER_LENGTH + map.getInt(position) <= checked;
+    }
+
+    /**
+     * 从上次检查到的位置开始检查新映射进来的 block 的长度和 crc，遇到不完整的 block 时停下，下次 refresh 再继续
+     */
+    private void checkBlocks() {
+        while (checked + BLOCK_HEADER_LENGTH <= limit) {
+            int length = map.getInt(checked);
+            if (length < BODY_PREFIX_LENGTH || (long) checked + BLOCK_HEADER_LENGTH + length > limit) {
+                return;
+            }
+            ByteBuffer body = map.duplicate();
+            body.position(checked + BLOCK_HEADER_LENGTH).limit(checked + BLOCK_HEADER_LENGTH + length);
+            crc.reset();
+            crc.update(body);
+            if ((int) crc.getValue() != map.getInt(checked + 4)) {
+                return;
+            }
+            checked += BLOCK_HEADER_LENGTH + length;
+        }
+    }
+
+    /**
+     * 计算每一列数据的起始位置，widths 中保存每一列的宽度
+     */
+    private int[] columns(int position, int rows, int[] widths) {
+        int[] columns = new int[FIELD_COUNT];
+        for (int field = 0; field < FIELD_COUNT; field++) {
+            widths[field] = map.get(position);
+            columns[field] = position + 1;
+            position += 1 + rows * widths[field];
+        }
+        return columns;
+    }
+
+    private int binarySearch(int ids, int rows, int idWidth, int id) {
+        int lo = 0;
+        int hi = rows - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long value = getValue(map, ids + mid * idWidth, idWidth);
+            if (value < id) {
+                lo = mid + 1;
+            } else if (value > id) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+}
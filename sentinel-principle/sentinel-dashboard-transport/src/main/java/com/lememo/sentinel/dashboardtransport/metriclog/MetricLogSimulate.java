@@ -0,0 +1,202 @@
+package com.lememo.sentinel.dashboardtransport.metriclog;
+
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+import com.alibaba.csp.sentinel.node.metric.MetricSearcher;
+import com.alibaba.csp.sentinel.node.metric.MetricWriter;
+import com.alibaba.csp.sentinel.util.AppNameUtil;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 对比文本的 metrics.log 和二进制列式日志的写入开销、文件大小以及查询的耗时
+ *
+ * 文本日志使用 Sentinel 的 MetricWriter 写入、MetricSearcher 查询，二进制日志使用 BinaryMetricWriter 和 BinaryMetricSearcher。
+ * 两者写入同样的数据：每秒所有资源都有流量，指标随机。
+ *
+ * 启动参数：资源数（默认 10000） 写入的秒数（默认 300）
+ * @author houyi
+ * @date 2019-03-08
+ **/
+public class MetricLogSimulate {
+
+    private static final long SINGLE_FILE_SIZE = 1024L * 1024 * 1024;
+    private static final int TOTAL_FILE_COUNT = 6;
+    private static final int QUERIES = 200;
+
+    public static void main(String[] args) throws Exception {
+        int resources = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+
+        File dir = Files.createTempDirectory("metric-log-simulate").toFile();
+        // MetricWriter 的目录在类加载时确定，必须在使用之前设置
+        System.setProperty("csp.sentinel.log.dir", dir.getAbsolutePath());
+        System.setProperty("project.name", "metric-log-simulate");
+        String baseDir = dir.getAbsolutePath() + File.separator;
+        String binaryBaseName = AppNameUtil.getAppName() + "-metrics";
+
+        String[] names = new String[resources];
+        for (int i = 0; i < resources; i++) {
+            names[i] = "com.lememo.service.UserService:getUser" + i + "(java.lang.Long)";
+        }
+        // MetricWriter 会忽略早于创建时间的数据，所以从下一秒开始写
+        long base = System.currentTimeMillis() / 1000 * 1000 + 1000;
+
+        MetricWriter textWriter = new MetricWriter(SINGLE_FILE_SIZE, TOTAL_FILE_COUNT);
+        BinaryMetricWriter binaryWriter = new BinaryMetricWriter(baseDir, binaryBaseName,
+                SINGLE_FILE_SIZE, TOTAL_FILE_COUNT);
+        long textNanos = 0;
+        long binaryNanos = 0;
+        for (int s = 0; s < seconds; s++) {
+            long timestamp = base + s * 1000L;
+            List<MetricNode> nodes = nodesOf(names, timestamp);
+            long start = System.nanoTime();
+            textWriter.write(timestamp, nodes);
+            long middle = System.nanoTime();
+            binaryWriter.write(timestamp, nodes);
+            binaryNanos += System.nanoTime() - middle;
+            textNanos += middle - start;
+        }
+        textWriter.close();
+        binaryWriter.close();
+
+        // 两种日志都包含各自的索引文件
+        long textBytes = sizeOf(dir, "-metrics.log");
+        long binaryBytes = sizeOf(dir, MetricLogFormat.DATA_SUFFIX);
+        System.out.println(String.format("[write] resources=%d, seconds=%d, text=%.1fms/s %dKB/s, binary=%.1fms/s %dKB/s",
+                resources, seconds, textNanos / 1e6 / seconds, textBytes / seconds / 1024,
+                binaryNanos / 1e6 / seconds, binaryBytes / seconds / 1024));
+
+        MetricSearcher textSearcher = new MetricSearcher(baseDir,
+                MetricWriter.formMetricFileName(AppNameUtil.getAppName(), 0));
+        BinaryMetricSearcher binarySearcher = new BinaryMetricSearcher(baseDir, binaryBaseName);
+        verify(textSearcher, binarySearcher, names, base, seconds);
+
+        Random random = new Random(1);
+        long textResource = 0;
+        long binaryResource = 0;
+        long textSecond = 0;
+        long binarySecond = 0;
+        // 前一半的查询用来预热
+        for (int q = 0; q < QUERIES * 2; q++) {
+            String resource = names[random.nextInt(resources)];
+            long begin = base + random.nextInt(Math.max(1, seconds - 60)) * 1000L;
+            long second = base + random.nextInt(seconds) * 1000L;
+            long t0 = System.nanoTime();
+            textSearcher.findByTimeAndResource(begin, begin + 59 * 1000, resource);
+            long t1 = System.nanoTime();
+            binarySearcher.findByTimeAndResource(begin, begin + 59 * 1000, resource);
+            long t2 = System.nanoTime();
+            textSearcher.findByTimeAndResource(second, second, null);
+            long t3 = System.nanoTime();
+            binarySearcher.find(second, second);
+            long t4 = System.nanoTime();
+            if (q >= QUERIES) {
+                textResource += t1 - t0;
+                binaryResource += t2 - t1;
+                textSecond += t3 - t2;
+                binarySecond += t4 - t3;
+            }
+        }
+        System.out.println(String.format("[query] one resource in 60s: text=%.2fms, binary=%.3fms; "
+                        + "all resources in 1s: text=%.2fms, binary=%.2fms",
+                textResource / 1e6 / QUERIES, binaryResource / 1e6 / QUERIES,
+                textSecond / 1e6 / QUERIES, binarySecond / 1e6 / QUERIES));
+        binarySearcher.close();
+
+        recover(baseDir, binaryBaseName, names, base + seconds * 1000L);
+
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * 两种日志查出来的结果应该完全一样
+     */
+    private static void verify(MetricSearcher textSearcher, BinaryMetricSearcher binarySearcher, String[] names,
+                               long base, int seconds) throws Exception {
+        long begin = base + seconds / 2 * 1000L;
+        long end = begin + 9 * 1000;
+        String resource = names[names.length / 2];
+        List<String> text = thinStrings(textSearcher.findByTimeAndResource(begin, end, resource));
+        List<String> binary = thinStrings(binarySearcher.findByTimeAndResource(begin, end, resource));
+        List<String> textAll = thinStrings(textSearcher.findByTimeAndResource(begin, begin, null));
+        List<String> binaryAll = thinStrings(binarySearcher.find(begin, begin));
+        if (text.size() != 10 || !text.equals(binary) || textAll.size() != names.length || !textAll.equals(binaryAll)) {
+            throw new IllegalStateException("Binary metric log does not match metrics.log");
+        }
+        System.out.println("[verify] binary metric log matches metrics.log");
+    }
+
+    /**
+     * 截掉最后一个 block 的一部分，模拟写到一半时进程退出，重新打开后继续写入
+     */
+    private static void recover(String baseDir, String baseName, String[] names, long next) throws Exception {
+        List<Long> segments = MetricLogFormat.listSegments(new File(baseDir), baseName);
+        File data = MetricLogFormat.dataFile(new File(baseDir), baseName, segments.get(segments.size() - 1));
+        try (RandomAccessFile file = new RandomAccessFile(data, "rw")) {
+            file.setLength(file.length() - 100);
+        }
+        long start = System.nanoTime();
+        BinaryMetricWriter writer = new BinaryMetricWriter(baseDir, baseName, SINGLE_FILE_SIZE, TOTAL_FILE_COUNT);
+        long reopenNanos = System.nanoTime() - start;
+        writer.write(next, nodesOf(names, next));
+        writer.close();
+
+        BinaryMetricSearcher searcher = new BinaryMetricSearcher(baseDir, baseName);
+        int lastSecond = searcher.find(next - 1000, next - 1000).size();
+        int nextSecond = searcher.find(next, next).size();
+        searcher.close();
+        System.out.println(String.format("[recover] reopen=%.1fms, truncated second rows=%d, next second rows=%d",
+                reopenNanos / 1e6, lastSecond, nextSecond));
+    }
+
+    private static List<MetricNode> nodesOf(String[] names, long timestamp) {
+        Random random = new Random(timestamp);
+        List<MetricNode> nodes = new ArrayList<>(names.length);
+        for (String name : names) {
+            long pass = random.nextInt(2000);
+            MetricNode node = new MetricNode();
+            node.setTimestamp(timestamp);
+            node.setResource(name);
+            node.setPassQps(pass);
+            node.setBlockQps(random.nextInt(10) == 0 ? random.nextInt(50) : 0);
+            node.setSuccessQps(pass);
+            node.setExceptionQps(random.nextInt(100) == 0 ? 1 : 0);
+            node.setRt(1 + random.nextInt(200));
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    private static List<String> thinStrings(List<MetricNode> nodes) {
+        List<String> lines = new ArrayList<>(nodes.size());
+        for (MetricNode node : nodes) {
+            lines.add(node.toThinString());
+        }
+        return lines;
+    }
+
+    private static long sizeOf(File dir, String part) {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().contains(part)) {
+                    size += file.length();
+                }
+            }
+        }
+        return size;
+    }
+
+}
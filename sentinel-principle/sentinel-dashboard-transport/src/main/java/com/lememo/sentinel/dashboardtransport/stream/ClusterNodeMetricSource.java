@@ -0,0 +1,102 @@
+package com.lememo.sentinel.dashboardtransport.stream;
+
+import com.alibaba.csp.sentinel.node.ClusterNode;
+import com.alibaba.csp.sentinel.node.StatisticNode;
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+import com.alibaba.csp.sentinel.slotchain.ResourceWrapper;
+import com.alibaba.csp.sentinel.slots.clusterbuilder.ClusterBuilderSlot;
+import com.alibaba.csp.sentinel.slots.statistic.metric.Metric;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * 从每个资源的 ClusterNode 中读取每一秒的统计
+ *
+ * ClusterNode.metrics() 内部记录了上次读取的时间，只能有一个使用方，它已经被写 metrics.log 的 MetricTimerListener 使用了，
+ * 所以这里通过反射直接读取分钟级的滑动窗口，自己记录读到了哪一秒。
+ *
+ * 推送和写二进制日志每秒都要读取一次，每次都要对所有的 ClusterNode 调用 details()。
+ * 所以只有一个共用的实例，同一秒内的多次读取共用一次遍历的结果。
+ * @author houyi
+ * @date 2019-03-07
+ **/
+public class ClusterNodeMetricSource implements MetricSource {
+
+    private static final Field ROLLING_COUNTER_IN_MINUTE;
+
+    static {
+        try {
+            ROLLING_COUNTER_IN_MINUTE = StatisticNode.class.getDeclaredField("rollingCounterInMinute");
+            ROLLING_COUNTER_IN_MINUTE.setAccessible(true);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("Unsupported sentinel version, field not found: rollingCounterInMinute", e);
+        }
+    }
+
+    private static final ClusterNodeMetricSource INSTANCE = new ClusterNodeMetricSource();
+
+    /**
+     * 上一次遍历时所在的秒，以及遍历时使用的 afterMs
+     */
+    private long collectedSecond = -1;
+    private long collectedAfterMs;
+    private SortedMap<Long, List<MetricNode>> collected;
+
+    private ClusterNodeMetricSource() {
+    }
+
+    public static ClusterNodeMetricSource getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 返回的数据在多个使用方之间共享，不能修改
+     */
+    @Override
+    public synchronized SortedMap<Long, List<MetricNode>> collect(long afterMs) {
+        long now = TimeUtil.currentTimeMillis();
+        long currentSecond = now - now % 1000;
+        // 同一秒内已经遍历过，并且覆盖了需要的范围
+        if (currentSecond != collectedSecond || afterMs < collectedAfterMs) {
+            collected = Collections.unmodifiableSortedMap(collect(afterMs, currentSecond));
+            collectedSecond = currentSecond;
+            collectedAfterMs = afterMs;
+        }
+        return afterMs == collectedAfterMs ? collected : collected.tailMap(afterMs + 1);
+    }
+
+    private SortedMap<Long, List<MetricNode>> collect(long afterMs, long currentSecond) {
+        SortedMap<Long, List<MetricNode>> seconds = new TreeMap<>();
+        for (Map.Entry<ResourceWrapper, ClusterNode> entry : ClusterBuilderSlot.getClusterNodeMap().entrySet()) {
+            Metric metric;
+            try {
+                metric = (Metric) ROLLING_COUNTER_IN_MINUTE.get(entry.getValue());
+            } catch (IllegalAccessException e) {
+                continue;
+            }
+            for (MetricNode node : metric.details()) {
+                // 只返回已经结束的秒
+                long timestamp = node.getTimestamp();
+                if (timestamp <= afterMs || timestamp >= currentSecond) {
+                    continue;
+                }
+                node.setResource(entry.getKey().getName());
+                List<MetricNode> nodes = seconds.get(timestamp);
+                if (nodes == null) {
+                    nodes = new ArrayList<>();
+                    seconds.put(timestamp, nodes);
+                }
+                nodes.add(node);
+            }
+        }
+        return seconds;
+    }
+
+}
@@ -0,0 +1,68 @@
+package com.lememo.sentinel.dashboardtransport.stream;
+
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 接收方的解码状态，和发送方的 MetricDeltaEncoder 一一对应
+ * @author houyi
+ * @date 2019-03-07
+ **/
+class MetricDeltaDecoder {
+
+    private final List<String> names = new ArrayList<>();
+    private final List<long[]> values = new ArrayList<>();
+
+    private long lastSecond;
+
+    /**
+     * 解码一帧 METRICS，类型字节已经被读取
+     * @return 这一秒有数据的资源
+     */
+    List<MetricNode> decode(ByteBuf in) {
+        long second = lastSecond + VarInts.readVarLong(in);
+        lastSecond = second;
+        long newNames = VarInts.readVarLong(in);
+        for (long i = 0; i < newNames; i++) {
+            names.add(VarInts.readString(in));
+            values.add(new long[MetricFrames.FIELD_COUNT]);
+        }
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            long[] v = values.get((int) VarInts.readVarLong(in));
+            for (int j = 0; j < MetricFrames.FIELD_COUNT; j++) {
+                v[j] += VarInts.readSignedVarLong(in);
+            }
+        }
+
+        long timestamp = second * 1000;
+        List<MetricNode> nodes = new ArrayList<>();
+        for (int id = 0; id < values.size(); id++) {
+            long[] v = values.get(id);
+            if (v[0] == 0 && v[1] == 0 && v[2] == 0 && v[3] == 0 && v[4] == 0) {
+                continue;
+            }
+            MetricNode node = new MetricNode();
+            node.setTimestamp(timestamp);
+            node.setResource(names.get(id));
+            node.setPassQps(v[0]);
+            node.setBlockQps(v[1]);
+            node.setSuccessQps(v[2]);
+            node.setExceptionQps(v[3]);
+            node.setRt(v[4]);
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    /**
+     * 最后一次解码的那一秒开始的时间
+     */
+    long lastTimestamp() {
+        return lastSecond * 1000;
+    }
+
+}
@@ -0,0 +1,79 @@
+package com.lememo.sentinel.dashboardtransport.stream;
+
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+import io.netty.buffer.ByteBuf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 发送方的编码状态：资源名的字典以及每个资源上一次发送的数据
+ * 一个连接对应一个实例，不是线程安全的
+ * @author houyi
+ * @date 2019-03-07
+ **/
+class MetricDeltaEncoder {
+
+    private static final long[] ZERO = new long[MetricFrames.FIELD_COUNT];
+
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final List<long[]> lastValues = new ArrayList<>();
+
+    private long lastSecond;
+
+    /**
+     * 把一秒的统计编码成一帧
+     * @param timestamp 这一秒开始的时间
+     * @param nodes 这一秒有数据的资源，没有出现的资源表示这一秒的数据都是 0
+     * @param out 输出
+     */
+    void encode(long timestamp, List<MetricNode> nodes, ByteBuf out) {
+        long second = timestamp / 1000;
+        out.writeByte(MetricFrames.METRICS);
+        VarInts.writeVarLong(out, second - lastSecond);
+        lastSecond = second;
+
+        long[][] current = new long[lastValues.size() + nodes.size()][];
+        List<String> newNames = new ArrayList<>();
+        for (MetricNode node : nodes) {
+            Integer id = ids.get(node.getResource());
+            if (id == null) {
+                id = ids.size();
+                ids.put(node.getResource(), id);
+                lastValues.add(new long[MetricFrames.FIELD_COUNT]);
+                newNames.add(node.getResource());
+            }
+            current[id] = new long[]{node.getPassQps(), node.getBlockQps(), node.getSuccessQps(),
+                    node.getExceptionQps(), node.getRt()};
+        }
+        VarInts.writeVarLong(out, newNames.size());
+        for (String name : newNames) {
+            VarInts.writeString(out, name);
+        }
+
+        // 条目数在写完条目之后再回填
+        int countIndex = out.writerIndex();
+        out.writeInt(0);
+        int count = 0;
+        for (int id = 0; id < lastValues.size(); id++) {
+            long[] last = lastValues.get(id);
+            long[] now = current[id];
+            if (now == null) {
+                now = ZERO;
+            }
+            if (Arrays.equals(last, now)) {
+                continue;
+            }
+            VarInts.writeVarLong(out, id);
+            for (int i = 0; i < MetricFrames.FIELD_COUNT; i++) {
+                VarInts.writeSignedVarLong(out, now[i] - last[i]);
+                last[i] = now[i];
+            }
+            count++;
+        }
+        out.setInt(countIndex, count);
+    }
+}
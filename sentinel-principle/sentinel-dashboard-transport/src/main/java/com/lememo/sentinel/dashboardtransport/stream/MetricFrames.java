@@ -0,0 +1,38 @@
+package com.lememo.sentinel.dashboardtransport.stream;
+
+/**
+ * 推送统计数据的帧格式
+ *
+ * 每一帧前面有 4 个字节的长度，帧的第一个字节为类型：
+ * <pre>
+ * HELLO：   type | app | ip | port
+ * METRICS： type | 秒数的差值 | 新资源的个数 | 新资源名... | 条目数 | 条目...
+ * 条目：     资源 id | pass 差值 | block 差值 | success 差值 | exception 差值 | rt 差值
+ * </pre>
+ * <ul>
+ *     <li>连接建立后先发送 HELLO，说明是哪台机器</li>
+ *     <li>资源名只在第一次出现时发送一次，按出现的顺序分配 id，之后只发送 id</li>
+ *     <li>每个资源的各项数据都是和该资源上一秒的数据的差值，和上一秒完全相同的资源不发送，接收方沿用上一秒的数据</li>
+ *     <li>条目数固定 4 个字节，写完条目之后再回填；其它整数都是 varint，差值使用 zigzag 编码，流量平稳的资源每一项只占一个字节</li>
+ * </ul>
+ * 状态只在一个连接内有效，重新连接后双方都从头开始。
+ * @author houyi
+ * @date 2019-03-07
+ **/
+final class MetricFrames {
+
+    static final byte HELLO = 1;
+    static final byte METRICS = 2;
+
+    static final int LENGTH_FIELD_LENGTH = 4;
+    static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * 每个资源的数据项：pass、block、success、exception、rt
+     */
+    static final int FIELD_COUNT = 5;
+
+    private MetricFrames() {
+    }
+
+}
@@ -0,0 +1,22 @@
+package com.lememo.sentinel.dashboardtransport.stream;
+
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+
+import java.util.List;
+import java.util.SortedMap;
+
+/**
+ * 推送的统计数据的来源
+ * @author houyi
+ * @date 2019-03-07
+ **/
+public interface MetricSource {
+
+    /**
+     * 获取已经结束的每一秒的统计
+     * @param afterMs 只返回时间戳大于该值的秒
+     * @return 按时间排序，key 为每一秒开始的时间，value 为这一秒有数据的资源
+     */
+    SortedMap<Long, List<MetricNode>> collect(long afterMs);
+
+}
@@ -0,0 +1,184 @@
+package com.lememo.sentinel.dashboardtransport.stream;
+
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldPrepender;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 通过一个长连接把每一秒的统计推送给 dashboard
+ *
+ * 默认情况下 dashboard 每秒通过 http 请求每台机器的 metric 命令，拿到的是文本，再逐行解析。
+ * 这里反过来由客户端推送：每秒只发送一帧，资源名只发送一次，数据只发送和上一秒的差值。
+ *
+ * 所有的操作都在连接所在的 EventLoop 中执行，多个客户端可以共用一个 EventLoopGroup。
+ * 连接断开后每隔一段时间重新连接，断开期间没有发送的秒只要还在分钟级的滑动窗口中，重新连接后会补发。
+ * @author houyi
+ * @date 2019-03-07
+ **/
+public class MetricStreamClient {
+
+    private static final long RECONNECT_DELAY_MS = 2000;
+
+    /**
+     * 最多补发最近 60s 的数据，和分钟级的滑动窗口一致
+     */
+    private static final long MAX_BACKFILL_MS = 60 * 1000;
+
+    private final String serverHost;
+    private final int serverPort;
+    private final String app;
+    private final String ip;
+    private final int port;
+    private final MetricSource source;
+    private final EventLoopGroup group;
+
+    private final AtomicLong sentBytes = new AtomicLong();
+    private final AtomicLong sentFrames = new AtomicLong();
+
+    private volatile Channel channel;
+    private volatile boolean stopped;
+
+    /**
+     * 最后一次发送的秒
+     */
+    private long lastSentMs;
+    private MetricDeltaEncoder encoder;
+
+    /**
+     * @param serverHost 接收数据的 dashboard 的地址
+     * @param serverPort 接收数据的端口
+     * @param app 应用名
+     * @param ip 本机的 ip
+     * @param port 本机 CommandCenter 的端口，和 ip 一起标识一台机器
+     * @param source 统计数据的来源
+     * @param group 共用的 EventLoopGroup
+     */
+    public MetricStreamClient(String serverHost, int serverPort, String app, String ip, int port,
+                              MetricSource source, EventLoopGroup group) {
+        this.serverHost = serverHost;
+        this.serverPort = serverPort;
+        this.app = app;
+        this.ip = ip;
+        this.port = port;
+        this.source = source;
+        this.group = group;
+    }
+
+    public void start() {
+        connect();
+    }
+
+    private void connect() {
+        if (stopped) {
+            return;
+        }
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, 3000)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new LengthFieldPrepender(MetricFrames.LENGTH_FIELD_LENGTH));
+                    }
+                });
+        bootstrap.connect(serverHost, serverPort).addListener((ChannelFuture future) -> {
+            if (!future.isSuccess()) {
+                scheduleReconnect();
+                return;
+            }
+            Channel ch = future.channel();
+            channel = ch;
+            encoder = new MetricDeltaEncoder();
+            ByteBuf hello = ch.alloc().buffer();
+            hello.writeByte(MetricFrames.HELLO);
+            VarInts.writeString(hello, app);
+            VarInts.writeString(hello, ip);
+            VarInts.writeVarLong(hello, port);
+            write(ch, hello);
+            // 和秒的边界错开一点，保证上一秒已经结束
+            long delay = 1000 - System.currentTimeMillis() % 1000 + 50;
+            ScheduledFuture<?> task = ch.eventLoop().scheduleAtFixedRate(() -> push(ch), delay, 1000,
+                    TimeUnit.MILLISECONDS);
+            ch.closeFuture().addListener(f -> {
+                task.cancel(false);
+                channel = null;
+                scheduleReconnect();
+            });
+        });
+    }
+
+    private void scheduleReconnect() {
+        if (!stopped) {
+            group.schedule(this::connect, RECONNECT_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 推送上次发送之后已经结束的每一秒
+     */
+    private void push(Channel ch) {
+        if (!ch.isActive()) {
+            return;
+        }
+        long after = Math.max(lastSentMs, System.currentTimeMillis() - MAX_BACKFILL_MS);
+        SortedMap<Long, List<MetricNode>> seconds;
+        try {
+            seconds = source.collect(after);
+        } catch (Throwable e) {
+            RecordLog.warn("[MetricStreamClient] Failed to collect metrics", e);
+            return;
+        }
+        for (Map.Entry<Long, List<MetricNode>> entry : seconds.entrySet()) {
+            ByteBuf frame = ch.alloc().buffer();
+            encoder.encode(entry.getKey(), entry.getValue(), frame);
+            write(ch, frame);
+            lastSentMs = entry.getKey();
+        }
+    }
+
+    private void write(Channel ch, ByteBuf frame) {
+        sentBytes.addAndGet(frame.readableBytes() + MetricFrames.LENGTH_FIELD_LENGTH);
+        sentFrames.incrementAndGet();
+        ch.writeAndFlush(frame);
+    }
+
+    public boolean isConnected() {
+        Channel ch = channel;
+        return ch != null && ch.isActive();
+    }
+
+    public long getSentBytes() {
+        return sentBytes.get();
+    }
+
+    public long getSentFrames() {
+        return sentFrames.get();
+    }
+
+    public void stop() {
+        stopped = true;
+        Channel ch = channel;
+        if (ch != null) {
+            ch.close();
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.lememo.sentinel.dashboardtransport.stream;
+
+import com.alibaba.csp.sentinel.config.SentinelConfig;
+import com.alibaba.csp.sentinel.init.InitFunc;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.transport.config.TransportConfig;
+import com.alibaba.csp.sentinel.util.AppNameUtil;
+import com.alibaba.csp.sentinel.util.HostNameUtil;
+import com.alibaba.csp.sentinel.util.StringUtil;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * 通过 SPI 在 Sentinel 初始化时读取启动参数 -Dcsp.sentinel.metric.stream.server=host:port
+ * 配置了该参数时，启动 MetricStreamClient 把每一秒的统计推送给 dashboard
+ * @author houyi
+ * @date 2019-03-07
+ **/
+public class MetricStreamInitFunc implements InitFunc {
+
+    public static final String METRIC_STREAM_SERVER = "csp.sentinel.metric.stream.server";
+
+    @Override
+    public void init() throws Exception {
+        String server = SentinelConfig.getConfig(METRIC_STREAM_SERVER);
+        if (StringUtil.isBlank(server)) {
+            return;
+        }
+        String[] hostAndPort = server.trim().split(":");
+        if (hostAndPort.length != 2) {
+            RecordLog.warn("[MetricStreamInitFunc] Invalid " + METRIC_STREAM_SERVER + ": " + server);
+            return;
+        }
+        String ip = TransportConfig.getHeartbeatClientIp();
+        if (StringUtil.isBlank(ip)) {
+            ip = HostNameUtil.getIp();
+        }
+        int serverPort;
+        int port;
+        try {
+            serverPort = Integer.parseInt(hostAndPort[1]);
+            port = TransportConfig.getRuntimePort();
+            if (port <= 0) {
+                port = Integer.parseInt(TransportConfig.getPort());
+            }
+        } catch (NumberFormatException e) {
+            RecordLog.warn("[MetricStreamInitFunc] Invalid port, " + METRIC_STREAM_SERVER + ": " + server
+                    + ", transport port: " + TransportConfig.getPort(), e);
+            return;
+        }
+        final NioEventLoopGroup group = new NioEventLoopGroup(1,
+                new DefaultThreadFactory("sentinel-metric-stream", true));
+        final MetricStreamClient client = new MetricStreamClient(hostAndPort[0], serverPort,
+                AppNameUtil.getAppName(), ip, port, ClusterNodeMetricSource.getInstance(), group);
+        client.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            client.stop();
+            group.shutdownGracefully();
+        }, "sentinel-metric-stream-shutdown"));
+        RecordLog.info("[MetricStreamInitFunc] Pushing metrics to " + server);
+    }
+
+}
@@ -0,0 +1,28 @@
+package com.lememo.sentinel.dashboardtransport.stream;
+
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+
+import java.util.List;
+
+/**
+ * dashboard 接收推送数据的回调，例如把数据保存到 MetricsRepository 中
+ * 回调在连接的 IO 线程中执行，不要做耗时的操作
+ * @author houyi
+ * @date 2019-03-07
+ **/
+public interface MetricStreamListener {
+
+    /**
+     * 收到一台机器一秒的统计
+     * @param machine 机器
+     * @param timestamp 这一秒开始的时间
+     * @param nodes 这一秒有数据的资源
+     */
+    void onMetrics(StreamMachine machine, long timestamp, List<MetricNode> nodes);
+
+    /**
+     * 机器的连接断开
+     */
+    void onDisconnected(StreamMachine machine);
+
+}
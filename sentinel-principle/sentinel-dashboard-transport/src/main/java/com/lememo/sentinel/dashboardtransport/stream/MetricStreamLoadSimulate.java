@@ -0,0 +1,170 @@
+package com.lememo.sentinel.dashboardtransport.stream;
+
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 在本机模拟几千个客户端，对比 dashboard 拉取和客户端推送两种方式
+ *
+ * 拉取：dashboard 每秒向每台机器请求一次 metric 命令，机器把每个资源格式化成一行文本（MetricNode.toThinString），
+ * dashboard 再逐行解析（MetricNode.fromThinString）。这里只计算格式化和解析的开销，不包含 http 请求本身。
+ * 推送：每个客户端一个长连接，每秒推送一帧增量编码的数据，dashboard 只需要解码。
+ *
+ * 启动参数：客户端数（默认 2000） 每台机器的资源数（默认 100） 推送的秒数（默认 10）
+ * @author houyi
+ * @date 2019-03-07
+ **/
+public class MetricStreamLoadSimulate {
+
+    private static final int PORT = 18719;
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int resources = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        verify(resources);
+        simulatePull(clients, resources, seconds);
+        simulatePush(clients, resources, seconds);
+        System.exit(0);
+    }
+
+    /**
+     * 编码之后再解码，和原始数据逐项比较
+     */
+    private static void verify(int resources) {
+        SyntheticMetricSource source = new SyntheticMetricSource(resources, 7);
+        MetricDeltaEncoder encoder = new MetricDeltaEncoder();
+        MetricDeltaDecoder decoder = new MetricDeltaDecoder();
+        long start = System.currentTimeMillis() / 1000 * 1000 - 120 * 1000;
+        int checked = 0;
+        for (long timestamp = start; timestamp < start + 120 * 1000; timestamp += 1000) {
+            List<MetricNode> expected = source.nodesOf(timestamp);
+            ByteBuf frame = Unpooled.buffer();
+            encoder.encode(timestamp, expected, frame);
+            frame.readByte();
+            List<MetricNode> actual = decoder.decode(frame);
+            if (!toThinStrings(expected).equals(toThinStrings(actual))) {
+                throw new IllegalStateException("Decoded metrics do not match at " + timestamp);
+            }
+            checked += actual.size();
+        }
+        System.out.println("[verify] seconds=120, nodes=" + checked + ", decoded metrics match");
+    }
+
+    private static List<String> toThinStrings(List<MetricNode> nodes) {
+        List<String> lines = new ArrayList<>(nodes.size());
+        for (MetricNode node : nodes) {
+            lines.add(node.toThinString());
+        }
+        return lines;
+    }
+
+    private static void simulatePull(int clients, int resources, int seconds) {
+        SyntheticMetricSource[] sources = new SyntheticMetricSource[clients];
+        for (int i = 0; i < clients; i++) {
+            sources[i] = new SyntheticMetricSource(resources, i);
+        }
+        long formatNanos = 0;
+        long parseNanos = 0;
+        long bytes = 0;
+        long nodes = 0;
+        long base = System.currentTimeMillis() / 1000 * 1000;
+        for (int s = 0; s < seconds; s++) {
+            long timestamp = base + s * 1000;
+            for (SyntheticMetricSource source : sources) {
+                List<MetricNode> metrics = source.nodesOf(timestamp);
+                long start = System.nanoTime();
+                StringBuilder body = new StringBuilder();
+                for (MetricNode node : metrics) {
+                    body.append(node.toThinString()).append('\n');
+                }
+                byte[] content = body.toString().getBytes(StandardCharsets.UTF_8);
+                long formatted = System.nanoTime();
+                for (String line : new String(content, StandardCharsets.UTF_8).split("\n")) {
+                    if (!line.isEmpty()) {
+                        MetricNode.fromThinString(line);
+                        nodes++;
+                    }
+                }
+                parseNanos += System.nanoTime() - formatted;
+                formatNanos += formatted - start;
+                bytes += content.length;
+            }
+        }
+        System.out.println(String.format("[pull] clients=%d, resources=%d, nodes/s=%d, bytes/s=%dKB, "
+                        + "client format=%.1fms/s, dashboard parse=%.1fms/s",
+                clients, resources, nodes / seconds, bytes / seconds / 1024,
+                formatNanos / 1e6 / seconds, parseNanos / 1e6 / seconds));
+    }
+
+    private static void simulatePush(int clients, int resources, int seconds) throws Exception {
+        AtomicLong receivedNodes = new AtomicLong();
+        MetricStreamServer server = new MetricStreamServer(PORT, 1, new MetricStreamListener() {
+            @Override
+            public void onMetrics(StreamMachine machine, long timestamp, List<MetricNode> nodes) {
+                receivedNodes.addAndGet(nodes.size());
+            }
+
+            @Override
+            public void onDisconnected(StreamMachine machine) {
+            }
+        });
+        server.start();
+
+        EventLoopGroup group = new NioEventLoopGroup(1);
+        List<MetricStreamClient> streamClients = new ArrayList<>(clients);
+        for (int i = 0; i < clients; i++) {
+            MetricStreamClient client = new MetricStreamClient("127.0.0.1", PORT, "app-" + (i % 20),
+                    "10.0." + (i / 250) + "." + (i % 250), 8719, new SyntheticMetricSource(resources, i), group);
+            streamClients.add(client);
+            client.start();
+        }
+        while (server.getConnections() < clients) {
+            Thread.sleep(100);
+        }
+        // 第一次推送会补发最近 60s 的数据，等每秒收到的数据回落到正常水平之后再开始统计
+        long expected = 0;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < clients; i++) {
+            expected += new SyntheticMetricSource(resources, i).nodesOf(now - now % 1000).size();
+        }
+        long waitUntil = System.currentTimeMillis() + 60 * 1000;
+        long last = receivedNodes.get();
+        while (System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(1000);
+            long current = receivedNodes.get();
+            if (current - last <= expected * 11 / 10) {
+                break;
+            }
+            last = current;
+        }
+
+        long nodesBefore = receivedNodes.get();
+        long bytesBefore = server.getReceivedBytes();
+        long decodeBefore = server.getDecodeNanos();
+        Thread.sleep(seconds * 1000L);
+        long nodes = receivedNodes.get() - nodesBefore;
+        long bytes = server.getReceivedBytes() - bytesBefore;
+        long decode = server.getDecodeNanos() - decodeBefore;
+        System.out.println(String.format("[push] clients=%d, resources=%d, connections=%d, nodes/s=%d, "
+                        + "bytes/s=%dKB, dashboard decode=%.1fms/s",
+                clients, resources, server.getConnections(), nodes / seconds, bytes / seconds / 1024,
+                decode / 1e6 / seconds));
+
+        for (MetricStreamClient client : streamClients) {
+            client.stop();
+        }
+        group.shutdownGracefully();
+        server.stop();
+    }
+
+}
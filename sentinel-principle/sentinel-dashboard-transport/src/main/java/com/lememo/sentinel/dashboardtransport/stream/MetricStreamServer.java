@@ -0,0 +1,140 @@
+package com.lememo.sentinel.dashboardtransport.stream;
+
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * dashboard 中接收推送数据的服务端
+ *
+ * 每个连接对应一台机器，连接的 IO 线程负责解码，解码的状态保存在连接自己的 handler 中，不需要加锁。
+ * @author houyi
+ * @date 2019-03-07
+ **/
+public class MetricStreamServer {
+
+    private final int port;
+    private final int ioThreads;
+    private final MetricStreamListener listener;
+
+    private final AtomicInteger connections = new AtomicInteger();
+    private final AtomicLong receivedBytes = new AtomicLong();
+    private final AtomicLong decodeNanos = new AtomicLong();
+
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private Channel serverChannel;
+
+    public MetricStreamServer(int port, int ioThreads, MetricStreamListener listener) {
+        this.port = port;
+        this.ioThreads = ioThreads;
+        this.listener = listener;
+    }
+
+    public void start() throws InterruptedException {
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup(ioThreads);
+        serverChannel = new ServerBootstrap()
+                .group(bossGroup, workerGroup)
+                .channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, 4096)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline()
+                                .addLast(new LengthFieldBasedFrameDecoder(MetricFrames.MAX_FRAME_LENGTH, 0,
+                                        MetricFrames.LENGTH_FIELD_LENGTH, 0, MetricFrames.LENGTH_FIELD_LENGTH))
+                                .addLast(new MachineHandler());
+                    }
+                })
+                .bind(port).sync().channel();
+        RecordLog.info("[MetricStreamServer] Metric stream server started on port " + port);
+    }
+
+    public void stop() {
+        if (serverChannel != null) {
+            serverChannel.close();
+        }
+        if (bossGroup != null) {
+            bossGroup.shutdownGracefully();
+        }
+        if (workerGroup != null) {
+            workerGroup.shutdownGracefully();
+        }
+    }
+
+    public int getConnections() {
+        return connections.get();
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes.get();
+    }
+
+    /**
+     * 解码以及回调 listener 花费的总时间
+     */
+    public long getDecodeNanos() {
+        return decodeNanos.get();
+    }
+
+    private final class MachineHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+        private final MetricDeltaDecoder decoder = new MetricDeltaDecoder();
+
+        private StreamMachine machine;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            connections.incrementAndGet();
+            super.channelActive(ctx);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            long start = System.nanoTime();
+            receivedBytes.addAndGet(frame.readableBytes() + MetricFrames.LENGTH_FIELD_LENGTH);
+            byte type = frame.readByte();
+            if (type == MetricFrames.HELLO) {
+                machine = new StreamMachine(VarInts.readString(frame), VarInts.readString(frame),
+                        (int) VarInts.readVarLong(frame));
+            } else if (type == MetricFrames.METRICS && machine != null) {
+                List<MetricNode> nodes = decoder.decode(frame);
+                listener.onMetrics(machine, decoder.lastTimestamp(), nodes);
+            }
+            decodeNanos.addAndGet(System.nanoTime() - start);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            connections.decrementAndGet();
+            if (machine != null) {
+                listener.onDisconnected(machine);
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            RecordLog.warn("[MetricStreamServer] Closing stream of " + machine, cause);
+            ctx.close();
+        }
+    }
+
+}
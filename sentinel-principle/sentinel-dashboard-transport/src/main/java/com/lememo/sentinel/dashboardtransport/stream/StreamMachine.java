@@ -0,0 +1,37 @@
+package com.lememo.sentinel.dashboardtransport.stream;
+
+/**
+ * 推送数据的机器，和 dashboard 中的 MachineInfo 一样用 app、ip、port 标识
+ * @author houyi
+ * @date 2019-03-07
+ **/
+public class StreamMachine {
+
+    private final String app;
+    private final String ip;
+    private final int port;
+
+    public StreamMachine(String app, String ip, int port) {
+        this.app = app;
+        this.ip = ip;
+        this.port = port;
+    }
+
+    public String getApp() {
+        return app;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public String toString() {
+        return app + "@" + ip + ":" + port;
+    }
+
+}
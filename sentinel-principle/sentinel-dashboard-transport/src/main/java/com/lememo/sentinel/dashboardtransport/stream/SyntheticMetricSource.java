@@ -0,0 +1,80 @@
+package com.lememo.sentinel.dashboardtransport.stream;
+
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * 压测用的统计数据，模拟一台机器上的一组资源
+ *
+ * 每一秒的数据由秒数和资源的下标决定，同一秒多次获取的结果相同：
+ * 五分之一的资源没有流量，其余的资源每 4 秒中有 3 秒的数据和上一秒相同
+ * @author houyi
+ * @date 2019-03-07
+ **/
+class SyntheticMetricSource implements MetricSource {
+
+    private static final long MAX_SECONDS = 60;
+
+    private final String[] resources;
+    private final int seed;
+
+    SyntheticMetricSource(int resourceCount, int seed) {
+        this.resources = new String[resourceCount];
+        for (int i = 0; i < resourceCount; i++) {
+            resources[i] = "com.lememo.service.UserService:getUser" + i + "(java.lang.Long)";
+        }
+        this.seed = seed;
+    }
+
+    @Override
+    public SortedMap<Long, List<MetricNode>> collect(long afterMs) {
+        long now = System.currentTimeMillis();
+        long currentSecond = now - now % 1000;
+        long from = Math.max(afterMs + 1000 - (afterMs % 1000), currentSecond - MAX_SECONDS * 1000);
+        SortedMap<Long, List<MetricNode>> seconds = new TreeMap<>();
+        for (long timestamp = from; timestamp < currentSecond; timestamp += 1000) {
+            seconds.put(timestamp, nodesOf(timestamp));
+        }
+        return seconds;
+    }
+
+    List<MetricNode> nodesOf(long timestamp) {
+        long second = timestamp / 1000;
+        List<MetricNode> nodes = new ArrayList<>(resources.length);
+        for (int i = 0; i < resources.length; i++) {
+            int h = mix(i * 31 + seed);
+            if (h % 5 == 0) {
+                continue;
+            }
+            // 每 4 秒变化一次，不同资源变化的时间错开
+            long epoch = (second + (h & 3)) / 4;
+            int v = mix((int) (epoch * 131 + h));
+            long pass = 50 + (v & 0xFF);
+            long block = (v >>> 8) % 4 == 0 ? (v >>> 10) & 0x1F : 0;
+            MetricNode node = new MetricNode();
+            node.setTimestamp(timestamp);
+            node.setResource(resources[i]);
+            node.setPassQps(pass);
+            node.setBlockQps(block);
+            node.setSuccessQps(pass);
+            node.setExceptionQps((v >>> 16) % 16 == 0 ? 1 : 0);
+            node.setRt(5 + ((v >>> 20) & 0x0F));
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    private static int mix(int x) {
+        x ^= x >>> 16;
+        x *= 0x7feb352d;
+        x ^= x >>> 15;
+        x *= 0x846ca68b;
+        x ^= x >>> 16;
+        return x & Integer.MAX_VALUE;
+    }
+
+}
@@ -0,0 +1,59 @@
+package com.lememo.sentinel.dashboardtransport.stream;
+
+import io.netty.buffer.ByteBuf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * varint 以及字符串的读写
+ * @author houyi
+ * @date 2019-03-07
+ **/
+final class VarInts {
+
+    private VarInts() {
+    }
+
+    static void writeVarLong(ByteBuf buf, long v) {
+        while ((v & ~0x7FL) != 0) {
+            buf.writeByte((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        buf.writeByte((int) v);
+    }
+
+    static long readVarLong(ByteBuf buf) {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    static void writeSignedVarLong(ByteBuf buf, long v) {
+        writeVarLong(buf, (v << 1) ^ (v >> 63));
+    }
+
+    static long readSignedVarLong(ByteBuf buf) {
+        long v = readVarLong(buf);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    static void writeString(ByteBuf buf, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(buf, bytes.length);
+        buf.writeBytes(bytes);
+    }
+
+    static String readString(ByteBuf buf) {
+        int length = (int) readVarLong(buf);
+        String s = buf.toString(buf.readerIndex(), length, StandardCharsets.UTF_8);
+        buf.skipBytes(length);
+        return s;
+    }
+
+}
@@ -0,0 +1,58 @@
+package com.lememo.sentinel.slidewindow;
+
+import com.alibaba.csp.sentinel.Constants;
+import com.alibaba.csp.sentinel.slots.statistic.MetricEvent;
+import com.alibaba.csp.sentinel.slots.statistic.base.WindowWrap;
+import com.alibaba.csp.sentinel.slots.statistic.data.MetricBucket;
+import com.alibaba.csp.sentinel.slots.statistic.metric.MetricsLeapArray;
+
+/**
+ * StripedArrayMetric 中的一个分片
+ *
+ * LeapArray.values() 每次都会创建一个新的 List，读取 passQps 等数据时要对每个分片都调用一次。
+ * 这里直接遍历底层的数组，汇总时不再创建对象。
+ * @author houyi
+ * @date 2019-02-25
+ **/
+class StripeLeapArray extends MetricsLeapArray {
+
+    StripeLeapArray(int sampleCount, int intervalInMs) {
+        super(sampleCount, intervalInMs);
+    }
+
+    /**
+     * 有效窗口中某一类计数的和
+     * @param now 当前时间，多个分片使用同一个时间汇总
+     */
+    long sum(MetricEvent event, long now) {
+        currentWindow(now);
+        long sum = 0;
+        for (int i = 0; i < array.length(); i++) {
+            WindowWrap<MetricBucket> window = array.get(i);
+            if (isValid(window, now)) {
+                sum += window.value().get(event);
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 有效窗口中最小的 rt，没有有效窗口时返回 Constants.TIME_DROP_VALVE
+     */
+    long minRt(long now) {
+        currentWindow(now);
+        long rt = Constants.TIME_DROP_VALVE;
+        for (int i = 0; i < array.length(); i++) {
+            WindowWrap<MetricBucket> window = array.get(i);
+            if (isValid(window, now) && window.value().minRt() < rt) {
+                rt = window.value().minRt();
+            }
+        }
+        return rt;
+    }
+
+    private boolean isValid(WindowWrap<MetricBucket> window, long now) {
+        return window != null && now - window.windowStart() <= intervalInMs;
+    }
+
+}
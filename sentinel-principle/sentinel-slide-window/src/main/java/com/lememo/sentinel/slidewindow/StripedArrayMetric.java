@@ -0,0 +1,277 @@
+package com.lememo.sentinel.slidewindow;
+
+import com.alibaba.csp.sentinel.Constants;
+import com.alibaba.csp.sentinel.node.metric.MetricNode;
+import com.alibaba.csp.sentinel.slots.statistic.MetricEvent;
+import com.alibaba.csp.sentinel.slots.statistic.base.WindowWrap;
+import com.alibaba.csp.sentinel.slots.statistic.data.MetricBucket;
+import com.alibaba.csp.sentinel.slots.statistic.metric.Metric;
+import com.alibaba.csp.sentinel.util.TimeUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 按线程分片的滑动窗口
+ *
+ * 原生的 ArrayMetric 只有一个 LeapArray，所有线程都在同一个 WindowWrap 上 CAS 重置 bucket、
+ * 在同一个 MetricBucket 上累加计数，资源很热的时候这些缓存行会在各个核之间来回失效。
+ *
+ * StripedArrayMetric 把一个窗口拆成多个分片，每个分片都是一个独立的 MetricsLeapArray，
+ * 线程根据自己的 id 固定写入其中一个分片，分片数默认为不小于 cpu 核数的 2 的幂。
+ * 写入时各个分片互不干扰，只有在读取（例如 FlowSlot 获取 passQps）时才把所有分片中
+ * 同一个时间窗口的数据合并起来。
+ * @author houyi
+ * @date 2019-02-25
+ **/
+public class StripedArrayMetric implements Metric {
+
+    private final StripeLeapArray[] stripes;
+
+    private final int mask;
+
+    private final int sampleCount;
+
+    private final int intervalInMs;
+
+    public StripedArrayMetric(int sampleCount, int intervalInMs) {
+        this(sampleCount, intervalInMs, defaultStripeCount());
+    }
+
+    public StripedArrayMetric(int sampleCount, int intervalInMs, int stripeCount) {
+        int size = tableSizeFor(stripeCount);
+        this.stripes = new StripeLeapArray[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new StripeLeapArray(sampleCount, intervalInMs);
+        }
+        this.mask = size - 1;
+        this.sampleCount = sampleCount;
+        this.intervalInMs = intervalInMs;
+    }
+
+    /**
+     * 默认的分片数：不小于 cpu 核数的 2 的幂
+     */
+    static int defaultStripeCount() {
+        return tableSizeFor(Runtime.getRuntime().availableProcessors());
+    }
+
+    private static int tableSizeFor(int n) {
+        int size = 1;
+        while (size < n) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * 当前线程写入的分片
+     * 同一个线程总是写入同一个分片，不同线程通过 id 打散到不同的分片上
+     */
+    private MetricBucket currentBucket() {
+        int h = (int) Thread.currentThread().getId() * 0x9E3779B9;
+        return stripes[(h ^ (h >>> 16)) & mask].currentWindow().value();
+    }
+
+    /**
+     * 把替换前的窗口中的计数写入第一个分片，只能在这个窗口被使用之前调用
+     * MetricNode 中的 rt 是平均值，乘回 success 得到的总 rt 有舍入误差，各个 bucket 的最小 rt 不会被带过来
+     * @param previous 被替换的窗口
+     */
+    void seed(Metric previous) {
+        long now = TimeUtil.currentTimeMillis();
+        for (MetricNode node : previous.details()) {
+            if (node.getTimestamp() > now || now - node.getTimestamp() >= intervalInMs) {
+                continue;
+            }
+            MetricBucket bucket = stripes[0].currentWindow(node.getTimestamp()).value();
+            bucket.add(MetricEvent.PASS, node.getPassQps());
+            bucket.add(MetricEvent.BLOCK, node.getBlockQps());
+            bucket.add(MetricEvent.EXCEPTION, node.getExceptionQps());
+            bucket.add(MetricEvent.SUCCESS, node.getSuccessQps());
+            bucket.add(MetricEvent.RT, node.getSuccessQps() != 0 ? node.getRt() * node.getSuccessQps() : node.getRt());
+        }
+    }
+
+    /**
+     * 合并所有分片中有效窗口的某一类计数
+     */
+    private long sum(MetricEvent event) {
+        long now = TimeUtil.currentTimeMillis();
+        long sum = 0;
+        for (StripeLeapArray stripe : stripes) {
+            sum += stripe.sum(event, now);
+        }
+        return sum;
+    }
+
+    /**
+     * 把所有分片中相同起始时间的窗口合并成一个 bucket
+     */
+    private Map<Long, MetricBucket> mergeWindows() {
+        Map<Long, MetricBucket> merged = new TreeMap<>();
+        for (StripeLeapArray stripe : stripes) {
+            stripe.currentWindow();
+            for (WindowWrap<MetricBucket> window : stripe.list()) {
+                if (window == null) {
+                    continue;
+                }
+                MetricBucket target = merged.get(window.windowStart());
+                if (target == null) {
+                    target = new MetricBucket();
+                    merged.put(window.windowStart(), target);
+                }
+                MetricBucket source = window.value();
+                for (MetricEvent event : MetricEvent.values()) {
+                    target.add(event, source.get(event));
+                }
+            }
+        }
+        return merged;
+    }
+
+    private long previousWindow(MetricEvent event) {
+        long sum = 0;
+        for (StripeLeapArray stripe : stripes) {
+            stripe.currentWindow();
+            WindowWrap<MetricBucket> previous = stripe.getPreviousWindow();
+            if (previous != null) {
+                sum += previous.value().get(event);
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public long success() {
+        return sum(MetricEvent.SUCCESS);
+    }
+
+    @Override
+    public long maxSuccess() {
+        long success = 0;
+        for (MetricBucket bucket : mergeWindows().values()) {
+            if (bucket.success() > success) {
+                success = bucket.success();
+            }
+        }
+        return Math.max(success, 1);
+    }
+
+    @Override
+    public long exception() {
+        return sum(MetricEvent.EXCEPTION);
+    }
+
+    @Override
+    public long block() {
+        return sum(MetricEvent.BLOCK);
+    }
+
+    @Override
+    public long pass() {
+        return sum(MetricEvent.PASS);
+    }
+
+    @Override
+    public long rt() {
+        return sum(MetricEvent.RT);
+    }
+
+    @Override
+    public long minRt() {
+        long now = TimeUtil.currentTimeMillis();
+        long rt = Constants.TIME_DROP_VALVE;
+        for (StripeLeapArray stripe : stripes) {
+            rt = Math.min(rt, stripe.minRt(now));
+        }
+        return Math.max(1, rt);
+    }
+
+    @Override
+    public List<MetricNode> details() {
+        List<MetricNode> details = new ArrayList<>();
+        for (Map.Entry<Long, MetricBucket> entry : mergeWindows().entrySet()) {
+            MetricBucket bucket = entry.getValue();
+            MetricNode node = new MetricNode();
+            node.setBlockQps(bucket.block());
+            node.setExceptionQps(bucket.exception());
+            node.setPassQps(bucket.pass());
+            long successQps = bucket.success();
+            node.setSuccessQps(successQps);
+            if (successQps != 0) {
+                node.setRt(bucket.rt() / successQps);
+            } else {
+                node.setRt(bucket.rt());
+            }
+            node.setTimestamp(entry.getKey());
+            details.add(node);
+        }
+        return details;
+    }
+
+    @Override
+    public MetricBucket[] windows() {
+        return mergeWindows().values().toArray(new MetricBucket[0]);
+    }
+
+    @Override
+    public void addException(int n) {
+        currentBucket().addException(n);
+    }
+
+    @Override
+    public void addBlock(int n) {
+        currentBucket().addBlock(n);
+    }
+
+    @Override
+    public void addSuccess(int n) {
+        currentBucket().addSuccess(n);
+    }
+
+    @Override
+    public void addPass(int n) {
+        currentBucket().addPass(n);
+    }
+
+    @Override
+    public void addRT(long rt) {
+        currentBucket().addRT(rt);
+    }
+
+    @Override
+    public double getWindowIntervalInSec() {
+        return intervalInMs / 1000.0;
+    }
+
+    @Override
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    @Override
+    public void debugQps() {
+        for (Map.Entry<Long, MetricBucket> entry : mergeWindows().entrySet()) {
+            System.out.println(entry.getKey() + ": pass=" + entry.getValue().pass()
+                    + ", block=" + entry.getValue().block());
+        }
+    }
+
+    @Override
+    public long previousWindowBlock() {
+        return previousWindow(MetricEvent.BLOCK);
+    }
+
+    @Override
+    public long previousWindowPass() {
+        return previousWindow(MetricEvent.PASS);
+    }
+
+}
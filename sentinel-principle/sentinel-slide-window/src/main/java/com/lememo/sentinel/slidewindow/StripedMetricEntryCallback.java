@@ -0,0 +1,36 @@
+package com.lememo.sentinel.slidewindow;
+
+import com.alibaba.csp.sentinel.context.Context;
+import com.alibaba.csp.sentinel.node.DefaultNode;
+import com.alibaba.csp.sentinel.slotchain.ProcessorSlotEntryCallback;
+import com.alibaba.csp.sentinel.slotchain.ResourceWrapper;
+import com.alibaba.csp.sentinel.slots.block.BlockException;
+
+/**
+ * StatisticSlot 的回调
+ * 资源的请求经过 StatisticSlot 时，为启用了分片的资源替换 DefaultNode 以及 ClusterNode 的窗口
+ * @author houyi
+ * @date 2019-02-25
+ **/
+public class StripedMetricEntryCallback implements ProcessorSlotEntryCallback<DefaultNode> {
+
+    @Override
+    public void onPass(Context context, ResourceWrapper resourceWrapper, DefaultNode node, int count, Object... args) {
+        install(resourceWrapper, node);
+    }
+
+    @Override
+    public void onBlocked(BlockException ex, Context context, ResourceWrapper resourceWrapper, DefaultNode node,
+                          int count, Object... args) {
+        install(resourceWrapper, node);
+    }
+
+    private void install(ResourceWrapper resourceWrapper, DefaultNode node) {
+        if (node == null || !StripedMetrics.isEnabled(resourceWrapper.getName())) {
+            return;
+        }
+        StripedMetrics.installIfAbsent(node);
+        StripedMetrics.installIfAbsent(node.getClusterNode());
+    }
+
+}
@@ -0,0 +1,27 @@
+package com.lememo.sentinel.slidewindow;
+
+import com.alibaba.csp.sentinel.config.SentinelConfig;
+import com.alibaba.csp.sentinel.init.InitFunc;
+import com.alibaba.csp.sentinel.util.StringUtil;
+
+/**
+ * 通过 SPI 在 Sentinel 初始化时读取启动参数 -Dcsp.sentinel.metric.striped.resources=resA,resB
+ * 为其中配置的资源启用分片窗口
+ * @author houyi
+ * @date 2019-02-25
+ **/
+public class StripedMetricInitFunc implements InitFunc {
+
+    @Override
+    public void init() throws Exception {
+        String resources = SentinelConfig.getConfig(StripedMetrics.STRIPED_RESOURCES);
+        if (StringUtil.isNotBlank(resources)) {
+            for (String resource : resources.split(",")) {
+                if (StringUtil.isNotBlank(resource)) {
+                    StripedMetrics.enable(resource.trim());
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.lememo.sentinel.slidewindow;
+
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.node.IntervalProperty;
+import com.alibaba.csp.sentinel.node.SampleCountProperty;
+import com.alibaba.csp.sentinel.node.StatisticNode;
+import com.alibaba.csp.sentinel.slots.statistic.StatisticSlotCallbackRegistry;
+import com.alibaba.csp.sentinel.slots.statistic.metric.Metric;
+
+import java.lang.reflect.Field;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 为指定的资源启用分片滑动窗口
+ *
+ * StatisticNode 没有提供替换 Metric 的入口，这里通过反射把 StatisticNode 中的
+ * rollingCounterInSecond 和 rollingCounterInMinute 替换成 StripedArrayMetric。
+ * 替换发生在资源第一次被访问时，替换前已经写入旧窗口的计数会被带到新窗口的第一个分片中，
+ * 替换期间仍在写旧窗口的少量计数会丢失。
+ * 是否已经替换过直接根据节点当前的窗口类型判断，这里不保存节点的引用，不会让已经不再使用的节点无法回收。
+ * @author houyi
+ * @date 2019-02-25
+ **/
+public final class StripedMetrics {
+
+    /**
+     * 启用分片滑动窗口的资源，多个资源以逗号分隔
+     */
+    public static final String STRIPED_RESOURCES = "csp.sentinel.metric.striped.resources";
+
+    /**
+     * 秒级窗口之外，还有一个 60 个 bucket、共 60 秒的分钟级窗口
+     */
+    private static final int MINUTE_SAMPLE_COUNT = 60;
+    private static final int MINUTE_INTERVAL_MS = 60 * 1000;
+
+    private static final Set<String> RESOURCES = ConcurrentHashMap.newKeySet();
+
+    private static final Field SECOND_COUNTER = statisticField("rollingCounterInSecond");
+    private static final Field MINUTE_COUNTER = statisticField("rollingCounterInMinute");
+
+    private StripedMetrics() {
+    }
+
+    private static Field statisticField(String name) {
+        try {
+            Field field = StatisticNode.class.getDeclaredField(name);
+            field.setAccessible(true);
+            return field;
+        } catch (NoSuchFieldException e) {
+            throw new IllegalStateException("Unsupported sentinel version, field not found: " + name, e);
+        }
+    }
+
+    private static final AtomicBoolean CALLBACK_REGISTERED = new AtomicBoolean(false);
+
+    /**
+     * 为资源启用分片窗口
+     * 第一次启用时才向 StatisticSlot 注册回调，没有启用任何资源时不会有额外的开销
+     * @param resource 资源名
+     */
+    public static void enable(String resource) {
+        RESOURCES.add(resource);
+        if (CALLBACK_REGISTERED.compareAndSet(false, true)) {
+            StatisticSlotCallbackRegistry.addEntryCallback(StripedMetricEntryCallback.class.getName(),
+                    new StripedMetricEntryCallback());
+        }
+    }
+
+    public static void disable(String resource) {
+        RESOURCES.remove(resource);
+    }
+
+    public static boolean isEnabled(String resource) {
+        return RESOURCES.contains(resource);
+    }
+
+    /**
+     * 如果 node 还在使用原生的窗口，则替换成分片窗口
+     * StatisticNode.reset() 会重新创建原生的窗口，所以每次都根据当前的 Metric 类型判断
+     * @param node 需要替换的节点
+     */
+    public static void installIfAbsent(StatisticNode node) {
+        if (node == null || isStriped(node)) {
+            return;
+        }
+        synchronized (node) {
+            if (isStriped(node)) {
+                return;
+            }
+            try {
+                MINUTE_COUNTER.set(node, stripedCopyOf((Metric) MINUTE_COUNTER.get(node),
+                        MINUTE_SAMPLE_COUNT, MINUTE_INTERVAL_MS));
+                SECOND_COUNTER.set(node, stripedCopyOf((Metric) SECOND_COUNTER.get(node),
+                        SampleCountProperty.SAMPLE_COUNT, IntervalProperty.INTERVAL));
+            } catch (IllegalAccessException e) {
+                RecordLog.warn("[StripedMetrics] Failed to install striped metric", e);
+            }
+        }
+    }
+
+    private static StripedArrayMetric stripedCopyOf(Metric previous, int sampleCount, int intervalInMs) {
+        StripedArrayMetric metric = new StripedArrayMetric(sampleCount, intervalInMs);
+        if (previous != null) {
+            metric.seed(previous);
+        }
+        return metric;
+    }
+
+    static boolean isStriped(StatisticNode node) {
+        try {
+            // 秒级窗口的配置变化后 ClusterBuilderSlot 会重置 ClusterNode 的窗口，这时会重新替换；
+            // DefaultNode 的窗口不会被重置，配置变化后继续使用原来的分片窗口
+            return SECOND_COUNTER.get(node) instanceof StripedArrayMetric;
+        } catch (IllegalAccessException e) {
+            return true;
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.lememo.sentinel.slotchain;
+
+import com.alibaba.csp.sentinel.slots.block.AbstractRule;
+import com.lememo.sentinel.persistence.DeltaRuleManager;
+
+import java.util.function.Consumer;
+
+/**
+ * DeltaRuleManager 相关的类都放在这里，没有引入 sentinel-persistence-rules 时不会加载这个类
+ * @author houyi
+ * @date 2019-03-12
+ **/
+final class DeltaRuleSupport {
+
+    static final boolean AVAILABLE = isAvailable();
+
+    private DeltaRuleSupport() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("com.lememo.sentinel.persistence.DeltaRuleManager", false,
+                    DeltaRuleSupport.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 规则增量更新之后，以规则的类型回调 callback
+     */
+    static void onDelta(Consumer<Class<? extends AbstractRule>> callback) {
+        DeltaRuleManager.addChangeListener((ruleType, resources) -> callback.accept(ruleType));
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.lememo.sentinel.slotchain;
+
+import com.alibaba.csp.sentinel.node.DefaultNode;
+import com.alibaba.csp.sentinel.slotchain.AbstractLinkedProcessorSlot;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowRuleManager;
+import com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowSlot;
+
+/**
+ * 热点参数限流相关的类都放在这里，没有引入 sentinel-parameter-flow-control 时不会加载这个类
+ * @author houyi
+ * @date 2019-03-12
+ **/
+final class ParamFlowSupport {
+
+    static final boolean AVAILABLE = isAvailable();
+
+    private ParamFlowSupport() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("com.alibaba.csp.sentinel.slots.block.flow.param.ParamFlowSlot", false,
+                    ParamFlowSupport.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    static RulePresence.RuleKind newRuleKind() {
+        return new RulePresence.RuleKind(ParamFlowRuleManager.class, ParamFlowRuleManager::getRules);
+    }
+
+    static AbstractLinkedProcessorSlot<DefaultNode> newSlot() {
+        return new ParamFlowSlot();
+    }
+
+}
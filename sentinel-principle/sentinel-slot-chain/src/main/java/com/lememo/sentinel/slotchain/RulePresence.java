@@ -0,0 +1,254 @@
+package com.lememo.sentinel.slotchain;
+
+import com.alibaba.csp.sentinel.concurrent.NamedThreadFactory;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.property.PropertyListener;
+import com.alibaba.csp.sentinel.property.SentinelProperty;
+import com.alibaba.csp.sentinel.slots.block.AbstractRule;
+import com.alibaba.csp.sentinel.slots.block.authority.AuthorityRuleManager;
+import com.alibaba.csp.sentinel.slots.block.degrade.DegradeRuleManager;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRule;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowRuleManager;
+import com.alibaba.csp.sentinel.slots.system.SystemRuleManager;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * 记录每种规则配置在哪些资源上
+ *
+ * 在每个 RuleManager 当前的 property 上注册一个监听器，规则变化时根据推送过来的规则重新计算资源集合，
+ * 并且把 generation 加一，SpecializedSlotChain 发现 generation 变化后重新生成调用链。
+ * 这里不读取 RuleManager 中的 map：同一个 property 上监听器的执行顺序是不确定的，
+ * 执行到这里时 RuleManager 可能还没有更新自己的 map。
+ *
+ * register2Property 会把 RuleManager 的监听器移到新的 property 上，后台线程每秒检查一次各个 RuleManager 当前的 property，
+ * 所以注册新的数据源之后，最多 1s 才会按新的规则重新生成调用链。
+ * 引入了 sentinel-persistence-rules 时，DeltaRuleManager 每次增量更新之后会通知这里重新读取对应的规则。
+ * 后台线程每秒还会从各个 RuleManager 中重新读取规则，配置了规则的资源有变化时把 generation 加一，
+ * 其他绕过 property 直接修改规则的代码最多 1s 之后也会生效，不需要调用 refresh。
+ * @author houyi
+ * @date 2019-03-12
+ **/
+public final class RulePresence {
+
+    private static final long CHECK_INTERVAL_MS = 1000;
+
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    private static final RuleKind FLOW = new RuleKind(FlowRuleManager.class, FlowRuleManager::getRules);
+    private static final RuleKind DEGRADE = new RuleKind(DegradeRuleManager.class, DegradeRuleManager::getRules);
+    private static final RuleKind AUTHORITY = new RuleKind(AuthorityRuleManager.class, AuthorityRuleManager::getRules);
+    private static final RuleKind SYSTEM = new RuleKind(SystemRuleManager.class, SystemRuleManager::getRules);
+    /**
+     * 没有引入 sentinel-parameter-flow-control 时为 null
+     */
+    private static final RuleKind PARAM_FLOW = ParamFlowSupport.AVAILABLE ? ParamFlowSupport.newRuleKind() : null;
+
+    private static final AtomicBoolean STARTED = new AtomicBoolean(false);
+
+    private RulePresence() {
+    }
+
+    /**
+     * 注册监听器并启动检查 property 的后台线程，只会执行一次
+     */
+    static void start() {
+        if (!STARTED.compareAndSet(false, true)) {
+            return;
+        }
+        watchProperties();
+        if (DeltaRuleSupport.AVAILABLE) {
+            DeltaRuleSupport.onDelta(RulePresence::reload);
+        }
+        refresh();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                new NamedThreadFactory("sentinel-slot-chain-rule-watcher", true));
+        scheduler.scheduleAtFixedRate(RulePresence::watch, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 从各个 RuleManager 中重新读取全部规则，之后所有的调用链都会重新生成
+     */
+    public static void refresh() {
+        FLOW.reload();
+        DEGRADE.reload();
+        AUTHORITY.reload();
+        SYSTEM.reload();
+        if (PARAM_FLOW != null) {
+            PARAM_FLOW.reload();
+        }
+    }
+
+    /**
+     * DeltaRuleManager 只会增量更新流控规则和热点参数规则
+     */
+    private static void reload(Class<? extends AbstractRule> ruleType) {
+        if (ruleType == FlowRule.class) {
+            FLOW.reload();
+        } else if (PARAM_FLOW != null) {
+            PARAM_FLOW.reload();
+        }
+    }
+
+    static long generation() {
+        return GENERATION.get();
+    }
+
+    static boolean hasFlowRules(String resource) {
+        return FLOW.contains(resource);
+    }
+
+    static boolean hasDegradeRules(String resource) {
+        return DEGRADE.contains(resource);
+    }
+
+    static boolean hasAuthorityRules(String resource) {
+        return AUTHORITY.contains(resource);
+    }
+
+    static boolean hasParamFlowRules(String resource) {
+        return PARAM_FLOW != null && PARAM_FLOW.contains(resource);
+    }
+
+    /**
+     * 系统规则对所有入口资源生效，和资源名无关
+     */
+    static boolean hasSystemRules() {
+        return SYSTEM.nonEmpty;
+    }
+
+    private static void watchProperties() {
+        FLOW.watch();
+        DEGRADE.watch();
+        AUTHORITY.watch();
+        SYSTEM.watch();
+        if (PARAM_FLOW != null) {
+            PARAM_FLOW.watch();
+        }
+    }
+
+    private static void watch() {
+        watchProperties();
+        FLOW.poll();
+        DEGRADE.poll();
+        AUTHORITY.poll();
+        SYSTEM.poll();
+        if (PARAM_FLOW != null) {
+            PARAM_FLOW.poll();
+        }
+    }
+
+    static final class RuleKind implements PropertyListener<List<? extends AbstractRule>> {
+
+        private final Class<?> managerClass;
+        private final Field propertyField;
+        private final Supplier<List<? extends AbstractRule>> currentRules;
+
+        private SentinelProperty<List<? extends AbstractRule>> watched;
+
+        private volatile Set<String> resources = Collections.emptySet();
+        private volatile boolean nonEmpty;
+
+        RuleKind(Class<?> managerClass, Supplier<List<? extends AbstractRule>> currentRules) {
+            this.managerClass = managerClass;
+            this.propertyField = propertyField(managerClass);
+            this.currentRules = currentRules;
+        }
+
+        private static Field propertyField(Class<?> managerClass) {
+            try {
+                Field field = managerClass.getDeclaredField("currentProperty");
+                field.setAccessible(true);
+                return field;
+            } catch (NoSuchFieldException e) {
+                throw new IllegalStateException("Unsupported sentinel version, field not found: "
+                        + managerClass.getSimpleName() + ".currentProperty", e);
+            }
+        }
+
+        boolean contains(String resource) {
+            return resources.contains(resource);
+        }
+
+        /**
+         * RuleManager 换了新的 property 时，把监听器移过去，addListener 会立刻用 property 当前的值回调一次
+         */
+        @SuppressWarnings("unchecked")
+        synchronized void watch() {
+            SentinelProperty<List<? extends AbstractRule>> current;
+            try {
+                current = (SentinelProperty<List<? extends AbstractRule>>) propertyField.get(null);
+            } catch (IllegalAccessException e) {
+                RecordLog.warn("[RulePresence] Failed to read property of " + managerClass.getSimpleName(), e);
+                return;
+            }
+            if (current == null || current == watched) {
+                return;
+            }
+            if (watched != null) {
+                watched.removeListener(this);
+            }
+            watched = current;
+            current.addListener(this);
+        }
+
+        void reload() {
+            update(currentRules.get());
+        }
+
+        /**
+         * 从 RuleManager 中重新读取规则，配置了规则的资源有变化时才更新，没有变化时不会重新生成调用链
+         */
+        synchronized void poll() {
+            List<? extends AbstractRule> rules = currentRules.get();
+            if (nonEmpty(rules) != nonEmpty || !resourcesOf(rules).equals(resources)) {
+                update(rules);
+            }
+        }
+
+        @Override
+        public void configUpdate(List<? extends AbstractRule> rules) {
+            update(rules);
+        }
+
+        @Override
+        public void configLoad(List<? extends AbstractRule> rules) {
+            update(rules);
+        }
+
+        private void update(List<? extends AbstractRule> rules) {
+            resources = resourcesOf(rules);
+            nonEmpty = nonEmpty(rules);
+            GENERATION.incrementAndGet();
+        }
+
+        private static Set<String> resourcesOf(List<? extends AbstractRule> rules) {
+            Set<String> names = new HashSet<>();
+            if (rules != null) {
+                for (AbstractRule rule : rules) {
+                    // 不校验规则是否合法，多算一个资源只是多经过一个 slot
+                    if (rule != null && rule.getResource() != null) {
+                        names.add(rule.getResource());
+                    }
+                }
+            }
+            return names;
+        }
+
+        private static boolean nonEmpty(List<? extends AbstractRule> rules) {
+            return rules != null && !rules.isEmpty();
+        }
+    }
+
+}
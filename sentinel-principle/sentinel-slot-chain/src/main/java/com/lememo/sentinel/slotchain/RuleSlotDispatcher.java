@@ -0,0 +1,126 @@
+package com.lememo.sentinel.slotchain;
+
+import com.alibaba.csp.sentinel.context.Context;
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.node.DefaultNode;
+import com.alibaba.csp.sentinel.slotchain.AbstractLinkedProcessorSlot;
+import com.alibaba.csp.sentinel.slotchain.ResourceWrapper;
+import com.alibaba.csp.sentinel.slots.block.BlockException;
+import com.alibaba.csp.sentinel.slots.block.authority.AuthoritySlot;
+import com.alibaba.csp.sentinel.slots.block.degrade.DegradeSlot;
+import com.alibaba.csp.sentinel.slots.block.flow.FlowSlot;
+import com.alibaba.csp.sentinel.slots.logger.EagleEyeLogUtil;
+import com.alibaba.csp.sentinel.slots.statistic.StatisticSlot;
+import com.alibaba.csp.sentinel.slots.system.SystemSlot;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 接在 ClusterBuilderSlot 后面，把请求交给按当前规则生成的 slot 链
+ *
+ * 同时承担了 LogSlot 的工作：记录被限流的请求，吞掉 slot 中的其他异常。
+ * 规则变化时重新创建后面的 slot 并且整体替换，正在执行的请求依然走完旧的链。
+ * 重新生成的 slot 都是无状态的，新旧两条链上的 exit 效果一样，所以 entry 和 exit 走的不是同一条链也没有关系。
+ * @author houyi
+ * @date 2019-03-12
+ **/
+class RuleSlotDispatcher extends AbstractLinkedProcessorSlot<DefaultNode> {
+
+    private volatile Plan plan;
+
+    @Override
+    public void entry(Context context, ResourceWrapper resourceWrapper, DefaultNode node, int count,
+                      boolean prioritized, Object... args) throws Throwable {
+        Plan current = plan;
+        long generation = RulePresence.generation();
+        if (current == null || current.generation != generation) {
+            current = replan(resourceWrapper.getName(), generation);
+        }
+        try {
+            current.head.entry(context, resourceWrapper, node, count, prioritized, args);
+        } catch (BlockException e) {
+            EagleEyeLogUtil.log(resourceWrapper.getName(), e.getClass().getSimpleName(), e.getRuleLimitApp(),
+                    context.getOrigin(), count);
+            throw e;
+        } catch (Throwable e) {
+            RecordLog.info("Entry exception", e);
+        }
+    }
+
+    @Override
+    public void exit(Context context, ResourceWrapper resourceWrapper, int count, Object... args) {
+        Plan current = plan;
+        if (current == null) {
+            return;
+        }
+        try {
+            current.head.exit(context, resourceWrapper, count, args);
+        } catch (Throwable e) {
+            RecordLog.info("Entry exit exception", e);
+        }
+    }
+
+    /**
+     * 先读取 generation 再读取规则，读取过程中规则又变了的话，generation 也变了，下一次请求会再重新生成
+     */
+    private Plan replan(String resource, long generation) {
+        // 顺序和 HotParamSlotChainBuilder 一致
+        List<AbstractLinkedProcessorSlot<DefaultNode>> slots = new ArrayList<>();
+        slots.add(new StatisticSlot());
+        if (RulePresence.hasParamFlowRules(resource)) {
+            slots.add(ParamFlowSupport.newSlot());
+        }
+        // SystemSlot 自己会跳过非入口的资源，同一个资源名的 IN 和 OUT 共用一条链，这里不按 EntryType 区分
+        if (RulePresence.hasSystemRules()) {
+            slots.add(new SystemSlot());
+        }
+        if (RulePresence.hasAuthorityRules(resource)) {
+            slots.add(new AuthoritySlot());
+        }
+        if (RulePresence.hasFlowRules(resource)) {
+            slots.add(new FlowSlot());
+        }
+        if (RulePresence.hasDegradeRules(resource)) {
+            slots.add(new DegradeSlot());
+        }
+        for (int i = 1; i < slots.size(); i++) {
+            slots.get(i - 1).setNext(slots.get(i));
+        }
+        Plan newPlan = new Plan(slots, generation);
+        plan = newPlan;
+        return newPlan;
+    }
+
+    @Override
+    public String toString() {
+        Plan current = plan;
+        return current == null ? "(not built yet)" : current.toString();
+    }
+
+    private static final class Plan {
+
+        private final AbstractLinkedProcessorSlot<DefaultNode> head;
+        private final long generation;
+        private final String description;
+
+        Plan(List<AbstractLinkedProcessorSlot<DefaultNode>> slots, long generation) {
+            this.head = slots.get(0);
+            this.generation = generation;
+            StringBuilder builder = new StringBuilder();
+            for (AbstractLinkedProcessorSlot<DefaultNode> slot : slots) {
+                if (builder.length() > 0) {
+                    builder.append(" -> ");
+                }
+                builder.append(slot.getClass().getSimpleName());
+            }
+            this.description = builder.toString();
+        }
+
+        @Override
+        public String toString() {
+            return description;
+        }
+    }
+
+}
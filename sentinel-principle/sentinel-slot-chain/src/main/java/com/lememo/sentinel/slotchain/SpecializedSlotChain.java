@@ -0,0 +1,59 @@
+package com.lememo.sentinel.slotchain;
+
+import com.alibaba.csp.sentinel.context.Context;
+import com.alibaba.csp.sentinel.slotchain.AbstractLinkedProcessorSlot;
+import com.alibaba.csp.sentinel.slotchain.ProcessorSlotChain;
+import com.alibaba.csp.sentinel.slotchain.ResourceWrapper;
+import com.alibaba.csp.sentinel.slots.clusterbuilder.ClusterBuilderSlot;
+import com.alibaba.csp.sentinel.slots.nodeselector.NodeSelectorSlot;
+
+/**
+ * 只包含资源上实际配置了的规则对应的 slot 的调用链
+ *
+ * NodeSelectorSlot 和 ClusterBuilderSlot 保存着这个资源的 DefaultNode 和 ClusterNode，一直保留；
+ * 后面的部分交给 RuleSlotDispatcher，例如 userResource 只有一条 FlowRule 时，实际经过的是：
+ * NodeSelectorSlot -> ClusterBuilderSlot -> StatisticSlot -> FlowSlot
+ * @author houyi
+ * @date 2019-03-12
+ **/
+public class SpecializedSlotChain extends ProcessorSlotChain {
+
+    private final NodeSelectorSlot nodeSelectorSlot = new NodeSelectorSlot();
+    private final RuleSlotDispatcher dispatcher = new RuleSlotDispatcher();
+
+    SpecializedSlotChain() {
+        ClusterBuilderSlot clusterBuilderSlot = new ClusterBuilderSlot();
+        nodeSelectorSlot.setNext(clusterBuilderSlot);
+        clusterBuilderSlot.setNext(dispatcher);
+    }
+
+    @Override
+    public void entry(Context context, ResourceWrapper resourceWrapper, Object t, int count, boolean prioritized,
+                      Object... args) throws Throwable {
+        nodeSelectorSlot.entry(context, resourceWrapper, t, count, prioritized, args);
+    }
+
+    @Override
+    public void exit(Context context, ResourceWrapper resourceWrapper, int count, Object... args) {
+        nodeSelectorSlot.exit(context, resourceWrapper, count, args);
+    }
+
+    /**
+     * slot 由规则决定，不支持手动添加
+     */
+    @Override
+    public void addFirst(AbstractLinkedProcessorSlot<?> protocolProcessor) {
+        throw new UnsupportedOperationException("Slots of SpecializedSlotChain are decided by rules");
+    }
+
+    @Override
+    public void addLast(AbstractLinkedProcessorSlot<?> protocolProcessor) {
+        throw new UnsupportedOperationException("Slots of SpecializedSlotChain are decided by rules");
+    }
+
+    @Override
+    public String toString() {
+        return "NodeSelectorSlot -> ClusterBuilderSlot -> " + dispatcher;
+    }
+
+}
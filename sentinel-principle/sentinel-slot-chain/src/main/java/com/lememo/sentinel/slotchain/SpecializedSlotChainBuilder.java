@@ -0,0 +1,42 @@
+package com.lememo.sentinel.slotchain;
+
+import com.alibaba.csp.sentinel.log.RecordLog;
+import com.alibaba.csp.sentinel.slotchain.ProcessorSlotChain;
+import com.alibaba.csp.sentinel.slotchain.SlotChainBuilder;
+import com.alibaba.csp.sentinel.slotchain.SlotChainProvider;
+
+import java.lang.reflect.Field;
+
+/**
+ * 为每个资源创建 SpecializedSlotChain
+ *
+ * SlotChainProvider 只会使用 SPI 中找到的第一个非默认的 SlotChainBuilder，
+ * 引入了 sentinel-parameter-flow-control 时已经有一个 HotParamSlotChainBuilder，两个都通过 SPI 注册时用哪个是不确定的，
+ * 所以这里不通过 SPI 注册，而是由 install 通过反射替换 SlotChainProvider 中的 builder。
+ *
+ * 调用链在资源第一次被访问时创建并且一直缓存在 CtSph 中，所以要在第一次调用 SphU.entry 之前 install，
+ * 已经创建好的调用链不会被替换。
+ * @author houyi
+ * @date 2019-03-12
+ **/
+public class SpecializedSlotChainBuilder implements SlotChainBuilder {
+
+    public static synchronized void install() {
+        try {
+            Field builder = SlotChainProvider.class.getDeclaredField("builder");
+            builder.setAccessible(true);
+            builder.set(null, new SpecializedSlotChainBuilder());
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            throw new IllegalStateException("Unsupported sentinel version, failed to replace slot chain builder", e);
+        }
+        RulePresence.start();
+        RecordLog.info("[SpecializedSlotChainBuilder] Slot chain builder installed");
+    }
+
+    @Override
+    public ProcessorSlotChain build() {
+        RulePresence.start();
+        return new SpecializedSlotChain();
+    }
+
+}